@@ -0,0 +1,279 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+
+/**
+ * An accumulator of the count, minimum, maximum, mean and variance of a series of values.
+ * <p>
+ * The mean and variance are kept with Welford's algorithm (a running mean, and M2, the sum of squared differences from the mean), which stays
+ * accurate over long runs where a sum of squares would not. Aggregates can be merged in constant time using Chan's parallel algorithm, so an
+ * aggregate of a long period, or of several meters, can be made from smaller aggregates without going back to the values. This is the logic
+ * behind both {@link Data.Value.Statistics} and the rollups of {@link com.dariancabot.protek608.store.Rollups}.
+ * <p>
+ * An aggregate is {@value #BYTES} bytes when written with {@link #write(DataOutput)}.
+ *
+ * @author Darian Cabot
+ */
+public final class Aggregate
+{
+    /**
+     * The number of bytes written by {@link #write(DataOutput)}.
+     */
+    public static final int BYTES = 40;
+
+    private long count;
+    private double minimum = Double.NaN;
+    private double maximum = Double.NaN;
+    private double mean;
+    private double m2;
+
+    //-----------------------------------------------------------------------
+    /**
+     * Adds a value.
+     *
+     * @param value the value.
+     */
+    public void add(double value)
+    {
+        if (count == 0)
+        {
+            minimum = value;
+            maximum = value;
+        }
+        else
+        {
+            minimum = Math.min(minimum, value);
+            maximum = Math.max(maximum, value);
+        }
+
+        count ++;
+
+        double delta = value - mean;
+        mean += delta / count;
+        m2 += delta * (value - mean);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Merges another aggregate into this one, as if its values had been added.
+     *
+     * @param other the aggregate to merge.
+     */
+    public void add(Aggregate other)
+    {
+        add(other.count, other.minimum, other.maximum, other.mean, other.m2);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Merges a stored aggregate into this one, as if its values had been added.
+     *
+     * @param count   the number of values, nothing is merged if 0.
+     * @param minimum the minimum value.
+     * @param maximum the maximum value.
+     * @param mean    the mean of the values.
+     * @param m2      the sum of squared differences from the mean, see {@link #getSquaredDeviations()}.
+     */
+    public void add(long count, double minimum, double maximum, double mean, double m2)
+    {
+        if (count == 0)
+        {
+            return;
+        }
+
+        if (this.count == 0)
+        {
+            this.count = count;
+            this.minimum = minimum;
+            this.maximum = maximum;
+            this.mean = mean;
+            this.m2 = m2;
+            return;
+        }
+
+        long total = this.count + count;
+        double delta = mean - this.mean;
+
+        this.minimum = Math.min(this.minimum, minimum);
+        this.maximum = Math.max(this.maximum, maximum);
+        this.mean += delta * ((double) count / total);
+        this.m2 += m2 + (delta * delta * ((double) this.count * count / total));
+        this.count = total;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Clears all values.
+     */
+    public void reset()
+    {
+        count = 0;
+        minimum = Double.NaN;
+        maximum = Double.NaN;
+        mean = 0;
+        m2 = 0;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Writes the aggregate, as {@value #BYTES} bytes.
+     *
+     * @param output the output to write to.
+     *
+     * @throws IOException if writing fails.
+     */
+    public void write(DataOutput output) throws IOException
+    {
+        output.writeLong(count);
+        output.writeDouble(minimum);
+        output.writeDouble(maximum);
+        output.writeDouble(mean);
+        output.writeDouble(m2);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Reads an aggregate written by {@link #write(DataOutput)}, replacing the values of this one.
+     *
+     * @param input the input to read from.
+     *
+     * @throws IOException if reading fails.
+     */
+    public void read(DataInput input) throws IOException
+    {
+        long storedCount = input.readLong();
+
+        if (storedCount < 0)
+        {
+            throw new IOException("Invalid aggregate count " + storedCount + ".");
+        }
+
+        count = storedCount;
+        minimum = input.readDouble();
+        maximum = input.readDouble();
+        mean = input.readDouble();
+        m2 = input.readDouble();
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the number of values.
+     *
+     * @return the number of values.
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the minimum value.
+     *
+     * @return the minimum value, or NaN if there are no values.
+     */
+    public double getMinimum()
+    {
+        return minimum;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the maximum value.
+     *
+     * @return the maximum value, or NaN if there are no values.
+     */
+    public double getMaximum()
+    {
+        return maximum;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the sum of the values.
+     *
+     * @return the sum, or 0 if there are no values.
+     */
+    public double getSum()
+    {
+        return mean * count;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the mean of the values.
+     *
+     * @return the mean, or NaN if there are no values.
+     */
+    public double getMean()
+    {
+        return (count > 0) ? mean : Double.NaN;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the sum of squared differences from the mean (M2 in Welford's algorithm), for storing and merging.
+     *
+     * @return the sum of squared differences, or 0 if there are no values.
+     */
+    public double getSquaredDeviations()
+    {
+        return m2;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the population variance of the values.
+     *
+     * @return the variance, or NaN if there are no values.
+     */
+    public double getVariance()
+    {
+        return (count > 0) ? (m2 / count) : Double.NaN;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the population standard deviation of the values.
+     *
+     * @return the standard deviation, or NaN if there are no values.
+     */
+    public double getStandardDeviation()
+    {
+        return Math.sqrt(getVariance());
+    }
+
+    //-----------------------------------------------------------------------
+    @Override
+    public String toString()
+    {
+        return "count=" + count + ", min=" + minimum + ", max=" + maximum + ", mean=" + getMean() + ", sd=" + getStandardDeviation();
+    }
+
+}
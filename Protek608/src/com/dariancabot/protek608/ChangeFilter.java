@@ -0,0 +1,251 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608;
+
+
+/**
+ * A ReadingFilter that only accepts Readings that have changed in a way that matters.
+ * <p>
+ * A Reading is accepted if any of the configured triggers fire:
+ * <ul>
+ * <li>Deadband - the value (in SI units) has moved more than an absolute amount, or a percentage, from the last accepted value.
+ * <li>Hysteresis - the value has risen to or above a high threshold, or fallen to or below a low threshold, since last crossing the other.
+ * <li>Unit change - the unit (type, prefix, or measurement) of either value has changed.
+ * <li>Annunciator edge - an annunciator has been set (rising) or cleared (falling), i.e. {@link Reading.Annunciator#LOW_BATTERY}.
+ * </ul>
+ * A value changing between numerical and non-numerical (i.e. words on LCD like "Shrt", "OPEn") is treated as exceeding any deadband. The first
+ * Reading is always accepted. With nothing configured, every Reading is accepted.
+ * <p>
+ * Each ChangeFilter keeps state, so must only be used for one listener.
+ *
+ * @author Darian Cabot
+ */
+public final class ChangeFilter implements ReadingFilter
+{
+    private static final int STATE_UNKNOWN = 0;
+    private static final int STATE_LOW = 1;
+    private static final int STATE_HIGH = 2;
+
+    // Per channel settings and state, indexed by Reading.Channel ordinal.
+    private final double[] deadbandAbsolute = new double[2];
+    private final double[] deadbandPercent = new double[2];
+    private final boolean[] isHysteresis = new boolean[2];
+    private final double[] hysteresisLow = new double[2];
+    private final double[] hysteresisHigh = new double[2];
+    private final int[] hysteresisState = new int[2];
+    private final double[] lastAccepted = new double[2];
+
+    private boolean isUnitChange;
+    private int risingEdges;
+    private int fallingEdges;
+
+    private boolean isFirst = true;
+    private int lastAnnunciators;
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets the deadband of a value. The Reading is accepted once the value moves more than either amount from the last accepted value.
+     *
+     * @param channel  the value to check.
+     * @param absolute the absolute change in SI units (i.e. 0.01 for 10 mV), or 0 to disable.
+     * @param percent  the change as a percentage of the last accepted value, or 0 to disable.
+     */
+    public void setDeadband(Reading.Channel channel, double absolute, double percent)
+    {
+        deadbandAbsolute[channel.ordinal()] = absolute;
+        deadbandPercent[channel.ordinal()] = percent;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets hysteresis thresholds on a value. The Reading is accepted when the value reaches the high threshold after being at or below the low
+     * threshold, and the other way around. Movement between the thresholds is ignored.
+     *
+     * @param channel the value to check.
+     * @param low     the low threshold in SI units.
+     * @param high    the high threshold in SI units, must not be less than low.
+     */
+    public void setHysteresis(Reading.Channel channel, double low, double high)
+    {
+        if (high < low)
+        {
+            throw new IllegalArgumentException("Hysteresis high threshold " + high + " is less than low threshold " + low + ".");
+        }
+
+        isHysteresis[channel.ordinal()] = true;
+        hysteresisLow[channel.ordinal()] = low;
+        hysteresisHigh[channel.ordinal()] = high;
+        hysteresisState[channel.ordinal()] = STATE_UNKNOWN;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Removes the hysteresis thresholds from a value.
+     *
+     * @param channel the value.
+     */
+    public void clearHysteresis(Reading.Channel channel)
+    {
+        isHysteresis[channel.ordinal()] = false;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets whether a change of unit (or measurement mode) on either value is accepted.
+     *
+     * @param isUnitChange true to accept unit changes.
+     */
+    public void setUnitChange(boolean isUnitChange)
+    {
+        this.isUnitChange = isUnitChange;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets which annunciator edges are accepted.
+     *
+     * @param rising  the {@link Reading.Annunciator} masks to accept when set.
+     * @param falling the {@link Reading.Annunciator} masks to accept when cleared.
+     */
+    public void setAnnunciatorEdges(int rising, int falling)
+    {
+        this.risingEdges = rising;
+        this.fallingEdges = falling;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Forgets the last accepted Reading, so the next Reading is accepted.
+     */
+    public void reset()
+    {
+        isFirst = true;
+    }
+
+    //-----------------------------------------------------------------------
+    @Override
+    public boolean accept(Reading reading, int changes)
+    {
+        boolean isAccepted = isFirst || ! isConfigured();
+
+        // Hysteresis state is tracked on every Reading, so must always be checked.
+        isAccepted |= checkHysteresis(reading, Reading.Channel.MAIN);
+        isAccepted |= checkHysteresis(reading, Reading.Channel.SUB);
+
+        isAccepted |= checkDeadband(reading, Reading.Channel.MAIN);
+        isAccepted |= checkDeadband(reading, Reading.Channel.SUB);
+
+        if (isUnitChange && ((changes & (Reading.Change.MAIN_UNIT | Reading.Change.SUB_UNIT)) != 0))
+        {
+            isAccepted = true;
+        }
+
+        int annunciators = reading.getAnnunciators();
+
+        if ( ! isFirst)
+        {
+            int rising = annunciators & ~ lastAnnunciators;
+            int falling = lastAnnunciators & ~ annunciators;
+
+            if (((rising & risingEdges) != 0) || ((falling & fallingEdges) != 0))
+            {
+                isAccepted = true;
+            }
+        }
+
+        lastAnnunciators = annunciators;
+        isFirst = false;
+
+        if (isAccepted)
+        {
+            lastAccepted[0] = reading.getMainValue().getSiValue();
+            lastAccepted[1] = reading.getSubValue().getSiValue();
+        }
+
+        return isAccepted;
+    }
+
+    //-----------------------------------------------------------------------
+    private boolean isConfigured()
+    {
+        return (deadbandAbsolute[0] > 0) || (deadbandPercent[0] > 0) || (deadbandAbsolute[1] > 0) || (deadbandPercent[1] > 0)
+                || isHysteresis[0] || isHysteresis[1] || isUnitChange || (risingEdges != 0) || (fallingEdges != 0);
+    }
+
+    //-----------------------------------------------------------------------
+    private boolean checkDeadband(Reading reading, Reading.Channel channel)
+    {
+        int index = channel.ordinal();
+        double absolute = deadbandAbsolute[index];
+        double percent = deadbandPercent[index];
+
+        if (isFirst || ((absolute <= 0) && (percent <= 0)))
+        {
+            return false;
+        }
+
+        double value = reading.getValue(channel).getSiValue();
+        double last = lastAccepted[index];
+
+        // Changing between numerical and non-numerical always counts.
+        if (Double.isNaN(value) || Double.isNaN(last))
+        {
+            return Double.isNaN(value) != Double.isNaN(last);
+        }
+
+        double change = Math.abs(value - last);
+
+        return ((absolute > 0) && (change > absolute)) || ((percent > 0) && (change > (Math.abs(last) * percent / 100)));
+    }
+
+    //-----------------------------------------------------------------------
+    private boolean checkHysteresis(Reading reading, Reading.Channel channel)
+    {
+        int index = channel.ordinal();
+
+        if ( ! isHysteresis[index])
+        {
+            return false;
+        }
+
+        double value = reading.getValue(channel).getSiValue();
+        int state = hysteresisState[index];
+
+        if (value >= hysteresisHigh[index])
+        {
+            state = STATE_HIGH;
+        }
+        else if (value <= hysteresisLow[index])
+        {
+            state = STATE_LOW;
+        }
+
+        // NaN matches neither threshold, so the state is held.
+        boolean isCrossed = (hysteresisState[index] != STATE_UNKNOWN) && (state != hysteresisState[index]);
+        hysteresisState[index] = state;
+
+        return isCrossed;
+    }
+
+}
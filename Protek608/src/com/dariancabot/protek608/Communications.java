@@ -112,35 +112,9 @@ public final class Communications implements SerialPortEventListener
                 {
                     byte[] rxBuffer = serialPort.readBytes();
 
-                    for (int byteCount = 0; byteCount < rxBuffer.length; byteCount ++)
+                    if (rxBuffer != null)
                     {
-                        packetBuffer[packetBufferPosition] = rxBuffer[byteCount];
-
-                        // Buffer overflow protection.
-                        if (packetBufferPosition >= PACKET_LENGTH)
-                        {
-                            // Reset for next packet
-                            packetBufferActive = false;
-                            packetBufferPosition = 0;
-                        }
-                        else if (packetBufferActive)
-                        {
-                            packetBufferPosition ++;
-
-                            if ((packetBufferPosition == PACKET_LENGTH) && (packetBuffer[packetBufferPosition] == PACKET_END_BYTE))
-                            {
-                                // We have a full valid packet, decode it.
-                                decoder.decodeSerialData(packetBuffer);
-
-                                // Print valid packet in hex (debugging).
-                                //System.out.println(bytesToHex(packetBuffer));
-                            }
-                        }
-                        else if (packetBuffer[0] == PACKET_START_BYTE)
-                        {
-                            packetBufferActive = true;
-                            packetBufferPosition = 1;
-                        }
+                        receiveBytes(rxBuffer, System.currentTimeMillis());
                     }
                 }
                 catch (SerialPortException | ProtocolException e)
@@ -168,6 +142,56 @@ public final class Communications implements SerialPortEventListener
         }
     }
 
+    //-----------------------------------------------------------------------
+    /**
+     * Frames received bytes into packets, decoding each complete packet. Bytes from the SerialPort are passed here, and bytes from other
+     * sources (i.e. a capture file replay) can be passed here to go through exactly the same path.
+     *
+     * @param rxBuffer  the received bytes.
+     * @param timestamp the time the bytes were received in milliseconds, given to the Decoder.
+     *
+     * @throws ProtocolException if a packet is unable to be decoded.
+     */
+    public void receiveBytes(byte[] rxBuffer, long timestamp) throws ProtocolException
+    {
+        for (int byteCount = 0; byteCount < rxBuffer.length; byteCount ++)
+        {
+            byte rxByte = rxBuffer[byteCount];
+
+            if (rxByte == PACKET_START_BYTE)
+            {
+                // Start of a packet, also resynchronises after a corrupt or partial packet.
+                packetBuffer[0] = rxByte;
+                packetBufferActive = true;
+                packetBufferPosition = 1;
+            }
+            else if (packetBufferActive)
+            {
+                packetBuffer[packetBufferPosition] = rxByte;
+
+                if (packetBufferPosition == PACKET_LENGTH)
+                {
+                    // Reset for next packet.
+                    packetBufferActive = false;
+                    packetBufferPosition = 0;
+
+                    if (rxByte == PACKET_END_BYTE)
+                    {
+                        // We have a full valid packet, decode it.
+                        decoder.decodeSerialData(packetBuffer, timestamp);
+
+                        // Print valid packet in hex (debugging).
+                        //System.out.println(bytesToHex(packetBuffer));
+                    }
+                }
+                else
+                {
+                    packetBufferPosition ++;
+                }
+            }
+        }
+    }
+
     //-----------------------------------------------------------------------
     /**
      * Gets the status of the RS-232 CTS (Clear To Send) control line.
@@ -0,0 +1,180 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * A ReadingListener adapter that only ever delivers the latest Reading to a slow consumer.
+ * <p>
+ * The decoder thread atomically swaps each new Reading in, replacing any that hasn't been picked up yet, so there is never a backlog and the
+ * decoder never blocks. Readings can be delivered to a ReadingListener using an Executor (i.e. {@code SwingUtilities::invokeLater} or
+ * {@code Platform::runLater} wrapped as an Executor), which is scheduled at most once at a time, or pulled by the consumer with {@link #poll()}
+ * (i.e. from a UI timer or a REST handler).
+ * <p>
+ * Example usage:
+ * <pre>
+ * protek608.addReadingListener(new ConflatingReadingListener(myListener, new Executor()
+ * {
+ *     public void execute(Runnable command)
+ *     {
+ *         SwingUtilities.invokeLater(command);
+ *     }
+ * }));
+ * </pre>
+ *
+ * @author Darian Cabot
+ */
+public final class ConflatingReadingListener implements ReadingListener
+{
+    private final ReadingListener delegate;
+    private final Executor executor;
+    private final AtomicReference<Reading> latest = new AtomicReference<>();
+    private final AtomicBoolean isScheduled = new AtomicBoolean();
+    private final AtomicLong conflated = new AtomicLong();
+
+    private Reading previous; // Last Reading delivered, used on the Executor only.
+
+    private final Runnable drain = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            try
+            {
+                Reading reading;
+
+                while ((reading = latest.getAndSet(null)) != null)
+                {
+                    int changes = reading.getChanges(previous);
+                    previous = reading;
+                    delegate.readingEvent(reading, changes);
+                }
+            }
+            finally
+            {
+                isScheduled.set(false);
+            }
+
+            // Catch anything swapped in after the last check, but before the flag was cleared.
+            if (latest.get() != null)
+            {
+                schedule();
+            }
+        }
+
+    };
+
+    //-----------------------------------------------------------------------
+    /**
+     * Creates a new ConflatingReadingListener that holds the latest Reading until {@link #poll()} is called.
+     */
+    public ConflatingReadingListener()
+    {
+        this.delegate = null;
+        this.executor = null;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Creates a new ConflatingReadingListener that delivers the latest Reading to a ReadingListener using an Executor.
+     * <p>
+     * The {@code changes} given to the delegate are since the previous Reading it was given, so include anything that changed in conflated
+     * Readings.
+     *
+     * @param delegate the ReadingListener to deliver to.
+     * @param executor the Executor used to call the delegate.
+     */
+    public ConflatingReadingListener(ReadingListener delegate, Executor executor)
+    {
+        if ((delegate == null) || (executor == null))
+        {
+            throw new IllegalArgumentException("ReadingListener and Executor must not be null.");
+        }
+
+        this.delegate = delegate;
+        this.executor = executor;
+    }
+
+    //-----------------------------------------------------------------------
+    @Override
+    public void readingEvent(Reading reading, int changes)
+    {
+        if (latest.getAndSet(reading) != null)
+        {
+            conflated.incrementAndGet();
+        }
+
+        if (executor != null)
+        {
+            schedule();
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Takes the latest Reading, if there is a new one since the last call.
+     * <p>
+     * This shouldn't be used when delivering to a ReadingListener, as the two will compete for Readings.
+     *
+     * @return the latest Reading, or null if none has been received since the last call.
+     */
+    public Reading poll()
+    {
+        return latest.getAndSet(null);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the number of Readings that were replaced before being delivered or polled.
+     *
+     * @return the number of conflated Readings.
+     */
+    public long getConflated()
+    {
+        return conflated.get();
+    }
+
+    //-----------------------------------------------------------------------
+    private void schedule()
+    {
+        if (isScheduled.compareAndSet(false, true))
+        {
+            try
+            {
+                executor.execute(drain);
+            }
+            catch (RejectedExecutionException e)
+            {
+                isScheduled.set(false);
+            }
+        }
+    }
+
+}
@@ -23,12 +23,37 @@
  */
 package com.dariancabot.protek608;
 
-import java.util.ArrayList;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 
 /**
  * Data Object.
+ * <p>
+ * The public fields are updated one at a time by the {@link Decoder} as each packet is decoded. To read data from another thread (i.e. a UI
+ * thread) use {@link #getReading()}, which returns a consistent snapshot of the most recent packet without blocking the decoder.
  *
  * @author Darian Cabot
  */
@@ -54,6 +79,8 @@ public final class Data
      */
     public Integer barGraph = null;
 
+    private int barGraphValue = -1;
+
     /**
      * The packet data direct from the communications buffer.
      */
@@ -64,6 +91,8 @@ public final class Data
      */
     public byte[] packetTidy = null;
 
+    private volatile Reading reading;
+
 
     /**
      * Value representation of the DMM.
@@ -75,6 +104,9 @@ public final class Data
 
         private String value;
         private String valueVerbatim;
+        private double numericValue = Double.NaN;
+        private double siValue = Double.NaN;
+        private volatile Decimator decimator;
 
         /**
          * The measurement unit.
@@ -86,6 +118,11 @@ public final class Data
          */
         public Statistics statistics = new Statistics();
 
+        /**
+         * Recent history of this value as timestamps and SI (base unit) values.
+         */
+        public History history = new History();
+
 
         /**
          * The measurement unit.
@@ -248,12 +285,14 @@ public final class Data
                 private final String abbreviation;
                 private final String name;
                 private final int exponent; // Value x 10^?
+                private final double multiplier; // Pre-calculated 10^exponent.
 
                 Prefix(String abbreviation, String name, int exponent)
                 {
                     this.abbreviation = abbreviation;
                     this.name = name;
                     this.exponent = exponent;
+                    this.multiplier = Math.pow(10, exponent);
                 }
 
                 /**
@@ -288,6 +327,18 @@ public final class Data
                     return this.exponent;
                 }
 
+                /**
+                 * Gets the multiplier used to scale a prefixed value to the base (SI) unit.
+                 * <p>
+                 * Example: 10<sup>exponent</sup>, so 1.5 with the {@link #MILLI} prefix is 1.5 x 0.001 = 0.0015.
+                 *
+                 * @return the unit prefix's multiplier.
+                 */
+                public double getMultiplier()
+                {
+                    return this.multiplier;
+                }
+
             }
 
 
@@ -461,18 +512,37 @@ public final class Data
         }
 
 
+        /**
+         * Statistics of the numerical values, in the units displayed.
+         * <p>
+         * The state is compact (see {@link Aggregate} and {@link Sketch}) and can be merged with the statistics of another session or meter with
+         * {@link #merge(Statistics)}, written and read with {@link #write(DataOutput)} and {@link #read(DataInput)}, and checkpointed to a file
+         * periodically (see {@link #setCheckpoint(File, long)}) so a long run survives a restart with {@link #restore(File)}.
+         */
         public static class Statistics
         {
+            private static final byte[] CHECKPOINT_MAGIC = "P608STA\u001a".getBytes(StandardCharsets.US_ASCII);
+            private static final int CHECKPOINT_VERSION = 1;
 
             private boolean isEnabled;
 
-            private long samples;
-            private Date durationStart = new Date();
+            private final Aggregate aggregate = new Aggregate();
+            private final Sketch sketch = new Sketch();
+            private long durationStart = System.currentTimeMillis();
             private long duration;
-            private Double minimum;
-            private Double maximum;
-            private final ArrayList<Double> averageValues = new ArrayList<>();
-            private Double average;
+            private long baseDuration; // Seconds from before this session (merged, restored, or before being disabled).
+            private long sessionStart; // When this session's first value was added, 0 before then.
+
+            private File checkpointFile;
+            private long checkpointInterval;
+            private long lastCheckpoint;
+            private boolean isCheckpointPending;
+            private IOException checkpointFailure;
+
+            /**
+             * Writes checkpoints for all Statistics, so file I/O never happens on the decoder thread. Created when first needed.
+             */
+            private static ExecutorService checkpointExecutor;
 
             /**
              * Enable or disable the accumulation of statistical data.
@@ -481,8 +551,18 @@ public final class Data
              *
              * @param isEnabled true to enable, false to disable.
              */
-            public void setEnabled(boolean isEnabled)
+            public synchronized void setEnabled(boolean isEnabled)
             {
+                if (this.isEnabled && ( ! isEnabled))
+                {
+                    // Time while disabled isn't included in the duration.
+                    if (sessionStart != 0)
+                    {
+                        baseDuration += (System.currentTimeMillis() - sessionStart) / 1000L;
+                        sessionStart = 0;
+                    }
+                }
+
                 this.isEnabled = isEnabled;
             }
 
@@ -491,7 +571,7 @@ public final class Data
              *
              * @return true if the statistics are enabled.
              */
-            public boolean isEnabled()
+            public synchronized boolean isEnabled()
             {
                 return isEnabled;
             }
@@ -499,17 +579,15 @@ public final class Data
             /**
              * Resets all statistics by clearing all counters, averages, and other values. Dues not change the "enabled" parameter.
              */
-            public void reset()
+            public synchronized void reset()
             {
-                samples = 0;
+                aggregate.reset();
+                sketch.reset();
 
-                durationStart = new Date();
+                durationStart = System.currentTimeMillis();
                 duration = 0;
-
-                minimum = null;
-                maximum = null;
-                average = null;
-                averageValues.clear();
+                baseDuration = 0;
+                sessionStart = 0;
             }
 
             /**
@@ -517,55 +595,335 @@ public final class Data
              *
              * @param value the reading/measurement value.
              */
-            protected void update(double value)
+            protected synchronized void update(double value)
             {
                 if ( ! isEnabled)
                 {
                     return;
                 }
 
-                if (samples < 1)
+                if (aggregate.getCount() < 1)
                 {
                     // Statistics need to be initialised...
-                    samples = 1;
-                    durationStart = new Date();
+                    durationStart = System.currentTimeMillis();
+                    sessionStart = durationStart;
+                    baseDuration = 0;
                     duration = 500; // Start at half a second (refresh rate is 2Hz).
-                    minimum = value;
-                    maximum = value;
-                    average = value;
-                    averageValues.clear();
-                    averageValues.add(value);
+                }
+                else if (sessionStart == 0)
+                {
+                    // First value since being merged into, restored, or re-enabled.
+                    sessionStart = System.currentTimeMillis();
+                    duration = baseDuration;
                 }
                 else
                 {
-                    samples += 1L;
+                    duration = baseDuration + ((System.currentTimeMillis() - sessionStart) / 1000L);
+                }
 
-                    Date now = new Date();
-                    duration = (now.getTime() - durationStart.getTime()) / 1000L;
+                aggregate.add(value);
+                sketch.add(value);
 
-                    minimum = Math.min(minimum, value);
-                    maximum = Math.max(maximum, value);
+                if ((checkpointFile != null) && ( ! isCheckpointPending) && ((System.currentTimeMillis() - lastCheckpoint) >= checkpointInterval))
+                {
+                    // Advanced whether or not the write succeeds, so a failing disk isn't retried on every packet.
+                    lastCheckpoint = System.currentTimeMillis();
+                    isCheckpointPending = true;
 
-                    averageValues.add(value);
-                    Double valueSum = 0d;
+                    final File file = checkpointFile;
+                    final byte[] snapshot = snapshot();
 
-                    for (Double avgValue : averageValues)
+                    getCheckpointExecutor().execute(new Runnable()
                     {
-                        valueSum += avgValue;
+                        @Override
+                        public void run()
+                        {
+                            IOException failure = null;
+
+                            try
+                            {
+                                writeCheckpoint(file, snapshot);
+                            }
+                            catch (IOException e)
+                            {
+                                failure = e;
+                            }
+
+                            synchronized (Statistics.this)
+                            {
+                                isCheckpointPending = false;
+
+                                if (failure != null)
+                                {
+                                    checkpointFailure = failure;
+                                }
+                            }
+                        }
+
+                    });
+                }
+            }
+
+            /**
+             * Merges the statistics of another value (i.e. of another session, meter, or shift) into these, as if its values had been
+             * added. The earliest start time is kept, and the durations are added (the time between sessions isn't counted).
+             *
+             * @param other the statistics to merge.
+             */
+            public void merge(Statistics other)
+            {
+                Aggregate otherAggregate = new Aggregate();
+                Sketch otherSketch = new Sketch();
+                long otherStart;
+                long otherDuration;
+
+                synchronized (other)
+                {
+                    otherAggregate.add(other.aggregate);
+                    otherSketch.add(other.sketch);
+                    otherStart = other.durationStart;
+                    otherDuration = other.duration;
+                }
+
+                synchronized (this)
+                {
+                    if (otherAggregate.getCount() == 0)
+                    {
+                        return;
                     }
 
-                    average = valueSum / averageValues.size();
+                    durationStart = (aggregate.getCount() == 0) ? otherStart : Math.min(durationStart, otherStart);
+                    duration += otherDuration;
+                    baseDuration += otherDuration;
+                    aggregate.add(otherAggregate);
+                    sketch.add(otherSketch);
                 }
             }
 
+            /**
+             * Writes the statistics (not including the enabled status).
+             *
+             * @param output the output to write to.
+             *
+             * @throws IOException if writing fails.
+             */
+            public synchronized void write(DataOutput output) throws IOException
+            {
+                output.writeLong(durationStart);
+                output.writeLong(duration);
+                aggregate.write(output);
+                sketch.write(output);
+            }
+
+            /**
+             * Reads statistics written by {@link #write(DataOutput)}, replacing these.
+             *
+             * @param input the input to read from.
+             *
+             * @throws IOException if reading fails.
+             */
+            public synchronized void read(DataInput input) throws IOException
+            {
+                long storedStart = input.readLong();
+                long storedDuration = input.readLong();
+
+                Aggregate storedAggregate = new Aggregate();
+                storedAggregate.read(input);
+
+                Sketch storedSketch = new Sketch();
+                storedSketch.read(input);
+
+                durationStart = storedStart;
+                duration = storedDuration;
+                baseDuration = storedDuration;
+                sessionStart = 0; // The next value starts a new session.
+                aggregate.reset();
+                aggregate.add(storedAggregate);
+                sketch.reset();
+                sketch.add(storedSketch);
+            }
+
+            /**
+             * Sets a file to checkpoint the statistics to, while they're being updated. The statistics are copied on the decoder thread, but the
+             * file is written on a background thread, so a slow or failing disk never holds up decoding. The file is written to a temporary
+             * file then moved into place, so a crash never leaves a partly written checkpoint.
+             *
+             * @param file     the checkpoint file, or null to stop checkpointing.
+             * @param interval the shortest time between checkpoints in milliseconds.
+             */
+            public synchronized void setCheckpoint(File file, long interval)
+            {
+                this.checkpointFile = file;
+                this.checkpointInterval = interval;
+                this.lastCheckpoint = System.currentTimeMillis();
+            }
+
+            /**
+             * Writes a checkpoint now, if a checkpoint file is set, waiting for it (and any periodic checkpoint before it) to be written.
+             *
+             * @throws IOException if writing fails, or an earlier periodic checkpoint failed.
+             */
+            public void checkpoint() throws IOException
+            {
+                Future<?> written;
+
+                synchronized (this)
+                {
+                    if (checkpointFailure != null)
+                    {
+                        IOException failure = checkpointFailure;
+                        checkpointFailure = null;
+                        throw failure;
+                    }
+
+                    if (checkpointFile == null)
+                    {
+                        return;
+                    }
+
+                    lastCheckpoint = System.currentTimeMillis();
+
+                    final File file = checkpointFile;
+                    final byte[] snapshot = snapshot();
+
+                    // On the checkpoint thread, so it's written after any periodic checkpoint already queued.
+                    written = getCheckpointExecutor().submit(new Callable<Void>()
+                    {
+                        @Override
+                        public Void call() throws IOException
+                        {
+                            writeCheckpoint(file, snapshot);
+
+                            return null;
+                        }
+
+                    });
+                }
+
+                try
+                {
+                    written.get();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for statistics checkpoint.");
+                }
+                catch (ExecutionException e)
+                {
+                    if (e.getCause() instanceof IOException)
+                    {
+                        throw (IOException) e.getCause();
+                    }
+
+                    throw new IOException("Statistics checkpoint failed.", e.getCause());
+                }
+            }
+
+            /**
+             * Restores the statistics from a checkpoint file, if it exists.
+             *
+             * @param file the checkpoint file.
+             *
+             * @return true if restored, false if the file doesn't exist.
+             *
+             * @throws IOException if the file can't be read, or isn't a statistics checkpoint.
+             */
+            public synchronized boolean restore(File file) throws IOException
+            {
+                if ( ! file.isFile())
+                {
+                    return false;
+                }
+
+                try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+                {
+                    byte[] magic = new byte[CHECKPOINT_MAGIC.length];
+                    input.readFully(magic);
+
+                    if ( ! Arrays.equals(magic, CHECKPOINT_MAGIC))
+                    {
+                        throw new IOException("Not a statistics checkpoint.");
+                    }
+
+                    int version = input.readInt();
+
+                    if (version != CHECKPOINT_VERSION)
+                    {
+                        throw new IOException("Unsupported statistics checkpoint version " + version + ".");
+                    }
+
+                    read(input);
+                }
+
+                return true;
+            }
+
+            /**
+             * Copies the statistics as the contents of a checkpoint file. Called holding the lock.
+             */
+            private byte[] snapshot()
+            {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+                try
+                {
+                    DataOutputStream output = new DataOutputStream(bytes);
+                    output.write(CHECKPOINT_MAGIC);
+                    output.writeInt(CHECKPOINT_VERSION);
+                    write(output);
+                    output.flush();
+                }
+                catch (IOException e)
+                {
+                    throw new IllegalStateException(e); // Not thrown writing to memory.
+                }
+
+                return bytes.toByteArray();
+            }
+
+            private static void writeCheckpoint(File file, byte[] snapshot) throws IOException
+            {
+                File temp = new File(file.getPath() + ".tmp");
+
+                try (FileOutputStream stream = new FileOutputStream(temp))
+                {
+                    stream.write(snapshot);
+                    stream.getFD().sync();
+                }
+
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+
+            private static synchronized ExecutorService getCheckpointExecutor()
+            {
+                if (checkpointExecutor == null)
+                {
+                    checkpointExecutor = Executors.newSingleThreadExecutor(new ThreadFactory()
+                    {
+                        @Override
+                        public Thread newThread(Runnable runnable)
+                        {
+                            Thread thread = new Thread(runnable, "Statistics-checkpoint");
+                            thread.setDaemon(true);
+
+                            return thread;
+                        }
+
+                    });
+                }
+
+                return checkpointExecutor;
+            }
+
             /**
              * Gets the number of samples used to calculate statistics.
              *
              * @return the number of samples.
              */
-            public long getSamples()
+            public synchronized long getSamples()
             {
-                return samples;
+                return aggregate.getCount();
             }
 
             /**
@@ -573,7 +931,17 @@ public final class Data
              *
              * @return the date-time when statistics began.
              */
-            public Date getDurationStart()
+            public synchronized Date getDurationStart()
+            {
+                return new Date(durationStart);
+            }
+
+            /**
+             * Gets the date-time of when the statistics began (i.e. date-time of the first sample) without allocating a Date.
+             *
+             * @return the date-time when statistics began in milliseconds since epoch.
+             */
+            public synchronized long getDurationStartMillis()
             {
                 return durationStart;
             }
@@ -583,7 +951,7 @@ public final class Data
              *
              * @return the length of time in seconds.
              */
-            public Long getDuration()
+            public synchronized long getDuration()
             {
                 return duration;
             }
@@ -591,31 +959,349 @@ public final class Data
             /**
              * Gets the minimum value of all samples.
              *
-             * @return the minimum value.
+             * @return the minimum value, or null if there are no samples.
              */
-            public Double getMinimum()
+            public synchronized Double getMinimum()
             {
-                return minimum;
+                return (aggregate.getCount() > 0) ? aggregate.getMinimum() : null;
             }
 
             /**
              * Gets the maximum value of all samples.
              *
-             * @return the maximum value.
+             * @return the maximum value, or null if there are no samples.
              */
-            public Double getMaximum()
+            public synchronized Double getMaximum()
             {
-                return maximum;
+                return (aggregate.getCount() > 0) ? aggregate.getMaximum() : null;
             }
 
             /**
              * Gets the average of all samples.
              *
-             * @return the average of all samples.
+             * @return the average of all samples, or null if there are no samples.
+             */
+            public synchronized Double getAverage()
+            {
+                return (aggregate.getCount() > 0) ? getAverageValue() : null;
+            }
+
+            /**
+             * Gets the minimum value of all samples as a primitive double.
+             *
+             * @return the minimum value, or NaN if there are no samples.
+             */
+            public synchronized double getMinimumValue()
+            {
+                return aggregate.getMinimum();
+            }
+
+            /**
+             * Gets the maximum value of all samples as a primitive double.
+             *
+             * @return the maximum value, or NaN if there are no samples.
+             */
+            public synchronized double getMaximumValue()
+            {
+                return aggregate.getMaximum();
+            }
+
+            /**
+             * Gets the average of all samples as a primitive double.
+             *
+             * @return the average of all samples, or NaN if there are no samples.
+             */
+            public synchronized double getAverageValue()
+            {
+                return aggregate.getMean();
+            }
+
+            /**
+             * Gets the standard deviation of all samples as a primitive double.
+             *
+             * @return the population standard deviation of all samples, or NaN if there are no samples.
+             */
+            public synchronized double getStandardDeviationValue()
+            {
+                return aggregate.getStandardDeviation();
+            }
+
+            /**
+             * Gets a quantile of all samples (i.e. 0.5 for the median), within the relative accuracy of a {@link Sketch}.
+             *
+             * @param quantile the quantile, from 0 (minimum) to 1 (maximum).
+             *
+             * @return the value at the quantile, or NaN if there are no samples.
              */
-            public Double getAverage()
+            public synchronized double getQuantile(double quantile)
             {
-                return average;
+                return sketch.getQuantile(quantile);
+            }
+
+        }
+
+
+        /**
+         * A fixed-capacity ring of the most recent numerical readings.
+         * <p>
+         * Each entry is a primitive timestamp (milliseconds since epoch) and the value scaled to its base unit (i.e. the SI value, so 1.5 mV is
+         * stored as 0.0015). Entries are stored either in on-heap primitive arrays or in a direct (off-heap) buffer, and none of the read methods
+         * allocate, so charting and analysis code can poll the history at a high rate without boxing or GC pressure.
+         * <p>
+         * History is disabled (zero capacity) until {@link #setCapacity(int)} or {@link #setCapacity(int, boolean)} is called. Non-numerical
+         * readings (i.e. words on LCD like "Shrt", "OPEn") are not recorded.
+         */
+        public static class History
+        {
+            private static final int ENTRY_BYTES = 16; // long timestamp + double value.
+
+            private int capacity;
+            private long[] timestamps;
+            private double[] values;
+            private ByteBuffer buffer; // Used instead of the arrays when off-heap.
+
+            private int head; // Position of the next entry to be written.
+            private int size;
+            private long count;
+
+
+            /**
+             * Receives history entries from the {@link #forEach(Visitor)} method.
+             */
+            public interface Visitor
+            {
+                /**
+                 * Called for each history entry, oldest first.
+                 *
+                 * @param timestamp the time of the reading in milliseconds since epoch.
+                 * @param value     the reading scaled to its base unit.
+                 */
+                public void visit(long timestamp, double value);
+
+            }
+
+            /**
+             * Sets the number of entries kept using on-heap storage. Any existing history is cleared.
+             *
+             * @param capacity the maximum number of entries, or 0 to disable history.
+             */
+            public void setCapacity(int capacity)
+            {
+                setCapacity(capacity, false);
+            }
+
+            /**
+             * Sets the number of entries kept. Any existing history is cleared.
+             *
+             * @param capacity the maximum number of entries, or 0 to disable history.
+             * @param offHeap  true to store entries in a direct (off-heap) buffer, false to use primitive arrays.
+             */
+            public synchronized void setCapacity(int capacity, boolean offHeap)
+            {
+                if (capacity < 0)
+                {
+                    throw new IllegalArgumentException("History capacity must not be negative: " + capacity);
+                }
+
+                this.capacity = capacity;
+                this.timestamps = null;
+                this.values = null;
+                this.buffer = null;
+
+                if (capacity > 0)
+                {
+                    if (offHeap)
+                    {
+                        buffer = ByteBuffer.allocateDirect(capacity * ENTRY_BYTES).order(ByteOrder.nativeOrder());
+                    }
+                    else
+                    {
+                        timestamps = new long[capacity];
+                        values = new double[capacity];
+                    }
+                }
+
+                clear();
+            }
+
+            /**
+             * Gets the maximum number of entries kept.
+             *
+             * @return the history capacity, 0 if disabled.
+             */
+            public synchronized int getCapacity()
+            {
+                return capacity;
+            }
+
+            /**
+             * Gets the storage type of the history.
+             *
+             * @return true if entries are stored off-heap in a direct buffer.
+             */
+            public synchronized boolean isOffHeap()
+            {
+                return buffer != null;
+            }
+
+            /**
+             * Clears all history entries. Does not change the capacity.
+             */
+            public synchronized void clear()
+            {
+                head = 0;
+                size = 0;
+                count = 0;
+            }
+
+            /**
+             * Gets the number of entries currently held.
+             *
+             * @return the number of entries, never more than the capacity.
+             */
+            public synchronized int size()
+            {
+                return size;
+            }
+
+            /**
+             * Gets the total number of entries added since the history was last cleared, including those that have since been overwritten.
+             * <p>
+             * This is useful for checking if new entries have arrived since the history was last read.
+             *
+             * @return the total number of entries added.
+             */
+            public synchronized long getCount()
+            {
+                return count;
+            }
+
+            /**
+             * Gets the timestamp of an entry.
+             *
+             * @param index the entry index, where 0 is the oldest entry held.
+             *
+             * @return the timestamp in milliseconds since epoch.
+             */
+            public synchronized long getTimestamp(int index)
+            {
+                int position = position(index);
+
+                return (buffer != null) ? buffer.getLong(position * ENTRY_BYTES) : timestamps[position];
+            }
+
+            /**
+             * Gets the value of an entry.
+             *
+             * @param index the entry index, where 0 is the oldest entry held.
+             *
+             * @return the value scaled to its base unit.
+             */
+            public synchronized double getValue(int index)
+            {
+                int position = position(index);
+
+                return (buffer != null) ? buffer.getDouble(position * ENTRY_BYTES + 8) : values[position];
+            }
+
+            /**
+             * Copies the most recent entries into the provided arrays, oldest first.
+             *
+             * @param timestamps the array to receive timestamps, or null if not required.
+             * @param values     the array to receive values, or null if not required.
+             * @param offset     the start position in the destination arrays.
+             * @param length     the maximum number of entries to copy.
+             *
+             * @return the number of entries copied.
+             */
+            public synchronized int copyTo(long[] timestamps, double[] values, int offset, int length)
+            {
+                int copied = Math.min(length, size);
+                int start = size - copied;
+
+                for (int i = 0; i < copied; i ++)
+                {
+                    int position = (head - size + start + i + capacity) % capacity;
+
+                    if (timestamps != null)
+                    {
+                        timestamps[offset + i] = (buffer != null) ? buffer.getLong(position * ENTRY_BYTES) : this.timestamps[position];
+                    }
+
+                    if (values != null)
+                    {
+                        values[offset + i] = (buffer != null) ? buffer.getDouble(position * ENTRY_BYTES + 8) : this.values[position];
+                    }
+                }
+
+                return copied;
+            }
+
+            /**
+             * Passes every entry to the visitor, oldest first.
+             * <p>
+             * New readings are held off while this runs, so the visitor should return quickly.
+             *
+             * @param visitor the Visitor to receive each entry.
+             *
+             * @return the number of entries visited.
+             */
+            public synchronized int forEach(Visitor visitor)
+            {
+                for (int i = 0; i < size; i ++)
+                {
+                    int position = (head - size + i + capacity) % capacity;
+
+                    if (buffer != null)
+                    {
+                        visitor.visit(buffer.getLong(position * ENTRY_BYTES), buffer.getDouble(position * ENTRY_BYTES + 8));
+                    }
+                    else
+                    {
+                        visitor.visit(timestamps[position], values[position]);
+                    }
+                }
+
+                return size;
+            }
+
+            /**
+             * Adds an entry to the history, overwriting the oldest entry if full.
+             *
+             * @param timestamp the time of the reading in milliseconds since epoch.
+             * @param value     the reading scaled to its base unit.
+             */
+            protected synchronized void update(long timestamp, double value)
+            {
+                if (capacity == 0)
+                {
+                    return;
+                }
+
+                if (buffer != null)
+                {
+                    buffer.putLong(head * ENTRY_BYTES, timestamp);
+                    buffer.putDouble(head * ENTRY_BYTES + 8, value);
+                }
+                else
+                {
+                    timestamps[head] = timestamp;
+                    values[head] = value;
+                }
+
+                head = (head + 1) % capacity;
+                size = Math.min(size + 1, capacity);
+                count ++;
+            }
+
+            private int position(int index)
+            {
+                if ((index < 0) || (index >= size))
+                {
+                    throw new IndexOutOfBoundsException("History index " + index + " out of range (size " + size + ").");
+                }
+
+                return (head - size + index + capacity) % capacity;
             }
 
         }
@@ -665,13 +1351,62 @@ public final class Data
             this.valueVerbatim = value;
             this.value = value.trim();
 
+            // Parse once here, so numerical getters don't need to.
+            numericValue = parseNumeric(this.value);
+            siValue = numericValue * unit.getPrefix().getMultiplier();
+
             // Update statistics if value is numeric...
-            if (isNumeric(this.value))
+            if ( ! Double.isNaN(numericValue))
+            {
+                statistics.update(numericValue);
+            }
+        }
+
+        /**
+         * Completes the update of this value for a decoded packet.
+         * <p>
+         * This is called once the value and unit of a packet have both been decoded. The SI value is cached using the decoded unit prefix, then
+         * recorded in the history (and decimator if set).
+         *
+         * @param timestamp the time of the reading in milliseconds since epoch.
+         */
+        protected void update(long timestamp)
+        {
+            siValue = numericValue * unit.getPrefix().getMultiplier();
+
+            if ( ! Double.isNaN(siValue))
             {
-                statistics.update(Double.parseDouble(this.value));
+                history.update(timestamp, siValue);
+
+                Decimator decimator = this.decimator;
+
+                if (decimator != null)
+                {
+                    decimator.update(timestamp, siValue);
+                }
             }
         }
 
+        /**
+         * Sets a Decimator to be updated with every numerical reading (as an SI value) for plotting.
+         *
+         * @param decimator the Decimator to update, or null to stop updating.
+         */
+        public void setDecimator(Decimator decimator)
+        {
+            this.decimator = decimator;
+        }
+
+        /**
+         * Gets the Decimator updated with every numerical reading.
+         *
+         * @return the Decimator, or null if not set.
+         */
+        public Decimator getDecimator()
+        {
+            return decimator;
+        }
+
         /**
          * Gets the value represented as a String that resembles what is displayed on the LCD.
          *
@@ -702,14 +1437,16 @@ public final class Data
 
         /**
          * Gets the value as a Double if numerical, otherwise returns null.
+         * <p>
+         * For high frequency polling use {@link #getNumericValue()}, which doesn't allocate a Double.
          *
          * @return a Double value if numerical, or null if not-numerical (i.e. words on LCD like "Shrt", "OPEn").
          */
         public Double getValueDouble()
         {
-            if (isNumeric(value))
+            if (isNumeric())
             {
-                return Double.parseDouble(value);
+                return numericValue;
             }
             else
             {
@@ -718,25 +1455,182 @@ public final class Data
         }
 
         /**
-         * Match a number with optional '-' and decimal.
+         * Checks if the value is numerical.
          *
-         * Note: Will fail if non-latin (i.e. 0 to 9) digits used (for example, arabic digits).
+         * @return true if numerical, false if not-numerical (i.e. words on LCD like "Shrt", "OPEn").
+         */
+        public boolean isNumeric()
+        {
+            return ! Double.isNaN(numericValue);
+        }
+
+        /**
+         * Gets the value as a primitive double, as displayed (not scaled by the unit prefix).
+         *
+         * @return the numerical value, or NaN if not-numerical (i.e. words on LCD like "Shrt", "OPEn").
+         */
+        public double getNumericValue()
+        {
+            return numericValue;
+        }
+
+        /**
+         * Gets the value scaled to its base unit by the unit prefix (i.e. 1.5 mV is 0.0015).
          *
-         * @see http://stackoverflow.com/a/1102916
+         * @return the SI value, or NaN if not-numerical (i.e. words on LCD like "Shrt", "OPEn").
+         */
+        public double getSiValue()
+        {
+            return siValue;
+        }
+
+        /**
+         * Parses a number with optional '-' and decimal.
+         * <p>
+         * This matches the same numbers as the regular expression {@code -?\d+(\.\d+)?}, without the cost of a regular expression.
+         * <p>
+         * Note: Will fail if non-latin (i.e. 0 to 9) digits used (for example, arabic digits).
          *
-         * @param string The String to check.
+         * @param string The String to parse.
          *
-         * @return boolean True if numeric, false if not.
+         * @return the parsed number, or NaN if not numeric.
          */
-        private boolean isNumeric(String string)
+        private static double parseNumeric(String string)
         {
-            return string.matches("-?\\d+(\\.\\d+)?");
+            int length = string.length();
+            int position = 0;
+
+            if ((length > 0) && (string.charAt(0) == '-'))
+            {
+                position ++;
+            }
+
+            int digits = 0;
+            int fractionDigits = -1; // -1 means no decimal point found.
+
+            for (; position < length; position ++)
+            {
+                char character = string.charAt(position);
+
+                if ((character >= '0') && (character <= '9'))
+                {
+                    if (fractionDigits < 0)
+                    {
+                        digits ++;
+                    }
+                    else
+                    {
+                        fractionDigits ++;
+                    }
+                }
+                else if ((character == '.') && (fractionDigits < 0) && (digits > 0))
+                {
+                    fractionDigits = 0;
+                }
+                else
+                {
+                    return Double.NaN;
+                }
+            }
+
+            if ((digits == 0) || (fractionDigits == 0))
+            {
+                return Double.NaN;
+            }
+
+            return Double.parseDouble(string);
         }
 
     }
 
     public Annunciators annunciators = new Annunciators();
 
+    /**
+     * Gets the numerical value of the bar graph as a primitive int.
+     * <p>
+     * This is the same as {@link #barGraph}, without the boxed Integer.
+     *
+     * @return the bar graph value (0 to 32767), or -1 if the bar graph is not being displayed on the DMM.
+     */
+    public int getBarGraphValue()
+    {
+        return barGraphValue;
+    }
+
+    /**
+     * Checks if the bar graph is being displayed on the DMM.
+     *
+     * @return true if the bar graph is displayed.
+     */
+    public boolean isBarGraphDisplayed()
+    {
+        return barGraphValue >= 0;
+    }
+
+    /**
+     * Sets the numerical value of the bar graph, updating both {@link #barGraph} and {@link #getBarGraphValue()}.
+     * <p>
+     * The boxed {@link #barGraph} is only replaced when the value changes, so a steady bar graph doesn't allocate.
+     *
+     * @param value the bar graph value (0 to 32767), or -1 if the bar graph is not being displayed on the DMM.
+     */
+    protected void setBarGraph(int value)
+    {
+        if (value < 0)
+        {
+            barGraph = null;
+        }
+        else if ((barGraph == null) || (barGraph != value))
+        {
+            barGraph = value;
+        }
+
+        barGraphValue = value;
+    }
+
+    /**
+     * Gets a consistent snapshot of the most recently decoded packet.
+     * <p>
+     * This is safe to call from any thread, and never blocks the decoder.
+     *
+     * @return the most recent Reading, or null if no packet has been decoded.
+     */
+    public Reading getReading()
+    {
+        return reading;
+    }
+
+    /**
+     * Gets the sequence number of the most recently decoded packet.
+     * <p>
+     * This is a cheap way to check if anything has changed since the last call to {@link #getReading()}.
+     *
+     * @return the sequence number, or 0 if no packet has been decoded.
+     */
+    public long getSequence()
+    {
+        Reading current = reading;
+
+        return (current == null) ? 0 : current.getSequence();
+    }
+
+    /**
+     * Publishes a snapshot of the current data as a new {@link Reading}.
+     * <p>
+     * This is called by the decoder once every field of a packet has been decoded.
+     *
+     * @param timestamp the time the packet was received in milliseconds since epoch.
+     *
+     * @return the published Reading.
+     */
+    protected Reading publish(long timestamp)
+    {
+        Reading published = new Reading(getSequence() + 1, timestamp, this);
+        reading = published;
+
+        return published;
+    }
+
 
     /**
      * Annunciators are modes or options that the Protek 608 DMM can have enabled or disabled.
@@ -914,6 +1808,42 @@ public final class Data
          * Zener diode test
          */
         public boolean zenerDiode;
+
+        /**
+         * Gets all annunciators as a bit field.
+         *
+         * @return the annunciators, see {@link Reading.Annunciator} for the bit masks.
+         */
+        public int getBits()
+        {
+            int bits = 0;
+
+            bits |= autoOff ? Reading.Annunciator.AUTO_OFF : 0;
+            bits |= pulse ? Reading.Annunciator.PULSE : 0;
+            bits |= maximum ? Reading.Annunciator.MAXIMUM : 0;
+            bits |= posPeak ? Reading.Annunciator.POS_PEAK : 0;
+            bits |= relative ? Reading.Annunciator.RELATIVE : 0;
+            bits |= recall ? Reading.Annunciator.RECALL : 0;
+            bits |= goNg ? Reading.Annunciator.GO_NG : 0;
+            bits |= posPercent ? Reading.Annunciator.POS_PERCENT : 0;
+            bits |= rs232c ? Reading.Annunciator.RS232C : 0;
+            bits |= positive ? Reading.Annunciator.POSITIVE : 0;
+            bits |= negative ? Reading.Annunciator.NEGATIVE : 0;
+            bits |= minimum ? Reading.Annunciator.MINIMUM : 0;
+            bits |= negPeak ? Reading.Annunciator.NEG_PEAK : 0;
+            bits |= average ? Reading.Annunciator.AVERAGE : 0;
+            bits |= store ? Reading.Annunciator.STORE : 0;
+            bits |= reference ? Reading.Annunciator.REFERENCE : 0;
+            bits |= negPercent ? Reading.Annunciator.NEG_PERCENT : 0;
+            bits |= lowBattery ? Reading.Annunciator.LOW_BATTERY : 0;
+            bits |= range ? Reading.Annunciator.RANGE : 0;
+            bits |= hold ? Reading.Annunciator.HOLD : 0;
+            bits |= duty ? Reading.Annunciator.DUTY : 0;
+            bits |= continuity ? Reading.Annunciator.CONTINUITY : 0;
+            bits |= zenerDiode ? Reading.Annunciator.ZENER_DIODE : 0;
+
+            return bits;
+        }
     }
 
 }
@@ -0,0 +1,520 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608;
+
+
+/**
+ * Incremental, multi-resolution downsampling of readings for plotting.
+ * <p>
+ * Readings are aggregated into levels of buckets as they arrive. Level 0 holds the raw samples, and each higher level merges a fixed number
+ * ({@code factor}) of buckets from the level below. For every bucket the minimum and maximum are kept, along with a representative point picked
+ * by the Largest-Triangle-Three-Buckets (LTTB) algorithm. LTTB points at higher levels are picked from the LTTB points of the level below, so no
+ * level ever rescans raw samples.
+ * <p>
+ * Each level is a fixed-capacity ring, so coarse levels reach much further back in time than fine levels. A view for a given pixel width is
+ * taken from the finest level that both covers the requested time range and fits in the width.
+ * <p>
+ * A Decimator is usually attached to a value with {@link Data.Value#setDecimator(Decimator)}, but can also be fed directly using
+ * {@link #update(long, double)}.
+ *
+ * @author Darian Cabot
+ */
+public final class Decimator
+{
+    private final int factor;
+    private final int capacity;
+    private final Level[] levels;
+
+
+    /**
+     * A ring of buckets for one resolution.
+     */
+    private static final class Level
+    {
+        private final long[] start;
+        private final long[] end;
+        private final double[] minimum;
+        private final double[] maximum;
+        private final double[] sum;
+        private final long[] count;
+        private final long[] pickTimestamp;
+        private final double[] pickValue;
+
+        private long completed; // Number of buckets closed (absolute index of the next bucket).
+        private long picked; // Number of buckets with an LTTB point picked.
+
+        // The open (incomplete) bucket...
+        private long openStart;
+        private long openEnd;
+        private double openMinimum;
+        private double openMaximum;
+        private double openSum;
+        private long openCount;
+        private int openChildren;
+
+        Level(int capacity)
+        {
+            start = new long[capacity];
+            end = new long[capacity];
+            minimum = new double[capacity];
+            maximum = new double[capacity];
+            sum = new double[capacity];
+            count = new long[capacity];
+            pickTimestamp = new long[capacity];
+            pickValue = new double[capacity];
+        }
+
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Creates a new Decimator.
+     * <p>
+     * For example, 8 levels with a factor of 4 and capacity of 4096 buckets holds about 34 minutes of raw 2 Hz samples, and the coarsest level
+     * (16384 samples per bucket) reaches back over a year.
+     *
+     * @param levels   the number of resolutions, including the raw samples (minimum 2).
+     * @param factor   the number of buckets merged into one bucket of the next level (minimum 2).
+     * @param capacity the number of buckets kept per level (minimum 2 x factor).
+     */
+    public Decimator(int levels, int factor, int capacity)
+    {
+        if ((levels < 2) || (factor < 2) || (capacity < (2 * factor)))
+        {
+            throw new IllegalArgumentException("Invalid decimator configuration: levels " + levels + ", factor " + factor + ", capacity " + capacity + ".");
+        }
+
+        this.factor = factor;
+        this.capacity = capacity;
+        this.levels = new Level[levels];
+
+        for (int i = 0; i < levels; i ++)
+        {
+            this.levels[i] = new Level(capacity);
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Adds a sample. Samples must be added in time order.
+     *
+     * @param timestamp the time of the reading in milliseconds since epoch.
+     * @param value     the reading value.
+     */
+    public synchronized void update(long timestamp, double value)
+    {
+        Level raw = levels[0];
+        int slot = (int) (raw.completed % capacity);
+
+        raw.start[slot] = timestamp;
+        raw.end[slot] = timestamp;
+        raw.minimum[slot] = value;
+        raw.maximum[slot] = value;
+        raw.sum[slot] = value;
+        raw.count[slot] = 1;
+        raw.pickTimestamp[slot] = timestamp;
+        raw.pickValue[slot] = value;
+        raw.completed ++;
+        raw.picked = raw.completed;
+
+        propagate(1, raw.completed - 1);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Clears all samples from every level.
+     */
+    public synchronized void clear()
+    {
+        for (Level level : levels)
+        {
+            level.completed = 0;
+            level.picked = 0;
+            level.openChildren = 0;
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the number of samples that make up one bucket at a level.
+     *
+     * @param level the level, where 0 is the raw samples.
+     *
+     * @return the number of samples per bucket.
+     */
+    public long getSamplesPerBucket(int level)
+    {
+        long samples = 1;
+
+        for (int i = 0; i < level; i ++)
+        {
+            samples *= factor;
+        }
+
+        return samples;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets a min/max view of a time range, with no more than {@code width} buckets.
+     * <p>
+     * Each bucket gives the start time, minimum, and maximum. Drawing a vertical line from minimum to maximum for each bucket preserves every peak
+     * in the signal. The destination arrays should be at least {@code width} long.
+     *
+     * @param from       the start of the time range in milliseconds since epoch (inclusive).
+     * @param to         the end of the time range in milliseconds since epoch (inclusive).
+     * @param width      the maximum number of buckets, usually the pixel width of the plot.
+     * @param timestamps the array to receive bucket start times.
+     * @param minimums   the array to receive bucket minimums.
+     * @param maximums   the array to receive bucket maximums.
+     *
+     * @return the number of buckets copied.
+     */
+    public synchronized int getMinMax(long from, long to, int width, long[] timestamps, double[] minimums, double[] maximums)
+    {
+        int levelIndex = selectLevel(from, to, width, false);
+        Level level = levels[levelIndex];
+
+        long first = firstBucket(level, level.completed, from);
+        long last = lastBucket(level, level.completed, to);
+        boolean includeOpen = (levelIndex > 0) && (level.openChildren > 0) && (level.openStart <= to) && (level.openEnd >= from);
+
+        // Keep the most recent buckets if the coarsest level still doesn't fit.
+        long buckets = last - first + (includeOpen ? 1 : 0);
+
+        if (buckets > width)
+        {
+            first += buckets - width;
+        }
+
+        int copied = 0;
+
+        for (long i = first; i < last; i ++)
+        {
+            int slot = (int) (i % capacity);
+            timestamps[copied] = level.start[slot];
+            minimums[copied] = level.minimum[slot];
+            maximums[copied] = level.maximum[slot];
+            copied ++;
+        }
+
+        if (includeOpen && (copied < width))
+        {
+            timestamps[copied] = level.openStart;
+            minimums[copied] = level.openMinimum;
+            maximums[copied] = level.openMaximum;
+            copied ++;
+        }
+
+        return copied;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets a Largest-Triangle-Three-Buckets view of a time range, with no more than {@code width} points.
+     * <p>
+     * LTTB picks one real sample per bucket that best preserves the visual shape of the line. The most recent sample is always included as the
+     * last point if it falls in the time range. The destination arrays should be at least {@code width} long.
+     *
+     * @param from       the start of the time range in milliseconds since epoch (inclusive).
+     * @param to         the end of the time range in milliseconds since epoch (inclusive).
+     * @param width      the maximum number of points, usually the pixel width of the plot.
+     * @param timestamps the array to receive point times.
+     * @param values     the array to receive point values.
+     *
+     * @return the number of points copied.
+     */
+    public synchronized int getLttb(long from, long to, int width, long[] timestamps, double[] values)
+    {
+        if (width < 1)
+        {
+            return 0;
+        }
+
+        Level raw = levels[0];
+        Level level = levels[selectLevel(from, to, width - 1, true)];
+
+        long first = firstBucket(level, level.picked, from);
+        long last = lastBucket(level, level.picked, to);
+
+        if ((last - first) > (width - 1))
+        {
+            first = last - (width - 1);
+        }
+
+        int copied = 0;
+        long lastTimestamp = Long.MIN_VALUE;
+
+        for (long i = first; i < last; i ++)
+        {
+            int slot = (int) (i % capacity);
+
+            if ((level.pickTimestamp[slot] >= from) && (level.pickTimestamp[slot] <= to))
+            {
+                timestamps[copied] = level.pickTimestamp[slot];
+                values[copied] = level.pickValue[slot];
+                lastTimestamp = timestamps[copied];
+                copied ++;
+            }
+        }
+
+        // Always finish with the most recent sample (LTTB keeps the end points).
+        if ((raw.completed > 0) && (copied < width))
+        {
+            int slot = (int) ((raw.completed - 1) % capacity);
+
+            if ((raw.start[slot] > lastTimestamp) && (raw.start[slot] >= from) && (raw.start[slot] <= to))
+            {
+                timestamps[copied] = raw.start[slot];
+                values[copied] = raw.pickValue[slot];
+                copied ++;
+            }
+        }
+
+        return copied;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Adds a closed bucket from the level below into the open bucket of a level, closing it and moving up a level when full.
+     *
+     * @param levelIndex the level to add to.
+     * @param child      the absolute index of the closed bucket in the level below.
+     */
+    private void propagate(int levelIndex, long child)
+    {
+        if (levelIndex >= levels.length)
+        {
+            return;
+        }
+
+        Level below = levels[levelIndex - 1];
+        Level level = levels[levelIndex];
+        int childSlot = (int) (child % capacity);
+
+        if (level.openChildren == 0)
+        {
+            level.openStart = below.start[childSlot];
+            level.openMinimum = below.minimum[childSlot];
+            level.openMaximum = below.maximum[childSlot];
+            level.openSum = 0;
+            level.openCount = 0;
+        }
+        else
+        {
+            level.openMinimum = Math.min(level.openMinimum, below.minimum[childSlot]);
+            level.openMaximum = Math.max(level.openMaximum, below.maximum[childSlot]);
+        }
+
+        level.openEnd = below.end[childSlot];
+        level.openSum += below.sum[childSlot];
+        level.openCount += below.count[childSlot];
+        level.openChildren ++;
+
+        if (level.openChildren < factor)
+        {
+            return;
+        }
+
+        // The open bucket is full, close it.
+        int slot = (int) (level.completed % capacity);
+        level.start[slot] = level.openStart;
+        level.end[slot] = level.openEnd;
+        level.minimum[slot] = level.openMinimum;
+        level.maximum[slot] = level.openMaximum;
+        level.sum[slot] = level.openSum;
+        level.count[slot] = level.openCount;
+        level.completed ++;
+        level.openChildren = 0;
+
+        // The bucket before this one now has a following bucket, so its LTTB point can be picked.
+        if (level.completed >= 2)
+        {
+            pick(levelIndex, level.completed - 2);
+        }
+
+        propagate(levelIndex + 1, level.completed - 1);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Picks the LTTB point of a bucket from the LTTB points of its children.
+     * <p>
+     * The chosen child point forms the largest triangle with the previously picked point and the average of the following bucket.
+     *
+     * @param levelIndex the level of the bucket.
+     * @param bucket     the absolute index of the bucket.
+     */
+    private void pick(int levelIndex, long bucket)
+    {
+        Level below = levels[levelIndex - 1];
+        Level level = levels[levelIndex];
+        int slot = (int) (bucket % capacity);
+        long firstChild = bucket * factor;
+
+        if (bucket == 0)
+        {
+            // The first bucket keeps the first point.
+            int childSlot = (int) (firstChild % capacity);
+            level.pickTimestamp[slot] = below.pickTimestamp[childSlot];
+            level.pickValue[slot] = below.pickValue[childSlot];
+        }
+        else
+        {
+            int previousSlot = (int) ((bucket - 1) % capacity);
+            int nextSlot = (int) ((bucket + 1) % capacity);
+
+            // Times are relative to the previous point to keep precision.
+            long origin = level.pickTimestamp[previousSlot];
+            double ay = level.pickValue[previousSlot];
+            double cx = ((level.start[nextSlot] - origin) + (level.end[nextSlot] - origin)) / 2.0;
+            double cy = level.sum[nextSlot] / level.count[nextSlot];
+
+            double largestArea = -1;
+
+            for (long child = firstChild; child < (firstChild + factor); child ++)
+            {
+                int childSlot = (int) (child % capacity);
+                double bx = below.pickTimestamp[childSlot] - origin;
+                double by = below.pickValue[childSlot];
+                double area = Math.abs((bx * (cy - ay)) - (cx * (by - ay)));
+
+                if (area > largestArea)
+                {
+                    largestArea = area;
+                    level.pickTimestamp[slot] = below.pickTimestamp[childSlot];
+                    level.pickValue[slot] = by;
+                }
+            }
+        }
+
+        level.picked = bucket + 1;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Selects the finest level that covers the time range within the given number of buckets.
+     *
+     * @param from   the start of the time range.
+     * @param to     the end of the time range.
+     * @param width  the maximum number of buckets.
+     * @param picked true to only count buckets with an LTTB point picked.
+     *
+     * @return the level index, or the coarsest level if none fit.
+     */
+    private int selectLevel(long from, long to, int width, boolean picked)
+    {
+        for (int i = 0; i < (levels.length - 1); i ++)
+        {
+            Level level = levels[i];
+            long available = picked ? level.picked : level.completed;
+            long oldest = Math.max(0, level.completed - capacity);
+
+            // Skip levels that have already dropped the start of the range.
+            if ((oldest > 0) && (level.start[(int) (oldest % capacity)] > from))
+            {
+                continue;
+            }
+
+            long buckets = lastBucket(level, available, to) - firstBucket(level, available, from);
+
+            if ((level.openChildren > 0) && ( ! picked))
+            {
+                buckets ++;
+            }
+
+            if (buckets <= width)
+            {
+                return i;
+            }
+        }
+
+        return levels.length - 1;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Finds the first bucket that ends at or after a time.
+     *
+     * @param level     the level to search.
+     * @param available the number of usable buckets in the level.
+     * @param from      the time.
+     *
+     * @return the absolute bucket index.
+     */
+    private long firstBucket(Level level, long available, long from)
+    {
+        long low = Math.max(0, level.completed - capacity);
+        long high = Math.max(low, available);
+
+        while (low < high)
+        {
+            long middle = (low + high) >>> 1;
+
+            if (level.end[(int) (middle % capacity)] < from)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Finds the bucket after the last bucket that starts at or before a time.
+     *
+     * @param level     the level to search.
+     * @param available the number of usable buckets in the level.
+     * @param to        the time.
+     *
+     * @return the absolute bucket index (exclusive).
+     */
+    private long lastBucket(Level level, long available, long to)
+    {
+        long low = Math.max(0, level.completed - capacity);
+        long high = Math.max(low, available);
+
+        while (low < high)
+        {
+            long middle = (low + high) >>> 1;
+
+            if (level.start[(int) (middle % capacity)] <= to)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+}
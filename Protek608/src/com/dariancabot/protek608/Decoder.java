@@ -24,6 +24,12 @@
 package com.dariancabot.protek608;
 
 import com.dariancabot.protek608.exceptions.ProtocolException;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
 /**
@@ -35,10 +41,17 @@ public final class Decoder
 {
     private final Data data;
     private EventListener eventListener;
+    private volatile Registration[] registrations = new Registration[0]; // Copy-on-write.
+    private volatile ReadingFuture[] waiters = new ReadingFuture[0]; // Copy-on-write.
 
     private static final byte packetStartByte = 0x5b;
     private static final byte packetEndByte = 0x5d;
 
+    /**
+     * Default number of Readings buffered for a ReadingListener with an Executor before the oldest are dropped.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64;
+
     //-----------------------------------------------------------------------
     /**
      * Constructor.
@@ -51,6 +64,107 @@ public final class Decoder
     }
 
 
+    /**
+     * A ReadingListener and how it is delivered to.
+     * <p>
+     * Inline registrations are called directly on the decoder thread. Registrations with an Executor buffer each Reading and schedule themselves
+     * (as the Runnable) on the Executor only when not already scheduled, so delivery allocates nothing and a slow listener never holds up the
+     * decoder thread or other listeners. A ReadingFilter is checked on the decoder thread before either.
+     */
+    private static final class Registration implements Runnable
+    {
+        private final ReadingListener listener;
+        private final ReadingFilter filter;
+        private final Executor executor;
+        private final ReadingBuffer buffer;
+        private final AtomicBoolean isScheduled = new AtomicBoolean();
+        private Reading previous; // Last Reading delivered, used on the Executor or with a filter.
+
+        Registration(ReadingListener listener, ReadingFilter filter, Executor executor, int bufferSize)
+        {
+            this.listener = listener;
+            this.filter = filter;
+            this.executor = executor;
+            this.buffer = (executor == null) ? null : new ReadingBuffer(bufferSize);
+        }
+
+        void dispatch(Reading reading, int changes)
+        {
+            if ((filter != null) && ! filter.accept(reading, changes))
+            {
+                return;
+            }
+
+            if (executor == null)
+            {
+                // Filtered listeners miss Readings, so report changes since the last one they were given.
+                if (filter != null)
+                {
+                    changes = reading.getChanges(previous);
+                    previous = reading;
+                }
+
+                listener.readingEvent(reading, changes);
+                return;
+            }
+
+            buffer.offer(reading);
+            schedule();
+        }
+
+        private void schedule()
+        {
+            if (isScheduled.compareAndSet(false, true))
+            {
+                try
+                {
+                    executor.execute(this);
+                }
+                catch (RejectedExecutionException e)
+                {
+                    isScheduled.set(false);
+                }
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                Reading reading;
+
+                while ((reading = buffer.poll()) != null)
+                {
+                    int changes = reading.getChanges(previous);
+                    previous = reading;
+
+                    // As for inline listeners, a failure is reported and the rest of the buffer still delivered.
+                    try
+                    {
+                        listener.readingEvent(reading, changes);
+                    }
+                    catch (RuntimeException e)
+                    {
+                        System.err.println("Error in ReadingListener " + listener + ": " + e);
+                    }
+                }
+            }
+            finally
+            {
+                isScheduled.set(false);
+            }
+
+            // Catch anything offered after the last poll, but before the flag was cleared.
+            if ( ! buffer.isEmpty())
+            {
+                schedule();
+            }
+        }
+
+    }
+
+
     private static final class BitMask
     {
         public static final byte NIBBLE_HIGH = (byte) 0b1111_0000;
@@ -178,6 +292,22 @@ public final class Decoder
      * @throws ProtocolException If the packet is invalid or unable to decode.
      */
     public void decodeSerialData(byte[] buffer) throws ProtocolException
+    {
+        decodeSerialData(buffer, System.currentTimeMillis());
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Decodes a Protek 608 packet received at a given time, updates the Data object, and notifyies when complete using the EventListener.
+     * <p>
+     * Used to decode packets that were received earlier, i.e. when replaying a capture file, so Readings have their original timestamps.
+     *
+     * @param buffer    The packet as a byte array. Must be 43 bytes long.
+     * @param timestamp The time the packet was received in milliseconds.
+     *
+     * @throws ProtocolException If the packet is invalid or unable to decode.
+     */
+    public void decodeSerialData(byte[] buffer, long timestamp) throws ProtocolException
     {
         // Check packet length.
         if (buffer.length != 43)
@@ -216,7 +346,7 @@ public final class Decoder
             else if (buffer[i] == packetEndByte) // End of packet.
             {
                 data.packetTidy = packet; // Set the tidy packet value.
-                decodePacket(packet); // Decode the packet.
+                decodePacket(packet, timestamp); // Decode the packet.
                 return;
             }
             else
@@ -268,9 +398,10 @@ public final class Decoder
      * Decodes a complete serial packet from the Protek 608 DMM. The decoded data will populate the provided Data object.
      *
      * @param packet
+     * @param timestamp the time the packet was received in milliseconds since epoch.
      *
      */
-    private void decodePacket(byte[] packet)
+    private void decodePacket(byte[] packet, long timestamp)
     {
 
         // Main digit 4.
@@ -594,7 +725,7 @@ public final class Decoder
         }
 
         // Bar graph...
-        Integer barGraph = null;
+        int barGraph = -1;
 
         // Check if Bar Graph 0 segment active (i.e. bar graph displayed).
         if (checkMask(packet[4], BitMask.BAR_GRAPH_0))
@@ -618,7 +749,7 @@ public final class Decoder
             barGraph += ((packet[15] & BitMask.BAR_GRAPH_16K) << 9);
         }
 
-        data.barGraph = barGraph;
+        data.setBarGraph(barGraph);
 
         // Set annunciators...
         data.annunciators.autoOff = checkMask(packet[9], BitMask.FLAG_AUTO_OFF);
@@ -647,11 +778,58 @@ public final class Decoder
         data.annunciators.duty = checkMask(packet[3], BitMask.FLAG_DUTY);
         data.annunciators.continuity = checkMask(packet[3], BitMask.FLAG_CONTINUITY);
 
+        // Record value history now both values and units are known.
+        data.mainValue.update(timestamp);
+        data.subValue.update(timestamp);
+
+        // Publish a consistent snapshot for other threads.
+        Reading previous = data.getReading();
+        Reading reading = data.publish(timestamp);
+
         // Notify using the event listener if one is set.
         if (eventListener != null)
         {
             eventListener.dataUpdateEvent();
         }
+
+        // Notify all reading listeners.
+        Registration[] current = registrations;
+
+        if (current.length > 0)
+        {
+            int changes = reading.getChanges(previous);
+
+            for (Registration registration : current)
+            {
+                // A failing listener mustn't stop later listeners or the waiters, or reach the serial port thread.
+                try
+                {
+                    registration.dispatch(reading, changes);
+                }
+                catch (RuntimeException e)
+                {
+                    System.err.println("Error in ReadingListener " + registration.listener + ": " + e);
+                }
+            }
+        }
+
+        // Complete any waiters whose condition is now met.
+        ReadingFuture[] waiting = waiters;
+
+        if (waiting.length > 0)
+        {
+            boolean isAnyDone = false;
+
+            for (ReadingFuture waiter : waiting)
+            {
+                isAnyDone |= waiter.check(reading);
+            }
+
+            if (isAnyDone)
+            {
+                removeDoneWaiters();
+            }
+        }
     }
 
     //-----------------------------------------------------------------------
@@ -762,4 +940,196 @@ public final class Decoder
         this.eventListener = eventListener;
     }
 
+    //-----------------------------------------------------------------------
+    /**
+     * Adds a ReadingListener to be called on the decoder thread when a packet has been decoded.
+     * <p>
+     * The listener should return quickly, as the next packet isn't decoded until all inline listeners have returned. For anything slower use
+     * {@link #addReadingListener(ReadingListener, Executor)}. A RuntimeException thrown by the listener is reported to {@code System.err} and
+     * doesn't stop delivery to other listeners.
+     *
+     * @param listener the ReadingListener to add.
+     */
+    public void addReadingListener(ReadingListener listener)
+    {
+        addRegistration(new Registration(listener, null, null, 0));
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Adds a ReadingListener to be called using an Executor when a packet has been decoded.
+     * <p>
+     * Readings are delivered in order, one at a time. If the listener falls more than {@link #DEFAULT_BUFFER_SIZE} Readings behind, the oldest
+     * are dropped. A RuntimeException thrown by the listener is reported to {@code System.err}, and never reaches the Executor.
+     *
+     * @param listener the ReadingListener to add.
+     * @param executor the Executor used to call the listener.
+     */
+    public void addReadingListener(ReadingListener listener, Executor executor)
+    {
+        addReadingListener(listener, executor, DEFAULT_BUFFER_SIZE);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Adds a ReadingListener to be called using an Executor when a packet has been decoded.
+     * <p>
+     * Readings are delivered in order, one at a time. If the listener falls more than {@code bufferSize} Readings behind, the oldest are dropped.
+     *
+     * @param listener   the ReadingListener to add.
+     * @param executor   the Executor used to call the listener.
+     * @param bufferSize the number of Readings buffered for the listener.
+     */
+    public void addReadingListener(ReadingListener listener, Executor executor, int bufferSize)
+    {
+        if (executor == null)
+        {
+            throw new IllegalArgumentException("Executor must not be null.");
+        }
+
+        addRegistration(new Registration(listener, null, executor, bufferSize));
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Adds a ReadingListener to be called on the decoder thread when a packet has been decoded and accepted by a ReadingFilter.
+     * <p>
+     * The {@code changes} given to the listener are since the previous Reading it was given, not the previous Reading decoded.
+     *
+     * @param listener the ReadingListener to add.
+     * @param filter   the ReadingFilter deciding which Readings are delivered.
+     */
+    public void addReadingListener(ReadingListener listener, ReadingFilter filter)
+    {
+        addReadingListener(listener, filter, null, 0);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Adds a ReadingListener to be called when a packet has been decoded and accepted by a ReadingFilter.
+     * <p>
+     * The filter is checked on the decoder thread, so Readings that aren't accepted are never buffered or scheduled.
+     *
+     * @param listener   the ReadingListener to add.
+     * @param filter     the ReadingFilter deciding which Readings are delivered, or null for all.
+     * @param executor   the Executor used to call the listener, or null to call it on the decoder thread.
+     * @param bufferSize the number of Readings buffered for the listener (ignored without an Executor).
+     */
+    public void addReadingListener(ReadingListener listener, ReadingFilter filter, Executor executor, int bufferSize)
+    {
+        addRegistration(new Registration(listener, filter, executor, bufferSize));
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Removes a ReadingListener. If the listener was added more than once, all are removed.
+     *
+     * @param listener the ReadingListener to remove.
+     */
+    public synchronized void removeReadingListener(ReadingListener listener)
+    {
+        Registration[] current = registrations;
+        int count = 0;
+
+        for (Registration registration : current)
+        {
+            if (registration.listener != listener)
+            {
+                count ++;
+            }
+        }
+
+        Registration[] updated = new Registration[count];
+        int index = 0;
+
+        for (Registration registration : current)
+        {
+            if (registration.listener != listener)
+            {
+                updated[index ++] = registration;
+            }
+        }
+
+        registrations = updated;
+    }
+
+    //-----------------------------------------------------------------------
+    private synchronized void addRegistration(Registration registration)
+    {
+        if (registration.listener == null)
+        {
+            throw new IllegalArgumentException("ReadingListener must not be null.");
+        }
+
+        Registration[] current = registrations;
+        Registration[] updated = new Registration[current.length + 1];
+        System.arraycopy(current, 0, updated, 0, current.length);
+        updated[current.length] = registration;
+
+        registrations = updated;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Waits for a decoded Reading that meets a condition, without polling.
+     * <p>
+     * The condition is checked on the decoder thread after each packet (following all listeners), so the Future completes within one packet of
+     * the condition becoming true. Only packets decoded after this call are checked. If the timeout passes first, {@link Future#get()} throws an
+     * ExecutionException caused by a TimeoutException. Example usage:
+     * <pre>
+     * Reading reading = decoder.awaitReading(new ReadingCondition()
+     * {
+     *     public boolean isMet(Reading reading)
+     *     {
+     *         return ! reading.isAnnunciator(Reading.Annunciator.HOLD);
+     *     }
+     * }, 5, TimeUnit.SECONDS).get();
+     * </pre>
+     *
+     * @param condition the condition to wait for.
+     * @param timeout   how long to wait.
+     * @param unit      the unit of timeout.
+     *
+     * @return a Future completed with the first Reading that meets the condition.
+     */
+    public Future<Reading> awaitReading(ReadingCondition condition, long timeout, TimeUnit unit)
+    {
+        if ((condition == null) || (unit == null))
+        {
+            throw new IllegalArgumentException("ReadingCondition and TimeUnit must not be null.");
+        }
+
+        ReadingFuture waiter = new ReadingFuture(condition, timeout, unit);
+
+        synchronized (this)
+        {
+            ReadingFuture[] current = waiters;
+            ReadingFuture[] updated = new ReadingFuture[current.length + 1];
+            System.arraycopy(current, 0, updated, 0, current.length);
+            updated[current.length] = waiter;
+
+            waiters = updated;
+        }
+
+        return waiter;
+    }
+
+    //-----------------------------------------------------------------------
+    private synchronized void removeDoneWaiters()
+    {
+        ReadingFuture[] current = waiters;
+        ReadingFuture[] updated = new ReadingFuture[current.length];
+        int count = 0;
+
+        for (ReadingFuture waiter : current)
+        {
+            if ( ! waiter.isDone())
+            {
+                updated[count ++] = waiter;
+            }
+        }
+
+        waiters = Arrays.copyOf(updated, count);
+    }
+
 }
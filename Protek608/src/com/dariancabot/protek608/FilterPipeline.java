@@ -0,0 +1,483 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608;
+
+
+/**
+ * A ReadingListener that passes a value through a chain of filter stages to produce a derived value.
+ * <p>
+ * Stages are declared once and work on primitive doubles (in SI units), keeping their state in preallocated arrays, so each Reading is filtered
+ * without allocating. Non-numerical readings are skipped, and they or a change of unit reset every stage. Example usage:
+ * <pre>
+ * FilterPipeline pipeline = new FilterPipeline(Reading.Channel.MAIN,
+ *         new FilterPipeline.MovingMedian(5),
+ *         new FilterPipeline.Ema(0.2),
+ *         new FilterPipeline.ScaleOffset(1000, 0)); // Volts to millivolts.
+ * pipeline.setListener(myDerivedListener);
+ * protek608.addReadingListener(pipeline);
+ * </pre>
+ * Stages keep state, so each must only be used in one pipeline.
+ *
+ * @author Darian Cabot
+ */
+public final class FilterPipeline implements ReadingListener
+{
+    private final Reading.Channel channel;
+    private final int unitChange;
+    private final Stage[] stages;
+
+    private volatile Listener listener;
+    private volatile double output = Double.NaN;
+
+    /**
+     * A stage of a FilterPipeline.
+     */
+    public interface Stage
+    {
+
+        /**
+         * Processes the next value.
+         *
+         * @param timestamp the time of the value in milliseconds.
+         * @param value     the output of the previous stage.
+         *
+         * @return the output of this stage.
+         */
+        public double process(long timestamp, double value);
+
+        /**
+         * Clears any state, so the next value is processed as the first.
+         */
+        public void reset();
+
+    }
+
+    /**
+     * Receives derived values from a FilterPipeline.
+     */
+    public interface Listener
+    {
+
+        /**
+         * Called with the output of the last stage for each numerical Reading.
+         *
+         * @param reading the Reading the value was derived from.
+         * @param value   the derived value.
+         */
+        public void derivedEvent(Reading reading, double value);
+
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Creates a new FilterPipeline.
+     *
+     * @param channel the value to filter.
+     * @param stages  the stages to process the value through, in order.
+     */
+    public FilterPipeline(Reading.Channel channel, Stage... stages)
+    {
+        this.channel = channel;
+        this.unitChange = (channel == Reading.Channel.MAIN) ? Reading.Change.MAIN_UNIT : Reading.Change.SUB_UNIT;
+        this.stages = stages.clone();
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets the Listener to be given each derived value.
+     *
+     * @param listener the Listener, or null for none.
+     */
+    public void setListener(Listener listener)
+    {
+        this.listener = listener;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the last derived value.
+     *
+     * @return the output of the last stage, or NaN if there is none.
+     */
+    public double getOutput()
+    {
+        return output;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Passes a value through every stage. Can be used directly, without Readings.
+     *
+     * @param timestamp the time of the value in milliseconds.
+     * @param value     the value.
+     *
+     * @return the output of the last stage.
+     */
+    public double process(long timestamp, double value)
+    {
+        for (Stage stage : stages)
+        {
+            value = stage.process(timestamp, value);
+        }
+
+        output = value;
+
+        return value;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Resets every stage.
+     */
+    public void reset()
+    {
+        for (Stage stage : stages)
+        {
+            stage.reset();
+        }
+
+        output = Double.NaN;
+    }
+
+    //-----------------------------------------------------------------------
+    @Override
+    public void readingEvent(Reading reading, int changes)
+    {
+        Reading.Value value = reading.getValue(channel);
+
+        if (((changes & unitChange) != 0) || ! value.isNumeric())
+        {
+            reset();
+        }
+
+        if ( ! value.isNumeric())
+        {
+            return;
+        }
+
+        double derived = process(reading.getTimestamp(), value.getSiValue());
+
+        Listener listener = this.listener;
+
+        if (listener != null)
+        {
+            listener.derivedEvent(reading, derived);
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Median of the last N values, for removing spikes.
+     */
+    public static final class MovingMedian implements Stage
+    {
+        private final double[] ring;
+        private final double[] sorted;
+        private int count;
+        private int next;
+
+        /**
+         * Creates a new MovingMedian stage.
+         *
+         * @param window the number of values, at least 1.
+         */
+        public MovingMedian(int window)
+        {
+            if (window < 1)
+            {
+                throw new IllegalArgumentException("Window " + window + " is less than 1.");
+            }
+
+            ring = new double[window];
+            sorted = new double[window];
+        }
+
+        @Override
+        public double process(long timestamp, double value)
+        {
+            if (count == ring.length)
+            {
+                remove(ring[next]);
+            }
+
+            insert(value);
+            ring[next] = value;
+            next = (next + 1) % ring.length;
+
+            if ((count % 2) == 1)
+            {
+                return sorted[count / 2];
+            }
+
+            return (sorted[(count / 2) - 1] + sorted[count / 2]) / 2;
+        }
+
+        @Override
+        public void reset()
+        {
+            count = 0;
+            next = 0;
+        }
+
+        private void insert(double value)
+        {
+            int index = count;
+
+            while ((index > 0) && (sorted[index - 1] > value))
+            {
+                sorted[index] = sorted[index - 1];
+                index --;
+            }
+
+            sorted[index] = value;
+            count ++;
+        }
+
+        private void remove(double value)
+        {
+            int index = 0;
+
+            while ((index < count - 1) && (sorted[index] != value))
+            {
+                index ++;
+            }
+
+            System.arraycopy(sorted, index + 1, sorted, index, count - index - 1);
+            count --;
+        }
+
+    }
+
+    /**
+     * Exponential moving average, for smoothing.
+     */
+    public static final class Ema implements Stage
+    {
+        private final double alpha;
+        private double average = Double.NaN;
+
+        /**
+         * Creates a new Ema stage.
+         *
+         * @param alpha the weight given to each new value, from 0 (exclusive) to 1 (no smoothing).
+         */
+        public Ema(double alpha)
+        {
+            if ( ! ((alpha > 0) && (alpha <= 1)))
+            {
+                throw new IllegalArgumentException("Alpha " + alpha + " is not between 0 and 1.");
+            }
+
+            this.alpha = alpha;
+        }
+
+        @Override
+        public double process(long timestamp, double value)
+        {
+            average = Double.isNaN(average) ? value : average + (alpha * (value - average));
+
+            return average;
+        }
+
+        @Override
+        public void reset()
+        {
+            average = Double.NaN;
+        }
+
+    }
+
+    /**
+     * Rate of change per second, i.e. volts per second. The first value gives 0.
+     */
+    public static final class RateOfChange implements Stage
+    {
+        private long lastTimestamp;
+        private double lastValue = Double.NaN;
+        private double rate;
+
+        @Override
+        public double process(long timestamp, double value)
+        {
+            // Repeated timestamps keep the last rate, rather than dividing by zero.
+            if (Double.isNaN(lastValue))
+            {
+                rate = 0;
+            }
+            else if (timestamp != lastTimestamp)
+            {
+                rate = (value - lastValue) * 1000 / (timestamp - lastTimestamp);
+            }
+
+            lastTimestamp = timestamp;
+            lastValue = value;
+
+            return rate;
+        }
+
+        @Override
+        public void reset()
+        {
+            lastValue = Double.NaN;
+        }
+
+    }
+
+    /**
+     * Limits values to a range.
+     */
+    public static final class Clamp implements Stage
+    {
+        private final double minimum;
+        private final double maximum;
+
+        /**
+         * Creates a new Clamp stage.
+         *
+         * @param minimum the lowest value output.
+         * @param maximum the highest value output.
+         */
+        public Clamp(double minimum, double maximum)
+        {
+            if (maximum < minimum)
+            {
+                throw new IllegalArgumentException("Maximum " + maximum + " is less than minimum " + minimum + ".");
+            }
+
+            this.minimum = minimum;
+            this.maximum = maximum;
+        }
+
+        @Override
+        public double process(long timestamp, double value)
+        {
+            return Math.max(minimum, Math.min(maximum, value));
+        }
+
+        @Override
+        public void reset()
+        {
+        }
+
+    }
+
+    /**
+     * Multiplies then adds, i.e. for unit conversion or sensor calibration.
+     */
+    public static final class ScaleOffset implements Stage
+    {
+        private final double scale;
+        private final double offset;
+
+        /**
+         * Creates a new ScaleOffset stage.
+         *
+         * @param scale  the multiplier.
+         * @param offset the amount added after scaling.
+         */
+        public ScaleOffset(double scale, double offset)
+        {
+            this.scale = scale;
+            this.offset = offset;
+        }
+
+        @Override
+        public double process(long timestamp, double value)
+        {
+            return (value * scale) + offset;
+        }
+
+        @Override
+        public void reset()
+        {
+        }
+
+    }
+
+    /**
+     * Only changes output once a new value has been held (within a tolerance) for a number of consecutive values.
+     */
+    public static final class Debounce implements Stage
+    {
+        private final int count;
+        private final double tolerance;
+        private double output = Double.NaN;
+        private double candidate;
+        private int held;
+
+        /**
+         * Creates a new Debounce stage.
+         *
+         * @param count     the number of consecutive values a new value must be held for, at least 1.
+         * @param tolerance how far values may differ and still be the same value.
+         */
+        public Debounce(int count, double tolerance)
+        {
+            if (count < 1)
+            {
+                throw new IllegalArgumentException("Count " + count + " is less than 1.");
+            }
+
+            this.count = count;
+            this.tolerance = tolerance;
+        }
+
+        @Override
+        public double process(long timestamp, double value)
+        {
+            if (Double.isNaN(output))
+            {
+                output = value;
+                candidate = value;
+                held = count;
+                return output;
+            }
+
+            if (Math.abs(value - candidate) <= tolerance)
+            {
+                held ++;
+            }
+            else
+            {
+                candidate = value;
+                held = 1;
+            }
+
+            if ((held >= count) && (Math.abs(candidate - output) > tolerance))
+            {
+                output = candidate;
+            }
+
+            return output;
+        }
+
+        @Override
+        public void reset()
+        {
+            output = Double.NaN;
+        }
+
+    }
+
+}
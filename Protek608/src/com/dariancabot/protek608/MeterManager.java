@@ -0,0 +1,583 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import jssc.SerialPort;
+import jssc.SerialPortException;
+
+
+/**
+ * Meter Manager Object.
+ * <p>
+ * Owns the connections to many Protek 608 multimeters, servicing them all from a small fixed pool of threads. Rather than a jSSC event thread
+ * per port, each pool thread repeatedly sweeps its share of the meters, reading whatever bytes are waiting without blocking, and only sleeps when
+ * a whole sweep finds nothing. The thread count stays the same however many meters are added.
+ * <p>
+ * Each meter has its own {@link Communications}, {@link Decoder} and {@link Data}, so state is never shared between meters. Readings from every
+ * meter are delivered to {@link MeterReadingListener}s with the meter's ID. Listeners are called on the pool thread, so one that is slow holds
+ * up the other meters on that thread; slow work should be handed to an Executor. Example usage:
+ * <pre>
+ * MeterManager manager = new MeterManager(2);
+ * manager.addReadingListener(myListener);
+ *
+ * for (int i = 0; i &lt; 64; i ++)
+ * {
+ *     manager.addMeter("rack-" + i, "/dev/ttyUSB" + i);
+ * }
+ * </pre>
+ *
+ * @author Darian Cabot
+ */
+public final class MeterManager implements Closeable
+{
+    /**
+     * The default time a poll thread sleeps after a sweep reads nothing, in milliseconds.
+     */
+    public static final long DEFAULT_POLL_INTERVAL = 10;
+
+    private final PollThread[] pollThreads;
+    private final List<Meter> meters = new ArrayList<>();
+    private volatile MeterReadingListener[] listeners = new MeterReadingListener[0]; // Copy-on-write.
+    private volatile long pollInterval = DEFAULT_POLL_INTERVAL;
+    private volatile boolean isRunning = true;
+
+
+    /**
+     * One multimeter connection of a MeterManager.
+     */
+    public final class Meter
+    {
+        private final String id;
+        private final SerialPort serialPort;
+        private final Data data = new Data();
+        private final Decoder decoder = new Decoder(data);
+        private final Communications communications;
+        private PollThread pollThread;
+        private volatile long bytesReceived;
+        private volatile long errors;
+        private volatile Exception lastError;
+
+        private Meter(String id, SerialPort serialPort)
+        {
+            this.id = id;
+            this.serialPort = serialPort;
+            this.communications = new Communications(serialPort, decoder);
+
+            decoder.addReadingListener(new ReadingListener()
+            {
+                @Override
+                public void readingEvent(Reading reading, int changes)
+                {
+                    for (MeterReadingListener listener : listeners)
+                    {
+                        listener.readingEvent(Meter.this.id, reading, changes);
+                    }
+                }
+
+            });
+        }
+
+        /**
+         * Gets the meter's ID.
+         *
+         * @return the ID.
+         */
+        public String getId()
+        {
+            return id;
+        }
+
+        /**
+         * Gets the meter's Data, as {@link Protek608#data}.
+         *
+         * @return the Data.
+         */
+        public Data getData()
+        {
+            return data;
+        }
+
+        /**
+         * Gets the meter's Decoder, to add listeners for this meter only.
+         *
+         * @return the Decoder.
+         */
+        public Decoder getDecoder()
+        {
+            return decoder;
+        }
+
+        /**
+         * Gets the SerialPort of the meter.
+         *
+         * @return the SerialPort.
+         */
+        public SerialPort getSerialPort()
+        {
+            return serialPort;
+        }
+
+        /**
+         * Sends a command to the meter.
+         *
+         * @param command the command to send.
+         *
+         * @return true if sent, false if the port is closed or the write failed.
+         */
+        public boolean sendCommand(Protek608.Commands command)
+        {
+            if ( ! serialPort.isOpened())
+            {
+                return false;
+            }
+
+            try
+            {
+                return serialPort.writeByte((byte) command.getValue());
+            }
+            catch (SerialPortException e)
+            {
+                lastError = e;
+
+                return false;
+            }
+        }
+
+        /**
+         * Gets the number of bytes received from the meter.
+         *
+         * @return the number of bytes.
+         */
+        public long getBytesReceived()
+        {
+            return bytesReceived;
+        }
+
+        /**
+         * Gets the number of errors reading from or decoding the meter (written only by the meter's poll thread). Errors don't stop the meter
+         * (or any other meter) being polled.
+         *
+         * @return the number of errors.
+         */
+        public long getErrors()
+        {
+            return errors;
+        }
+
+        /**
+         * Gets the most recent error reading from, writing to or decoding the meter.
+         *
+         * @return the error, or null if none.
+         */
+        public Exception getLastError()
+        {
+            return lastError;
+        }
+
+        /**
+         * Reads and decodes any bytes waiting, without blocking. Only called by the meter's poll thread.
+         */
+        private boolean poll()
+        {
+            try
+            {
+                int count = serialPort.getInputBufferBytesCount();
+
+                if (count <= 0)
+                {
+                    return false;
+                }
+
+                byte[] rxBuffer = serialPort.readBytes(count);
+
+                if (rxBuffer == null)
+                {
+                    return false;
+                }
+
+                bytesReceived += rxBuffer.length;
+                communications.receiveBytes(rxBuffer, System.currentTimeMillis());
+
+                return true;
+            }
+            catch (SerialPortException | RuntimeException e) // Includes ProtocolException.
+            {
+                lastError = e;
+                errors ++;
+
+                return false;
+            }
+        }
+
+    }
+
+
+    /**
+     * A pool thread, sweeping its share of the meters.
+     */
+    private final class PollThread extends Thread
+    {
+        private volatile Meter[] assigned = new Meter[0]; // Copy-on-write, under the MeterManager lock.
+        private final Queue<Meter> removed = new ConcurrentLinkedQueue<>(); // Closed by this thread, never while being polled.
+
+        private PollThread(int index)
+        {
+            super("MeterManager-" + index);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run()
+        {
+            while (isRunning)
+            {
+                boolean isAnyReceived = false;
+
+                for (Meter meter : assigned)
+                {
+                    isAnyReceived |= meter.poll();
+                }
+
+                closeRemoved();
+
+                if ( ! isAnyReceived)
+                {
+                    try
+                    {
+                        Thread.sleep(pollInterval);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        return; // Closed.
+                    }
+                }
+            }
+        }
+
+        /**
+         * Closes the Serial Ports of the meters removed from this thread, once they're no longer being polled.
+         */
+        private void closeRemoved()
+        {
+            Meter meter;
+
+            while ((meter = removed.poll()) != null)
+            {
+                closePort(meter);
+            }
+        }
+
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Creates a new MeterManager, starting its poll threads.
+     *
+     * @param threads the number of poll threads, normally 1 or 2 however many meters are added.
+     */
+    public MeterManager(int threads)
+    {
+        if (threads < 1)
+        {
+            throw new IllegalArgumentException("MeterManager needs at least one thread: " + threads);
+        }
+
+        pollThreads = new PollThread[threads];
+
+        for (int i = 0; i < threads; i ++)
+        {
+            pollThreads[i] = new PollThread(i);
+            pollThreads[i].start();
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets how long a poll thread sleeps after a sweep of its meters reads nothing. Shorter intervals reduce latency at the cost of more wakeups.
+     *
+     * @param pollInterval the interval in milliseconds, default {@link #DEFAULT_POLL_INTERVAL}.
+     */
+    public void setPollInterval(long pollInterval)
+    {
+        if (pollInterval < 1)
+        {
+            throw new IllegalArgumentException("Poll interval must be at least 1 ms: " + pollInterval);
+        }
+
+        this.pollInterval = pollInterval;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Opens a Serial Port and adds the meter connected to it.
+     *
+     * @param id       the meter's ID, delivered with each of its Readings.
+     * @param portName the String representation of the Serial Port (i.e. "COM3").
+     *
+     * @return the new Meter.
+     *
+     * @throws SerialPortException if the port can't be opened.
+     */
+    public Meter addMeter(String id, String portName) throws SerialPortException
+    {
+        SerialPort serialPort = new SerialPort(portName);
+        serialPort.openPort();
+
+        try
+        {
+            serialPort.setParams(9600, 7, 1, 0);
+
+            return addMeter(id, serialPort);
+        }
+        catch (SerialPortException | RuntimeException e)
+        {
+            serialPort.closePort();
+            throw e;
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Adds a meter connected to a Serial Port that is already open. The port must not have a SerialPortEventListener, it is polled instead.
+     *
+     * @param id         the meter's ID, delivered with each of its Readings.
+     * @param serialPort the open SerialPort.
+     *
+     * @return the new Meter.
+     */
+    public synchronized Meter addMeter(String id, SerialPort serialPort)
+    {
+        if ( ! isRunning)
+        {
+            throw new IllegalStateException("MeterManager is closed.");
+        }
+
+        if (getMeter(id) != null)
+        {
+            throw new IllegalArgumentException("Meter ID already added: " + id);
+        }
+
+        Meter meter = new Meter(id, serialPort);
+
+        // Balance meters across the poll threads.
+        PollThread pollThread = pollThreads[0];
+
+        for (PollThread candidate : pollThreads)
+        {
+            if (candidate.assigned.length < pollThread.assigned.length)
+            {
+                pollThread = candidate;
+            }
+        }
+
+        Meter[] current = pollThread.assigned;
+        Meter[] updated = new Meter[current.length + 1];
+        System.arraycopy(current, 0, updated, 0, current.length);
+        updated[current.length] = meter;
+
+        meter.pollThread = pollThread;
+        pollThread.assigned = updated;
+        meters.add(meter);
+
+        return meter;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Removes a meter. Its Serial Port is closed by the meter's poll thread at the end of the current sweep, so the port is never closed while
+     * being read.
+     *
+     * @param id the meter's ID.
+     *
+     * @return true if removed, false if there is no meter with the ID.
+     */
+    public synchronized boolean removeMeter(String id)
+    {
+        Meter meter = getMeter(id);
+
+        if (meter == null)
+        {
+            return false;
+        }
+
+        Meter[] current = meter.pollThread.assigned;
+        Meter[] updated = new Meter[current.length - 1];
+        int index = 0;
+
+        for (Meter assigned : current)
+        {
+            if (assigned != meter)
+            {
+                updated[index ++] = assigned;
+            }
+        }
+
+        meter.pollThread.assigned = updated;
+        meter.pollThread.removed.add(meter);
+        meters.remove(meter);
+
+        return true;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets a meter by ID.
+     *
+     * @param id the meter's ID.
+     *
+     * @return the Meter, or null if there is no meter with the ID.
+     */
+    public synchronized Meter getMeter(String id)
+    {
+        for (Meter meter : meters)
+        {
+            if (meter.id.equals(id))
+            {
+                return meter;
+            }
+        }
+
+        return null;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets all of the meters, in the order they were added.
+     *
+     * @return a copy of the list of Meters.
+     */
+    public synchronized List<Meter> getMeters()
+    {
+        return new ArrayList<>(meters);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Adds a MeterReadingListener to be called with the Readings of every meter.
+     *
+     * @param listener the MeterReadingListener to add.
+     */
+    public synchronized void addReadingListener(MeterReadingListener listener)
+    {
+        if (listener == null)
+        {
+            throw new IllegalArgumentException("MeterReadingListener must not be null.");
+        }
+
+        MeterReadingListener[] current = listeners;
+        MeterReadingListener[] updated = new MeterReadingListener[current.length + 1];
+        System.arraycopy(current, 0, updated, 0, current.length);
+        updated[current.length] = listener;
+
+        listeners = updated;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Removes a MeterReadingListener. If the listener was added more than once, all are removed.
+     *
+     * @param listener the MeterReadingListener to remove.
+     */
+    public synchronized void removeReadingListener(MeterReadingListener listener)
+    {
+        List<MeterReadingListener> updated = new ArrayList<>();
+
+        for (MeterReadingListener current : listeners)
+        {
+            if (current != listener)
+            {
+                updated.add(current);
+            }
+        }
+
+        listeners = updated.toArray(new MeterReadingListener[updated.size()]);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Stops the poll threads, and closes the Serial Ports of all meters.
+     */
+    @Override
+    public void close()
+    {
+        isRunning = false;
+
+        for (PollThread pollThread : pollThreads)
+        {
+            pollThread.interrupt();
+        }
+
+        for (PollThread pollThread : pollThreads)
+        {
+            try
+            {
+                pollThread.join(TimeUnit.SECONDS.toMillis(1));
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        synchronized (this)
+        {
+            // The poll threads have stopped, so close the ports here, including any removed but not yet closed.
+            for (PollThread pollThread : pollThreads)
+            {
+                pollThread.closeRemoved();
+            }
+
+            for (Meter meter : meters)
+            {
+                closePort(meter);
+            }
+
+            meters.clear();
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    private void closePort(Meter meter)
+    {
+        try
+        {
+            if (meter.serialPort.isOpened())
+            {
+                meter.serialPort.closePort();
+            }
+        }
+        catch (SerialPortException spe)
+        {
+            System.err.println("Error closing Serial Port: " + spe.getMessage());
+        }
+    }
+
+}
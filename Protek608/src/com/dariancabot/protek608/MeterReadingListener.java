@@ -0,0 +1,44 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608;
+
+
+/**
+ * The MeterReadingListener interface is used to receive each decoded {@link Reading} from any of the meters of a {@link MeterManager}.
+ *
+ * @author Darian Cabot
+ */
+public interface MeterReadingListener
+{
+
+    /**
+     * This method is called when a packet has been decoded, on the MeterManager thread polling the meter.
+     *
+     * @param meterId the ID of the meter the Reading is from, see {@link MeterManager#addMeter(String, String)}.
+     * @param reading the decoded Reading.
+     * @param changes a bit field of what changed since the meter's previous Reading, see {@link Reading.Change}.
+     */
+    public void readingEvent(String meterId, Reading reading, int changes);
+
+}
@@ -23,6 +23,12 @@
  */
 package com.dariancabot.protek608;
 
+import com.dariancabot.protek608.capture.CaptureReader;
+import com.dariancabot.protek608.capture.CaptureReplay;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import jssc.SerialPort;
 import jssc.SerialPortException;
 
@@ -45,6 +51,7 @@ public final class Protek608
 
     private String[] portNames;
     private boolean isConnected;
+    private volatile CaptureReplay replay;
 
     /**
      * Stores all of the readings data, both most recent and statistical.
@@ -223,9 +230,16 @@ public final class Protek608
      * @param port The String reprentation of the Serial Port (i.e. "COM3")
      *
      * @return true if connection successful, otherwise false.
+     *
+     * @throws IllegalStateException if a capture file is being replayed.
      */
-    public boolean connectSerialPort(String port)
+    public synchronized boolean connectSerialPort(String port)
     {
+        if (replay != null)
+        {
+            throw new IllegalStateException("Can't connect while replaying.");
+        }
+
         if ( ! isConnected)
         {
             if ( ! port.isEmpty())
@@ -244,7 +258,7 @@ public final class Protek608
     /**
      * Disconnects/closes the Serial Port connection.
      */
-    public void disconnectSerialPort()
+    public synchronized void disconnectSerialPort()
     {
         if (isConnected)
         {
@@ -253,11 +267,84 @@ public final class Protek608
                 serialPort.closePort();
                 isConnected = false;
                 data.mainValue.statistics.setEnabled(false);
+                data.mainValue.statistics.checkpoint();
             }
             catch (SerialPortException spe)
             {
                 System.err.println("Error closing Serial Port: " + spe.getMessage());
             }
+            catch (IOException ioe)
+            {
+                System.err.println("Error writing statistics checkpoint: " + ioe.getMessage());
+            }
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Replays a capture file as if it were received over the Serial Port, through the same framing and decoder as a live meter. Listeners,
+     * waiters, publishers, and the {@link #data} statistics receive the replayed Readings exactly as they would live ones. Statistics are
+     * enabled for the replay and checkpointed after it, as for a connection.
+     * <p>
+     * The replay runs on the calling thread, and can be stopped from another with {@link #stopReplay()}.
+     *
+     * @param reader the capture file to replay.
+     * @param speed  the speed factor, i.e. 1 for real time, or {@link CaptureReplay#MAX_SPEED}.
+     *
+     * @return the finished CaptureReplay, for its throughput.
+     *
+     * @throws IllegalStateException if connected, or already replaying.
+     */
+    public CaptureReplay replay(CaptureReader reader, double speed)
+    {
+        CaptureReplay capture = new CaptureReplay(reader, new Communications(null, decoder));
+        capture.setSpeed(speed);
+
+        synchronized (this)
+        {
+            if (isConnected || (replay != null))
+            {
+                throw new IllegalStateException("Can't replay while connected or already replaying.");
+            }
+
+            replay = capture;
+        }
+
+        data.mainValue.statistics.setEnabled(true);
+
+        try
+        {
+            capture.run();
+        }
+        finally
+        {
+            replay = null;
+            data.mainValue.statistics.setEnabled(false);
+
+            try
+            {
+                data.mainValue.statistics.checkpoint();
+            }
+            catch (IOException ioe)
+            {
+                System.err.println("Error writing statistics checkpoint: " + ioe.getMessage());
+            }
+        }
+
+        return capture;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Stops a running {@link #replay(CaptureReader, double)} after the current packet.
+     */
+    public void stopReplay()
+    {
+        CaptureReplay current = replay;
+
+        if (current != null)
+        {
+            current.stop();
         }
     }
 
@@ -310,4 +397,94 @@ public final class Protek608
         this.decoder.setEventListener(eventListener);
     }
 
+    //-----------------------------------------------------------------------
+    /**
+     * Adds a ReadingListener to be called on the decoder thread when data is received over the Serial Port.
+     *
+     * @param listener the ReadingListener to add.
+     *
+     * @see Decoder#addReadingListener(ReadingListener)
+     */
+    public void addReadingListener(ReadingListener listener)
+    {
+        decoder.addReadingListener(listener);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Adds a ReadingListener to be called using an Executor when data is received over the Serial Port.
+     *
+     * @param listener the ReadingListener to add.
+     * @param executor the Executor used to call the listener.
+     *
+     * @see Decoder#addReadingListener(ReadingListener, Executor)
+     */
+    public void addReadingListener(ReadingListener listener, Executor executor)
+    {
+        decoder.addReadingListener(listener, executor);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Adds a ReadingListener to be called when data is received over the Serial Port and accepted by a ReadingFilter, such as a
+     * {@link ChangeFilter}.
+     *
+     * @param listener the ReadingListener to add.
+     * @param filter   the ReadingFilter deciding which Readings are delivered.
+     * @param executor the Executor used to call the listener, or null to call it on the decoder thread.
+     *
+     * @see Decoder#addReadingListener(ReadingListener, ReadingFilter, Executor, int)
+     */
+    public void addReadingListener(ReadingListener listener, ReadingFilter filter, Executor executor)
+    {
+        decoder.addReadingListener(listener, filter, executor, Decoder.DEFAULT_BUFFER_SIZE);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Removes a ReadingListener.
+     *
+     * @param listener the ReadingListener to remove.
+     */
+    public void removeReadingListener(ReadingListener listener)
+    {
+        decoder.removeReadingListener(listener);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Waits for a Reading received over the Serial Port that meets a condition, i.e. for a value to settle, a unit to appear, or hold to clear.
+     *
+     * @param condition the condition to wait for.
+     * @param timeout   how long to wait.
+     * @param unit      the unit of timeout.
+     *
+     * @return a Future completed with the first Reading that meets the condition.
+     *
+     * @see Decoder#awaitReading(ReadingCondition, long, TimeUnit)
+     */
+    public Future<Reading> awaitReading(ReadingCondition condition, long timeout, TimeUnit unit)
+    {
+        return decoder.awaitReading(condition, timeout, unit);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Creates a ReadingPublisher for reactive pipelines, and adds it as a ReadingListener.
+     * <p>
+     * To stop publishing, remove it with {@link #removeReadingListener(ReadingListener)} and call {@link ReadingPublisher#close()}.
+     *
+     * @param executor   the Executor used to signal subscribers.
+     * @param bufferSize the number of Readings buffered per subscriber before the oldest are dropped (1 conflates to the latest).
+     *
+     * @return the new ReadingPublisher.
+     */
+    public ReadingPublisher createReadingPublisher(Executor executor, int bufferSize)
+    {
+        ReadingPublisher publisher = new ReadingPublisher(executor, bufferSize);
+        decoder.addReadingListener(publisher);
+
+        return publisher;
+    }
+
 }
@@ -0,0 +1,500 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608;
+
+import com.dariancabot.protek608.Data.Value.Unit.Measurement;
+import com.dariancabot.protek608.Data.Value.Unit.Prefix;
+import com.dariancabot.protek608.Data.Value.Unit.Type;
+
+
+/**
+ * An immutable snapshot of one decoded packet.
+ * <p>
+ * The {@link Decoder} publishes a new Reading through {@link Data#getReading()} once every field of a packet has been decoded. Unlike the public
+ * fields of {@link Data}, which are updated one at a time on the serial thread, a Reading is always consistent and can safely be shared with
+ * any thread without locking.
+ *
+ * @author Darian Cabot
+ */
+public final class Reading
+{
+    private final long sequence;
+    private final long timestamp;
+    private final Value mainValue;
+    private final Value subValue;
+    private final int barGraph;
+    private final int annunciators;
+    private final byte[] packetRaw;
+
+
+    /**
+     * Selects the main or sub value of a Reading.
+     */
+    public enum Channel
+    {
+        /**
+         * The main (large) reading on the DMM.
+         */
+        MAIN,
+        /**
+         * The sub (small) reading on the DMM.
+         */
+        SUB;
+
+    }
+
+
+    /**
+     * Bit masks for the annunciator bit field returned by {@link #getAnnunciators()}.
+     * <p>
+     * Each mask matches the field of the same name in {@link Data.Annunciators}.
+     */
+    public static final class Annunciator
+    {
+        public static final int AUTO_OFF = 1;
+        public static final int PULSE = 1 << 1;
+        public static final int MAXIMUM = 1 << 2;
+        public static final int POS_PEAK = 1 << 3;
+        public static final int RELATIVE = 1 << 4;
+        public static final int RECALL = 1 << 5;
+        public static final int GO_NG = 1 << 6;
+        public static final int POS_PERCENT = 1 << 7;
+        public static final int RS232C = 1 << 8;
+        public static final int POSITIVE = 1 << 9;
+        public static final int NEGATIVE = 1 << 10;
+        public static final int MINIMUM = 1 << 11;
+        public static final int NEG_PEAK = 1 << 12;
+        public static final int AVERAGE = 1 << 13;
+        public static final int STORE = 1 << 14;
+        public static final int REFERENCE = 1 << 15;
+        public static final int NEG_PERCENT = 1 << 16;
+        public static final int LOW_BATTERY = 1 << 17;
+        public static final int RANGE = 1 << 18;
+        public static final int HOLD = 1 << 19;
+        public static final int DUTY = 1 << 20;
+        public static final int CONTINUITY = 1 << 21;
+        public static final int ZENER_DIODE = 1 << 22;
+
+        /**
+         * The number of annunciators.
+         */
+        public static final int COUNT = 23;
+
+        private static final String[] NAMES =
+        {
+            "autoOff", "pulse", "maximum", "posPeak", "relative", "recall", "goNg", "posPercent", "rs232c", "positive", "negative", "minimum",
+            "negPeak", "average", "store", "reference", "negPercent", "lowBattery", "range", "hold", "duty", "continuity", "zenerDiode"
+        };
+
+        private Annunciator()
+        {
+        }
+
+        /**
+         * Gets the name of an annunciator, matching the field name in {@link Data.Annunciators}.
+         *
+         * @param bit the bit number (0 to {@link #COUNT} - 1), not the mask.
+         *
+         * @return the annunciator name.
+         */
+        public static String getName(int bit)
+        {
+            return NAMES[bit];
+        }
+
+    }
+
+
+    /**
+     * Bit masks for the change bit field passed to {@link ReadingListener#readingEvent(Reading, int)}.
+     */
+    public static final class Change
+    {
+        /**
+         * The main value (as displayed) changed.
+         */
+        public static final int MAIN_VALUE = 1;
+        /**
+         * The main value unit (type, prefix, or measurement) changed.
+         */
+        public static final int MAIN_UNIT = 1 << 1;
+        /**
+         * The sub value (as displayed) changed.
+         */
+        public static final int SUB_VALUE = 1 << 2;
+        /**
+         * The sub value unit (type, prefix, or measurement) changed.
+         */
+        public static final int SUB_UNIT = 1 << 3;
+        /**
+         * The bar graph changed (including being shown or hidden).
+         */
+        public static final int BAR_GRAPH = 1 << 4;
+        /**
+         * One or more annunciators changed.
+         */
+        public static final int ANNUNCIATORS = 1 << 5;
+        /**
+         * Everything changed (i.e. the first Reading).
+         */
+        public static final int ALL = MAIN_VALUE | MAIN_UNIT | SUB_VALUE | SUB_UNIT | BAR_GRAPH | ANNUNCIATORS;
+
+        private Change()
+        {
+        }
+
+    }
+
+
+    /**
+     * An immutable snapshot of a {@link Data.Value} and its measurement unit.
+     */
+    public static final class Value
+    {
+        private final String value;
+        private final String valueVerbatim;
+        private final double numericValue;
+        private final double siValue;
+        private final Type type;
+        private final Prefix prefix;
+        private final Measurement measurement;
+
+        Value(Data.Value value)
+        {
+            this.value = value.getValue();
+            this.valueVerbatim = value.getValueVerbatim();
+            this.type = value.unit.getType();
+            this.prefix = value.unit.getPrefix();
+            this.measurement = value.unit.getMeasurement();
+
+            this.numericValue = value.getNumericValue();
+            this.siValue = value.getSiValue();
+        }
+
+        /**
+         * Gets the value as displayed on the LCD, trimmed of whitespace.
+         *
+         * @return the value, see {@link Data.Value#getValue()}.
+         */
+        public String getValue()
+        {
+            return value;
+        }
+
+        /**
+         * Gets the value as displayed on the LCD including whitespace padding.
+         *
+         * @return the value, see {@link Data.Value#getValueVerbatim()}.
+         */
+        public String getValueVerbatim()
+        {
+            return valueVerbatim;
+        }
+
+        /**
+         * Checks if the value is numerical.
+         *
+         * @return true if numerical, false for words on LCD like "Shrt", "OPEn".
+         */
+        public boolean isNumeric()
+        {
+            return ! Double.isNaN(numericValue);
+        }
+
+        /**
+         * Gets the value as displayed (not scaled by the unit prefix).
+         *
+         * @return the numerical value, or NaN if not numerical.
+         */
+        public double getNumericValue()
+        {
+            return numericValue;
+        }
+
+        /**
+         * Gets the value scaled to its base unit by the unit prefix (i.e. 1.5 mV is 0.0015).
+         *
+         * @return the SI value, or NaN if not numerical.
+         */
+        public double getSiValue()
+        {
+            return siValue;
+        }
+
+        /**
+         * Gets the resolution of the value as displayed, that is one count of the last digit scaled to its base unit (i.e. "1.50" mV is
+         * 0.00001).
+         *
+         * @return the SI value of one count, or NaN if not numerical.
+         */
+        public double getResolution()
+        {
+            if (Double.isNaN(siValue))
+            {
+                return Double.NaN;
+            }
+
+            int point = value.indexOf('.');
+            int decimals = (point < 0) ? 0 : value.length() - point - 1;
+
+            return Math.pow(10, prefix.getExponent() - decimals);
+        }
+
+        /**
+         * Gets the unit as a single code, for compact storage. The code is {@code (type << 16) | (prefix << 8) | measurement}, using the ordinal
+         * of each, so {@code Type.values()[(code >> 16) & 0xff]} gives the type back.
+         *
+         * @return the unit code.
+         */
+        public int getUnitCode()
+        {
+            return (type.ordinal() << 16) | (prefix.ordinal() << 8) | measurement.ordinal();
+        }
+
+        /**
+         * Gets the signal type.
+         *
+         * @return the signal type.
+         */
+        public Type getType()
+        {
+            return type;
+        }
+
+        /**
+         * Gets the measurement unit prefix.
+         *
+         * @return the measurement unit prefix.
+         */
+        public Prefix getPrefix()
+        {
+            return prefix;
+        }
+
+        /**
+         * Gets the measurement type.
+         *
+         * @return the measurement type.
+         */
+        public Measurement getMeasurement()
+        {
+            return measurement;
+        }
+
+        /**
+         * The value as a string not including the measurement unit.
+         *
+         * @return a String representation of the value.
+         */
+        @Override
+        public String toString()
+        {
+            return value;
+        }
+
+        /**
+         * Checks if the displayed value is the same as another.
+         *
+         * @param other the Value to compare to.
+         *
+         * @return true if the displayed value (including whitespace) is the same.
+         */
+        private boolean isSameValue(Value other)
+        {
+            return (valueVerbatim == null) ? (other.valueVerbatim == null) : valueVerbatim.equals(other.valueVerbatim);
+        }
+
+        /**
+         * Checks if the measurement unit is the same as another.
+         *
+         * @param other the Value to compare to.
+         *
+         * @return true if the type, prefix, and measurement are all the same.
+         */
+        private boolean isSameUnit(Value other)
+        {
+            return (type == other.type) && (prefix == other.prefix) && (measurement == other.measurement);
+        }
+
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Creates a snapshot of the current state of a Data object.
+     *
+     * @param sequence  the sequence number of the packet.
+     * @param timestamp the time the packet was received in milliseconds since epoch.
+     * @param data      the Data object to copy.
+     */
+    Reading(long sequence, long timestamp, Data data)
+    {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.mainValue = new Value(data.mainValue);
+        this.subValue = new Value(data.subValue);
+        this.barGraph = data.getBarGraphValue();
+        this.annunciators = data.annunciators.getBits();
+        this.packetRaw = (data.packetRaw == null) ? null : data.packetRaw.clone();
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the sequence number of this reading. The first decoded packet is 1, and each following packet adds 1.
+     *
+     * @return the sequence number.
+     */
+    public long getSequence()
+    {
+        return sequence;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the time the packet was received.
+     *
+     * @return the time in milliseconds since epoch.
+     */
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the main (large) value.
+     *
+     * @return the main value.
+     */
+    public Value getMainValue()
+    {
+        return mainValue;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the sub (small) value.
+     *
+     * @return the sub value.
+     */
+    public Value getSubValue()
+    {
+        return subValue;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the main or sub value.
+     *
+     * @param channel the value to get.
+     *
+     * @return the selected value.
+     */
+    public Value getValue(Channel channel)
+    {
+        return (channel == Channel.SUB) ? subValue : mainValue;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the numerical value of the bar graph.
+     *
+     * @return the bar graph value (0 to 32767), or -1 if the bar graph is not being displayed.
+     */
+    public int getBarGraph()
+    {
+        return barGraph;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets all annunciators as a bit field.
+     *
+     * @return the annunciators, see {@link Annunciator} for the bit masks.
+     */
+    public int getAnnunciators()
+    {
+        return annunciators;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Checks if an annunciator is set.
+     *
+     * @param mask the {@link Annunciator} mask to check.
+     *
+     * @return true if all annunciators in the mask are set.
+     */
+    public boolean isAnnunciator(int mask)
+    {
+        return (annunciators & mask) == mask;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Compares this Reading to a previous one.
+     *
+     * @param previous the previous Reading, or null if there isn't one.
+     *
+     * @return a bit field of what changed, see {@link Change}. {@link Change#ALL} if there is no previous Reading.
+     */
+    public int getChanges(Reading previous)
+    {
+        if (previous == null)
+        {
+            return Change.ALL;
+        }
+
+        int changes = 0;
+
+        changes |= mainValue.isSameValue(previous.mainValue) ? 0 : Change.MAIN_VALUE;
+        changes |= mainValue.isSameUnit(previous.mainValue) ? 0 : Change.MAIN_UNIT;
+        changes |= subValue.isSameValue(previous.subValue) ? 0 : Change.SUB_VALUE;
+        changes |= subValue.isSameUnit(previous.subValue) ? 0 : Change.SUB_UNIT;
+        changes |= (barGraph == previous.barGraph) ? 0 : Change.BAR_GRAPH;
+        changes |= (annunciators == previous.annunciators) ? 0 : Change.ANNUNCIATORS;
+
+        return changes;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Copies the raw packet (as received from the communications buffer) into an array.
+     *
+     * @param destination the array to copy into, at least 43 bytes long.
+     *
+     * @return the number of bytes copied, 0 if there is no raw packet.
+     */
+    public int copyPacketRaw(byte[] destination)
+    {
+        if (packetRaw == null)
+        {
+            return 0;
+        }
+
+        System.arraycopy(packetRaw, 0, destination, 0, packetRaw.length);
+
+        return packetRaw.length;
+    }
+
+}
@@ -0,0 +1,136 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * A fixed-capacity ring of Readings between one producer thread and one consumer thread.
+ * <p>
+ * The producer never blocks or allocates. When the consumer falls more than a full ring behind, the oldest Readings are overwritten and counted
+ * as dropped.
+ *
+ * @author Darian Cabot
+ */
+final class ReadingBuffer
+{
+    private final int capacity;
+    private final AtomicReferenceArray<Reading> readings;
+    private final AtomicLong claimed = new AtomicLong(); // Positions the producer has started writing.
+    private final AtomicLong tail = new AtomicLong(); // Positions the producer has finished writing.
+    private final AtomicLong dropped = new AtomicLong();
+    private long head; // Next position to be read (consumer).
+
+    //-----------------------------------------------------------------------
+    /**
+     * Creates a new ReadingBuffer.
+     *
+     * @param capacity the number of Readings held before the oldest are overwritten.
+     */
+    ReadingBuffer(int capacity)
+    {
+        if (capacity < 1)
+        {
+            throw new IllegalArgumentException("Buffer capacity must be at least 1: " + capacity);
+        }
+
+        this.capacity = capacity;
+        this.readings = new AtomicReferenceArray<>(capacity);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Adds a Reading, overwriting the oldest if the buffer is full. Must only be called from the producer thread.
+     *
+     * @param reading the Reading to add.
+     */
+    void offer(Reading reading)
+    {
+        long position = tail.get();
+        claimed.set(position + 1);
+        readings.set((int) (position % capacity), reading);
+        tail.set(position + 1);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Takes the oldest Reading. Must only be called from the consumer thread.
+     *
+     * @return the oldest Reading, or null if empty.
+     */
+    Reading poll()
+    {
+        while (true)
+        {
+            long available = tail.get();
+
+            if (head >= available)
+            {
+                return null;
+            }
+
+            // Skip past anything that has been overwritten.
+            if ((available - head) > capacity)
+            {
+                dropped.addAndGet(available - capacity - head);
+                head = available - capacity;
+            }
+
+            Reading reading = readings.get((int) (head % capacity));
+
+            // The slot is only valid if the producer hasn't since started writing over it.
+            if ((claimed.get() - head) <= capacity)
+            {
+                head ++;
+
+                return reading;
+            }
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Checks if there is nothing to take. Must only be called from the consumer thread.
+     *
+     * @return true if empty.
+     */
+    boolean isEmpty()
+    {
+        return head >= tail.get();
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the number of Readings overwritten before the consumer could take them.
+     *
+     * @return the number of dropped Readings.
+     */
+    long getDropped()
+    {
+        return dropped.get();
+    }
+
+}
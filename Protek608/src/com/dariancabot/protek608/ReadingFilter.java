@@ -0,0 +1,50 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608;
+
+
+/**
+ * Decides which Readings are delivered to a ReadingListener.
+ * <p>
+ * Filters are evaluated on the decoder thread before dispatch, so Readings that are filtered out cost the listener nothing (no wakeup, no
+ * Executor task). Filters must be quick and should not block. A stateful filter (such as {@link ChangeFilter}) must only be used for one
+ * listener.
+ *
+ * @author Darian Cabot
+ * @see Decoder#addReadingListener(ReadingListener, ReadingFilter)
+ */
+public interface ReadingFilter
+{
+
+    /**
+     * Checks if a Reading should be delivered.
+     *
+     * @param reading the decoded Reading.
+     * @param changes a bit field of what changed since the previous decoded Reading, see {@link Reading.Change}.
+     *
+     * @return true to deliver the Reading.
+     */
+    public boolean accept(Reading reading, int changes);
+
+}
@@ -0,0 +1,229 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * The Future returned by {@link Decoder#awaitReading(ReadingCondition, long, TimeUnit)}.
+ * <p>
+ * Completed by the decoder thread with the first Reading that meets the condition. The deadline is checked lazily, both by the decoder thread
+ * and by threads waiting on the result, so no timer thread is needed.
+ *
+ * @author Darian Cabot
+ */
+final class ReadingFuture implements Future<Reading>
+{
+    private static final int PENDING = 0;
+    private static final int MET = 1;
+    private static final int FAILED = 2;
+    private static final int TIMED_OUT = 3;
+    private static final int CANCELLED = 4;
+
+    private final ReadingCondition condition;
+    private final long start; // System.nanoTime()
+    private final long timeout; // Nanoseconds from start, saturated at Long.MAX_VALUE.
+    private final AtomicInteger state = new AtomicInteger(PENDING);
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    private volatile Reading reading;
+    private volatile Throwable failure;
+
+    //-----------------------------------------------------------------------
+    /**
+     * Creates a new ReadingFuture.
+     *
+     * @param condition the condition to wait for.
+     * @param timeout   how long to wait.
+     * @param unit      the unit of timeout.
+     */
+    ReadingFuture(ReadingCondition condition, long timeout, TimeUnit unit)
+    {
+        this.condition = condition;
+        // Kept apart from the start (rather than as start + timeout), so a timeout of Long.MAX_VALUE ("forever") can't overflow.
+        this.start = System.nanoTime();
+        this.timeout = unit.toNanos(timeout);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Checks a Reading against the condition. Called on the decoder thread.
+     *
+     * @param reading the decoded Reading.
+     *
+     * @return true if this is done (met, failed, timed out, or cancelled) and no longer needs checking.
+     */
+    boolean check(Reading reading)
+    {
+        if (isDone())
+        {
+            return true;
+        }
+
+        boolean isMet;
+
+        try
+        {
+            isMet = condition.isMet(reading);
+        }
+        catch (RuntimeException e)
+        {
+            failure = e;
+            complete(FAILED);
+            return true;
+        }
+
+        if (isMet)
+        {
+            this.reading = reading;
+            complete(MET);
+            return true;
+        }
+
+        return false;
+    }
+
+    //-----------------------------------------------------------------------
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning)
+    {
+        return complete(CANCELLED);
+    }
+
+    //-----------------------------------------------------------------------
+    @Override
+    public boolean isCancelled()
+    {
+        return state.get() == CANCELLED;
+    }
+
+    //-----------------------------------------------------------------------
+    @Override
+    public boolean isDone()
+    {
+        if ((state.get() == PENDING) && (getRemaining() <= 0))
+        {
+            complete(TIMED_OUT);
+        }
+
+        return state.get() != PENDING;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Waits for the condition to be met, or the deadline to pass.
+     *
+     * @return the first Reading that met the condition.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     * @throws ExecutionException   if the deadline passed (caused by a TimeoutException), or the condition threw an exception.
+     */
+    @Override
+    public Reading get() throws InterruptedException, ExecutionException
+    {
+        if ( ! done.await(getRemaining(), TimeUnit.NANOSECONDS))
+        {
+            complete(TIMED_OUT);
+        }
+
+        return getResult();
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Waits for the condition to be met, the deadline to pass, or the given time to pass.
+     *
+     * @return the first Reading that met the condition.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     * @throws ExecutionException   if the deadline passed (caused by a TimeoutException), or the condition threw an exception.
+     * @throws TimeoutException     if the given time passed before the deadline.
+     */
+    @Override
+    public Reading get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException
+    {
+        long remaining = getRemaining();
+        long wait = unit.toNanos(timeout);
+
+        if ( ! done.await(Math.min(remaining, wait), TimeUnit.NANOSECONDS))
+        {
+            if (wait < remaining)
+            {
+                throw new TimeoutException("Condition not met within " + timeout + " " + unit + ".");
+            }
+
+            complete(TIMED_OUT);
+        }
+
+        return getResult();
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the time left before the deadline, 0 or less once it has passed.
+     */
+    private long getRemaining()
+    {
+        return timeout - (System.nanoTime() - start);
+    }
+
+    //-----------------------------------------------------------------------
+    private boolean complete(int result)
+    {
+        if (state.compareAndSet(PENDING, result))
+        {
+            done.countDown();
+            return true;
+        }
+
+        return false;
+    }
+
+    //-----------------------------------------------------------------------
+    private Reading getResult() throws ExecutionException
+    {
+        switch (state.get())
+        {
+            case MET:
+                return reading;
+
+            case FAILED:
+                throw new ExecutionException("Condition threw an exception.", failure);
+
+            case TIMED_OUT:
+                throw new ExecutionException(new TimeoutException("Condition not met before the deadline."));
+
+            default:
+                throw new CancellationException();
+        }
+    }
+
+}
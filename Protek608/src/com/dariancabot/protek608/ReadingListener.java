@@ -0,0 +1,51 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608;
+
+
+/**
+ * The ReadingListener interface is used to receive each decoded {@link Reading} from the DMM.
+ * <p>
+ * Unlike the {@link EventListener}, the Reading is passed to the listener, so there is no need to go back to the shared {@link Data} Object.
+ * Any number of ReadingListeners can be added to a {@link Decoder}, each delivered either inline on the decoder thread or on its own
+ * {@link java.util.concurrent.Executor}.
+ * <p>
+ * A RuntimeException thrown by a listener is reported by the Decoder, and doesn't stop delivery to other listeners. As {@code readingEvent}
+ * can't throw an IOException, listeners that write files (i.e. capture writers, stores, and exporters) keep the first write error, stop
+ * writing, and throw the error from their next method that can, such as {@code flush()} or {@code close()}.
+ *
+ * @author Darian Cabot
+ */
+public interface ReadingListener
+{
+
+    /**
+     * This method is called when a packet has been decoded.
+     *
+     * @param reading the decoded Reading, including the time it was received (see {@link Reading#getTimestamp()}).
+     * @param changes a bit field of what changed since the previous Reading delivered to this listener, see {@link Reading.Change}.
+     */
+    public void readingEvent(Reading reading, int changes);
+
+}
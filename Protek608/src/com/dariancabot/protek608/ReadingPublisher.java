@@ -0,0 +1,414 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Publishes decoded Readings to subscribers that signal demand (backpressure).
+ * <p>
+ * The {@link Subscriber} and {@link Subscription} interfaces have the same methods and rules as {@code java.util.concurrent.Flow} (Java 9) and
+ * Reactive Streams, so this library stays compatible with Java 7 while a small wrapper is all that's needed to plug it into a reactive
+ * pipeline.
+ * <p>
+ * The publisher is a {@link ReadingListener} that only ever buffers a Reading and schedules delivery, so it is safe to call inline on the
+ * decoder thread. All subscriber signals are made on the Executor, one at a time per subscriber, except when the Executor rejects delivery:
+ * the subscriber is then cancelled, and its {@code onSubscribe} (if not yet made) and {@code onError} are made on the thread that offered the
+ * Reading or subscribed. Each subscriber has its own fixed-size buffer; when a subscriber falls behind by more than the buffer, the oldest
+ * Readings are dropped. A buffer size of 1 conflates to the latest Reading. A subscriber that throws from any signal is treated as cancelled.
+ *
+ * @author Darian Cabot
+ */
+public final class ReadingPublisher implements ReadingListener
+{
+    private final Executor executor;
+    private final int bufferSize;
+    private volatile ReadingSubscription[] subscriptions = new ReadingSubscription[0]; // Copy-on-write.
+    private volatile boolean isClosed;
+
+
+    /**
+     * Receives Readings from a ReadingPublisher, matching {@code java.util.concurrent.Flow.Subscriber}.
+     */
+    public interface Subscriber
+    {
+        /**
+         * Called once, before any other signal, with the Subscription used to request Readings.
+         *
+         * @param subscription the Subscription.
+         */
+        public void onSubscribe(Subscription subscription);
+
+        /**
+         * Called with the next Reading, no more times than requested.
+         *
+         * @param reading the Reading.
+         */
+        public void onNext(Reading reading);
+
+        /**
+         * Called once if the subscription fails. No further signals follow.
+         *
+         * @param throwable the cause.
+         */
+        public void onError(Throwable throwable);
+
+        /**
+         * Called once when the publisher is closed and all buffered Readings have been delivered. No further signals follow.
+         */
+        public void onComplete();
+
+    }
+
+
+    /**
+     * Links a Subscriber to a ReadingPublisher, matching {@code java.util.concurrent.Flow.Subscription}.
+     */
+    public interface Subscription
+    {
+        /**
+         * Adds to the number of Readings the Subscriber is ready to receive.
+         *
+         * @param n the number of Readings, must be positive. {@link Long#MAX_VALUE} means unbounded.
+         */
+        public void request(long n);
+
+        /**
+         * Stops delivery of Readings. Signals may still arrive briefly after cancelling.
+         */
+        public void cancel();
+
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Creates a new ReadingPublisher. It must be added to a Decoder (or Protek608) as a ReadingListener to receive Readings.
+     *
+     * @param executor   the Executor used to signal subscribers.
+     * @param bufferSize the number of Readings buffered per subscriber before the oldest are dropped (1 conflates to the latest).
+     *
+     * @see Protek608#createReadingPublisher(Executor, int)
+     */
+    public ReadingPublisher(Executor executor, int bufferSize)
+    {
+        if (executor == null)
+        {
+            throw new IllegalArgumentException("Executor must not be null.");
+        }
+
+        if (bufferSize < 1)
+        {
+            throw new IllegalArgumentException("Buffer size must be at least 1: " + bufferSize);
+        }
+
+        this.executor = executor;
+        this.bufferSize = bufferSize;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Adds a Subscriber. {@link Subscriber#onSubscribe(Subscription)} is called on the Executor, and no Readings are delivered until requested.
+     *
+     * @param subscriber the Subscriber to add.
+     */
+    public void subscribe(Subscriber subscriber)
+    {
+        if (subscriber == null)
+        {
+            throw new NullPointerException("Subscriber must not be null.");
+        }
+
+        ReadingSubscription subscription = new ReadingSubscription(subscriber);
+
+        synchronized (this)
+        {
+            if (isClosed)
+            {
+                subscription.isDone = true;
+            }
+            else
+            {
+                ReadingSubscription[] current = subscriptions;
+                ReadingSubscription[] updated = new ReadingSubscription[current.length + 1];
+                System.arraycopy(current, 0, updated, 0, current.length);
+                updated[current.length] = subscription;
+                subscriptions = updated;
+            }
+        }
+
+        subscription.schedule();
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Buffers the Reading for every subscriber and schedules delivery. Never blocks.
+     *
+     * @param reading the decoded Reading.
+     * @param changes not used.
+     */
+    @Override
+    public void readingEvent(Reading reading, int changes)
+    {
+        for (ReadingSubscription subscription : subscriptions)
+        {
+            subscription.offer(reading);
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Completes all subscriptions once their buffered Readings are delivered. Later subscribers are completed immediately.
+     * <p>
+     * The publisher should also be removed from the Decoder (or Protek608) it was added to.
+     */
+    public void close()
+    {
+        ReadingSubscription[] current;
+
+        synchronized (this)
+        {
+            isClosed = true;
+            current = subscriptions;
+            subscriptions = new ReadingSubscription[0];
+        }
+
+        for (ReadingSubscription subscription : current)
+        {
+            subscription.isDone = true;
+            subscription.schedule();
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the number of current subscribers.
+     *
+     * @return the number of subscribers.
+     */
+    public int getSubscriberCount()
+    {
+        return subscriptions.length;
+    }
+
+    //-----------------------------------------------------------------------
+    private synchronized void remove(ReadingSubscription subscription)
+    {
+        ReadingSubscription[] current = subscriptions;
+
+        for (int i = 0; i < current.length; i ++)
+        {
+            if (current[i] == subscription)
+            {
+                ReadingSubscription[] updated = new ReadingSubscription[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                subscriptions = updated;
+
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * The state of one Subscriber.
+     * <p>
+     * All signals are made from {@link #run()}, which the work-in-progress counter guarantees is only ever running once at a time, and is
+     * rescheduled on the Executor (as itself) whenever there is more to do.
+     */
+    private final class ReadingSubscription implements Subscription, Runnable
+    {
+        private final Subscriber subscriber;
+        private final ReadingBuffer buffer = new ReadingBuffer(bufferSize);
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger workInProgress = new AtomicInteger();
+        private volatile boolean isCancelled;
+        private volatile boolean isDone;
+        private volatile Throwable error;
+        private boolean isSubscribed;
+
+        ReadingSubscription(Subscriber subscriber)
+        {
+            this.subscriber = subscriber;
+        }
+
+        void offer(Reading reading)
+        {
+            buffer.offer(reading);
+            schedule();
+        }
+
+        void schedule()
+        {
+            if (workInProgress.getAndIncrement() == 0)
+            {
+                try
+                {
+                    executor.execute(this);
+                }
+                catch (RejectedExecutionException e)
+                {
+                    // Nothing is running, so signal here (workInProgress is still held, so nothing can start meanwhile).
+                    try
+                    {
+                        if ( ! isCancelled)
+                        {
+                            cancel();
+
+                            if ( ! isSubscribed)
+                            {
+                                isSubscribed = true;
+                                subscriber.onSubscribe(this);
+                            }
+
+                            subscriber.onError(e);
+                        }
+                    }
+                    catch (RuntimeException re)
+                    {
+                        // Already cancelled, and never thrown to the offering thread.
+                    }
+                    finally
+                    {
+                        workInProgress.set(0);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void request(long n)
+        {
+            if (n <= 0)
+            {
+                error = new IllegalArgumentException("Request must be positive: " + n);
+            }
+            else
+            {
+                // Add, saturating at Long.MAX_VALUE (unbounded).
+                long current;
+                long updated;
+
+                do
+                {
+                    current = requested.get();
+                    updated = current + n;
+
+                    if (updated < 0)
+                    {
+                        updated = Long.MAX_VALUE;
+                    }
+                }
+                while ( ! requested.compareAndSet(current, updated));
+            }
+
+            schedule();
+        }
+
+        @Override
+        public void cancel()
+        {
+            isCancelled = true;
+            remove(this);
+        }
+
+        @Override
+        public void run()
+        {
+            int missed = 1;
+
+            do
+            {
+                try
+                {
+                    if ( ! isSubscribed)
+                    {
+                        isSubscribed = true;
+                        subscriber.onSubscribe(this);
+                    }
+
+                    drain();
+                }
+                catch (RuntimeException e)
+                {
+                    // A failing subscriber is treated as cancelled, and the loop still ends so the subscription isn't left running.
+                    cancel();
+                }
+
+                missed = workInProgress.addAndGet( - missed);
+            }
+            while (missed != 0);
+        }
+
+        private void drain()
+        {
+            if (isCancelled)
+            {
+                return;
+            }
+
+            if (error != null)
+            {
+                cancel();
+                subscriber.onError(error);
+
+                return;
+            }
+
+            Reading reading;
+
+            while ((requested.get() > 0) && ( ! isCancelled) && ((reading = buffer.poll()) != null))
+            {
+                if (requested.get() != Long.MAX_VALUE)
+                {
+                    requested.decrementAndGet();
+                }
+
+                try
+                {
+                    subscriber.onNext(reading);
+                }
+                catch (RuntimeException e)
+                {
+                    // A failing subscriber is treated as cancelled.
+                    cancel();
+
+                    return;
+                }
+            }
+
+            if (isDone && ( ! isCancelled) && buffer.isEmpty())
+            {
+                isCancelled = true;
+                subscriber.onComplete();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,520 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * A preallocated broadcast ring of Readings, for several consumers in one JVM that each want every Reading at their own pace.
+ * <p>
+ * The ring is a {@link ReadingListener}, added inline to a {@link Decoder} (the single writer). Each Reading is copied into the next of a fixed
+ * number of preallocated slots, and the writer sequence advanced. The writer never waits for consumers, so a slow consumer can never stall the
+ * decoder thread; it gets lapped instead. Each consumer has its own {@link Cursor}, and copies each Reading into its own reusable {@link Slot},
+ * so fan-out to any number of consumers allocates nothing.
+ * <p>
+ * Slots are written with a per-slot sequence: the sequence is invalidated, the fields are written, then the sequence is set. A cursor reads the
+ * sequence before and after copying the fields, so it never returns a slot being overwritten. What a cursor does when it's lapped is set by its
+ * {@link LapPolicy}. Example usage:
+ * <pre>
+ * ReadingRing ring = new ReadingRing(1024);
+ * decoder.addReadingListener(ring);
+ *
+ * // On each consumer thread.
+ * ReadingRing.Cursor cursor = ring.newCursor(ReadingRing.LapPolicy.SKIP_TO_OLDEST);
+ * ReadingRing.Slot slot = new ReadingRing.Slot();
+ *
+ * while (cursor.poll(slot))
+ * {
+ *     process(slot.getTimestamp(), slot.getMainSiValue());
+ * }
+ * </pre>
+ *
+ * @author Darian Cabot
+ */
+public final class ReadingRing implements ReadingListener
+{
+    private static final int SLOT_LONGS = 16; // Longs per slot, including padding.
+    private static final int SEQUENCE = 0;
+    private static final int TIMESTAMP = 1;
+    private static final int READING_SEQUENCE = 2;
+    private static final int MAIN_SI = 3;
+    private static final int SUB_SI = 4;
+    private static final int UNITS = 5; // Main unit code in the high int, sub in the low.
+    private static final int DISPLAY = 6; // Bar graph in the high int, annunciators in the low.
+    private static final int PACKET_LENGTH = 7;
+    private static final int PACKET = 8; // 43 bytes in 6 longs.
+    private static final int PACKET_SIZE = 43;
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicLongArray slots;
+    private final AtomicReferenceArray<String> values; // Main and sub displayed values, 2 per slot.
+    private final byte[] packetRaw = new byte[PACKET_SIZE];
+    private volatile long published;
+
+
+    /**
+     * What a {@link Cursor} does when it falls more than the ring's capacity behind, and the Readings it hasn't read are overwritten.
+     */
+    public enum LapPolicy
+    {
+        /**
+         * Skip to the oldest Reading still in the ring, losing only what was overwritten (best for logging).
+         */
+        SKIP_TO_OLDEST,
+        /**
+         * Skip to the latest Reading, losing the backlog too (best for displays, which only want to be current).
+         */
+        SKIP_TO_LATEST,
+        /**
+         * Stop, returning no more Readings until {@link Cursor#reset()} is called (best when a gap must be noticed).
+         */
+        STOP
+    }
+
+
+    /**
+     * A mutable copy of one Reading, owned by a consumer and reused for every Reading it polls.
+     */
+    public static final class Slot
+    {
+        private long sequence;
+        private long timestamp;
+        private long readingSequence;
+        private double mainSiValue;
+        private double subSiValue;
+        private int mainUnitCode;
+        private int subUnitCode;
+        private int barGraph;
+        private int annunciators;
+        private String mainValue;
+        private String subValue;
+        private final byte[] packetRaw = new byte[PACKET_SIZE];
+        private int packetLength;
+
+        /**
+         * Gets the ring's sequence number of the Reading, the first Reading published to the ring being 1.
+         *
+         * @return the ring sequence.
+         */
+        public long getSequence()
+        {
+            return sequence;
+        }
+
+        /**
+         * Gets the time the packet was received.
+         *
+         * @return the timestamp in milliseconds since the epoch, see {@link Reading#getTimestamp()}.
+         */
+        public long getTimestamp()
+        {
+            return timestamp;
+        }
+
+        /**
+         * Gets the decoder's sequence number of the Reading.
+         *
+         * @return the sequence, see {@link Reading#getSequence()}.
+         */
+        public long getReadingSequence()
+        {
+            return readingSequence;
+        }
+
+        /**
+         * Gets the main value as displayed, trimmed of whitespace.
+         *
+         * @return the main value, see {@link Reading.Value#getValue()}.
+         */
+        public String getMainValue()
+        {
+            return mainValue;
+        }
+
+        /**
+         * Gets the main SI value.
+         *
+         * @return the SI value, or NaN if not numerical.
+         */
+        public double getMainSiValue()
+        {
+            return mainSiValue;
+        }
+
+        /**
+         * Gets the main unit code.
+         *
+         * @return the unit code, see {@link Reading.Value#getUnitCode()}.
+         */
+        public int getMainUnitCode()
+        {
+            return mainUnitCode;
+        }
+
+        /**
+         * Gets the sub value as displayed, trimmed of whitespace.
+         *
+         * @return the sub value, see {@link Reading.Value#getValue()}.
+         */
+        public String getSubValue()
+        {
+            return subValue;
+        }
+
+        /**
+         * Gets the sub SI value.
+         *
+         * @return the SI value, or NaN if not numerical.
+         */
+        public double getSubSiValue()
+        {
+            return subSiValue;
+        }
+
+        /**
+         * Gets the sub unit code.
+         *
+         * @return the unit code, see {@link Reading.Value#getUnitCode()}.
+         */
+        public int getSubUnitCode()
+        {
+            return subUnitCode;
+        }
+
+        /**
+         * Gets the bar graph value.
+         *
+         * @return the bar graph value, or -1 if not displayed.
+         */
+        public int getBarGraph()
+        {
+            return barGraph;
+        }
+
+        /**
+         * Gets the annunciators as a bit field.
+         *
+         * @return the annunciators, see {@link Reading.Annunciator}.
+         */
+        public int getAnnunciators()
+        {
+            return annunciators;
+        }
+
+        /**
+         * Checks if an annunciator is on.
+         *
+         * @param mask the annunciator bit mask, see {@link Reading.Annunciator}.
+         *
+         * @return true if on.
+         */
+        public boolean isAnnunciator(int mask)
+        {
+            return (annunciators & mask) != 0;
+        }
+
+        /**
+         * Copies the raw packet into an array.
+         *
+         * @param destination the array to copy into, at least 43 bytes long.
+         *
+         * @return the number of bytes copied, 0 if there is no raw packet.
+         */
+        public int copyPacketRaw(byte[] destination)
+        {
+            System.arraycopy(packetRaw, 0, destination, 0, packetLength);
+
+            return packetLength;
+        }
+
+    }
+
+
+    /**
+     * A consumer's position in the ring. A Cursor must only be used by one thread at a time.
+     */
+    public final class Cursor
+    {
+        private final LapPolicy policy;
+        private long position; // Ring sequence of the last Reading read.
+        private long lost;
+        private boolean isLapped;
+
+        private Cursor(LapPolicy policy)
+        {
+            this.policy = policy;
+            this.position = published;
+        }
+
+        /**
+         * Copies the next Reading into a slot.
+         *
+         * @param slot the consumer's slot to copy into.
+         *
+         * @return true if a Reading was copied, false if there are no new Readings (or the cursor has stopped, see {@link LapPolicy#STOP}).
+         */
+        public boolean poll(Slot slot)
+        {
+            while ( ! isLapped)
+            {
+                long available = published;
+
+                if (position >= available)
+                {
+                    return false;
+                }
+
+                if ((available - position) > capacity)
+                {
+                    lap(available);
+                    continue;
+                }
+
+                if (read(position + 1, slot))
+                {
+                    position ++;
+                    return true;
+                }
+
+                lap(published); // Overwritten while copying.
+            }
+
+            return false;
+        }
+
+        /**
+         * Gets the number of Readings available to poll, which may be more than the ring holds if the cursor has been lapped.
+         *
+         * @return the number of Readings behind.
+         */
+        public long getBehind()
+        {
+            return published - position;
+        }
+
+        /**
+         * Gets the number of Readings lost by being lapped.
+         *
+         * @return the number of lost Readings.
+         */
+        public long getLost()
+        {
+            return lost;
+        }
+
+        /**
+         * Checks if the cursor has stopped after being lapped, see {@link LapPolicy#STOP}.
+         *
+         * @return true if stopped.
+         */
+        public boolean isLapped()
+        {
+            return isLapped;
+        }
+
+        /**
+         * Moves to the latest Reading (so the next poll returns the next Reading published), and restarts a stopped cursor.
+         */
+        public void reset()
+        {
+            position = published;
+            isLapped = false;
+        }
+
+        private void lap(long available)
+        {
+            long oldest = Math.max(0, available - capacity);
+
+            if (position >= oldest) // Not actually lapped, the slot was being written.
+            {
+                return;
+            }
+
+            switch (policy)
+            {
+                case SKIP_TO_OLDEST:
+                    lost += oldest - position;
+                    position = oldest;
+                    break;
+
+                case SKIP_TO_LATEST:
+                    lost += available - position;
+                    position = available;
+                    break;
+
+                default:
+                    isLapped = true;
+                    break;
+            }
+        }
+
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Creates a new ReadingRing.
+     *
+     * @param capacity the number of slots, a power of two.
+     */
+    public ReadingRing(int capacity)
+    {
+        if ((capacity < 1) || (Integer.bitCount(capacity) != 1))
+        {
+            throw new IllegalArgumentException("Ring capacity must be a power of two: " + capacity);
+        }
+
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.slots = new AtomicLongArray(capacity * SLOT_LONGS);
+        this.values = new AtomicReferenceArray<>(capacity * 2);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the number of slots.
+     *
+     * @return the capacity.
+     */
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the ring sequence of the last Reading published, which is also the number of Readings published.
+     *
+     * @return the writer sequence.
+     */
+    public long getPublished()
+    {
+        return published;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Creates a cursor for a new consumer, starting after the Readings already published.
+     *
+     * @param policy what the cursor does when it's lapped.
+     *
+     * @return the new Cursor.
+     */
+    public Cursor newCursor(LapPolicy policy)
+    {
+        return new Cursor(policy);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Publishes a Reading into the next slot. Must only be called from one thread at a time, normally the decoder thread.
+     */
+    @Override
+    public void readingEvent(Reading reading, int changes)
+    {
+        long sequence = published + 1;
+        int slot = (int) ((sequence - 1) & mask);
+        int base = slot * SLOT_LONGS;
+
+        slots.set(base + SEQUENCE, -sequence); // Invalidate, before any field is overwritten.
+
+        slots.lazySet(base + TIMESTAMP, reading.getTimestamp());
+        slots.lazySet(base + READING_SEQUENCE, reading.getSequence());
+        slots.lazySet(base + MAIN_SI, Double.doubleToRawLongBits(reading.getMainValue().getSiValue()));
+        slots.lazySet(base + SUB_SI, Double.doubleToRawLongBits(reading.getSubValue().getSiValue()));
+        slots.lazySet(base + UNITS, ((long) reading.getMainValue().getUnitCode() << 32) | (reading.getSubValue().getUnitCode() & 0xffffffffL));
+        slots.lazySet(base + DISPLAY, ((long) reading.getBarGraph() << 32) | (reading.getAnnunciators() & 0xffffffffL));
+        values.lazySet(slot * 2, reading.getMainValue().getValue());
+        values.lazySet((slot * 2) + 1, reading.getSubValue().getValue());
+
+        int length = reading.copyPacketRaw(packetRaw);
+        slots.lazySet(base + PACKET_LENGTH, length);
+
+        for (int i = 0; i < length; i += 8)
+        {
+            long packed = 0;
+
+            for (int j = 0; j < 8; j ++)
+            {
+                packed = (packed << 8) | (((i + j) < length) ? (packetRaw[i + j] & 0xff) : 0);
+            }
+
+            slots.lazySet(base + PACKET + (i >> 3), packed);
+        }
+
+        slots.lazySet(base + SEQUENCE, sequence);
+        published = sequence;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Copies a slot, if it still holds the Reading of a ring sequence.
+     */
+    private boolean read(long sequence, Slot destination)
+    {
+        int slot = (int) ((sequence - 1) & mask);
+        int base = slot * SLOT_LONGS;
+
+        if (slots.get(base + SEQUENCE) != sequence)
+        {
+            return false;
+        }
+
+        destination.timestamp = slots.get(base + TIMESTAMP);
+        destination.readingSequence = slots.get(base + READING_SEQUENCE);
+        destination.mainSiValue = Double.longBitsToDouble(slots.get(base + MAIN_SI));
+        destination.subSiValue = Double.longBitsToDouble(slots.get(base + SUB_SI));
+
+        long units = slots.get(base + UNITS);
+        destination.mainUnitCode = (int) (units >> 32);
+        destination.subUnitCode = (int) units;
+
+        long display = slots.get(base + DISPLAY);
+        destination.barGraph = (int) (display >> 32);
+        destination.annunciators = (int) display;
+
+        destination.mainValue = values.get(slot * 2);
+        destination.subValue = values.get((slot * 2) + 1);
+
+        int length = (int) Math.min(Math.max(slots.get(base + PACKET_LENGTH), 0), PACKET_SIZE);
+
+        for (int i = 0; i < length; i += 8)
+        {
+            long packed = slots.get(base + PACKET + (i >> 3));
+
+            for (int j = 0; (j < 8) && ((i + j) < length); j ++)
+            {
+                destination.packetRaw[i + j] = (byte) (packed >>> (56 - (j * 8)));
+            }
+        }
+
+        destination.packetLength = length;
+        destination.sequence = sequence;
+
+        return slots.get(base + SEQUENCE) == sequence;
+    }
+
+}
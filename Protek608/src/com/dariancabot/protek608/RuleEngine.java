@@ -0,0 +1,441 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608;
+
+import com.dariancabot.protek608.Data.Value.Unit.Measurement;
+import com.dariancabot.protek608.Data.Value.Unit.Type;
+
+
+/**
+ * A ReadingListener that checks threshold and annunciator rules on every Reading, raising and clearing alarms.
+ * <p>
+ * Rules are declared once, then compiled into primitive arrays when the RuleEngine is created, so checking hundreds of rules allocates nothing
+ * and touches only the value, unit, and annunciator bit field of each Reading. A rule can require its condition to hold for a number of
+ * consecutive Readings and/or a duration before raising. Alarms are edge triggered: raised once when the rule is met, and cleared once on the
+ * first Reading it isn't. Example usage:
+ * <pre>
+ * RuleEngine.Rule overVoltage = RuleEngine.Rule.above("Over voltage", Reading.Channel.MAIN, 5.25);
+ * overVoltage.setUnit(Type.DC, Measurement.VOLT);
+ * overVoltage.setConsecutive(3);
+ *
+ * RuleEngine.Rule lowBattery = RuleEngine.Rule.annunciatorSet("Low battery", Reading.Annunciator.LOW_BATTERY);
+ *
+ * protek608.addReadingListener(new RuleEngine(myAlarmListener, overVoltage, lowBattery));
+ * </pre>
+ * Rules can be shared by the RuleEngines of many meters, as each RuleEngine keeps its own state.
+ *
+ * @author Darian Cabot
+ */
+public final class RuleEngine implements ReadingListener
+{
+    private static final int ABOVE = 0;
+    private static final int BELOW = 1;
+    private static final int OUTSIDE = 2;
+    private static final int INSIDE = 3;
+    private static final int ANNUNCIATOR_SET = 4;
+    private static final int ANNUNCIATOR_CLEAR = 5;
+
+    private final AlarmListener listener;
+    private final Rule[] rules;
+
+    // Compiled rules, indexed by rule.
+    private final int[] conditions;
+    private final boolean[] isMain;
+    private final double[] lows;
+    private final double[] highs;
+    private final int[] masks;
+    private final Type[] types;
+    private final Measurement[] measurements;
+    private final int[] consecutive;
+    private final long[] durations;
+
+    // Rule state.
+    private final int[] counts;
+    private final long[] since;
+    private final boolean[] isActive;
+    private volatile int activeCount;
+
+    /**
+     * Receives alarms from a RuleEngine.
+     */
+    public interface AlarmListener
+    {
+
+        /**
+         * Called when a rule is met.
+         *
+         * @param rule    the rule.
+         * @param reading the Reading that raised the alarm.
+         */
+        public void alarmRaised(Rule rule, Reading reading);
+
+        /**
+         * Called when a raised rule is no longer met.
+         *
+         * @param rule    the rule.
+         * @param reading the Reading that cleared the alarm.
+         */
+        public void alarmCleared(Rule rule, Reading reading);
+
+    }
+
+    /**
+     * A rule to check. Create with one of the static methods, then optionally set a unit, consecutive count, and duration.
+     */
+    public static final class Rule
+    {
+        private final String name;
+        private final int condition;
+        private final Reading.Channel channel;
+        private final double low;
+        private final double high;
+        private final int mask;
+        private Type type;
+        private Measurement measurement;
+        private int consecutive = 1;
+        private long duration;
+
+        private Rule(String name, int condition, Reading.Channel channel, double low, double high, int mask)
+        {
+            this.name = name;
+            this.condition = condition;
+            this.channel = channel;
+            this.low = low;
+            this.high = high;
+            this.mask = mask;
+        }
+
+        /**
+         * Creates a rule met when a value is above a threshold.
+         *
+         * @param name      the name of the rule.
+         * @param channel   the value to check.
+         * @param threshold the threshold in SI units.
+         *
+         * @return the new Rule.
+         */
+        public static Rule above(String name, Reading.Channel channel, double threshold)
+        {
+            return new Rule(name, ABOVE, channel, Double.NaN, threshold, 0);
+        }
+
+        /**
+         * Creates a rule met when a value is below a threshold.
+         *
+         * @param name      the name of the rule.
+         * @param channel   the value to check.
+         * @param threshold the threshold in SI units.
+         *
+         * @return the new Rule.
+         */
+        public static Rule below(String name, Reading.Channel channel, double threshold)
+        {
+            return new Rule(name, BELOW, channel, threshold, Double.NaN, 0);
+        }
+
+        /**
+         * Creates a rule met when a value is outside a range.
+         *
+         * @param name    the name of the rule.
+         * @param channel the value to check.
+         * @param low     the low limit in SI units.
+         * @param high    the high limit in SI units.
+         *
+         * @return the new Rule.
+         */
+        public static Rule outside(String name, Reading.Channel channel, double low, double high)
+        {
+            return new Rule(name, OUTSIDE, channel, low, high, 0);
+        }
+
+        /**
+         * Creates a rule met when a value is inside a range (inclusive).
+         *
+         * @param name    the name of the rule.
+         * @param channel the value to check.
+         * @param low     the low limit in SI units.
+         * @param high    the high limit in SI units.
+         *
+         * @return the new Rule.
+         */
+        public static Rule inside(String name, Reading.Channel channel, double low, double high)
+        {
+            return new Rule(name, INSIDE, channel, low, high, 0);
+        }
+
+        /**
+         * Creates a rule met when all the given annunciators are set.
+         *
+         * @param name the name of the rule.
+         * @param mask the {@link Reading.Annunciator} masks.
+         *
+         * @return the new Rule.
+         */
+        public static Rule annunciatorSet(String name, int mask)
+        {
+            return new Rule(name, ANNUNCIATOR_SET, Reading.Channel.MAIN, Double.NaN, Double.NaN, mask);
+        }
+
+        /**
+         * Creates a rule met when all the given annunciators are cleared.
+         *
+         * @param name the name of the rule.
+         * @param mask the {@link Reading.Annunciator} masks.
+         *
+         * @return the new Rule.
+         */
+        public static Rule annunciatorClear(String name, int mask)
+        {
+            return new Rule(name, ANNUNCIATOR_CLEAR, Reading.Channel.MAIN, Double.NaN, Double.NaN, mask);
+        }
+
+        /**
+         * Gets the name of the rule.
+         *
+         * @return the name.
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * Sets the unit the value must be in for the rule to be met, i.e. DC volts.
+         *
+         * @param type        the signal type, or null for any.
+         * @param measurement the measurement unit, or null for any.
+         */
+        public void setUnit(Type type, Measurement measurement)
+        {
+            this.type = type;
+            this.measurement = measurement;
+        }
+
+        /**
+         * Sets the number of consecutive Readings the condition must hold for before the rule is met. Defaults to 1.
+         *
+         * @param consecutive the number of Readings, at least 1.
+         */
+        public void setConsecutive(int consecutive)
+        {
+            if (consecutive < 1)
+            {
+                throw new IllegalArgumentException("Consecutive " + consecutive + " is less than 1.");
+            }
+
+            this.consecutive = consecutive;
+        }
+
+        /**
+         * Sets how long the condition must hold for before the rule is met. Defaults to 0.
+         *
+         * @param duration the duration in milliseconds.
+         */
+        public void setDuration(long duration)
+        {
+            this.duration = duration;
+        }
+
+        @Override
+        public String toString()
+        {
+            return name;
+        }
+
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Creates a new RuleEngine, compiling the rules. Later changes to the rules have no effect on this RuleEngine.
+     *
+     * @param listener the AlarmListener to be told of alarms.
+     * @param rules    the rules to check.
+     */
+    public RuleEngine(AlarmListener listener, Rule... rules)
+    {
+        if (listener == null)
+        {
+            throw new IllegalArgumentException("AlarmListener must not be null.");
+        }
+
+        this.listener = listener;
+        this.rules = rules.clone();
+
+        int count = rules.length;
+        conditions = new int[count];
+        isMain = new boolean[count];
+        lows = new double[count];
+        highs = new double[count];
+        masks = new int[count];
+        types = new Type[count];
+        measurements = new Measurement[count];
+        consecutive = new int[count];
+        durations = new long[count];
+
+        counts = new int[count];
+        since = new long[count];
+        isActive = new boolean[count];
+
+        for (int i = 0; i < count; i ++)
+        {
+            Rule rule = rules[i];
+            conditions[i] = rule.condition;
+            isMain[i] = (rule.channel == Reading.Channel.MAIN);
+            lows[i] = rule.low;
+            highs[i] = rule.high;
+            masks[i] = rule.mask;
+            types[i] = rule.type;
+            measurements[i] = rule.measurement;
+            consecutive[i] = rule.consecutive;
+            durations[i] = rule.duration;
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Checks if a rule's alarm is currently raised.
+     *
+     * @param rule the rule.
+     *
+     * @return true if raised, false if not raised or not a rule of this RuleEngine.
+     */
+    public boolean isActive(Rule rule)
+    {
+        synchronized (isActive)
+        {
+            for (int i = 0; i < rules.length; i ++)
+            {
+                if (rules[i] == rule)
+                {
+                    return isActive[i];
+                }
+            }
+        }
+
+        return false;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the number of alarms currently raised.
+     *
+     * @return the number of raised alarms.
+     */
+    public int getActiveCount()
+    {
+        return activeCount;
+    }
+
+    //-----------------------------------------------------------------------
+    @Override
+    public void readingEvent(Reading reading, int changes)
+    {
+        Reading.Value main = reading.getMainValue();
+        Reading.Value sub = reading.getSubValue();
+        double mainValue = main.getSiValue();
+        double subValue = sub.getSiValue();
+        int annunciators = reading.getAnnunciators();
+        long timestamp = reading.getTimestamp();
+
+        for (int i = 0; i < conditions.length; i ++)
+        {
+            Reading.Value value = isMain[i] ? main : sub;
+            boolean isMet = isUnit(i, value) && isCondition(i, isMain[i] ? mainValue : subValue, annunciators);
+
+            if (isMet)
+            {
+                if (counts[i] == 0)
+                {
+                    since[i] = timestamp;
+                }
+
+                if (counts[i] < consecutive[i])
+                {
+                    counts[i] ++;
+                }
+
+                if (( ! isActive[i]) && (counts[i] >= consecutive[i]) && ((timestamp - since[i]) >= durations[i]))
+                {
+                    setActive(i, true);
+                    listener.alarmRaised(rules[i], reading);
+                }
+            }
+            else
+            {
+                counts[i] = 0;
+
+                if (isActive[i])
+                {
+                    setActive(i, false);
+                    listener.alarmCleared(rules[i], reading);
+                }
+            }
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    private boolean isUnit(int rule, Reading.Value value)
+    {
+        return ((types[rule] == null) || (types[rule] == value.getType()))
+                && ((measurements[rule] == null) || (measurements[rule] == value.getMeasurement()));
+    }
+
+    //-----------------------------------------------------------------------
+    private boolean isCondition(int rule, double value, int annunciators)
+    {
+        // Comparisons with NaN (non-numerical values) are always false.
+        switch (conditions[rule])
+        {
+            case ABOVE:
+                return value > highs[rule];
+
+            case BELOW:
+                return value < lows[rule];
+
+            case OUTSIDE:
+                return (value < lows[rule]) || (value > highs[rule]);
+
+            case INSIDE:
+                return (value >= lows[rule]) && (value <= highs[rule]);
+
+            case ANNUNCIATOR_SET:
+                return (annunciators & masks[rule]) == masks[rule];
+
+            default:
+                return (annunciators & masks[rule]) == 0;
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    private void setActive(int rule, boolean active)
+    {
+        synchronized (isActive)
+        {
+            isActive[rule] = active;
+        }
+
+        activeCount += active ? 1 : -1;
+    }
+
+}
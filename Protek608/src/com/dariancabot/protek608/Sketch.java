@@ -0,0 +1,405 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+
+/**
+ * A mergeable sketch of the distribution of a series of values, for quantiles (i.e. median, 95th percentile) without keeping the values.
+ * <p>
+ * Values are counted in logarithmic buckets, so any quantile is within a relative accuracy (1% by default) of the true value. Each sign has a
+ * dense array of counts covering only the buckets used, so a meter reading a steady range needs a few hundred buckets. Values closer to zero
+ * than {@value #MIN_MAGNITUDE} are counted as zero. Sketches of the same accuracy can be merged, and written and read for checkpointing.
+ *
+ * @author Darian Cabot
+ */
+public final class Sketch
+{
+    /**
+     * Default relative accuracy of quantiles.
+     */
+    public static final double DEFAULT_ACCURACY = 0.01;
+
+    /**
+     * The smallest magnitude counted as a non-zero value.
+     */
+    public static final double MIN_MAGNITUDE = 1e-15;
+
+    private final double accuracy;
+    private final double gamma;
+    private final double logGamma;
+    private final Store positive = new Store();
+    private final Store negative = new Store();
+    private long zeros;
+    private long count;
+
+    //-----------------------------------------------------------------------
+    /**
+     * Creates a new Sketch with the default accuracy.
+     */
+    public Sketch()
+    {
+        this(DEFAULT_ACCURACY);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Creates a new Sketch.
+     *
+     * @param accuracy the relative accuracy of quantiles, greater than 0 and less than 1.
+     */
+    public Sketch(double accuracy)
+    {
+        if ( ! (accuracy > 0) || ! (accuracy < 1))
+        {
+            throw new IllegalArgumentException("Accuracy must be greater than 0 and less than 1.");
+        }
+
+        this.accuracy = accuracy;
+        this.gamma = (1 + accuracy) / (1 - accuracy);
+        this.logGamma = Math.log(gamma);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the relative accuracy of quantiles.
+     *
+     * @return the accuracy.
+     */
+    public double getAccuracy()
+    {
+        return accuracy;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Adds a value. NaN is ignored.
+     *
+     * @param value the value.
+     */
+    public void add(double value)
+    {
+        if (Double.isNaN(value))
+        {
+            return;
+        }
+
+        if (value >= MIN_MAGNITUDE)
+        {
+            positive.add(getIndex(value), 1);
+        }
+        else if (value <= -MIN_MAGNITUDE)
+        {
+            negative.add(getIndex(-value), 1);
+        }
+        else
+        {
+            zeros ++;
+        }
+
+        count ++;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Merges another sketch into this one, as if its values had been added.
+     *
+     * @param other the sketch to merge, of the same accuracy.
+     */
+    public void add(Sketch other)
+    {
+        if (other.accuracy != accuracy)
+        {
+            throw new IllegalArgumentException("Can't merge sketches of different accuracy.");
+        }
+
+        positive.add(other.positive);
+        negative.add(other.negative);
+        zeros += other.zeros;
+        count += other.count;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Clears all values.
+     */
+    public void reset()
+    {
+        positive.reset();
+        negative.reset();
+        zeros = 0;
+        count = 0;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the number of values.
+     *
+     * @return the number of values.
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets a quantile of the values.
+     *
+     * @param quantile the quantile, from 0 (minimum) to 1 (maximum), i.e. 0.5 for the median.
+     *
+     * @return the value at the quantile, within the relative accuracy, or NaN if there are no values.
+     */
+    public double getQuantile(double quantile)
+    {
+        if ((quantile < 0) || (quantile > 1))
+        {
+            throw new IllegalArgumentException("Quantile must be from 0 to 1.");
+        }
+
+        if (count == 0)
+        {
+            return Double.NaN;
+        }
+
+        long rank = (long) (quantile * (count - 1));
+
+        // Negative values, most negative (highest index) first.
+        if (rank < negative.total)
+        {
+            return -getValue(negative.getIndexFromTop(rank));
+        }
+
+        rank -= negative.total;
+
+        if (rank < zeros)
+        {
+            return 0;
+        }
+
+        rank -= zeros;
+
+        return getValue(positive.getIndexFromBottom(rank));
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Writes the sketch.
+     *
+     * @param output the output to write to.
+     *
+     * @throws IOException if writing fails.
+     */
+    public void write(DataOutput output) throws IOException
+    {
+        output.writeDouble(accuracy);
+        output.writeLong(zeros);
+        positive.write(output);
+        negative.write(output);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Reads a sketch written by {@link #write(DataOutput)}, replacing the values of this one.
+     *
+     * @param input the input to read from.
+     *
+     * @throws IOException if reading fails, or the sketch is of a different accuracy.
+     */
+    public void read(DataInput input) throws IOException
+    {
+        double storedAccuracy = input.readDouble();
+
+        if (storedAccuracy != accuracy)
+        {
+            throw new IOException("Sketch accuracy is " + storedAccuracy + ", not " + accuracy + ".");
+        }
+
+        zeros = input.readLong();
+        positive.read(input);
+        negative.read(input);
+        count = zeros + positive.total + negative.total;
+    }
+
+    //-----------------------------------------------------------------------
+    private int getIndex(double magnitude)
+    {
+        return (int) Math.ceil(Math.log(magnitude) / logGamma);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the representative value of a bucket, which is within the relative accuracy of every value in it.
+     */
+    private double getValue(int index)
+    {
+        return 2 * Math.pow(gamma, index) / (gamma + 1);
+    }
+
+    /**
+     * Counts of one sign, indexed by bucket, in an array that grows to cover the buckets used.
+     */
+    private static final class Store
+    {
+        private static final int MAX_BUCKETS = 1 << 16; // Far more than the buckets from MIN_MAGNITUDE to Double.MAX_VALUE at 1%.
+
+        private long[] counts = new long[0];
+        private int offset; // Bucket index of counts[0].
+        private long total;
+
+        void add(int index, long n)
+        {
+            if (counts.length == 0)
+            {
+                counts = new long[64];
+                offset = index - 32;
+            }
+            else if ((index < offset) || (index >= offset + counts.length))
+            {
+                int low = Math.min(index, offset);
+                int high = Math.max(index, offset + counts.length - 1);
+                int length = Math.max(counts.length * 2, high - low + 1 + 32);
+
+                if (length > MAX_BUCKETS)
+                {
+                    throw new IllegalStateException("Too many sketch buckets.");
+                }
+
+                long[] grown = new long[length];
+                int newOffset = (index < offset) ? high - length + 1 : low;
+                System.arraycopy(counts, 0, grown, offset - newOffset, counts.length);
+                counts = grown;
+                offset = newOffset;
+            }
+
+            counts[index - offset] += n;
+            total += n;
+        }
+
+        void add(Store other)
+        {
+            for (int i = 0; i < other.counts.length; i ++)
+            {
+                if (other.counts[i] != 0)
+                {
+                    add(other.offset + i, other.counts[i]);
+                }
+            }
+        }
+
+        void reset()
+        {
+            Arrays.fill(counts, 0);
+            total = 0;
+        }
+
+        int getIndexFromBottom(long rank)
+        {
+            long seen = 0;
+
+            for (int i = 0; i < counts.length; i ++)
+            {
+                seen += counts[i];
+
+                if (seen > rank)
+                {
+                    return offset + i;
+                }
+            }
+
+            return offset + counts.length - 1;
+        }
+
+        int getIndexFromTop(long rank)
+        {
+            long seen = 0;
+
+            for (int i = counts.length - 1; i >= 0; i --)
+            {
+                seen += counts[i];
+
+                if (seen > rank)
+                {
+                    return offset + i;
+                }
+            }
+
+            return offset;
+        }
+
+        /**
+         * Writes the used range of buckets: first index, length, then the counts.
+         */
+        void write(DataOutput output) throws IOException
+        {
+            int first = 0;
+            int last = counts.length - 1;
+
+            while ((first <= last) && (counts[first] == 0))
+            {
+                first ++;
+            }
+
+            while ((last >= first) && (counts[last] == 0))
+            {
+                last --;
+            }
+
+            output.writeInt(offset + first);
+            output.writeInt(last - first + 1);
+
+            for (int i = first; i <= last; i ++)
+            {
+                output.writeLong(counts[i]);
+            }
+        }
+
+        void read(DataInput input) throws IOException
+        {
+            int first = input.readInt();
+            int length = input.readInt();
+
+            if ((length < 0) || (length > MAX_BUCKETS))
+            {
+                throw new IOException("Invalid sketch length " + length + ".");
+            }
+
+            counts = new long[length];
+            offset = first;
+            total = 0;
+
+            for (int i = 0; i < length; i ++)
+            {
+                counts[i] = input.readLong();
+                total += counts[i];
+            }
+        }
+
+    }
+
+}
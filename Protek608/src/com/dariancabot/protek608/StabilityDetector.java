@@ -0,0 +1,319 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608;
+
+
+/**
+ * A ReadingListener that detects when a value has settled, i.e. after probes are moved to a new DUT (Device Under Test).
+ * <p>
+ * The value is settled once the last N numerical readings all meet the configured criteria:
+ * <ul>
+ * <li>Spread - the difference between the highest and lowest readings is within a number of counts (one count being the last digit
+ * displayed, see {@link Reading.Value#getResolution()}).
+ * <li>Slope - the least squares slope of the readings is within a rate (SI units per second).
+ * <li>Bar graph - the bar graph has moved within a number of segments.
+ * </ul>
+ * A non-numerical reading (i.e. "OPEn" with the probes disconnected) or a change of unit restarts detection. The settling time is measured
+ * from the first reading after the restart (or after the value became unsettled) to the reading that completed the window.
+ * <p>
+ * Readings are checked on the thread that delivers them, without allocating. Example usage:
+ * <pre>
+ * StabilityDetector detector = new StabilityDetector(Reading.Channel.MAIN, 5);
+ * detector.setMaxSpread(2);
+ * detector.setListener(myStabilityListener);
+ * protek608.addReadingListener(detector);
+ * </pre>
+ *
+ * @author Darian Cabot
+ */
+public final class StabilityDetector implements ReadingListener
+{
+    private final Reading.Channel channel;
+    private final int unitChange;
+
+    // Last N numerical readings, as a ring.
+    private final long[] timestamps;
+    private final double[] values;
+    private final int[] barGraphs;
+    private int count;
+    private int next;
+
+    private double maxSpread = 2;
+    private double maxSlope = -1;
+    private int maxBarGraphChange = -1;
+
+    private volatile Listener listener;
+    private volatile boolean isSettled;
+    private volatile double settledValue = Double.NaN;
+    private long settlingStart = -1;
+
+    /**
+     * Receives settled events from a StabilityDetector.
+     */
+    public interface Listener
+    {
+
+        /**
+         * Called when the value has settled.
+         *
+         * @param reading      the Reading that completed the criteria.
+         * @param value        the settled value, the average of the readings in the window (in SI units).
+         * @param settlingTime the time taken to settle in milliseconds.
+         */
+        public void settledEvent(Reading reading, double value, long settlingTime);
+
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Creates a new StabilityDetector.
+     *
+     * @param channel    the value to check.
+     * @param windowSize the number of readings that must meet the criteria, at least 2.
+     */
+    public StabilityDetector(Reading.Channel channel, int windowSize)
+    {
+        if (windowSize < 2)
+        {
+            throw new IllegalArgumentException("Window size " + windowSize + " is less than 2.");
+        }
+
+        this.channel = channel;
+        this.unitChange = (channel == Reading.Channel.MAIN) ? Reading.Change.MAIN_UNIT : Reading.Change.SUB_UNIT;
+
+        this.timestamps = new long[windowSize];
+        this.values = new double[windowSize];
+        this.barGraphs = new int[windowSize];
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets the Listener to be told when the value settles.
+     *
+     * @param listener the Listener, or null for none.
+     */
+    public void setListener(Listener listener)
+    {
+        this.listener = listener;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets the maximum spread of the readings in the window. Defaults to 2 counts.
+     *
+     * @param counts the maximum spread in counts of the last digit, or -1 to disable.
+     */
+    public void setMaxSpread(double counts)
+    {
+        this.maxSpread = counts;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets the maximum slope of the readings in the window. Disabled by default.
+     *
+     * @param slope the maximum slope (positive or negative) in SI units per second, or -1 to disable.
+     */
+    public void setMaxSlope(double slope)
+    {
+        this.maxSlope = slope;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets the maximum bar graph movement over the window. Disabled by default.
+     *
+     * @param segments the maximum difference in bar graph segments, or -1 to disable.
+     */
+    public void setMaxBarGraphChange(int segments)
+    {
+        this.maxBarGraphChange = segments;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Checks if the value is currently settled.
+     *
+     * @return true if settled.
+     */
+    public boolean isSettled()
+    {
+        return isSettled;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the last settled value.
+     *
+     * @return the settled value in SI units, or NaN if not settled.
+     */
+    public double getSettledValue()
+    {
+        return isSettled ? settledValue : Double.NaN;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Restarts detection, i.e. when the DUT is changed. Should be called on the thread delivering Readings.
+     */
+    public void reset()
+    {
+        count = 0;
+        next = 0;
+        isSettled = false;
+        settledValue = Double.NaN;
+        settlingStart = -1;
+    }
+
+    //-----------------------------------------------------------------------
+    @Override
+    public void readingEvent(Reading reading, int changes)
+    {
+        Reading.Value value = reading.getValue(channel);
+
+        if ((changes & unitChange) != 0)
+        {
+            reset();
+        }
+
+        if ( ! value.isNumeric())
+        {
+            reset();
+            return;
+        }
+
+        long timestamp = reading.getTimestamp();
+
+        if (settlingStart < 0)
+        {
+            settlingStart = timestamp;
+        }
+
+        timestamps[next] = timestamp;
+        values[next] = value.getSiValue();
+        barGraphs[next] = reading.getBarGraph();
+        next = (next + 1) % values.length;
+
+        if (count < values.length)
+        {
+            count ++;
+        }
+
+        boolean isStable = (count == values.length) && isStable(value.getResolution());
+
+        if (isStable && ! isSettled)
+        {
+            settledValue = getAverage();
+            isSettled = true;
+
+            Listener listener = this.listener;
+
+            if (listener != null)
+            {
+                listener.settledEvent(reading, settledValue, timestamp - settlingStart);
+            }
+        }
+        else if ( ! isStable && isSettled)
+        {
+            // Moved away from the settled value, start timing the next settle.
+            isSettled = false;
+            settlingStart = timestamp;
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    private boolean isStable(double resolution)
+    {
+        double min = values[0];
+        double max = values[0];
+        int barMin = barGraphs[0];
+        int barMax = barGraphs[0];
+
+        for (int i = 1; i < count; i ++)
+        {
+            min = Math.min(min, values[i]);
+            max = Math.max(max, values[i]);
+            barMin = Math.min(barMin, barGraphs[i]);
+            barMax = Math.max(barMax, barGraphs[i]);
+        }
+
+        // Allow a little for floating point error, so 2 counts is still 2 counts.
+        if ((maxSpread >= 0) && ((max - min) > (maxSpread + 1e-6) * resolution))
+        {
+            return false;
+        }
+
+        if ((maxBarGraphChange >= 0) && ((barMax - barMin) > maxBarGraphChange))
+        {
+            return false;
+        }
+
+        return (maxSlope < 0) || (Math.abs(getSlope()) <= maxSlope);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Least squares slope of the window, in SI units per second.
+     */
+    private double getSlope()
+    {
+        long origin = timestamps[next]; // Oldest, as the window is full.
+        double sumX = 0;
+        double sumY = 0;
+        double sumXY = 0;
+        double sumXX = 0;
+
+        for (int i = 0; i < count; i ++)
+        {
+            double x = (timestamps[i] - origin) / 1000.0;
+            sumX += x;
+            sumY += values[i];
+            sumXY += x * values[i];
+            sumXX += x * x;
+        }
+
+        double denominator = (count * sumXX) - (sumX * sumX);
+
+        if (denominator == 0)
+        {
+            return 0;
+        }
+
+        return ((count * sumXY) - (sumX * sumY)) / denominator;
+    }
+
+    //-----------------------------------------------------------------------
+    private double getAverage()
+    {
+        double sum = 0;
+
+        for (int i = 0; i < count; i ++)
+        {
+            sum += values[i];
+        }
+
+        return sum / count;
+    }
+
+}
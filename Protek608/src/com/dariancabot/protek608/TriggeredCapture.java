@@ -0,0 +1,214 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+
+/**
+ * A ReadingListener that captures the Readings around a trigger, like an oscilloscope.
+ * <p>
+ * The last {@code preTrigger} Readings (each including its raw packet, see {@link Reading#copyPacketRaw(byte[])}) are kept continuously in a
+ * fixed size ring. When the trigger accepts a Reading, it and the following {@code postTrigger} Readings are collected, then the whole window is
+ * given to a Listener using an Executor (i.e. to be written to disk by a {@link com.dariancabot.protek608.capture.CaptureWindowWriter}), so
+ * storage and I/O scale with the number of events rather than uptime. The trigger is re-armed once the window is delivered; triggers during the
+ * post-trigger window are part of that window. As the ring includes the Readings of the last window, an event straight after a capture still
+ * gets a full pre-trigger window.
+ * <p>
+ * Any ReadingFilter can be the trigger, i.e. a {@link ChangeFilter} for a value threshold, unit change, or annunciator edge. Example usage:
+ * <pre>
+ * ChangeFilter trigger = new ChangeFilter();
+ * trigger.setHysteresis(Reading.Channel.MAIN, 4.75, 5.25);
+ * trigger.setAnnunciatorEdges(Reading.Annunciator.LOW_BATTERY, 0);
+ *
+ * protek608.addReadingListener(new TriggeredCapture(trigger, 20, 10, new CaptureWindowWriter(directory), myExecutor));
+ * </pre>
+ *
+ * @author Darian Cabot
+ */
+public final class TriggeredCapture implements ReadingListener
+{
+    private final ReadingFilter trigger;
+    private final Listener listener;
+    private final Executor executor;
+
+    private final Reading[] ring; // Pre-trigger Readings.
+    private int ringCount;
+    private int ringNext;
+
+    private final int postTrigger;
+    private Reading[] window; // The window being collected, or null when armed.
+    private int windowCount;
+    private int triggerIndex;
+
+    private volatile long captures;
+    private volatile long rejected;
+
+    /**
+     * Receives captured windows from a TriggeredCapture.
+     */
+    public interface Listener
+    {
+
+        /**
+         * Called with each captured window.
+         *
+         * @param readings     the Readings in order, oldest first.
+         * @param triggerIndex the index of the Reading that fired the trigger.
+         */
+        public void captureEvent(Reading[] readings, int triggerIndex);
+
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Creates a new TriggeredCapture.
+     *
+     * @param trigger     the ReadingFilter that fires the trigger when it accepts a Reading.
+     * @param preTrigger  the number of Readings captured before the trigger.
+     * @param postTrigger the number of Readings captured after the trigger.
+     * @param listener    the Listener to be given each captured window.
+     * @param executor    the Executor used to call the listener.
+     */
+    public TriggeredCapture(ReadingFilter trigger, int preTrigger, int postTrigger, Listener listener, Executor executor)
+    {
+        if ((trigger == null) || (listener == null) || (executor == null))
+        {
+            throw new IllegalArgumentException("ReadingFilter, Listener and Executor must not be null.");
+        }
+
+        if ((preTrigger < 0) || (postTrigger < 0))
+        {
+            throw new IllegalArgumentException("Pre-trigger and post-trigger counts must not be negative.");
+        }
+
+        this.trigger = trigger;
+        this.listener = listener;
+        this.executor = executor;
+        this.ring = new Reading[preTrigger];
+        this.postTrigger = postTrigger;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the number of windows captured.
+     *
+     * @return the number of captures.
+     */
+    public long getCaptures()
+    {
+        return captures;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the number of windows lost because the Executor rejected them (i.e. it was shut down, or its queue was full).
+     *
+     * @return the number of rejected windows.
+     */
+    public long getRejected()
+    {
+        return rejected;
+    }
+
+    //-----------------------------------------------------------------------
+    @Override
+    public void readingEvent(Reading reading, int changes)
+    {
+        // The trigger is checked even while collecting, so stateful filters stay up to date.
+        boolean isTriggered = trigger.accept(reading, changes);
+
+        if (window == null)
+        {
+            if (isTriggered)
+            {
+                start(reading);
+            }
+        }
+        else
+        {
+            window[windowCount ++] = reading;
+        }
+
+        // Every Reading goes into the ring, so it's always the last preTrigger Readings.
+        if (ring.length > 0)
+        {
+            ring[ringNext] = reading;
+            ringNext = (ringNext + 1) % ring.length;
+            ringCount = Math.min(ringCount + 1, ring.length);
+        }
+
+        if ((window != null) && (windowCount == window.length))
+        {
+            deliver();
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    private void start(Reading reading)
+    {
+        window = new Reading[ringCount + 1 + postTrigger];
+        windowCount = 0;
+
+        // Oldest first.
+        int oldest = (ringNext - ringCount + ring.length) % Math.max(ring.length, 1);
+
+        for (int i = 0; i < ringCount; i ++)
+        {
+            window[windowCount ++] = ring[(oldest + i) % ring.length];
+        }
+
+        triggerIndex = windowCount;
+        window[windowCount ++] = reading;
+    }
+
+    //-----------------------------------------------------------------------
+    private void deliver()
+    {
+        final Reading[] readings = window;
+        final int index = triggerIndex;
+        window = null;
+
+        try
+        {
+            executor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    listener.captureEvent(readings, index);
+                }
+
+            });
+
+            captures ++;
+        }
+        catch (RejectedExecutionException e)
+        {
+            rejected ++; // The trigger is re-armed regardless.
+        }
+    }
+
+}
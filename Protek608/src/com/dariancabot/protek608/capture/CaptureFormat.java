@@ -0,0 +1,287 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608.capture;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+
+/**
+ * The packet format of a capture file.
+ * <p>
+ * A capture file is a 32 byte header followed by fixed size records, each an 8 byte timestamp (milliseconds since the epoch) and a packet:
+ * <pre>
+ * Header:  magic "P608CAP" 0x1a (8) | version (int) | packet length (int) | created (long) | reserved (8)
+ * Record:  timestamp (long) | packet (43 or 21 bytes)
+ * </pre>
+ * All values are big-endian. Files are append-only, so a partly written last record (i.e. after a crash) is ignored.
+ * <p>
+ * A sparse time index is kept beside the capture file (with ".idx" appended to its name), holding the timestamp of every Nth record so
+ * readers can seek by time without scanning the capture:
+ * <pre>
+ * Header:  magic "P608IDX" 0x1a (8) | version (int) | interval N (int)
+ * Entry:   timestamp (long) | record index (long)
+ * </pre>
+ * The index is only a hint; it can be deleted, and is rebuilt by the writer when missing or out of date.
+ *
+ * @author Darian Cabot
+ */
+public enum CaptureFormat
+{
+    /**
+     * The raw 43 byte packet, as received from the DMM.
+     */
+    RAW(43),
+    /**
+     * The tidy 21 byte packet, with the blank nibbles removed. Valid packets are rebuilt to the exact raw packet when read.
+     */
+    TIDY(21);
+
+    /**
+     * Size of the file header in bytes.
+     */
+    public static final int HEADER_SIZE = 32;
+
+    /**
+     * Capture file format version.
+     */
+    public static final int VERSION = 1;
+
+    private static final byte[] MAGIC =
+    {
+        'P', '6', '0', '8', 'C', 'A', 'P', 0x1a
+    };
+
+    /**
+     * Size of the index file header in bytes.
+     */
+    public static final int INDEX_HEADER_SIZE = 16;
+
+    /**
+     * Size of each index entry in bytes.
+     */
+    public static final int INDEX_ENTRY_SIZE = 16;
+
+    private static final byte[] INDEX_MAGIC =
+    {
+        'P', '6', '0', '8', 'I', 'D', 'X', 0x1a
+    };
+
+    private static final byte PACKET_START_BYTE = 0x5b;
+    private static final byte PACKET_END_BYTE = 0x5d;
+
+    private final int packetLength;
+
+    CaptureFormat(int packetLength)
+    {
+        this.packetLength = packetLength;
+    }
+
+    /**
+     * Gets the length of each packet.
+     *
+     * @return the packet length in bytes.
+     */
+    public int getPacketLength()
+    {
+        return packetLength;
+    }
+
+    /**
+     * Gets the size of each record, the timestamp and packet.
+     *
+     * @return the record size in bytes.
+     */
+    public int getRecordSize()
+    {
+        return 8 + packetLength;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Writes a file header.
+     *
+     * @param buffer  the buffer to write to, at its position.
+     * @param created the time the file was created in milliseconds.
+     */
+    void writeHeader(ByteBuffer buffer, long created)
+    {
+        buffer.put(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(packetLength);
+        buffer.putLong(created);
+        buffer.putLong(0);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Reads and checks a file header.
+     *
+     * @param buffer the buffer to read from, at its position.
+     *
+     * @return the format of the file.
+     *
+     * @throws IOException if the header isn't a valid capture file header.
+     */
+    static CaptureFormat readHeader(ByteBuffer buffer) throws IOException
+    {
+        if (buffer.remaining() < HEADER_SIZE)
+        {
+            throw new IOException("Not a capture file: too short for a header.");
+        }
+
+        for (byte magic : MAGIC)
+        {
+            if (buffer.get() != magic)
+            {
+                throw new IOException("Not a capture file: header magic not found.");
+            }
+        }
+
+        int version = buffer.getInt();
+
+        if (version != VERSION)
+        {
+            throw new IOException("Unsupported capture file version " + version + ".");
+        }
+
+        int length = buffer.getInt();
+
+        for (CaptureFormat format : values())
+        {
+            if (format.packetLength == length)
+            {
+                return format;
+            }
+        }
+
+        throw new IOException("Unsupported capture file packet length " + length + ".");
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the time index file of a capture file.
+     *
+     * @param file the capture file.
+     *
+     * @return the index file, which may not exist.
+     */
+    public static File getIndexFile(File file)
+    {
+        return new File(file.getPath() + ".idx");
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Writes an index file header.
+     *
+     * @param buffer   the buffer to write to, at its position.
+     * @param interval the number of records between index entries.
+     */
+    static void writeIndexHeader(ByteBuffer buffer, int interval)
+    {
+        buffer.put(INDEX_MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(interval);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Reads and checks an index file header.
+     *
+     * @param buffer the buffer to read from, at its position.
+     *
+     * @return the number of records between index entries, or 0 if the header isn't valid.
+     */
+    static int readIndexHeader(ByteBuffer buffer)
+    {
+        if (buffer.remaining() < INDEX_HEADER_SIZE)
+        {
+            return 0;
+        }
+
+        for (byte magic : INDEX_MAGIC)
+        {
+            if (buffer.get() != magic)
+            {
+                return 0;
+            }
+        }
+
+        if (buffer.getInt() != VERSION)
+        {
+            return 0;
+        }
+
+        return Math.max(buffer.getInt(), 0);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Converts a raw packet to a tidy packet, the same way the Decoder does.
+     *
+     * @param raw    the 43 byte raw packet.
+     * @param offset the position of the raw packet in the array.
+     * @param tidy   the 21 byte array to fill.
+     */
+    public static void rawToTidy(byte[] raw, int offset, byte[] tidy)
+    {
+        for (int i = 0; i < 21; i ++)
+        {
+            tidy[i] = (byte) ((toNibble(raw[offset + 1 + (i * 2)]) << 4) | toNibble(raw[offset + 2 + (i * 2)]));
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Converts a tidy packet back to a raw packet. Exact for valid packets, where the unused upper nibble of each raw byte is blank.
+     *
+     * @param tidy   the 21 byte tidy packet.
+     * @param offset the position of the tidy packet in the array.
+     * @param raw    the 43 byte array to fill.
+     */
+    public static void tidyToRaw(byte[] tidy, int offset, byte[] raw)
+    {
+        raw[0] = PACKET_START_BYTE;
+
+        for (int i = 0; i < 21; i ++)
+        {
+            raw[1 + (i * 2)] = toNibble((byte) ((tidy[offset + i] >> 4) & 0x0f));
+            raw[2 + (i * 2)] = toNibble((byte) (tidy[offset + i] & 0x0f));
+        }
+
+        raw[42] = PACKET_END_BYTE;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Reverses the bit order of the low nibble, which is its own inverse. Protek nibbles are sent in reverse order.
+     */
+    private static byte toNibble(byte value)
+    {
+        return (byte) ((Integer.reverse(value) >> 28) & 0x0f);
+    }
+
+}
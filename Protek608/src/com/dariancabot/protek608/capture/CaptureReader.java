@@ -0,0 +1,384 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608.capture;
+
+import com.dariancabot.protek608.Data;
+import com.dariancabot.protek608.Decoder;
+import com.dariancabot.protek608.Reading;
+import com.dariancabot.protek608.ReadingListener;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Reads the records of a capture file, see {@link CaptureFormat}.
+ * <p>
+ * The file is memory-mapped, in segments so files larger than 2 GB can be read, and records are read by index without copying the file onto the
+ * heap. The records are those in the file when it was opened. Records are expected to be in time order, as written by {@link CaptureWriter}.
+ * <p>
+ * Seeking by time uses the capture's time index when there is one, so only a few pages of a multi-gigabyte capture are touched, and falls back to
+ * a binary search of the records. Example usage:
+ * <pre>
+ * try (CaptureReader reader = new CaptureReader(file))
+ * {
+ *     byte[] packet = new byte[43];
+ *
+ *     for (long i = 0; i &lt; reader.getRecords(); i ++)
+ *     {
+ *         reader.getPacketRaw(i, packet);
+ *         decoder.decodeSerialData(packet);
+ *     }
+ * }
+ * </pre>
+ *
+ * @author Darian Cabot
+ */
+public final class CaptureReader implements Closeable
+{
+    private static final int SEGMENT_SIZE = 1 << 30; // Bytes mapped per segment, rounded down to whole records.
+
+    private final RandomAccessFile file;
+    private final CaptureFormat format;
+    private final long created;
+    private final long records;
+    private final int recordSize;
+    private final int recordsPerSegment;
+    private final MappedByteBuffer[] segments;
+    private final ByteBuffer index; // Null if there is no valid index.
+    private final long indexEntries;
+    private final byte[] packetTidy = new byte[21];
+
+    //-----------------------------------------------------------------------
+    /**
+     * Opens a capture file.
+     *
+     * @param file the capture file.
+     *
+     * @throws IOException if the file can't be opened, or isn't a capture file.
+     */
+    public CaptureReader(File file) throws IOException
+    {
+        this.file = new RandomAccessFile(file, "r");
+        ByteBuffer openedIndex = null;
+        long openedEntries = 0;
+
+        try
+        {
+            FileChannel channel = this.file.getChannel();
+            long size = channel.size();
+
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, CaptureFormat.HEADER_SIZE));
+            this.format = CaptureFormat.readHeader(header);
+            this.created = header.getLong();
+
+            this.recordSize = format.getRecordSize();
+            this.records = (size - CaptureFormat.HEADER_SIZE) / recordSize;
+            this.recordsPerSegment = SEGMENT_SIZE / recordSize;
+
+            int count = (int) ((records + recordsPerSegment - 1) / recordsPerSegment);
+            this.segments = new MappedByteBuffer[count];
+
+            for (int i = 0; i < count; i ++)
+            {
+                long first = (long) i * recordsPerSegment;
+                long length = Math.min(recordsPerSegment, records - first) * recordSize;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, CaptureFormat.HEADER_SIZE + (first * recordSize), length);
+            }
+
+            File indexFile = CaptureFormat.getIndexFile(file);
+
+            if (indexFile.isFile())
+            {
+                try (RandomAccessFile indexRaf = new RandomAccessFile(indexFile, "r"))
+                {
+                    FileChannel indexChannel = indexRaf.getChannel();
+                    openedIndex = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, indexChannel.size());
+
+                    if (CaptureFormat.readIndexHeader(openedIndex) > 0)
+                    {
+                        openedEntries = countIndexEntries(openedIndex);
+                    }
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            this.file.close();
+            throw e;
+        }
+
+        this.index = (openedEntries > 0) ? openedIndex : null;
+        this.indexEntries = openedEntries;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Counts the index entries that point to records in this file, in order.
+     */
+    private long countIndexEntries(ByteBuffer index)
+    {
+        long count = (index.limit() - CaptureFormat.INDEX_HEADER_SIZE) / CaptureFormat.INDEX_ENTRY_SIZE;
+        long previous = -1;
+
+        for (long i = 0; i < count; i ++)
+        {
+            long record = index.getLong((int) (CaptureFormat.INDEX_HEADER_SIZE + (i * CaptureFormat.INDEX_ENTRY_SIZE) + 8));
+
+            if ((record <= previous) || (record >= records))
+            {
+                return i;
+            }
+
+            previous = record;
+        }
+
+        return count;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the packet format of the file.
+     *
+     * @return the packet format.
+     */
+    public CaptureFormat getFormat()
+    {
+        return format;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the time the file was created.
+     *
+     * @return the creation time in milliseconds.
+     */
+    public long getCreated()
+    {
+        return created;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the number of records in the file.
+     *
+     * @return the number of records.
+     */
+    public long getRecords()
+    {
+        return records;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the timestamp of a record.
+     *
+     * @param index the index of the record, from 0.
+     *
+     * @return the timestamp in milliseconds.
+     */
+    public long getTimestamp(long index)
+    {
+        checkIndex(index);
+
+        return segments[(int) (index / recordsPerSegment)].getLong((int) (index % recordsPerSegment) * recordSize);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the packet of a record as a raw packet, ready for {@link com.dariancabot.protek608.Decoder#decodeSerialData(byte[])}. Tidy packets
+     * are rebuilt to the raw packet.
+     *
+     * @param index       the index of the record, from 0.
+     * @param destination the 43 byte array to fill.
+     */
+    public void getPacketRaw(long index, byte[] destination)
+    {
+        checkIndex(index);
+
+        ByteBuffer segment = segments[(int) (index / recordsPerSegment)].duplicate();
+        segment.position(((int) (index % recordsPerSegment) * recordSize) + 8);
+
+        if (format == CaptureFormat.RAW)
+        {
+            segment.get(destination, 0, 43);
+        }
+        else
+        {
+            synchronized (packetTidy)
+            {
+                segment.get(packetTidy);
+                CaptureFormat.tidyToRaw(packetTidy, 0, destination);
+            }
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Checks if the capture has a usable time index.
+     *
+     * @return true if seeking uses the index.
+     */
+    public boolean isIndexed()
+    {
+        return index != null;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Finds the first record at or after a time.
+     *
+     * @param timestamp the time in milliseconds.
+     *
+     * @return the index of the record, or {@link #getRecords()} if every record is earlier.
+     */
+    public long findRecord(long timestamp)
+    {
+        long low = 0;
+        long high = records;
+
+        if (index != null)
+        {
+            // Narrow to the records between the last entry before the time, and the entry after it.
+            long lowEntry = 0;
+            long highEntry = indexEntries;
+
+            while (lowEntry < highEntry)
+            {
+                long middle = (lowEntry + highEntry) >>> 1;
+
+                if (getIndexTimestamp(middle) < timestamp)
+                {
+                    lowEntry = middle + 1;
+                }
+                else
+                {
+                    highEntry = middle;
+                }
+            }
+
+            // Entries before lowEntry are earlier than the time, the entry at lowEntry is not.
+            low = (lowEntry == 0) ? 0 : getIndexRecord(lowEntry - 1);
+            high = (lowEntry == indexEntries) ? records : getIndexRecord(lowEntry);
+        }
+
+        while (low < high)
+        {
+            long middle = (low + high) >>> 1;
+
+            if (getTimestamp(middle) < timestamp)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Decodes the records in a time range into Readings.
+     *
+     * @param from the start time in milliseconds (inclusive).
+     * @param to   the end time in milliseconds (exclusive).
+     *
+     * @return the Readings in the range, in order.
+     */
+    public List<Reading> getReadings(long from, long to)
+    {
+        final List<Reading> readings = new ArrayList<>();
+
+        Decoder decoder = new Decoder(new Data());
+        decoder.addReadingListener(new ReadingListener()
+        {
+            @Override
+            public void readingEvent(Reading reading, int changes)
+            {
+                readings.add(reading);
+            }
+
+        });
+
+        byte[] packet = new byte[43];
+
+        for (long i = findRecord(from); i < records; i ++)
+        {
+            long timestamp = getTimestamp(i);
+
+            if (timestamp >= to)
+            {
+                break;
+            }
+
+            getPacketRaw(i, packet);
+            decoder.decodeSerialData(packet, timestamp);
+        }
+
+        return readings;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Closes the file. The mapped segments are released once no longer referenced.
+     *
+     * @throws IOException if closing fails.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        file.close();
+    }
+
+    //-----------------------------------------------------------------------
+    private void checkIndex(long index)
+    {
+        if ((index < 0) || (index >= records))
+        {
+            throw new IndexOutOfBoundsException("Record " + index + " is not between 0 and " + (records - 1) + ".");
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    private long getIndexTimestamp(long entry)
+    {
+        return index.getLong((int) (CaptureFormat.INDEX_HEADER_SIZE + (entry * CaptureFormat.INDEX_ENTRY_SIZE)));
+    }
+
+    //-----------------------------------------------------------------------
+    private long getIndexRecord(long entry)
+    {
+        return index.getLong((int) (CaptureFormat.INDEX_HEADER_SIZE + (entry * CaptureFormat.INDEX_ENTRY_SIZE) + 8));
+    }
+
+}
@@ -0,0 +1,219 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608.capture;
+
+import com.dariancabot.protek608.Communications;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Replays a capture file through {@link Communications}, the same framing and {@link com.dariancabot.protek608.Decoder} path as a live meter,
+ * so listeners, statistics, and rules can't tell it apart.
+ * <p>
+ * Packets are replayed in real time using the recorded timestamps, faster or slower by a speed factor, or as fast as possible. Readings keep
+ * their recorded timestamps, unless {@link #setLiveTimestamps(boolean)} is set. The replay runs on the thread calling {@link #run()}, and
+ * reports its throughput. To replay into a {@link com.dariancabot.protek608.Protek608} (its listeners and statistics), use
+ * {@link com.dariancabot.protek608.Protek608#replay(CaptureReader, double)}. To replay into a standalone Decoder:
+ * <pre>
+ * Decoder decoder = new Decoder(data);
+ * decoder.addReadingListener(myListener);
+ *
+ * CaptureReplay replay = new CaptureReplay(reader, new Communications(null, decoder));
+ * replay.setSpeed(CaptureReplay.MAX_SPEED);
+ * replay.run();
+ * System.out.println(replay.getPacketsPerSecond() + " packets/s");
+ * </pre>
+ *
+ * @author Darian Cabot
+ */
+public final class CaptureReplay implements Runnable
+{
+    /**
+     * Speed to replay as fast as possible, without pacing.
+     */
+    public static final double MAX_SPEED = 0;
+
+    private final CaptureReader reader;
+    private final Communications communications;
+    private final byte[] packet = new byte[43];
+
+    private volatile double speed = 1;
+    private volatile boolean isLiveTimestamps;
+    private volatile boolean isStopped;
+
+    private volatile long packets;
+    private volatile long startNanos;
+    private volatile long endNanos;
+
+    //-----------------------------------------------------------------------
+    /**
+     * Creates a new CaptureReplay.
+     *
+     * @param reader         the capture file to replay.
+     * @param communications the Communications to receive the packets.
+     */
+    public CaptureReplay(CaptureReader reader, Communications communications)
+    {
+        this.reader = reader;
+        this.communications = communications;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets the replay speed. Defaults to 1 (real time).
+     *
+     * @param speed the speed factor, i.e. 10 for ten times real time, or {@link #MAX_SPEED}.
+     */
+    public void setSpeed(double speed)
+    {
+        if ( ! (speed >= 0))
+        {
+            throw new IllegalArgumentException("Speed " + speed + " is negative.");
+        }
+
+        this.speed = speed;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets whether Readings are timestamped with the time they're replayed, rather than the time they were recorded.
+     *
+     * @param isLiveTimestamps true to use replay time.
+     */
+    public void setLiveTimestamps(boolean isLiveTimestamps)
+    {
+        this.isLiveTimestamps = isLiveTimestamps;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Replays every record in the capture file.
+     */
+    @Override
+    public void run()
+    {
+        replay(0, reader.getRecords());
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Replays a range of records. Returns early if stopped (even before it started) or interrupted.
+     *
+     * @param from the index of the first record.
+     * @param to   the index after the last record.
+     */
+    public void replay(long from, long to)
+    {
+        packets = 0;
+        startNanos = System.nanoTime();
+        endNanos = 0;
+
+        long firstTimestamp = (from < to) ? reader.getTimestamp(from) : 0;
+
+        try
+        {
+            for (long i = from; (i < to) && ! isStopped; i ++)
+            {
+                long timestamp = reader.getTimestamp(i);
+
+                if (speed != MAX_SPEED)
+                {
+                    long due = startNanos + (long) (TimeUnit.MILLISECONDS.toNanos(timestamp - firstTimestamp) / speed);
+                    long wait = due - System.nanoTime();
+
+                    if (wait > 0)
+                    {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                }
+
+                reader.getPacketRaw(i, packet);
+                communications.receiveBytes(packet, isLiveTimestamps ? System.currentTimeMillis() : timestamp);
+                packets ++;
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            endNanos = System.nanoTime();
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Stops a running replay after the current packet, or a replay not yet started before its first. A stopped CaptureReplay stays stopped, so
+     * create a new one to replay again.
+     */
+    public void stop()
+    {
+        isStopped = true;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the number of packets replayed by the current or last replay.
+     *
+     * @return the number of packets.
+     */
+    public long getPackets()
+    {
+        return packets;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets how long the current or last replay has taken.
+     *
+     * @return the elapsed time in nanoseconds.
+     */
+    public long getElapsedNanos()
+    {
+        long start = startNanos;
+        long end = endNanos;
+
+        if (start == 0)
+        {
+            return 0;
+        }
+
+        return ((end == 0) ? System.nanoTime() : end) - start;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the throughput of the current or last replay.
+     *
+     * @return the packets replayed per second.
+     */
+    public double getPacketsPerSecond()
+    {
+        long elapsed = getElapsedNanos();
+
+        return (elapsed == 0) ? 0 : packets * 1e9 / elapsed;
+    }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608.capture;
+
+import com.dariancabot.protek608.Reading;
+import com.dariancabot.protek608.TriggeredCapture;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+
+/**
+ * A {@link TriggeredCapture.Listener} that writes each captured window to its own capture file.
+ * <p>
+ * Each window is written with a {@link CaptureWriter} to a file in a directory, named by the timestamp of the Reading that fired the trigger
+ * (e.g. {@code 1500000000000.cap}), and can be read back with a {@link CaptureReader} or replayed. Windows should be given to this listener
+ * using an Executor, so the writes never hold up the decoder thread. Example usage:
+ * <pre>
+ * CaptureWindowWriter writer = new CaptureWindowWriter(new File("events"));
+ * protek608.addReadingListener(new TriggeredCapture(trigger, 20, 10, writer, Executors.newSingleThreadExecutor()));
+ * </pre>
+ * A window that fails to be written stops the writer, and the error is thrown by {@link #close()}.
+ *
+ * @author Darian Cabot
+ */
+public final class CaptureWindowWriter implements TriggeredCapture.Listener, Closeable
+{
+    private static final String EXTENSION = ".cap";
+
+    private final File directory;
+    private final CaptureFormat format;
+
+    private long windows;
+    private IOException failure;
+    private boolean isClosed;
+
+    //-----------------------------------------------------------------------
+    /**
+     * Creates a new CaptureWindowWriter of raw packets.
+     *
+     * @param directory the directory to write capture files to, created if it doesn't exist.
+     *
+     * @throws IOException if the directory can't be created.
+     */
+    public CaptureWindowWriter(File directory) throws IOException
+    {
+        this(directory, CaptureFormat.RAW);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Creates a new CaptureWindowWriter.
+     *
+     * @param directory the directory to write capture files to, created if it doesn't exist.
+     * @param format    the packet format to write.
+     *
+     * @throws IOException if the directory can't be created.
+     */
+    public CaptureWindowWriter(File directory, CaptureFormat format) throws IOException
+    {
+        if ( ! directory.isDirectory() && ! directory.mkdirs())
+        {
+            throw new IOException("Can't create directory " + directory + ".");
+        }
+
+        this.directory = directory;
+        this.format = format;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the number of windows written.
+     *
+     * @return the number of windows.
+     */
+    public synchronized long getWindows()
+    {
+        return windows;
+    }
+
+    //-----------------------------------------------------------------------
+    @Override
+    public synchronized void captureEvent(Reading[] readings, int triggerIndex)
+    {
+        if (isClosed || (failure != null))
+        {
+            return;
+        }
+
+        // Named by the trigger time, with a suffix if two triggers share a millisecond.
+        long timestamp = readings[triggerIndex].getTimestamp();
+        File file = new File(directory, timestamp + EXTENSION);
+
+        for (int i = 1; file.exists(); i ++)
+        {
+            file = new File(directory, timestamp + "-" + i + EXTENSION);
+        }
+
+        try (CaptureWriter writer = new CaptureWriter(file, format, readings.length, 0)) // One write, and no index.
+        {
+            for (Reading reading : readings)
+            {
+                writer.readingEvent(reading, 0);
+            }
+        }
+        catch (IOException e)
+        {
+            failure = e;
+            return;
+        }
+
+        windows ++;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Stops writing windows. Windows captured after this are dropped.
+     *
+     * @throws IOException if a window failed to be written, on every call.
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        isClosed = true;
+
+        if (failure != null)
+        {
+            throw failure;
+        }
+    }
+
+}
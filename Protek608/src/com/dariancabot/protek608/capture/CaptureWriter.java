@@ -0,0 +1,448 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608.capture;
+
+import com.dariancabot.protek608.Reading;
+import com.dariancabot.protek608.ReadingListener;
+import java.io.Closeable;
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * A ReadingListener that appends each Reading's packet to a capture file, see {@link CaptureFormat}.
+ * <p>
+ * Records are copied into a preallocated direct buffer and written to the file in batches (group commit), when the buffer is full, when
+ * {@link #getFlushInterval()} has passed since the last write, on {@link #flush()}, or on {@link #close()}. Nothing is allocated per Reading.
+ * To keep file I/O off the decoder thread, add the writer with an Executor, see
+ * {@link com.dariancabot.protek608.Decoder#addReadingListener(ReadingListener, java.util.concurrent.Executor)}.
+ * <p>
+ * The writer also keeps the capture's sparse time index up to date (see {@link CaptureFormat}), adding an entry every
+ * {@link #DEFAULT_INDEX_INTERVAL} records, and rebuilding it on open if it's missing or out of date.
+ * <p>
+ * A write error is thrown by {@link #flush()} and {@link #close()}, see {@link ReadingListener}.
+ *
+ * @author Darian Cabot
+ */
+public final class CaptureWriter implements ReadingListener, Flushable, Closeable
+{
+    /**
+     * Default number of records buffered before writing.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 64;
+
+    /**
+     * Default longest time in milliseconds a record is buffered before writing.
+     */
+    public static final long DEFAULT_FLUSH_INTERVAL = 5000;
+
+    /**
+     * Default number of records between time index entries.
+     */
+    public static final int DEFAULT_INDEX_INTERVAL = 1024;
+
+    private final CaptureFormat format;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final int indexInterval;
+    private final FileChannel indexChannel;
+    private final ByteBuffer indexBuffer;
+    private final byte[] packetRaw = new byte[43];
+    private final byte[] packetTidy = new byte[21];
+
+    private long flushInterval = DEFAULT_FLUSH_INTERVAL;
+    private long lastWrite;
+    private long records;
+    private IOException failure;
+    private boolean isClosed;
+
+    //-----------------------------------------------------------------------
+    /**
+     * Creates a new CaptureWriter of raw packets with default batching.
+     *
+     * @param file the file to append to, created if it doesn't exist.
+     *
+     * @throws IOException if the file can't be opened, or isn't a capture file of the same format.
+     */
+    public CaptureWriter(File file) throws IOException
+    {
+        this(file, CaptureFormat.RAW, DEFAULT_BATCH_SIZE);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Creates a new CaptureWriter.
+     *
+     * @param file      the file to append to, created if it doesn't exist.
+     * @param format    the packet format to write.
+     * @param batchSize the number of records buffered before writing, at least 1.
+     *
+     * @throws IOException if the file can't be opened, or isn't a capture file of the same format.
+     */
+    public CaptureWriter(File file, CaptureFormat format, int batchSize) throws IOException
+    {
+        this(file, format, batchSize, DEFAULT_INDEX_INTERVAL);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Creates a new CaptureWriter.
+     *
+     * @param file          the file to append to, created if it doesn't exist.
+     * @param format        the packet format to write.
+     * @param batchSize     the number of records buffered before writing, at least 1.
+     * @param indexInterval the number of records between time index entries, or 0 to not keep an index.
+     *
+     * @throws IOException if the file can't be opened, or isn't a capture file of the same format.
+     */
+    public CaptureWriter(File file, CaptureFormat format, int batchSize, int indexInterval) throws IOException
+    {
+        if (batchSize < 1)
+        {
+            throw new IllegalArgumentException("Batch size " + batchSize + " is less than 1.");
+        }
+
+        if (indexInterval < 0)
+        {
+            throw new IllegalArgumentException("Index interval " + indexInterval + " is negative.");
+        }
+
+        this.format = format;
+        this.buffer = ByteBuffer.allocateDirect(Math.max(batchSize * format.getRecordSize(), CaptureFormat.HEADER_SIZE));
+        this.channel = new RandomAccessFile(file, "rw").getChannel();
+        this.indexInterval = indexInterval;
+
+        // Enough for every entry added between writes.
+        this.indexBuffer = ByteBuffer.allocate(((batchSize / Math.max(indexInterval, 1)) + 2) * CaptureFormat.INDEX_ENTRY_SIZE);
+
+        FileChannel openedIndex = null;
+
+        try
+        {
+            open();
+
+            if (indexInterval > 0)
+            {
+                openedIndex = new RandomAccessFile(CaptureFormat.getIndexFile(file), "rw").getChannel();
+                openIndex(openedIndex);
+            }
+        }
+        catch (IOException e)
+        {
+            channel.close();
+
+            if (openedIndex != null)
+            {
+                openedIndex.close();
+            }
+
+            throw e;
+        }
+
+        this.indexChannel = openedIndex;
+
+        lastWrite = System.currentTimeMillis();
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Writes a new header, or checks the existing one and drops any partly written last record.
+     */
+    private void open() throws IOException
+    {
+        long size = channel.size();
+
+        if (size == 0)
+        {
+            format.writeHeader(buffer, System.currentTimeMillis());
+            buffer.flip();
+            writeBuffer();
+            return;
+        }
+
+        buffer.limit(CaptureFormat.HEADER_SIZE);
+        channel.read(buffer, 0);
+        buffer.flip();
+
+        CaptureFormat existing = CaptureFormat.readHeader(buffer);
+        buffer.clear();
+
+        if (existing != format)
+        {
+            throw new IOException("Capture file format is " + existing + ", not " + format + ".");
+        }
+
+        records = (size - CaptureFormat.HEADER_SIZE) / format.getRecordSize();
+        long end = CaptureFormat.HEADER_SIZE + (records * format.getRecordSize());
+
+        channel.truncate(end);
+        channel.position(end);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Keeps the valid entries of an existing index, and adds any that are missing from the records already in the file.
+     */
+    private void openIndex(FileChannel index) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(CaptureFormat.INDEX_HEADER_SIZE);
+        index.read(header, 0);
+        header.flip();
+
+        long entries = 0;
+
+        if (CaptureFormat.readIndexHeader(header) == indexInterval)
+        {
+            // Entries are valid while they point to the expected record, and that record exists.
+            long count = (index.size() - CaptureFormat.INDEX_HEADER_SIZE) / CaptureFormat.INDEX_ENTRY_SIZE;
+            ByteBuffer entry = ByteBuffer.allocate(CaptureFormat.INDEX_ENTRY_SIZE);
+
+            while (entries < count)
+            {
+                entry.clear();
+                index.read(entry, CaptureFormat.INDEX_HEADER_SIZE + (entries * CaptureFormat.INDEX_ENTRY_SIZE));
+                long record = entry.getLong(8);
+
+                if ((record != entries * indexInterval) || (record >= records))
+                {
+                    break;
+                }
+
+                entries ++;
+            }
+        }
+        else
+        {
+            header.clear();
+            CaptureFormat.writeIndexHeader(header, indexInterval);
+            header.flip();
+            index.truncate(0);
+            index.write(header, 0);
+        }
+
+        long end = CaptureFormat.INDEX_HEADER_SIZE + (entries * CaptureFormat.INDEX_ENTRY_SIZE);
+        index.truncate(end);
+        index.position(end);
+
+        // Rebuild missing entries from the records.
+        ByteBuffer timestamp = ByteBuffer.allocate(8);
+        ByteBuffer entry = ByteBuffer.allocate(CaptureFormat.INDEX_ENTRY_SIZE);
+
+        for (long record = entries * indexInterval; record < records; record += indexInterval)
+        {
+            timestamp.clear();
+            channel.read(timestamp, CaptureFormat.HEADER_SIZE + (record * format.getRecordSize()));
+
+            entry.clear();
+            entry.putLong(timestamp.getLong(0));
+            entry.putLong(record);
+            entry.flip();
+
+            while (entry.hasRemaining())
+            {
+                index.write(entry);
+            }
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the packet format written.
+     *
+     * @return the packet format.
+     */
+    public CaptureFormat getFormat()
+    {
+        return format;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the longest time a record is buffered before writing.
+     *
+     * @return the flush interval in milliseconds.
+     */
+    public synchronized long getFlushInterval()
+    {
+        return flushInterval;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets the longest time a record is buffered before writing. It's checked as each Reading is received.
+     *
+     * @param flushInterval the flush interval in milliseconds, or 0 to write every record straight away.
+     */
+    public synchronized void setFlushInterval(long flushInterval)
+    {
+        this.flushInterval = flushInterval;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the number of records in the file, including those still buffered.
+     *
+     * @return the number of records.
+     */
+    public synchronized long getRecords()
+    {
+        return records;
+    }
+
+    //-----------------------------------------------------------------------
+    @Override
+    public synchronized void readingEvent(Reading reading, int changes)
+    {
+        if (isClosed || (failure != null) || (reading.copyPacketRaw(packetRaw) != packetRaw.length))
+        {
+            return;
+        }
+
+        if ((indexChannel != null) && ((records % indexInterval) == 0))
+        {
+            indexBuffer.putLong(reading.getTimestamp());
+            indexBuffer.putLong(records);
+        }
+
+        buffer.putLong(reading.getTimestamp());
+
+        if (format == CaptureFormat.RAW)
+        {
+            buffer.put(packetRaw);
+        }
+        else
+        {
+            CaptureFormat.rawToTidy(packetRaw, 0, packetTidy);
+            buffer.put(packetTidy);
+        }
+
+        records ++;
+
+        long now = System.currentTimeMillis();
+
+        if ((buffer.remaining() < format.getRecordSize()) || ((now - lastWrite) >= flushInterval))
+        {
+            try
+            {
+                buffer.flip();
+                writeBuffer();
+            }
+            catch (IOException e)
+            {
+                failure = e;
+            }
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Writes any buffered records and forces them to the storage device.
+     *
+     * @throws IOException if writing fails, or an earlier write failed.
+     */
+    @Override
+    public synchronized void flush() throws IOException
+    {
+        if (failure != null)
+        {
+            throw failure;
+        }
+
+        if (isClosed)
+        {
+            return;
+        }
+
+        buffer.flip();
+        writeBuffer();
+        channel.force(false);
+
+        if (indexChannel != null)
+        {
+            indexChannel.force(false);
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Writes any buffered records and closes the file. Readings received after closing are ignored.
+     *
+     * @throws IOException if writing fails, or an earlier write failed.
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if (isClosed)
+        {
+            return;
+        }
+
+        try
+        {
+            flush();
+        }
+        finally
+        {
+            isClosed = true;
+            channel.close();
+
+            if (indexChannel != null)
+            {
+                indexChannel.close();
+            }
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Writes the flipped buffer to the file and clears it, then any new index entries, so the index never points past the records written.
+     */
+    private void writeBuffer() throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+
+        buffer.clear();
+
+        if ((indexChannel != null) && (indexBuffer.position() > 0))
+        {
+            indexBuffer.flip();
+
+            while (indexBuffer.hasRemaining())
+            {
+                indexChannel.write(indexBuffer);
+            }
+
+            indexBuffer.clear();
+        }
+        lastWrite = System.currentTimeMillis();
+    }
+
+}
@@ -0,0 +1,415 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608.capture;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * Reads the packets of a compressed packet log written by {@link PacketLogWriter}.
+ * <p>
+ * The log is read one block at a time into a reused buffer, and decoded one packet at a time, in order, without allocating, so logs of any
+ * size can be read. {@link #seek(long)} skips straight to the block holding a time, reading only the block headers. Example usage:
+ * <pre>
+ * try (PacketLogReader reader = new PacketLogReader(file))
+ * {
+ *     byte[] packet = new byte[43];
+ *
+ *     while (reader.next())
+ *     {
+ *         reader.copyPacketRaw(packet);
+ *         decoder.decodeSerialData(packet, reader.getTimestamp());
+ *     }
+ * }
+ * </pre>
+ * Instances are not thread safe.
+ *
+ * @author Darian Cabot
+ */
+public final class PacketLogReader implements Closeable
+{
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long size; // Of the log when opened.
+    private final ByteBuffer blockHeader = ByteBuffer.allocate(PacketLogWriter.BLOCK_HEADER_SIZE);
+    private ByteBuffer log = ByteBuffer.allocate(PacketLogWriter.BLOCK_HEADER_SIZE + (PacketLogWriter.DEFAULT_KEYFRAME_INTERVAL * 16));
+    private long logPosition; // File position of the block in the log buffer.
+    private long nextBlock; // File position of the next block.
+
+    private final byte[] packetRaw = new byte[43];
+    private final byte[] packetTidy = new byte[21];
+
+    private int runRemaining;
+    private boolean isPending; // The current packet was found by seek(), and is returned by the next call to next().
+    private boolean isCurrent;
+
+    private long timestamp;
+    private long previousInterval;
+
+    //-----------------------------------------------------------------------
+    /**
+     * Opens a packet log.
+     *
+     * @param file the packet log.
+     *
+     * @throws IOException if the file can't be opened, or isn't a packet log.
+     */
+    public PacketLogReader(File file) throws IOException
+    {
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
+
+        try
+        {
+            size = channel.size();
+
+            ByteBuffer header = ByteBuffer.allocate((int) Math.min(size, PacketLogWriter.HEADER_SIZE));
+            read(header, 0);
+            readHeader(header);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            this.file.close();
+            throw e;
+        }
+
+        rewind();
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Reads and checks a packet log header.
+     *
+     * @param buffer the buffer to read from, at its position.
+     *
+     * @throws IOException if the header isn't a valid packet log header.
+     */
+    static void readHeader(ByteBuffer buffer) throws IOException
+    {
+        if (buffer.remaining() < PacketLogWriter.HEADER_SIZE)
+        {
+            throw new IOException("Not a packet log: too short for a header.");
+        }
+
+        for (byte magic : PacketLogWriter.MAGIC)
+        {
+            if (buffer.get() != magic)
+            {
+                throw new IOException("Not a packet log: header magic not found.");
+            }
+        }
+
+        int version = buffer.getInt();
+
+        if (version != PacketLogWriter.VERSION)
+        {
+            throw new IOException("Unsupported packet log version " + version + ".");
+        }
+
+        buffer.getInt(); // Reserved.
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Goes back to before the first packet.
+     */
+    public void rewind()
+    {
+        log.limit(0);
+        nextBlock = PacketLogWriter.HEADER_SIZE;
+        runRemaining = 0;
+        isPending = false;
+        isCurrent = false;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Moves to the next packet.
+     *
+     * @return true if there is a next packet, false at the end of the log.
+     *
+     * @throws IOException if the log can't be read.
+     */
+    public boolean next() throws IOException
+    {
+        if (isPending)
+        {
+            isPending = false;
+            return true;
+        }
+
+        isCurrent = false;
+
+        if (runRemaining > 0)
+        {
+            runRemaining --;
+            readTime();
+            isCurrent = true;
+            return true;
+        }
+
+        while ( ! log.hasRemaining())
+        {
+            if ( ! startBlock(nextBlock))
+            {
+                return false;
+            }
+        }
+
+        byte tag = log.get();
+
+        switch (tag)
+        {
+            case PacketLogWriter.KEYFRAME:
+                log.get(packetTidy);
+                CaptureFormat.tidyToRaw(packetTidy, 0, packetRaw);
+                break;
+
+            case PacketLogWriter.REPEAT:
+                runRemaining = (int) getVarint() - 1;
+                readTime();
+                break;
+
+            case PacketLogWriter.DELTA:
+                readTime();
+                int mask = (log.get() & 0xff) | ((log.get() & 0xff) << 8) | ((log.get() & 0xff) << 16);
+
+                for (int i = 0; i < 21; i ++)
+                {
+                    if ((mask & (1 << i)) != 0)
+                    {
+                        packetTidy[i] ^= log.get();
+                    }
+                }
+
+                CaptureFormat.tidyToRaw(packetTidy, 0, packetRaw);
+                break;
+
+            case PacketLogWriter.RAW:
+                readTime();
+                log.get(packetRaw);
+                CaptureFormat.rawToTidy(packetRaw, 0, packetTidy);
+                break;
+
+            default:
+                throw new IllegalStateException("Corrupt packet log: unknown record type " + tag + " at " + (logPosition + log.position() - 1) + ".");
+        }
+
+        isCurrent = true;
+        return true;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Moves so the next call to {@link #next()} gives the first packet at or after a time.
+     *
+     * @param time the time in milliseconds.
+     *
+     * @return true if there is a packet at or after the time.
+     *
+     * @throws IOException if the log can't be read.
+     */
+    public boolean seek(long time) throws IOException
+    {
+        rewind();
+
+        // Find the last block starting before the time, from the block headers alone. A block starting at the time may follow packets of the
+        // same time at the end of the block before it.
+        long position = PacketLogWriter.HEADER_SIZE;
+        long start = position;
+
+        while (readBlockHeader(position))
+        {
+            if (blockHeader.getLong(8) >= time)
+            {
+                break;
+            }
+
+            start = position;
+            position += PacketLogWriter.BLOCK_HEADER_SIZE + blockHeader.getInt(0);
+        }
+
+        nextBlock = start;
+
+        while (next())
+        {
+            if (timestamp >= time)
+            {
+                isPending = true;
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the timestamp of the current packet.
+     *
+     * @return the timestamp in milliseconds.
+     */
+    public long getTimestamp()
+    {
+        checkCurrent();
+
+        return timestamp;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Copies the current packet as a raw packet, exactly as it was written.
+     *
+     * @param destination the 43 byte array to fill.
+     *
+     * @return the packet length, 43.
+     */
+    public int copyPacketRaw(byte[] destination)
+    {
+        checkCurrent();
+        System.arraycopy(packetRaw, 0, destination, 0, 43);
+
+        return 43;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Closes the file.
+     *
+     * @throws IOException if closing fails.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        file.close();
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Reads the header of a block, if there is a whole block at a position.
+     */
+    private boolean readBlockHeader(long position) throws IOException
+    {
+        if (position + PacketLogWriter.BLOCK_HEADER_SIZE > size)
+        {
+            return false;
+        }
+
+        blockHeader.clear();
+        read(blockHeader, position);
+
+        int length = blockHeader.getInt(0);
+
+        return (length >= 0) && (position + PacketLogWriter.BLOCK_HEADER_SIZE + length <= size);
+    }
+
+    //-----------------------------------------------------------------------
+    private boolean startBlock(long position) throws IOException
+    {
+        // A partly written last block is ignored.
+        if ( ! readBlockHeader(position))
+        {
+            return false;
+        }
+
+        int length = blockHeader.getInt(0);
+
+        if (log.capacity() < length)
+        {
+            log = ByteBuffer.allocate(length);
+        }
+
+        log.clear();
+        log.limit(length);
+        read(log, position + PacketLogWriter.BLOCK_HEADER_SIZE);
+
+        logPosition = position + PacketLogWriter.BLOCK_HEADER_SIZE;
+        nextBlock = logPosition + length;
+        timestamp = blockHeader.getLong(8);
+        previousInterval = 0;
+
+        return true;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Fills a buffer (from its position 0) from a file position, then flips it for reading.
+     */
+    private void read(ByteBuffer destination, long position) throws IOException
+    {
+        while (destination.hasRemaining())
+        {
+            if (channel.read(destination, position + destination.position()) < 0)
+            {
+                throw new EOFException("Packet log is truncated.");
+            }
+        }
+
+        destination.flip();
+    }
+
+    //-----------------------------------------------------------------------
+    private void readTime()
+    {
+        long zigzag = getVarint();
+        long change = (zigzag >>> 1) ^ -(zigzag & 1);
+
+        previousInterval += change;
+        timestamp += previousInterval;
+    }
+
+    //-----------------------------------------------------------------------
+    private long getVarint()
+    {
+        long value = 0;
+        int shift = 0;
+        byte b;
+
+        do
+        {
+            b = log.get();
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        }
+        while ((b & 0x80) != 0);
+
+        return value;
+    }
+
+    //-----------------------------------------------------------------------
+    private void checkCurrent()
+    {
+        if ( ! isCurrent)
+        {
+            throw new IllegalStateException("No current packet, call next() first.");
+        }
+    }
+
+}
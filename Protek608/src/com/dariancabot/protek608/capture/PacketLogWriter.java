@@ -0,0 +1,499 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608.capture;
+
+import com.dariancabot.protek608.Reading;
+import com.dariancabot.protek608.ReadingListener;
+import java.io.Closeable;
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+
+/**
+ * A ReadingListener that appends each Reading's packet to a compressed packet log, read with {@link PacketLogReader}.
+ * <p>
+ * Consecutive packets from the DMM are usually identical, or differ in a few nibbles, so each packet is stored as the change from the previous
+ * one, and timestamps as the change in the time between packets (which is near constant at 2 Hz):
+ * <pre>
+ * File:     magic "P608PLG" 0x1a (8) | version (int) | reserved (int) | blocks...
+ * Block:    payload length (int) | records (int) | first timestamp (long) | records...
+ * Record:   KEYFRAME  0 | tidy packet (21)                          - first record of a block, at the first timestamp
+ *           REPEAT    1 | count (varint) | time (varint) x count    - packets identical to the previous one
+ *           DELTA     2 | time (varint) | changed mask (3) | XOR of each changed tidy byte
+ *           RAW       3 | time (varint) | raw packet (43)           - a packet that can't be rebuilt from its tidy packet
+ * Time:     zigzag varint of (this interval - previous interval), starting at 0 from the block's first timestamp.
+ * </pre>
+ * Each block starts with a keyframe, so readers can seek to any block without decoding those before it. Packets decode back to exactly the
+ * raw packets written. Blocks are ended (and written) every {@code keyframeInterval} records, when a Reading arrives more than the flush
+ * interval after the last write, and on {@link #flush()} or {@link #close()}. A partly written last block (i.e. after a crash) is dropped
+ * when the log is reopened.
+ * <p>
+ * A write error from a Reading is thrown by the next {@link #append(long, byte[])}, {@link #flush()} or {@link #close()}.
+ *
+ * @author Darian Cabot
+ */
+public final class PacketLogWriter implements ReadingListener, Flushable, Closeable
+{
+    /**
+     * Default number of records per block.
+     */
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 256;
+
+    /**
+     * Default longest time in milliseconds a record is buffered before its block is written.
+     */
+    public static final long DEFAULT_FLUSH_INTERVAL = 5000;
+
+    static final int HEADER_SIZE = 16;
+    static final int BLOCK_HEADER_SIZE = 16;
+    static final int VERSION = 1;
+
+    static final byte KEYFRAME = 0;
+    static final byte REPEAT = 1;
+    static final byte DELTA = 2;
+    static final byte RAW = 3;
+
+    static final byte[] MAGIC =
+    {
+        'P', '6', '0', '8', 'P', 'L', 'G', 0x1a
+    };
+
+    private final FileChannel channel;
+    private final int keyframeInterval;
+    private final ByteBuffer block;
+    private final ByteBuffer run; // Times of the pending REPEAT record.
+
+    private final byte[] packetRaw = new byte[43];
+    private final byte[] packetTidy = new byte[21];
+    private final byte[] rebuilt = new byte[43];
+    private final byte[] previousRaw = new byte[43];
+    private final byte[] previousTidy = new byte[21];
+
+    private int blockRecords;
+    private int runCount;
+    private long previousTimestamp;
+    private long previousInterval;
+
+    private long flushInterval = DEFAULT_FLUSH_INTERVAL;
+    private long lastWrite;
+    private long records;
+    private IOException failure;
+    private boolean isClosed;
+
+    //-----------------------------------------------------------------------
+    /**
+     * Creates a new PacketLogWriter with the default keyframe interval.
+     *
+     * @param file the file to append to, created if it doesn't exist.
+     *
+     * @throws IOException if the file can't be opened, or isn't a packet log.
+     */
+    public PacketLogWriter(File file) throws IOException
+    {
+        this(file, DEFAULT_KEYFRAME_INTERVAL);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Creates a new PacketLogWriter.
+     *
+     * @param file             the file to append to, created if it doesn't exist.
+     * @param keyframeInterval the most records in each block, at least 1.
+     *
+     * @throws IOException if the file can't be opened, or isn't a packet log.
+     */
+    public PacketLogWriter(File file, int keyframeInterval) throws IOException
+    {
+        if (keyframeInterval < 1)
+        {
+            throw new IllegalArgumentException("Keyframe interval " + keyframeInterval + " is less than 1.");
+        }
+
+        this.keyframeInterval = keyframeInterval;
+
+        // Worst case is a RAW record for every packet.
+        this.block = ByteBuffer.allocate(BLOCK_HEADER_SIZE + (keyframeInterval * (1 + 10 + 43)));
+        this.run = ByteBuffer.allocate(keyframeInterval * 10);
+        this.channel = new RandomAccessFile(file, "rw").getChannel();
+
+        try
+        {
+            open();
+            lastWrite = System.currentTimeMillis();
+        }
+        catch (IOException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Writes a new header, or checks the existing one and drops any partly written last block.
+     */
+    private void open() throws IOException
+    {
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(Math.max(HEADER_SIZE, BLOCK_HEADER_SIZE));
+
+        if (size == 0)
+        {
+            header.put(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(0);
+            header.flip();
+
+            while (header.hasRemaining())
+            {
+                channel.write(header);
+            }
+
+            return;
+        }
+
+        header.limit(HEADER_SIZE);
+        channel.read(header, 0);
+        header.flip();
+        PacketLogReader.readHeader(header);
+
+        // Walk the blocks to find the end of the last complete one.
+        long end = HEADER_SIZE;
+
+        while (end + BLOCK_HEADER_SIZE <= size)
+        {
+            header.clear();
+            header.limit(BLOCK_HEADER_SIZE);
+            channel.read(header, end);
+
+            long next = end + BLOCK_HEADER_SIZE + header.getInt(0);
+
+            if ((header.getInt(0) < 0) || (next > size))
+            {
+                break;
+            }
+
+            records += header.getInt(4);
+            end = next;
+        }
+
+        channel.truncate(end);
+        channel.position(end);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the longest time a record is buffered before its block is written.
+     *
+     * @return the flush interval in milliseconds.
+     */
+    public synchronized long getFlushInterval()
+    {
+        return flushInterval;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets the longest time a record is buffered before its block is written. It's checked as each Reading is received, and shorter
+     * intervals give smaller blocks, so less compression.
+     *
+     * @param flushInterval the flush interval in milliseconds, or 0 to write every record straight away.
+     */
+    public synchronized void setFlushInterval(long flushInterval)
+    {
+        this.flushInterval = flushInterval;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the number of records written, including those in the current block.
+     *
+     * @return the number of records.
+     */
+    public synchronized long getRecords()
+    {
+        return records;
+    }
+
+    //-----------------------------------------------------------------------
+    @Override
+    public synchronized void readingEvent(Reading reading, int changes)
+    {
+        if (reading.copyPacketRaw(packetRaw) != packetRaw.length)
+        {
+            return;
+        }
+
+        try
+        {
+            append(reading.getTimestamp(), packetRaw);
+
+            if ((System.currentTimeMillis() - lastWrite) >= flushInterval)
+            {
+                writeBlock();
+            }
+        }
+        catch (IOException e)
+        {
+            // Kept for flush() or close().
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Appends a packet, i.e. when converting a capture file.
+     *
+     * @param timestamp the time the packet was received in milliseconds.
+     * @param raw       the 43 byte raw packet.
+     *
+     * @throws IOException if a block can't be written, or an earlier write failed.
+     */
+    public synchronized void append(long timestamp, byte[] raw) throws IOException
+    {
+        if (failure != null)
+        {
+            throw failure;
+        }
+
+        if (isClosed)
+        {
+            throw new IOException("Packet log is closed.");
+        }
+
+        if (blockRecords == 0)
+        {
+            startBlock(timestamp, raw);
+        }
+        else if (Arrays.equals(raw, previousRaw))
+        {
+            putTime(run, timestamp);
+            runCount ++;
+        }
+        else
+        {
+            endRun();
+            CaptureFormat.rawToTidy(raw, 0, packetTidy);
+            CaptureFormat.tidyToRaw(packetTidy, 0, rebuilt);
+
+            if (Arrays.equals(raw, rebuilt))
+            {
+                block.put(DELTA);
+                putTime(block, timestamp);
+
+                int mask = 0;
+
+                for (int i = 0; i < 21; i ++)
+                {
+                    if (packetTidy[i] != previousTidy[i])
+                    {
+                        mask |= 1 << i;
+                    }
+                }
+
+                block.put((byte) mask);
+                block.put((byte) (mask >>> 8));
+                block.put((byte) (mask >>> 16));
+
+                for (int i = 0; i < 21; i ++)
+                {
+                    if ((mask & (1 << i)) != 0)
+                    {
+                        block.put((byte) (packetTidy[i] ^ previousTidy[i]));
+                    }
+                }
+            }
+            else
+            {
+                putRaw(timestamp, raw);
+            }
+
+            System.arraycopy(packetTidy, 0, previousTidy, 0, 21);
+        }
+
+        System.arraycopy(raw, 0, previousRaw, 0, 43);
+        blockRecords ++;
+        records ++;
+
+        if (blockRecords == keyframeInterval)
+        {
+            writeBlock();
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Ends the current block and writes it, then forces the log to the storage device.
+     *
+     * @throws IOException if writing fails, or an earlier write failed.
+     */
+    @Override
+    public synchronized void flush() throws IOException
+    {
+        if (failure != null)
+        {
+            throw failure;
+        }
+
+        if (isClosed)
+        {
+            return;
+        }
+
+        writeBlock();
+        channel.force(false);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Writes the current block and closes the log.
+     *
+     * @throws IOException if writing fails, or an earlier write failed.
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if (isClosed)
+        {
+            return;
+        }
+
+        try
+        {
+            flush();
+        }
+        finally
+        {
+            isClosed = true;
+            channel.close();
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    private void startBlock(long timestamp, byte[] raw)
+    {
+        block.clear();
+        block.position(BLOCK_HEADER_SIZE);
+        block.putLong(8, timestamp);
+
+        previousTimestamp = timestamp;
+        previousInterval = 0;
+
+        CaptureFormat.rawToTidy(raw, 0, packetTidy);
+        CaptureFormat.tidyToRaw(packetTidy, 0, rebuilt);
+
+        if (Arrays.equals(raw, rebuilt))
+        {
+            block.put(KEYFRAME);
+            block.put(packetTidy);
+        }
+        else
+        {
+            putRaw(timestamp, raw);
+        }
+
+        System.arraycopy(packetTidy, 0, previousTidy, 0, 21);
+    }
+
+    //-----------------------------------------------------------------------
+    private void putRaw(long timestamp, byte[] raw)
+    {
+        block.put(RAW);
+        putTime(block, timestamp);
+        block.put(raw);
+    }
+
+    //-----------------------------------------------------------------------
+    private void endRun()
+    {
+        if (runCount > 0)
+        {
+            block.put(REPEAT);
+            putVarint(block, runCount);
+            run.flip();
+            block.put(run);
+            run.clear();
+            runCount = 0;
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    private void writeBlock() throws IOException
+    {
+        if (blockRecords == 0)
+        {
+            return;
+        }
+
+        endRun();
+
+        block.putInt(0, block.position() - BLOCK_HEADER_SIZE);
+        block.putInt(4, blockRecords);
+        block.flip();
+        blockRecords = 0;
+        lastWrite = System.currentTimeMillis();
+
+        try
+        {
+            while (block.hasRemaining())
+            {
+                channel.write(block);
+            }
+        }
+        catch (IOException e)
+        {
+            failure = e;
+            throw e;
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    private void putTime(ByteBuffer buffer, long timestamp)
+    {
+        long interval = timestamp - previousTimestamp;
+        long change = interval - previousInterval;
+
+        putVarint(buffer, (change << 1) ^ (change >> 63)); // Zigzag, so small negatives are small too.
+
+        previousTimestamp = timestamp;
+        previousInterval = interval;
+    }
+
+    //-----------------------------------------------------------------------
+    private static void putVarint(ByteBuffer buffer, long value)
+    {
+        while ((value & ~0x7fL) != 0)
+        {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+
+        buffer.put((byte) value);
+    }
+
+}
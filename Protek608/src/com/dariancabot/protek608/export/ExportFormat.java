@@ -0,0 +1,307 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608.export;
+
+import com.dariancabot.protek608.Reading;
+
+
+/**
+ * Text formats for exporting Readings, one line per Reading.
+ * <p>
+ * Rows are appended to a reusable StringBuilder without String.format, and the displayed values and units are appended from the Reading's
+ * existing Strings, so little is allocated per Reading; only {@code StringBuilder.append(double)} allocates, once for each SI value. Each
+ * value is written as displayed, as an SI value (empty or null if not numerical), and with its unit (i.e. "mV DC"). Units are written from
+ * the unit abbreviations of {@link com.dariancabot.protek608.Data}, so ohms use the Ohm sign (U+2126).
+ *
+ * @author Darian Cabot
+ */
+public enum ExportFormat
+{
+    /**
+     * Comma-separated values, with a header line. Annunciators are listed by name, separated by '|'. For example:
+     * <pre>
+     * timestamp,main_value,main_si,main_unit,sub_value,sub_si,sub_unit,bar_graph,annunciators
+     * 1500000000000,0.0015,0.0015,V DC,10.50,1.05E7,MΩ,,positive|hold
+     * </pre>
+     */
+    CSV("csv")
+    {
+        @Override
+        public void appendHeader(StringBuilder builder)
+        {
+            builder.append("timestamp,main_value,main_si,main_unit,sub_value,sub_si,sub_unit,bar_graph,annunciators\n");
+        }
+
+        @Override
+        public void append(Reading reading, StringBuilder builder)
+        {
+            builder.append(reading.getTimestamp()).append(',');
+            appendCsvValue(reading.getMainValue(), builder);
+            appendCsvValue(reading.getSubValue(), builder);
+
+            if (reading.getBarGraph() >= 0)
+            {
+                builder.append(reading.getBarGraph());
+            }
+
+            builder.append(',');
+            int annunciators = reading.getAnnunciators();
+
+            for (int bit = 0; bit < Reading.Annunciator.COUNT; bit ++)
+            {
+                if ((annunciators & (1 << bit)) != 0)
+                {
+                    if (builder.charAt(builder.length() - 1) != ',')
+                    {
+                        builder.append('|');
+                    }
+
+                    builder.append(Reading.Annunciator.getName(bit));
+                }
+            }
+
+            builder.append('\n');
+        }
+
+    },
+    /**
+     * Newline-delimited JSON, one object per line. For example:
+     * <pre>
+     * {"timestamp":1500000000000,"main":{"value":"0.0015","si":0.0015,"unit":"V DC"},"sub":{"value":"10.50","si":1.05E7,"unit":"MΩ"},
+     * "barGraph":null,"annunciators":["positive","hold"]}
+     * </pre>
+     */
+    NDJSON("ndjson")
+    {
+        @Override
+        public void appendHeader(StringBuilder builder)
+        {
+        }
+
+        @Override
+        public void append(Reading reading, StringBuilder builder)
+        {
+            builder.append("{\"timestamp\":").append(reading.getTimestamp());
+            builder.append(",\"main\":");
+            appendJsonValue(reading.getMainValue(), builder);
+            builder.append(",\"sub\":");
+            appendJsonValue(reading.getSubValue(), builder);
+            builder.append(",\"barGraph\":");
+
+            if (reading.getBarGraph() >= 0)
+            {
+                builder.append(reading.getBarGraph());
+            }
+            else
+            {
+                builder.append("null");
+            }
+
+            builder.append(",\"annunciators\":[");
+            int annunciators = reading.getAnnunciators();
+
+            for (int bit = 0; bit < Reading.Annunciator.COUNT; bit ++)
+            {
+                if ((annunciators & (1 << bit)) != 0)
+                {
+                    if (builder.charAt(builder.length() - 1) != '[')
+                    {
+                        builder.append(',');
+                    }
+
+                    builder.append('"').append(Reading.Annunciator.getName(bit)).append('"');
+                }
+            }
+
+            builder.append("]}\n");
+        }
+
+    };
+
+    private final String extension;
+
+    ExportFormat(String extension)
+    {
+        this.extension = extension;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the usual file name extension.
+     *
+     * @return the extension, without the dot.
+     */
+    public String getExtension()
+    {
+        return extension;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Appends the header line, if the format has one.
+     *
+     * @param builder the builder to append to.
+     */
+    public abstract void appendHeader(StringBuilder builder);
+
+    //-----------------------------------------------------------------------
+    /**
+     * Appends a Reading as one line, including the line feed.
+     *
+     * @param reading the Reading.
+     * @param builder the builder to append to.
+     */
+    public abstract void append(Reading reading, StringBuilder builder);
+
+    //-----------------------------------------------------------------------
+    /**
+     * Appends the value, SI value and unit CSV fields, each followed by a comma.
+     */
+    private static void appendCsvValue(Reading.Value value, StringBuilder builder)
+    {
+        String text = value.getValue();
+
+        if (text != null)
+        {
+            if ((text.indexOf(',') >= 0) || (text.indexOf('"') >= 0))
+            {
+                builder.append('"');
+
+                for (int i = 0; i < text.length(); i ++)
+                {
+                    char c = text.charAt(i);
+                    builder.append(c);
+
+                    if (c == '"')
+                    {
+                        builder.append('"');
+                    }
+                }
+
+                builder.append('"');
+            }
+            else
+            {
+                builder.append(text);
+            }
+        }
+
+        builder.append(',');
+        double si = value.getSiValue();
+
+        if ( ! Double.isNaN(si) && ! Double.isInfinite(si))
+        {
+            builder.append(si);
+        }
+
+        builder.append(',');
+        appendUnit(value, builder);
+        builder.append(',');
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Appends the value, SI value and unit as a JSON object.
+     */
+    private static void appendJsonValue(Reading.Value value, StringBuilder builder)
+    {
+        builder.append("{\"value\":");
+        String text = value.getValue();
+
+        if (text == null)
+        {
+            builder.append("null");
+        }
+        else
+        {
+            builder.append('"');
+
+            for (int i = 0; i < text.length(); i ++)
+            {
+                char c = text.charAt(i);
+
+                if ((c == '"') || (c == '\\'))
+                {
+                    builder.append('\\').append(c);
+                }
+                else if (c < 0x20)
+                {
+                    builder.append("\\u00").append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xf, 16));
+                }
+                else
+                {
+                    builder.append(c);
+                }
+            }
+
+            builder.append('"');
+        }
+
+        builder.append(",\"si\":");
+        double si = value.getSiValue();
+
+        if ( ! Double.isNaN(si) && ! Double.isInfinite(si))
+        {
+            builder.append(si);
+        }
+        else
+        {
+            builder.append("null");
+        }
+
+        builder.append(",\"unit\":\"");
+        appendUnit(value, builder);
+        builder.append("\"}");
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Appends the unit in the same form as {@link com.dariancabot.protek608.Data.Value.Unit#toString()}.
+     */
+    private static void appendUnit(Reading.Value value, StringBuilder builder)
+    {
+        int start = builder.length();
+
+        if (value.getPrefix().getAbbreviation() != null)
+        {
+            builder.append(value.getPrefix().getAbbreviation());
+        }
+
+        if (value.getMeasurement().getAbbreviation() != null)
+        {
+            builder.append(value.getMeasurement().getAbbreviation());
+        }
+
+        if (value.getType().getAbbreviation() != null)
+        {
+            if (builder.length() > start)
+            {
+                builder.append(' ');
+            }
+
+            builder.append(value.getType().getAbbreviation());
+        }
+    }
+
+}
@@ -0,0 +1,340 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608.export;
+
+import com.dariancabot.protek608.Data;
+import com.dariancabot.protek608.Decoder;
+import com.dariancabot.protek608.Reading;
+import com.dariancabot.protek608.ReadingListener;
+import com.dariancabot.protek608.capture.CaptureReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+
+/**
+ * Exports Readings as NumPy .npy column files, which can be loaded (or memory-mapped) by analysis tools with no parsing.
+ * <p>
+ * Each column is written to its own file in a directory:
+ * <ul>
+ * <li>timestamp.npy - milliseconds since the epoch ({@code <i8})
+ * <li>main_si.npy, sub_si.npy - SI values, NaN if not numerical ({@code <f8})
+ * <li>main_unit.npy, sub_unit.npy - unit codes, see {@link Reading.Value#getUnitCode()} ({@code <i4})
+ * </ul>
+ * Each file is a .npy version 1.0 file with a fixed {@value #HEADER_SIZE} byte header, followed by the little-endian values. Values are
+ * buffered and written in batches, and the header's shape is updated on {@link #flush()} and {@link #close()}, so the files are complete after
+ * either. Existing files are replaced. In Python:
+ * <pre>
+ * t = numpy.load("export/timestamp.npy", mmap_mode="r")
+ * v = numpy.load("export/main_si.npy", mmap_mode="r")
+ * </pre>
+ * Readings can come from the decoder (add with an Executor to keep file I/O off the decoder thread) or from a capture file, see
+ * {@link #export(CaptureReader, File)}, which throws any write error itself. As a listener, write errors are thrown by {@link #flush()} and
+ * {@link #close()}.
+ *
+ * @author Darian Cabot
+ */
+public final class NpyExporter implements ReadingListener, Flushable, Closeable
+{
+    /**
+     * The size in bytes of the header of each file, where the values start.
+     */
+    public static final int HEADER_SIZE = 128;
+
+    private static final byte[] MAGIC =
+    {
+        (byte) 0x93, 'N', 'U', 'M', 'P', 'Y', 1, 0
+    };
+
+    private static final int BATCH_SIZE = 4096; // Rows buffered per write.
+
+    private static final String[] NAMES =
+    {
+        "timestamp", "main_si", "main_unit", "sub_si", "sub_unit"
+    };
+
+    private static final String[] DESCRIPTORS =
+    {
+        "<i8", "<f8", "<i4", "<f8", "<i4"
+    };
+
+    private static final int[] WIDTHS =
+    {
+        8, 8, 4, 8, 4
+    };
+
+    private final FileChannel[] channels = new FileChannel[NAMES.length];
+    private final ByteBuffer[] buffers = new ByteBuffer[NAMES.length];
+
+    private long rows;
+    private IOException failure;
+    private boolean isClosed;
+
+    //-----------------------------------------------------------------------
+    /**
+     * Creates a new NpyExporter.
+     *
+     * @param directory the directory for the column files, created if it doesn't exist.
+     *
+     * @throws IOException if a file can't be created.
+     */
+    public NpyExporter(File directory) throws IOException
+    {
+        if ( ! directory.isDirectory() && ! directory.mkdirs())
+        {
+            throw new IOException("Can't create directory " + directory + ".");
+        }
+
+        try
+        {
+            for (int i = 0; i < NAMES.length; i ++)
+            {
+                channels[i] = FileChannel.open(new File(directory, NAMES[i] + ".npy").toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+
+                buffers[i] = ByteBuffer.allocateDirect(BATCH_SIZE * WIDTHS[i]).order(ByteOrder.LITTLE_ENDIAN);
+
+                writeHeader(i);
+            }
+        }
+        catch (IOException e)
+        {
+            try
+            {
+                closeChannels();
+            }
+            catch (IOException ignored)
+            {
+                // Already failed.
+            }
+
+            throw e;
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Exports every record of a capture file.
+     *
+     * @param reader    the capture file.
+     * @param directory the directory for the column files, created if it doesn't exist.
+     *
+     * @return the number of Readings exported.
+     *
+     * @throws IOException if writing fails.
+     */
+    public static long export(CaptureReader reader, File directory) throws IOException
+    {
+        try (NpyExporter exporter = new NpyExporter(directory))
+        {
+            Decoder decoder = new Decoder(new Data());
+            decoder.addReadingListener(exporter);
+
+            byte[] packet = new byte[43];
+
+            for (long i = 0; i < reader.getRecords(); i ++)
+            {
+                reader.getPacketRaw(i, packet);
+                decoder.decodeSerialData(packet, reader.getTimestamp(i));
+            }
+
+            exporter.flush();
+
+            return exporter.getRows();
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the number of rows (Readings) exported.
+     *
+     * @return the number of rows.
+     */
+    public synchronized long getRows()
+    {
+        return rows;
+    }
+
+    //-----------------------------------------------------------------------
+    @Override
+    public synchronized void readingEvent(Reading reading, int changes)
+    {
+        if (isClosed || (failure != null))
+        {
+            return;
+        }
+
+        buffers[0].putLong(reading.getTimestamp());
+        buffers[1].putDouble(reading.getMainValue().getSiValue());
+        buffers[2].putInt(reading.getMainValue().getUnitCode());
+        buffers[3].putDouble(reading.getSubValue().getSiValue());
+        buffers[4].putInt(reading.getSubValue().getUnitCode());
+        rows ++;
+
+        if ( ! buffers[0].hasRemaining())
+        {
+            try
+            {
+                writeBuffers();
+            }
+            catch (IOException e)
+            {
+                failure = e;
+            }
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Writes the buffered values and updates the headers, so the files are complete.
+     *
+     * @throws IOException if writing fails, or an earlier write failed.
+     */
+    @Override
+    public synchronized void flush() throws IOException
+    {
+        if (failure != null)
+        {
+            throw failure;
+        }
+
+        if (isClosed)
+        {
+            return;
+        }
+
+        writeBuffers();
+
+        for (int i = 0; i < channels.length; i ++)
+        {
+            writeHeader(i);
+            channels[i].force(false);
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Writes the buffered values, updates the headers, and closes the files. Readings received after closing are ignored.
+     *
+     * @throws IOException if writing fails, or an earlier write failed.
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if (isClosed)
+        {
+            return;
+        }
+
+        try
+        {
+            flush();
+        }
+        finally
+        {
+            isClosed = true;
+            closeChannels();
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Writes the buffered values to the end of each file.
+     */
+    private void writeBuffers() throws IOException
+    {
+        for (int i = 0; i < channels.length; i ++)
+        {
+            ByteBuffer buffer = buffers[i];
+            buffer.flip();
+
+            while (buffer.hasRemaining())
+            {
+                channels[i].write(buffer, channels[i].size());
+            }
+
+            buffer.clear();
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Writes the .npy header of a file, with the current number of rows as its shape.
+     */
+    private void writeHeader(int column) throws IOException
+    {
+        String dictionary = "{'descr': '" + DESCRIPTORS[column] + "', 'fortran_order': False, 'shape': (" + rows + ",), }";
+
+        byte[] header = new byte[HEADER_SIZE];
+        Arrays.fill(header, (byte) ' ');
+        System.arraycopy(MAGIC, 0, header, 0, MAGIC.length);
+        header[8] = (byte) (HEADER_SIZE - 10); // Header length, little-endian unsigned short.
+        header[9] = 0;
+
+        byte[] text = dictionary.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(text, 0, header, 10, text.length);
+        header[HEADER_SIZE - 1] = '\n';
+
+        ByteBuffer buffer = ByteBuffer.wrap(header);
+
+        while (buffer.hasRemaining())
+        {
+            channels[column].write(buffer, buffer.position());
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    private void closeChannels() throws IOException
+    {
+        IOException error = null;
+
+        for (FileChannel channel : channels)
+        {
+            try
+            {
+                if (channel != null)
+                {
+                    channel.close();
+                }
+            }
+            catch (IOException e)
+            {
+                error = (error == null) ? e : error;
+            }
+        }
+
+        if (error != null)
+        {
+            throw error;
+        }
+    }
+
+}
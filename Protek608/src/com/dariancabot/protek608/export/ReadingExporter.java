@@ -0,0 +1,544 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608.export;
+
+import com.dariancabot.protek608.Reading;
+import com.dariancabot.protek608.ReadingListener;
+import java.io.Closeable;
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * Exports Readings to a CSV or NDJSON file (see {@link ExportFormat}) from a background thread, so file I/O never slows down the decoder.
+ * <p>
+ * Readings are queued by {@link #readingEvent(Reading, int)}, which never blocks: if the queue is full the Reading is dropped and counted (see
+ * {@link #getDropped()}). The writer thread formats queued Readings into a reusable buffer and writes them in batches, when
+ * {@link #getBatchSize()} Readings are queued, every {@link #getFlushInterval()}, on {@link #flush()}, and on {@link #close()}.
+ * <p>
+ * An existing file is appended to. The file can be rotated when it reaches a size (see {@link #setRotation(long, int)}): "readings.csv" is
+ * renamed to "readings.1.csv", "readings.1.csv" to "readings.2.csv" and so on, deleting the oldest, and a new "readings.csv" is started.
+ * Example usage:
+ * <pre>
+ * ReadingExporter exporter = new ReadingExporter(new File("readings.csv"), ExportFormat.CSV);
+ * exporter.setRotation(100 * 1024 * 1024, 10);
+ * protek608.addReadingListener(exporter);
+ * </pre>
+ * A write error stops the exporter, and is thrown by the next call to {@link #flush()} or {@link #close()}.
+ *
+ * @author Darian Cabot
+ */
+public final class ReadingExporter implements ReadingListener, Flushable, Closeable
+{
+    /**
+     * Default number of Readings that can be queued.
+     */
+    public static final int DEFAULT_QUEUE_SIZE = 4096;
+
+    /**
+     * Default number of Readings written per batch.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    /**
+     * Default longest time in milliseconds a Reading is queued before writing.
+     */
+    public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+
+    private final File file;
+    private final ExportFormat format;
+    private final int batchSize;
+    private final Reading[] queue;
+    private final Thread writer;
+
+    // Guarded by this.
+    private int head;
+    private int count;
+    private long accepted;
+    private long dropped;
+    private long written;
+    private long synced;
+    private boolean isFlushRequested;
+    private boolean isClosed;
+    private IOException failure;
+    private long flushInterval = DEFAULT_FLUSH_INTERVAL;
+    private long maxFileSize;
+    private int maxFiles;
+
+    // Used only by the writer thread.
+    private final StringBuilder builder = new StringBuilder(64 * 1024);
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private FileChannel channel;
+
+    //-----------------------------------------------------------------------
+    /**
+     * Creates a new ReadingExporter with the default queue and batch sizes, and starts its writer thread.
+     *
+     * @param file   the file to append to, created if it doesn't exist.
+     * @param format the file format.
+     *
+     * @throws IOException if the file can't be opened.
+     */
+    public ReadingExporter(File file, ExportFormat format) throws IOException
+    {
+        this(file, format, DEFAULT_QUEUE_SIZE, DEFAULT_BATCH_SIZE);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Creates a new ReadingExporter, and starts its writer thread.
+     *
+     * @param file      the file to append to, created if it doesn't exist.
+     * @param format    the file format.
+     * @param queueSize the number of Readings that can be queued, before Readings are dropped.
+     * @param batchSize the number of queued Readings that triggers a write, from 1 to queueSize.
+     *
+     * @throws IOException if the file can't be opened.
+     */
+    public ReadingExporter(File file, ExportFormat format, int queueSize, int batchSize) throws IOException
+    {
+        if ((batchSize < 1) || (batchSize > queueSize))
+        {
+            throw new IllegalArgumentException("Batch size must be from 1 to the queue size.");
+        }
+
+        this.file = file;
+        this.format = format;
+        this.batchSize = batchSize;
+        this.queue = new Reading[queueSize];
+
+        open();
+
+        writer = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                write();
+            }
+        }, "Protek608 export " + file.getName());
+
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the number of queued Readings that triggers a write.
+     *
+     * @return the batch size.
+     */
+    public int getBatchSize()
+    {
+        return batchSize;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the longest time a Reading is queued before writing.
+     *
+     * @return the flush interval in milliseconds.
+     */
+    public synchronized long getFlushInterval()
+    {
+        return flushInterval;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets the longest time a Reading is queued before writing.
+     *
+     * @param flushInterval the flush interval in milliseconds, greater than 0.
+     */
+    public synchronized void setFlushInterval(long flushInterval)
+    {
+        if (flushInterval <= 0)
+        {
+            throw new IllegalArgumentException("Flush interval must be greater than 0.");
+        }
+
+        this.flushInterval = flushInterval;
+        notifyAll();
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets file rotation. Before a batch would take the file past about the maximum size, it's rotated.
+     *
+     * @param maxFileSize the maximum file size in bytes, or 0 to disable rotation (default).
+     * @param maxFiles    the number of files to keep, including the current file, at least 1.
+     */
+    public synchronized void setRotation(long maxFileSize, int maxFiles)
+    {
+        if (maxFiles < 1)
+        {
+            throw new IllegalArgumentException("Must keep at least 1 file.");
+        }
+
+        this.maxFileSize = maxFileSize;
+        this.maxFiles = maxFiles;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the number of Readings dropped because the queue was full, or the exporter had stopped.
+     *
+     * @return the number of dropped Readings.
+     */
+    public synchronized long getDropped()
+    {
+        return dropped;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the number of Readings written to the file.
+     *
+     * @return the number of written Readings.
+     */
+    public synchronized long getWritten()
+    {
+        return written;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets a rotated file.
+     *
+     * @param index the rotation index, 1 being the most recent, or 0 for the current file.
+     *
+     * @return the file.
+     */
+    public File getRotatedFile(int index)
+    {
+        if (index == 0)
+        {
+            return file;
+        }
+
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        String rotated = (dot > 0) ? name.substring(0, dot) + "." + index + name.substring(dot) : name + "." + index;
+
+        return new File(file.getParentFile(), rotated);
+    }
+
+    //-----------------------------------------------------------------------
+    @Override
+    public synchronized void readingEvent(Reading reading, int changes)
+    {
+        if (isClosed || (failure != null) || (count == queue.length))
+        {
+            dropped ++;
+            return;
+        }
+
+        queue[(head + count) % queue.length] = reading;
+        count ++;
+        accepted ++;
+
+        if (count == batchSize)
+        {
+            notifyAll();
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Writes the queued Readings and forces them to the storage device, waiting until they're written.
+     *
+     * @throws IOException if writing fails, or an earlier write failed.
+     */
+    @Override
+    public synchronized void flush() throws IOException
+    {
+        long target = accepted;
+        isFlushRequested = true;
+        notifyAll();
+
+        try
+        {
+            while ((synced < target) && (failure == null) && writer.isAlive())
+            {
+                wait();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while flushing.", e);
+        }
+
+        if (failure != null)
+        {
+            throw failure;
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Writes the queued Readings, stops the writer thread, and closes the file. Readings received after closing are dropped.
+     *
+     * @throws IOException if writing fails, or an earlier write failed.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        synchronized (this)
+        {
+            isClosed = true;
+            notifyAll();
+        }
+
+        try
+        {
+            writer.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing.", e);
+        }
+
+        synchronized (this)
+        {
+            if (failure != null)
+            {
+                throw failure;
+            }
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Opens the file for appending, writing the header if it's empty.
+     */
+    private void open() throws IOException
+    {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+
+        if (channel.size() == 0)
+        {
+            StringBuilder header = new StringBuilder();
+            format.appendHeader(header);
+            writeText(header);
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * The writer thread loop, which takes batches from the queue until closed.
+     */
+    private void write()
+    {
+        Reading[] batch = new Reading[batchSize];
+        long lastWrite = System.currentTimeMillis();
+
+        while (true)
+        {
+            int n;
+            boolean isForced;
+            boolean isLast;
+            long rotateSize;
+            int rotateFiles;
+
+            synchronized (this)
+            {
+                try
+                {
+                    long wait = (lastWrite + flushInterval) - System.currentTimeMillis();
+
+                    while ((count < batchSize) && ! isFlushRequested && ! isClosed && (wait > 0))
+                    {
+                        wait(wait);
+                        wait = (lastWrite + flushInterval) - System.currentTimeMillis();
+                    }
+                }
+                catch (InterruptedException e)
+                {
+                    isClosed = true;
+                }
+
+                n = Math.min(count, batchSize);
+
+                for (int i = 0; i < n; i ++)
+                {
+                    batch[i] = queue[head];
+                    queue[head] = null;
+                    head = (head + 1) % queue.length;
+                }
+
+                count -= n;
+                isForced = isFlushRequested || isClosed;
+                isLast = isClosed && (count == 0);
+                rotateSize = maxFileSize;
+                rotateFiles = maxFiles;
+            }
+
+            try
+            {
+                builder.setLength(0);
+
+                for (int i = 0; i < n; i ++)
+                {
+                    format.append(batch[i], builder);
+                    batch[i] = null;
+                }
+
+                if ((rotateSize > 0) && (channel.size() > 0) && ((channel.size() + builder.length()) > rotateSize))
+                {
+                    rotate(rotateFiles);
+                }
+
+                writeText(builder);
+
+                if (isForced)
+                {
+                    channel.force(false);
+                }
+
+                if (isLast)
+                {
+                    channel.close();
+                }
+            }
+            catch (IOException e)
+            {
+                synchronized (this)
+                {
+                    failure = e;
+                    notifyAll();
+                }
+
+                try
+                {
+                    channel.close();
+                }
+                catch (IOException ignored)
+                {
+                    // Already failed.
+                }
+
+                return;
+            }
+
+            lastWrite = System.currentTimeMillis();
+
+            synchronized (this)
+            {
+                written += n;
+
+                if (isForced)
+                {
+                    synced = written;
+
+                    if (count == 0)
+                    {
+                        isFlushRequested = false;
+                    }
+                }
+
+                notifyAll();
+            }
+
+            if (isLast)
+            {
+                return;
+            }
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Encodes text as UTF-8 and writes it to the file.
+     */
+    private void writeText(CharSequence text) throws IOException
+    {
+        CharBuffer chars = CharBuffer.wrap(text);
+        encoder.reset();
+
+        while (true)
+        {
+            CoderResult result = encoder.encode(chars, buffer, true);
+
+            if ( ! result.isOverflow())
+            {
+                encoder.flush(buffer);
+                break;
+            }
+
+            writeBuffer();
+        }
+
+        writeBuffer();
+    }
+
+    //-----------------------------------------------------------------------
+    private void writeBuffer() throws IOException
+    {
+        buffer.flip();
+
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+
+        buffer.clear();
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Closes the file, shifts the rotated files along (deleting the oldest), and opens a new file.
+     */
+    private void rotate(int files) throws IOException
+    {
+        channel.close();
+
+        Files.deleteIfExists(getRotatedFile(files - 1).toPath());
+
+        for (int i = files - 2; i >= 0; i --)
+        {
+            File rotated = getRotatedFile(i);
+
+            if (rotated.exists())
+            {
+                Files.move(rotated.toPath(), getRotatedFile(i + 1).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+
+        open();
+    }
+
+}
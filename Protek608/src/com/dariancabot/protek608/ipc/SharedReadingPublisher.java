@@ -0,0 +1,266 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608.ipc;
+
+import com.dariancabot.protek608.Reading;
+import com.dariancabot.protek608.ReadingListener;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+
+/**
+ * Publishes each Reading into a memory-mapped ring file, so other processes on the same host can read the live Readings without owning the
+ * serial port, see {@link SharedReadingSubscriber}.
+ * <p>
+ * The file is a header followed by a power of two number of fixed-size slots. There is a single writer, and readers never write, so there are
+ * no locks: {@link #readingEvent(Reading, int)} must only be called from one thread at a time, normally the decoder thread. Each Reading's raw packet is written to the next slot with a sequence-numbered protocol: the slot's sequence is cleared, the record
+ * and its CRC32 are written, then the slot's sequence is set to the Reading's publish sequence, and finally the header's published sequence.
+ * A reader checks the slot sequence before and after copying a record, and the CRC32, so a record being overwritten is never delivered.
+ * <pre>
+ * Header (64 bytes)                       Slot ({@value #SLOT_SIZE} bytes)
+ * Offset  Size  Field                     Offset  Size  Field
+ * 0       8     Magic "P608SHM" + 0x1a    0       8     Publish sequence, 0 while being written (long)
+ * 8       4     Version (int)             8       8     Timestamp (long, ms since the epoch)
+ * 12      4     Number of slots (int)     16      43    Raw packet
+ * 16      4     Slot size (int)           59      1     Reserved
+ * 24      8     Published sequence (long) 60      4     CRC32 of bytes 0 to 59, with sequence (int)
+ * 32      8     Last publish time (long)
+ * </pre>
+ * If the file already exists with the same number of slots, publishing carries on from its published sequence, so subscribers aren't
+ * disturbed by the publisher restarting. Otherwise a new ring is written to a temporary file and renamed over it, so subscribers that still
+ * have the old ring mapped aren't cut short; they see {@link SharedReadingSubscriber#getLastPublishTime()} stop, and should reopen the file.
+ * Example usage:
+ * <pre>
+ * SharedReadingPublisher publisher = new SharedReadingPublisher(new File("/dev/shm/protek608"), 1024);
+ * protek608.addReadingListener(publisher);
+ * </pre>
+ *
+ * @author Darian Cabot
+ */
+public final class SharedReadingPublisher implements ReadingListener, Closeable
+{
+    static final byte[] MAGIC = "P608SHM\u001a".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int SLOT_SIZE = 64;
+    static final int SLOTS_OFFSET = 12;
+    static final int SLOT_SIZE_OFFSET = 16;
+    static final int PUBLISHED_OFFSET = 24;
+    static final int TIME_OFFSET = 32;
+    static final int PACKET_OFFSET = 16;
+    static final int PACKET_SIZE = 43;
+    static final int CRC_OFFSET = 60;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final int mask;
+    private final byte[] record = new byte[CRC_OFFSET];
+    private final ByteBuffer recordBuffer = ByteBuffer.wrap(record);
+    private final byte[] packetRaw = new byte[PACKET_SIZE];
+    private final CRC32 crc = new CRC32();
+
+    private volatile long published;
+    private volatile boolean isClosed;
+
+    //-----------------------------------------------------------------------
+    /**
+     * Creates a new SharedReadingPublisher.
+     *
+     * @param file  the ring file, preferably on a memory file system (i.e. /dev/shm on Linux).
+     * @param slots the number of slots, a power of two; subscribers that fall further behind lose Readings.
+     *
+     * @throws IOException if the file can't be created or mapped.
+     */
+    public SharedReadingPublisher(File file, int slots) throws IOException
+    {
+        if ((slots < 2) || (Integer.bitCount(slots) != 1))
+        {
+            throw new IllegalArgumentException("Slots must be a power of two, at least 2.");
+        }
+
+        this.mask = slots - 1;
+
+        long size = HEADER_SIZE + ((long) slots * SLOT_SIZE);
+
+        if ( ! isSameRing(file, slots, size))
+        {
+            createRing(file, slots, size);
+        }
+
+        this.file = new RandomAccessFile(file, "rw");
+
+        try
+        {
+            buffer = this.file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            published = buffer.getLong(PUBLISHED_OFFSET);
+        }
+        catch (IOException e)
+        {
+            this.file.close();
+            throw e;
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the publish sequence of the last Reading published, which is also the number of Readings published to the file.
+     *
+     * @return the published sequence.
+     */
+    public long getPublished()
+    {
+        return published;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Publishes a Reading into the next slot. Must only be called from one thread at a time, normally the decoder thread.
+     *
+     * @param reading the Reading to publish.
+     * @param changes not used.
+     */
+    @Override
+    public void readingEvent(Reading reading, int changes)
+    {
+        if (isClosed || (reading.copyPacketRaw(packetRaw) != PACKET_SIZE))
+        {
+            return;
+        }
+
+        long sequence = published + 1;
+        int offset = HEADER_SIZE + ((int) ((sequence - 1) & mask) * SLOT_SIZE);
+
+        recordBuffer.clear();
+        recordBuffer.putLong(sequence);
+        recordBuffer.putLong(reading.getTimestamp());
+        recordBuffer.put(packetRaw);
+
+        crc.reset();
+        crc.update(record, 0, CRC_OFFSET);
+
+        buffer.putLong(offset, 0); // Readers skip the slot while it's written.
+
+        for (int i = 8; i < CRC_OFFSET; i ++)
+        {
+            buffer.put(offset + i, record[i]);
+        }
+
+        buffer.putInt(offset + CRC_OFFSET, (int) crc.getValue());
+        buffer.putLong(offset, sequence);
+
+        buffer.putLong(TIME_OFFSET, System.currentTimeMillis());
+        buffer.putLong(PUBLISHED_OFFSET, sequence);
+        published = sequence;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Stops publishing and closes the file. The file is left for subscribers to finish reading.
+     *
+     * @throws IOException if the file can't be closed.
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if ( ! isClosed)
+        {
+            isClosed = true;
+            file.close();
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Checks if an existing file is a ring of the same geometry.
+     */
+    private static boolean isSameRing(File file, int slots, long size) throws IOException
+    {
+        if (file.length() != size)
+        {
+            return false;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(SLOT_SIZE_OFFSET + 4);
+
+        try (RandomAccessFile ring = new RandomAccessFile(file, "r"))
+        {
+            FileChannel channel = ring.getChannel();
+
+            while (header.hasRemaining())
+            {
+                if (channel.read(header, header.position()) < 0)
+                {
+                    return false;
+                }
+            }
+        }
+
+        header.flip();
+
+        byte[] magic = new byte[MAGIC.length];
+        header.get(magic);
+
+        return Arrays.equals(magic, MAGIC) && (header.getInt() == VERSION) && (header.getInt() == slots)
+                && (header.getInt() == SLOT_SIZE);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Writes an empty ring to a temporary file, then renames it over the file, so a ring mapped by subscribers is never truncated.
+     */
+    private static void createRing(File file, int slots, long size) throws IOException
+    {
+        File temp = new File(file.getPath() + ".tmp");
+
+        try
+        {
+            try (RandomAccessFile ring = new RandomAccessFile(temp, "rw"))
+            {
+                ring.setLength(0);
+                ring.setLength(size);
+                ring.write(MAGIC);
+                ring.writeInt(VERSION);
+                ring.writeInt(slots);
+                ring.writeInt(SLOT_SIZE);
+            }
+
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally
+        {
+            temp.delete();
+        }
+    }
+
+}
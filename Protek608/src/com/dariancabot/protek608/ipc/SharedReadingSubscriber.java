@@ -0,0 +1,274 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608.ipc;
+
+import com.dariancabot.protek608.Decoder;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+
+/**
+ * Reads the Readings published to a ring file by a {@link SharedReadingPublisher} in another process.
+ * <p>
+ * Each record is decoded by a {@link Decoder}, so the subscriber's listeners, statistics, and rules see the same Readings as the publishing
+ * process, with the original timestamps. Subscribers poll, and never block or slow down the publisher: a subscriber that falls more than the
+ * ring's size behind skips ahead to the oldest record still in the ring, counting the Readings it lost (see {@link #getLost()}). Example usage:
+ * <pre>
+ * SharedReadingSubscriber subscriber = new SharedReadingSubscriber(new File("/dev/shm/protek608"), decoder);
+ *
+ * while (running)
+ * {
+ *     if (subscriber.poll() == 0)
+ *     {
+ *         LockSupport.parkNanos(100000); // Or spin, for the lowest latency.
+ *     }
+ * }
+ * </pre>
+ * A subscriber isn't thread-safe, each thread should have its own.
+ *
+ * @author Darian Cabot
+ */
+public final class SharedReadingSubscriber implements Closeable
+{
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final Decoder decoder;
+    private final int slots;
+    private final int mask;
+    private final byte[] record = new byte[SharedReadingPublisher.CRC_OFFSET];
+    private final ByteBuffer recordBuffer = ByteBuffer.wrap(record);
+    private final byte[] packetRaw = new byte[SharedReadingPublisher.PACKET_SIZE];
+    private final CRC32 crc = new CRC32();
+
+    private long cursor; // Publish sequence of the last record read.
+    private long lost;
+
+    //-----------------------------------------------------------------------
+    /**
+     * Opens a ring file, starting after the Readings already published.
+     *
+     * @param file    the ring file.
+     * @param decoder the Decoder to decode each Reading with.
+     *
+     * @throws IOException if the file can't be mapped, or isn't a ring file.
+     */
+    public SharedReadingSubscriber(File file, Decoder decoder) throws IOException
+    {
+        this.file = new RandomAccessFile(file, "r");
+        this.decoder = decoder;
+
+        try
+        {
+            FileChannel channel = this.file.getChannel();
+
+            if (channel.size() < SharedReadingPublisher.HEADER_SIZE)
+            {
+                throw new IOException("Not a shared reading ring file.");
+            }
+
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            byte[] magic = new byte[SharedReadingPublisher.MAGIC.length];
+            buffer.get(magic);
+
+            if ( ! Arrays.equals(magic, SharedReadingPublisher.MAGIC))
+            {
+                throw new IOException("Not a shared reading ring file.");
+            }
+
+            int version = buffer.getInt();
+
+            if (version != SharedReadingPublisher.VERSION)
+            {
+                throw new IOException("Unsupported ring file version " + version + ".");
+            }
+
+            slots = buffer.getInt();
+
+            if ((buffer.getInt() != SharedReadingPublisher.SLOT_SIZE) || (Integer.bitCount(slots) != 1)
+                    || (channel.size() != SharedReadingPublisher.HEADER_SIZE + ((long) slots * SharedReadingPublisher.SLOT_SIZE)))
+            {
+                throw new IOException("Ring file is the wrong size.");
+            }
+        }
+        catch (IOException e)
+        {
+            this.file.close();
+            throw e;
+        }
+
+        this.mask = slots - 1;
+        this.cursor = getPublished();
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Moves back to the oldest Reading still in the ring, so the next {@link #poll()} delivers the recent history too.
+     */
+    public void rewind()
+    {
+        cursor = Math.max(0, getPublished() - slots);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the publish sequence of the last Reading the publisher wrote.
+     *
+     * @return the published sequence.
+     */
+    public long getPublished()
+    {
+        return buffer.getLong(SharedReadingPublisher.PUBLISHED_OFFSET);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the time the publisher last wrote a Reading, to check it's still running.
+     *
+     * @return the time in milliseconds since the epoch, or 0 if nothing has been published.
+     */
+    public long getLastPublishTime()
+    {
+        return buffer.getLong(SharedReadingPublisher.TIME_OFFSET);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the number of Readings lost by falling more than the ring's size behind.
+     *
+     * @return the number of lost Readings.
+     */
+    public long getLost()
+    {
+        return lost;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Decodes every Reading published since the last poll.
+     *
+     * @return the number of Readings decoded.
+     */
+    public int poll()
+    {
+        int count = 0;
+
+        while (true)
+        {
+            long published = getPublished();
+
+            if (published < cursor) // The publisher was restarted with a new file.
+            {
+                cursor = published;
+            }
+
+            if (published == cursor)
+            {
+                return count;
+            }
+
+            if ((published - cursor) > slots)
+            {
+                lost += (published - slots) - cursor;
+                cursor = published - slots;
+            }
+
+            long sequence = cursor + 1;
+
+            if (readRecord(sequence))
+            {
+                decoder.decodeSerialData(packetRaw, recordBuffer.getLong(8));
+                count ++;
+                cursor = sequence;
+            }
+            else if (getPublished() - sequence >= slots)
+            {
+                // The slot was overwritten while reading, so catch up on the next pass.
+                continue;
+            }
+            else
+            {
+                return count; // The slot is being written, try again on the next poll.
+            }
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Closes the file.
+     *
+     * @throws IOException if the file can't be closed.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        file.close();
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Copies a record, checking it's the expected sequence before and after, and its CRC32.
+     */
+    private boolean readRecord(long sequence)
+    {
+        int offset = SharedReadingPublisher.HEADER_SIZE + ((int) ((sequence - 1) & mask) * SharedReadingPublisher.SLOT_SIZE);
+
+        if (buffer.getLong(offset) != sequence)
+        {
+            return false;
+        }
+
+        for (int i = 0; i < record.length; i ++)
+        {
+            record[i] = buffer.get(offset + i);
+        }
+
+        int expected = buffer.getInt(offset + SharedReadingPublisher.CRC_OFFSET);
+
+        if ((buffer.getLong(offset) != sequence) || (recordBuffer.getLong(0) != sequence))
+        {
+            return false;
+        }
+
+        crc.reset();
+        crc.update(record, 0, record.length);
+
+        if ((int) crc.getValue() != expected)
+        {
+            return false;
+        }
+
+        System.arraycopy(record, SharedReadingPublisher.PACKET_OFFSET, packetRaw, 0, packetRaw.length);
+
+        return true;
+    }
+
+}
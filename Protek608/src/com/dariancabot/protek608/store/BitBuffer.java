@@ -0,0 +1,198 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608.store;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+
+/**
+ * A growable buffer of bits, written most significant bit first.
+ *
+ * @author Darian Cabot
+ */
+final class BitBuffer
+{
+    private byte[] bytes;
+    private long position; // In bits.
+
+    //-----------------------------------------------------------------------
+    /**
+     * Creates a new BitBuffer.
+     *
+     * @param capacity the initial capacity in bytes.
+     */
+    BitBuffer(int capacity)
+    {
+        bytes = new byte[Math.max(capacity, 8)];
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Writes the low bits of a value.
+     *
+     * @param value the value.
+     * @param bits  the number of bits to write, from 0 to 64.
+     */
+    void write(long value, int bits)
+    {
+        while (bits > 0)
+        {
+            int index = (int) (position >>> 3);
+
+            if (index == bytes.length)
+            {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+
+            int available = 8 - (int) (position & 7);
+            int count = Math.min(available, bits);
+            int chunk = (int) (value >>> (bits - count)) & ((1 << count) - 1);
+
+            bytes[index] |= (byte) (chunk << (available - count));
+            position += count;
+            bits -= count;
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Writes a value as a varint, 7 bits per byte.
+     *
+     * @param value the value, treated as unsigned.
+     */
+    void writeVarint(long value)
+    {
+        while ((value & ~0x7fL) != 0)
+        {
+            write((value & 0x7f) | 0x80, 8);
+            value >>>= 7;
+        }
+
+        write(value, 8);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the number of bytes written, including a partly written last byte.
+     *
+     * @return the length in bytes.
+     */
+    int getLength()
+    {
+        return (int) ((position + 7) >>> 3);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Copies the written bytes to a buffer.
+     *
+     * @param buffer the buffer to copy to, at its position.
+     */
+    void copyTo(ByteBuffer buffer)
+    {
+        buffer.put(bytes, 0, getLength());
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Clears the buffer, keeping its capacity.
+     */
+    void clear()
+    {
+        Arrays.fill(bytes, 0, getLength(), (byte) 0);
+        position = 0;
+    }
+
+    /**
+     * Reads bits from a ByteBuffer, most significant bit first.
+     */
+    static final class Reader
+    {
+        private final ByteBuffer buffer;
+        private final int offset;
+        private long position; // In bits.
+
+        /**
+         * Creates a new Reader.
+         *
+         * @param buffer the buffer to read, using absolute positions.
+         * @param offset the position of the first byte.
+         */
+        Reader(ByteBuffer buffer, int offset)
+        {
+            this.buffer = buffer;
+            this.offset = offset;
+        }
+
+        /**
+         * Reads a value.
+         *
+         * @param bits the number of bits to read, from 0 to 64.
+         *
+         * @return the value in the low bits.
+         */
+        long read(int bits)
+        {
+            long value = 0;
+
+            while (bits > 0)
+            {
+                int current = buffer.get(offset + (int) (position >>> 3)) & 0xff;
+                int available = 8 - (int) (position & 7);
+                int count = Math.min(available, bits);
+
+                value = (value << count) | ((current >>> (available - count)) & ((1 << count) - 1));
+                position += count;
+                bits -= count;
+            }
+
+            return value;
+        }
+
+        /**
+         * Reads a varint.
+         *
+         * @return the value.
+         */
+        long readVarint()
+        {
+            long value = 0;
+            int shift = 0;
+            long b;
+
+            do
+            {
+                b = read(8);
+                value |= (b & 0x7f) << shift;
+                shift += 7;
+            }
+            while ((b & 0x80) != 0);
+
+            return value;
+        }
+
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608.store;
+
+
+/**
+ * The columns of a {@link ReadingStore} segment. Each column is compressed and stored separately, so queries only read the columns they need.
+ *
+ * @author Darian Cabot
+ */
+public enum Column
+{
+    /**
+     * Reading timestamps in milliseconds, delta-of-delta encoded.
+     */
+    TIMESTAMP(false),
+    /**
+     * Main SI values (NaN if not numerical), XOR compressed.
+     */
+    MAIN_VALUE(true),
+    /**
+     * Sub SI values (NaN if not numerical), XOR compressed.
+     */
+    SUB_VALUE(true),
+    /**
+     * Main unit codes, see {@link com.dariancabot.protek608.Reading.Value#getUnitCode()}, run-length encoded.
+     */
+    MAIN_UNIT(false),
+    /**
+     * Sub unit codes, see {@link com.dariancabot.protek608.Reading.Value#getUnitCode()}, run-length encoded.
+     */
+    SUB_UNIT(false),
+    /**
+     * Annunciator bit fields, see {@link com.dariancabot.protek608.Reading.Annunciator}, run-length encoded.
+     */
+    ANNUNCIATORS(false),
+    /**
+     * Bar graph values (-1 if not displayed), run-length encoded.
+     */
+    BAR_GRAPH(false);
+
+    private final boolean isValue;
+
+    Column(boolean isValue)
+    {
+        this.isValue = isValue;
+    }
+
+    /**
+     * Checks if the column holds SI values (doubles), rather than codes (ints) or timestamps.
+     *
+     * @return true for a value column.
+     */
+    public boolean isValue()
+    {
+        return isValue;
+    }
+
+}
@@ -0,0 +1,396 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608.store;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * Column encoders and decoders, based on Facebook's Gorilla time series compression.
+ * <p>
+ * Timestamps are stored as the change in interval (delta-of-delta), which is 0 for a steady packet rate and so takes 1 bit. Values are stored
+ * as the XOR with the previous value, which is 0 (1 bit) for a repeated value and otherwise has few meaningful bits. Codes are stored as
+ * varint (value, run length) pairs.
+ *
+ * @author Darian Cabot
+ */
+final class Columns
+{
+
+    private Columns()
+    {
+    }
+
+    /**
+     * Encodes timestamps as delta-of-delta.
+     * <pre>
+     * First:  64 bits
+     * Then:   0                    - same interval
+     *         10   + 7 bits        - change of -64 to 63
+     *         110  + 9 bits        - change of -256 to 255
+     *         1110 + 12 bits       - change of -2048 to 2047
+     *         1111 + 64 bits       - anything else
+     * </pre>
+     */
+    static final class TimeEncoder
+    {
+        private final BitBuffer bits = new BitBuffer(1024);
+        private long previous;
+        private long previousInterval;
+        private int count;
+
+        void add(long timestamp)
+        {
+            if (count ++ == 0)
+            {
+                bits.write(timestamp, 64);
+                previous = timestamp;
+                return;
+            }
+
+            long interval = timestamp - previous;
+            long change = interval - previousInterval;
+
+            if (change == 0)
+            {
+                bits.write(0, 1);
+            }
+            else if ((change >= -64) && (change <= 63))
+            {
+                bits.write(0b10, 2);
+                bits.write(change, 7);
+            }
+            else if ((change >= -256) && (change <= 255))
+            {
+                bits.write(0b110, 3);
+                bits.write(change, 9);
+            }
+            else if ((change >= -2048) && (change <= 2047))
+            {
+                bits.write(0b1110, 4);
+                bits.write(change, 12);
+            }
+            else
+            {
+                bits.write(0b1111, 4);
+                bits.write(change, 64);
+            }
+
+            previous = timestamp;
+            previousInterval = interval;
+        }
+
+        int getLength()
+        {
+            return bits.getLength();
+        }
+
+        void copyTo(ByteBuffer buffer)
+        {
+            bits.copyTo(buffer);
+        }
+
+        void clear()
+        {
+            bits.clear();
+            previousInterval = 0;
+            count = 0;
+        }
+
+    }
+
+    /**
+     * Decodes timestamps encoded by a TimeEncoder.
+     */
+    static final class TimeDecoder
+    {
+        private final BitBuffer.Reader bits;
+        private long previous;
+        private long previousInterval;
+        private boolean isFirst = true;
+
+        TimeDecoder(ByteBuffer buffer, int offset)
+        {
+            bits = new BitBuffer.Reader(buffer, offset);
+        }
+
+        long next()
+        {
+            if (isFirst)
+            {
+                isFirst = false;
+                previous = bits.read(64);
+                return previous;
+            }
+
+            long change;
+
+            if (bits.read(1) == 0)
+            {
+                change = 0;
+            }
+            else if (bits.read(1) == 0)
+            {
+                change = signExtend(bits.read(7), 7);
+            }
+            else if (bits.read(1) == 0)
+            {
+                change = signExtend(bits.read(9), 9);
+            }
+            else if (bits.read(1) == 0)
+            {
+                change = signExtend(bits.read(12), 12);
+            }
+            else
+            {
+                change = bits.read(64);
+            }
+
+            previousInterval += change;
+            previous += previousInterval;
+
+            return previous;
+        }
+
+        private static long signExtend(long value, int bits)
+        {
+            return (value << (64 - bits)) >> (64 - bits);
+        }
+
+    }
+
+    /**
+     * Encodes doubles as the XOR with the previous value.
+     * <pre>
+     * First:  64 bits
+     * Then:   0                                                      - same value
+     *         10 + meaningful bits                                   - fits within the previous leading and trailing zeros
+     *         11 + leading zeros (5) + meaningful length (6) + bits  - new window
+     * </pre>
+     */
+    static final class ValueEncoder
+    {
+        private final BitBuffer bits = new BitBuffer(1024);
+        private long previous;
+        private int previousLeading = -1;
+        private int previousTrailing;
+        private int count;
+
+        void add(double value)
+        {
+            long current = Double.doubleToLongBits(value); // NaN is made canonical.
+
+            if (count ++ == 0)
+            {
+                bits.write(current, 64);
+                previous = current;
+                return;
+            }
+
+            long xor = current ^ previous;
+            previous = current;
+
+            if (xor == 0)
+            {
+                bits.write(0, 1);
+                return;
+            }
+
+            int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+            int trailing = Long.numberOfTrailingZeros(xor);
+
+            if ((previousLeading >= 0) && (leading >= previousLeading) && (trailing >= previousTrailing))
+            {
+                bits.write(0b10, 2);
+                bits.write(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+            }
+            else
+            {
+                int meaningful = 64 - leading - trailing;
+
+                bits.write(0b11, 2);
+                bits.write(leading, 5);
+                bits.write(meaningful & 0x3f, 6); // 64 is written as 0.
+                bits.write(xor >>> trailing, meaningful);
+
+                previousLeading = leading;
+                previousTrailing = trailing;
+            }
+        }
+
+        int getLength()
+        {
+            return bits.getLength();
+        }
+
+        void copyTo(ByteBuffer buffer)
+        {
+            bits.copyTo(buffer);
+        }
+
+        void clear()
+        {
+            bits.clear();
+            previousLeading = -1;
+            count = 0;
+        }
+
+    }
+
+    /**
+     * Decodes doubles encoded by a ValueEncoder.
+     */
+    static final class ValueDecoder
+    {
+        private final BitBuffer.Reader bits;
+        private long previous;
+        private int previousLeading;
+        private int previousTrailing;
+        private boolean isFirst = true;
+
+        ValueDecoder(ByteBuffer buffer, int offset)
+        {
+            bits = new BitBuffer.Reader(buffer, offset);
+        }
+
+        double next()
+        {
+            if (isFirst)
+            {
+                isFirst = false;
+                previous = bits.read(64);
+            }
+            else if (bits.read(1) == 1)
+            {
+                if (bits.read(1) == 1)
+                {
+                    previousLeading = (int) bits.read(5);
+                    int meaningful = (int) bits.read(6);
+                    previousTrailing = 64 - previousLeading - ((meaningful == 0) ? 64 : meaningful);
+                }
+
+                int meaningful = 64 - previousLeading - previousTrailing;
+                previous ^= bits.read(meaningful) << previousTrailing;
+            }
+
+            return Double.longBitsToDouble(previous);
+        }
+
+    }
+
+    /**
+     * Encodes ints as varint (zigzag value, run length) pairs.
+     */
+    static final class RunEncoder
+    {
+        private final BitBuffer bits = new BitBuffer(64);
+        private int current;
+        private long run;
+
+        void add(int value)
+        {
+            if ((run > 0) && (value == current))
+            {
+                run ++;
+                return;
+            }
+
+            writeRun(bits);
+            current = value;
+            run = 1;
+        }
+
+        /**
+         * Gets the length, including the run still open.
+         */
+        int getLength()
+        {
+            return bits.getLength() + getOpenRun().getLength();
+        }
+
+        /**
+         * Copies the encoded runs, including the run still open, which stays open for more values.
+         */
+        void copyTo(ByteBuffer buffer)
+        {
+            bits.copyTo(buffer);
+            getOpenRun().copyTo(buffer);
+        }
+
+        void clear()
+        {
+            bits.clear();
+            run = 0;
+        }
+
+        private void writeRun(BitBuffer output)
+        {
+            if (run > 0)
+            {
+                output.writeVarint(((current << 1) ^ (current >> 31)) & 0xffffffffL);
+                output.writeVarint(run);
+            }
+        }
+
+        private BitBuffer getOpenRun()
+        {
+            BitBuffer open = new BitBuffer(16);
+            writeRun(open);
+
+            return open;
+        }
+
+    }
+
+    /**
+     * Decodes ints encoded by a RunEncoder.
+     */
+    static final class RunDecoder
+    {
+        private final BitBuffer.Reader bits;
+        private int current;
+        private long run;
+
+        RunDecoder(ByteBuffer buffer, int offset)
+        {
+            bits = new BitBuffer.Reader(buffer, offset);
+        }
+
+        int next()
+        {
+            if (run == 0)
+            {
+                long zigzag = bits.readVarint();
+                current = (int) ((zigzag >>> 1) ^ -(zigzag & 1));
+                run = bits.readVarint();
+            }
+
+            run --;
+
+            return current;
+        }
+
+    }
+
+}
@@ -0,0 +1,772 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608.store;
+
+import com.dariancabot.protek608.Reading;
+import com.dariancabot.protek608.ReadingListener;
+import java.io.Closeable;
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Stores decoded Readings in a directory of compressed, columnar segment files, for long-term logging and queries.
+ * <p>
+ * Readings are stored by column, each compressed to suit its data (see {@link Column}): timestamps as delta-of-delta, SI values as the XOR
+ * with the previous value, and units, annunciators and the bar graph as runs. A steady meter costs a few bits per Reading. Queries read
+ * and decode only the columns they ask for, from only the segments in range, one segment at a time. Queries don't hold up Readings being
+ * stored: the visitor is called without holding the store's lock, and the current segment is read from memory rather than written first.
+ * <p>
+ * Readings are grouped into segments of {@link #getSegmentDuration()} (one hour by default), aligned to the epoch, each stored in a file named
+ * by its start time (e.g. {@code 1500000000000.seg}). The current segment is kept in memory and written when the next segment starts, on
+ * {@link #flush()}, on {@link #close()}, and every {@link #getFlushInterval()}. Segment files are written to a temporary file and moved into
+ * place, so a crash never leaves a partly written segment. If the store is reopened during a segment, the segment is read back and
+ * continued.
+ * <p>
+ * The retention policy deletes the oldest segments, keeping at most {@link #getMaxSegments()} segments, and none that ended more than
+ * {@link #getMaxAge()} before the latest Reading. Example usage:
+ * <pre>
+ * ReadingStore store = new ReadingStore(new File("readings"));
+ * store.setMaxAge(TimeUnit.DAYS.toMillis(365));
+ * decoder.addReadingListener(store, executor);
+ * ...
+ * store.forEachValue(Column.MAIN_VALUE, from, to, new ReadingStore.ValueVisitor()
+ * {
+ *     &#64;Override
+ *     public void visit(long timestamp, double value)
+ *     {
+ *         ...
+ *     }
+ * });
+ * </pre>
+ * Write errors are thrown by {@link #flush()} and {@link #close()}; queries still read what was written.
+ *
+ * @author Darian Cabot
+ */
+public final class ReadingStore implements ReadingListener, Flushable, Closeable
+{
+    /**
+     * Default segment duration in milliseconds (one hour).
+     */
+    public static final long DEFAULT_SEGMENT_DURATION = 3600000;
+
+    /**
+     * Default longest time in milliseconds between writes of the current segment.
+     */
+    public static final long DEFAULT_FLUSH_INTERVAL = 60000;
+
+    private static final String EXTENSION = ".seg";
+
+    /**
+     * Receives the values of a value column from a query.
+     */
+    public interface ValueVisitor
+    {
+
+        /**
+         * This method is called for each Reading in the query range.
+         *
+         * @param timestamp the time of the Reading.
+         * @param value     the value, NaN if not numerical.
+         */
+        public void visit(long timestamp, double value);
+
+    }
+
+    /**
+     * Receives the codes of a code column from a query.
+     */
+    public interface CodeVisitor
+    {
+
+        /**
+         * This method is called for each Reading in the query range.
+         *
+         * @param timestamp the time of the Reading.
+         * @param code      the code.
+         */
+        public void visit(long timestamp, int code);
+
+    }
+
+    /**
+     * The segments of a query, read without holding the store's lock.
+     */
+    private final class Snapshot
+    {
+        private final List<Long> starts;
+        private final long currentStart;
+        private final ByteBuffer current; // Null if there is no current segment.
+
+        private Snapshot(List<Long> starts, long currentStart, ByteBuffer current)
+        {
+            this.starts = starts;
+            this.currentStart = currentStart;
+            this.current = current;
+        }
+
+        /**
+         * Opens a segment if it may hold Readings in a time range.
+         *
+         * @return the segment, or null if it's out of range or has since been deleted.
+         */
+        private SegmentReader open(int index, long from, long to) throws IOException
+        {
+            long start = starts.get(index);
+            boolean isBefore = (index + 1 < starts.size()) && (starts.get(index + 1) <= from);
+
+            if (isBefore || (start > to))
+            {
+                return null;
+            }
+
+            SegmentReader segment;
+
+            if ((current != null) && (start == currentStart))
+            {
+                segment = new SegmentReader(current.duplicate());
+            }
+            else
+            {
+                try
+                {
+                    segment = new SegmentReader(getFile(start));
+                }
+                catch (NoSuchFileException e)
+                {
+                    return null; // Deleted by the retention policy.
+                }
+            }
+
+            if ((segment.getLastTimestamp() < from) || (segment.getFirstTimestamp() > to))
+            {
+                segment.close();
+                return null;
+            }
+
+            return segment;
+        }
+
+    }
+
+    private final File directory;
+    private final Columns.TimeEncoder timestamps = new Columns.TimeEncoder();
+    private final Columns.ValueEncoder mainValues = new Columns.ValueEncoder();
+    private final Columns.ValueEncoder subValues = new Columns.ValueEncoder();
+    private final Columns.RunEncoder mainUnits = new Columns.RunEncoder();
+    private final Columns.RunEncoder subUnits = new Columns.RunEncoder();
+    private final Columns.RunEncoder annunciators = new Columns.RunEncoder();
+    private final Columns.RunEncoder barGraphs = new Columns.RunEncoder();
+
+    private long segmentDuration = DEFAULT_SEGMENT_DURATION;
+    private long flushInterval = DEFAULT_FLUSH_INTERVAL;
+    private long maxAge;
+    private int maxSegments;
+
+    private long segmentStart = Long.MIN_VALUE; // MIN_VALUE if there is no current segment.
+    private int count;
+    private long first;
+    private long last;
+    private boolean isDirty;
+    private long lastWrite;
+    private IOException failure;
+    private boolean isClosed;
+
+    //-----------------------------------------------------------------------
+    /**
+     * Opens a store.
+     *
+     * @param directory the directory of segment files, created if it doesn't exist.
+     *
+     * @throws IOException if the directory can't be created.
+     */
+    public ReadingStore(File directory) throws IOException
+    {
+        if ( ! directory.isDirectory() && ! directory.mkdirs())
+        {
+            throw new IOException("Can't create directory " + directory + ".");
+        }
+
+        this.directory = directory;
+        this.lastWrite = System.currentTimeMillis();
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the segment duration.
+     *
+     * @return the segment duration in milliseconds.
+     */
+    public synchronized long getSegmentDuration()
+    {
+        return segmentDuration;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets the segment duration. This should be set before the first Reading, and kept the same each time the store is opened.
+     *
+     * @param segmentDuration the segment duration in milliseconds, greater than 0.
+     */
+    public synchronized void setSegmentDuration(long segmentDuration)
+    {
+        if (segmentDuration <= 0)
+        {
+            throw new IllegalArgumentException("Segment duration must be greater than 0.");
+        }
+
+        this.segmentDuration = segmentDuration;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the longest time between writes of the current segment.
+     *
+     * @return the flush interval in milliseconds.
+     */
+    public synchronized long getFlushInterval()
+    {
+        return flushInterval;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets the longest time between writes of the current segment. Each write rewrites the whole segment file, so this is a trade of disk
+     * writes against the Readings lost in a crash.
+     *
+     * @param flushInterval the flush interval in milliseconds.
+     */
+    public synchronized void setFlushInterval(long flushInterval)
+    {
+        this.flushInterval = flushInterval;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the maximum age of a segment.
+     *
+     * @return the maximum age in milliseconds, or 0 for no limit.
+     */
+    public synchronized long getMaxAge()
+    {
+        return maxAge;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets the maximum age of a segment. Segments that ended this long before the latest Reading are deleted when a new segment starts.
+     *
+     * @param maxAge the maximum age in milliseconds, or 0 for no limit (default).
+     */
+    public synchronized void setMaxAge(long maxAge)
+    {
+        this.maxAge = maxAge;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the maximum number of segments.
+     *
+     * @return the maximum number of segments, or 0 for no limit.
+     */
+    public synchronized int getMaxSegments()
+    {
+        return maxSegments;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets the maximum number of segments, including the current one. The oldest segments are deleted when a new segment starts.
+     *
+     * @param maxSegments the maximum number of segments, or 0 for no limit (default).
+     */
+    public synchronized void setMaxSegments(int maxSegments)
+    {
+        this.maxSegments = maxSegments;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the start times of the stored segments, oldest first.
+     *
+     * @return the segment start times in milliseconds since the epoch.
+     */
+    public synchronized long[] getSegments()
+    {
+        List<Long> starts = listSegments();
+
+        if (isDirty && ! starts.contains(segmentStart))
+        {
+            starts.add(segmentStart);
+        }
+
+        long[] result = new long[starts.size()];
+
+        for (int i = 0; i < result.length; i ++)
+        {
+            result[i] = starts.get(i);
+        }
+
+        return result;
+    }
+
+    //-----------------------------------------------------------------------
+    @Override
+    public synchronized void readingEvent(Reading reading, int changes)
+    {
+        if (isClosed || (failure != null))
+        {
+            return;
+        }
+
+        try
+        {
+            long timestamp = reading.getTimestamp();
+            long start = timestamp - (((timestamp % segmentDuration) + segmentDuration) % segmentDuration);
+
+            if (start != segmentStart)
+            {
+                if (count > 0)
+                {
+                    writeSegment();
+                }
+
+                openSegment(start);
+                applyRetention(timestamp);
+            }
+
+            add(timestamp, reading.getMainValue().getSiValue(), reading.getSubValue().getSiValue(), reading.getMainValue().getUnitCode(),
+                    reading.getSubValue().getUnitCode(), reading.getAnnunciators(), reading.getBarGraph());
+
+            if ((System.currentTimeMillis() - lastWrite) >= flushInterval)
+            {
+                writeSegment();
+            }
+        }
+        catch (IOException e)
+        {
+            failure = e;
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Visits the values of a value column in a time range, oldest first. Readings not yet written are included.
+     *
+     * @param column  the column, see {@link Column#isValue()}.
+     * @param from    the start of the range (inclusive), in milliseconds since the epoch.
+     * @param to      the end of the range (inclusive), in milliseconds since the epoch.
+     * @param visitor the visitor to call for each Reading in range.
+     *
+     * @throws IOException if a segment can't be read.
+     */
+    public void forEachValue(Column column, long from, long to, ValueVisitor visitor) throws IOException
+    {
+        if ( ! column.isValue())
+        {
+            throw new IllegalArgumentException(column + " is not a value column.");
+        }
+
+        Snapshot snapshot = snapshot();
+        long[] times = new long[0];
+        double[] values = new double[0];
+
+        for (int segmentIndex = 0; segmentIndex < snapshot.starts.size(); segmentIndex ++)
+        {
+            try (SegmentReader segment = snapshot.open(segmentIndex, from, to))
+            {
+                if (segment == null)
+                {
+                    continue;
+                }
+
+                if (times.length < segment.getCount())
+                {
+                    times = new long[segment.getCount()];
+                    values = new double[segment.getCount()];
+                }
+
+                int n = segment.readTimestamps(times);
+                segment.readValues(column, values);
+
+                for (int i = 0; i < n; i ++)
+                {
+                    if ((times[i] >= from) && (times[i] <= to))
+                    {
+                        visitor.visit(times[i], values[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Visits the codes of a code column in a time range, oldest first. Readings not yet written are included.
+     *
+     * @param column  the column, units, annunciators or bar graph.
+     * @param from    the start of the range (inclusive), in milliseconds since the epoch.
+     * @param to      the end of the range (inclusive), in milliseconds since the epoch.
+     * @param visitor the visitor to call for each Reading in range.
+     *
+     * @throws IOException if a segment can't be read.
+     */
+    public void forEachCode(Column column, long from, long to, CodeVisitor visitor) throws IOException
+    {
+        if (column.isValue() || (column == Column.TIMESTAMP))
+        {
+            throw new IllegalArgumentException(column + " is not a code column.");
+        }
+
+        Snapshot snapshot = snapshot();
+        long[] times = new long[0];
+        int[] codes = new int[0];
+
+        for (int segmentIndex = 0; segmentIndex < snapshot.starts.size(); segmentIndex ++)
+        {
+            try (SegmentReader segment = snapshot.open(segmentIndex, from, to))
+            {
+                if (segment == null)
+                {
+                    continue;
+                }
+
+                if (times.length < segment.getCount())
+                {
+                    times = new long[segment.getCount()];
+                    codes = new int[segment.getCount()];
+                }
+
+                int n = segment.readTimestamps(times);
+                segment.readCodes(column, codes);
+
+                for (int i = 0; i < n; i ++)
+                {
+                    if ((times[i] >= from) && (times[i] <= to))
+                    {
+                        visitor.visit(times[i], codes[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Writes the current segment.
+     *
+     * @throws IOException if writing fails, or an earlier write failed.
+     */
+    @Override
+    public synchronized void flush() throws IOException
+    {
+        if (failure != null)
+        {
+            throw failure;
+        }
+
+        if ( ! isClosed && isDirty)
+        {
+            writeSegment();
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Writes the current segment and closes the store. Readings received after closing are ignored.
+     *
+     * @throws IOException if writing fails, or an earlier write failed.
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if (isClosed)
+        {
+            return;
+        }
+
+        try
+        {
+            flush();
+        }
+        finally
+        {
+            isClosed = true;
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    private void add(long timestamp, double mainValue, double subValue, int mainUnit, int subUnit, int annunciatorBits, int barGraph)
+    {
+        if (count == 0)
+        {
+            first = timestamp;
+        }
+
+        timestamps.add(timestamp);
+        mainValues.add(mainValue);
+        subValues.add(subValue);
+        mainUnits.add(mainUnit);
+        subUnits.add(subUnit);
+        annunciators.add(annunciatorBits);
+        barGraphs.add(barGraph);
+
+        last = timestamp;
+        count ++;
+        isDirty = true;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Starts a segment, continuing it if it's already stored.
+     */
+    private void openSegment(long start) throws IOException
+    {
+        timestamps.clear();
+        mainValues.clear();
+        subValues.clear();
+        mainUnits.clear();
+        subUnits.clear();
+        annunciators.clear();
+        barGraphs.clear();
+
+        segmentStart = start;
+        count = 0;
+        isDirty = false;
+
+        File file = getFile(start);
+
+        if ( ! file.isFile())
+        {
+            return;
+        }
+
+        int n;
+        long[] times;
+        double[] main;
+        double[] sub;
+        int[] mainUnit;
+        int[] subUnit;
+        int[] annunciatorBits;
+        int[] barGraph;
+
+        try (SegmentReader segment = new SegmentReader(file))
+        {
+            n = segment.getCount();
+            times = new long[n];
+            main = new double[n];
+            sub = new double[n];
+            mainUnit = new int[n];
+            subUnit = new int[n];
+            annunciatorBits = new int[n];
+            barGraph = new int[n];
+
+            segment.readTimestamps(times);
+            segment.readValues(Column.MAIN_VALUE, main);
+            segment.readValues(Column.SUB_VALUE, sub);
+            segment.readCodes(Column.MAIN_UNIT, mainUnit);
+            segment.readCodes(Column.SUB_UNIT, subUnit);
+            segment.readCodes(Column.ANNUNCIATORS, annunciatorBits);
+            segment.readCodes(Column.BAR_GRAPH, barGraph);
+        }
+
+        for (int i = 0; i < n; i ++)
+        {
+            add(times[i], main[i], sub[i], mainUnit[i], subUnit[i], annunciatorBits[i], barGraph[i]);
+        }
+
+        isDirty = false;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Writes the current segment to a temporary file, then moves it into place.
+     */
+    private void writeSegment() throws IOException
+    {
+        ByteBuffer buffer = encodeSegment();
+        File file = getFile(segmentStart);
+        File temp = new File(directory, file.getName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            while (buffer.hasRemaining())
+            {
+                channel.write(buffer);
+            }
+
+            channel.force(true);
+        }
+
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        isDirty = false;
+        lastWrite = System.currentTimeMillis();
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Encodes the current segment, as it's stored in a segment file.
+     */
+    private ByteBuffer encodeSegment()
+    {
+        Column[] columns = Column.values();
+        int[] lengths =
+        {
+            timestamps.getLength(), mainValues.getLength(), subValues.getLength(), mainUnits.getLength(), subUnits.getLength(),
+            annunciators.getLength(), barGraphs.getLength()
+        };
+
+        int offset = SegmentReader.HEADER_SIZE + (columns.length * SegmentReader.DIRECTORY_ENTRY_SIZE);
+        int size = offset;
+
+        for (int length : lengths)
+        {
+            size += length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(SegmentReader.MAGIC);
+        buffer.putInt(SegmentReader.VERSION);
+        buffer.putInt(count);
+        buffer.putLong(segmentStart);
+        buffer.putLong(first);
+        buffer.putLong(last);
+        buffer.putInt(columns.length);
+
+        for (int i = 0; i < columns.length; i ++)
+        {
+            buffer.putInt(columns[i].ordinal());
+            buffer.putInt(offset);
+            buffer.putInt(lengths[i]);
+            offset += lengths[i];
+        }
+
+        timestamps.copyTo(buffer);
+        mainValues.copyTo(buffer);
+        subValues.copyTo(buffer);
+        mainUnits.copyTo(buffer);
+        subUnits.copyTo(buffer);
+        annunciators.copyTo(buffer);
+        barGraphs.copyTo(buffer);
+        buffer.flip();
+
+        return buffer;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Deletes the oldest segments, keeping the current one.
+     */
+    private void applyRetention(long latest) throws IOException
+    {
+        List<Long> starts = listSegments();
+        starts.remove(Long.valueOf(segmentStart));
+        int keep = (maxSegments > 0) ? maxSegments - 1 : Integer.MAX_VALUE;
+
+        for (int i = 0; i < starts.size(); i ++)
+        {
+            long start = starts.get(i);
+            boolean isExpired = (maxAge > 0) && ((start + segmentDuration) < (latest - maxAge));
+
+            if (isExpired || ((starts.size() - i) > keep))
+            {
+                Files.deleteIfExists(getFile(start).toPath());
+            }
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Takes what a query needs under the lock: the segment start times, and a copy of the current segment.
+     */
+    private synchronized Snapshot snapshot()
+    {
+        List<Long> starts = listSegments();
+        ByteBuffer current = null;
+
+        if (count > 0)
+        {
+            current = encodeSegment();
+
+            if ( ! starts.contains(segmentStart))
+            {
+                starts.add(segmentStart);
+                Collections.sort(starts);
+            }
+        }
+
+        return new Snapshot(starts, segmentStart, current);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Lists the start times of the segment files, oldest first.
+     */
+    private List<Long> listSegments()
+    {
+        List<Long> starts = new ArrayList<>();
+        String[] names = directory.list();
+
+        if (names != null)
+        {
+            for (String name : names)
+            {
+                if (name.endsWith(EXTENSION))
+                {
+                    try
+                    {
+                        starts.add(Long.parseLong(name.substring(0, name.length() - EXTENSION.length())));
+                    }
+                    catch (NumberFormatException e)
+                    {
+                        // Not a segment file.
+                    }
+                }
+            }
+        }
+
+        Collections.sort(starts);
+
+        return starts;
+    }
+
+    //-----------------------------------------------------------------------
+    private File getFile(long start)
+    {
+        return new File(directory, start + EXTENSION);
+    }
+
+}
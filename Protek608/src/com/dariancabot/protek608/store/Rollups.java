@@ -0,0 +1,675 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608.store;
+
+import com.dariancabot.protek608.Aggregate;
+import com.dariancabot.protek608.Reading;
+import com.dariancabot.protek608.ReadingListener;
+import java.io.Closeable;
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+
+/**
+ * Maintains rollups (per-bucket count, minimum, maximum, mean and variance) of a value at 1 second, 1 minute and 1 hour resolution, as Readings arrive,
+ * and answers time-bucket queries from the coarsest suitable tier.
+ * <p>
+ * Each tier is stored in its own file in a directory (e.g. {@code main-1m.rollup} for the main value's 1 minute tier), which can be the
+ * directory of the captures or {@link ReadingStore} of the same session. A file is a 16 byte header followed by fixed-size records, one per
+ * completed bucket:
+ * <pre>
+ * Offset  Size  Field
+ * 0       8     Bucket start time (long, ms since the epoch)
+ * 8       4     Unit code, see {@link Reading.Value#getUnitCode()} (int)
+ * 12      8     Count (long)
+ * 20      8     Minimum SI value (double)
+ * 28      8     Maximum SI value (double)
+ * 36      8     Mean SI value (double)
+ * 44      8     Sum of squared differences from the mean, see {@link Aggregate#getSquaredDeviations()} (double)
+ * </pre>
+ * Only numerical values are rolled up, and a bucket never mixes units: a unit change completes the bucket and starts another with the same start
+ * time. Completed buckets are buffered and written every {@link #getFlushInterval()}, on {@link #flush()}, and on {@link #close()}, which also
+ * writes the buckets still in progress. Example usage:
+ * <pre>
+ * Rollups rollups = new Rollups(new File("session"), Reading.Channel.MAIN);
+ * decoder.addReadingListener(rollups, executor);
+ * ...
+ * // Hourly figures for the last day, read from the 1 hour tier.
+ * rollups.query(now - TimeUnit.DAYS.toMillis(1), now, TimeUnit.HOURS.toMillis(1), unitCode, new Rollups.BucketVisitor()
+ * {
+ *     &#64;Override
+ *     public void visit(long start, Aggregate aggregate)
+ *     {
+ *         ...
+ *     }
+ * });
+ * </pre>
+ * Readings are expected in time order. A write error is thrown by {@link #flush()}, {@link #close()}, and
+ * {@link #query(long, long, long, int, BucketVisitor)}.
+ *
+ * @author Darian Cabot
+ */
+public final class Rollups implements ReadingListener, Flushable, Closeable
+{
+    /**
+     * Unit code for a query of all units.
+     */
+    public static final int ANY_UNIT = -1;
+
+    /**
+     * Default longest time in milliseconds a completed bucket is buffered before writing.
+     */
+    public static final long DEFAULT_FLUSH_INTERVAL = 5000;
+
+    static final byte[] MAGIC = "P608RLP\u001a".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_SIZE = 52;
+
+    private static final int BATCH_RECORDS = 64; // Completed buckets buffered per tier.
+    private static final int READ_RECORDS = 1024; // Records read at a time by a query.
+
+    /**
+     * The rollup resolutions.
+     */
+    public enum Tier
+    {
+        /**
+         * 1 second buckets.
+         */
+        SECOND(1000, "1s"),
+        /**
+         * 1 minute buckets.
+         */
+        MINUTE(60000, "1m"),
+        /**
+         * 1 hour buckets.
+         */
+        HOUR(3600000, "1h");
+
+        private final long duration;
+        private final String suffix;
+
+        Tier(long duration, String suffix)
+        {
+            this.duration = duration;
+            this.suffix = suffix;
+        }
+
+        /**
+         * Gets the bucket duration.
+         *
+         * @return the duration in milliseconds.
+         */
+        public long getDuration()
+        {
+            return duration;
+        }
+
+    }
+
+    /**
+     * Receives the buckets of a query.
+     */
+    public interface BucketVisitor
+    {
+
+        /**
+         * This method is called for each bucket of the query that has values, in time order.
+         *
+         * @param start     the start time of the bucket in milliseconds since the epoch.
+         * @param aggregate the values in the bucket, only valid during the call.
+         */
+        public void visit(long start, Aggregate aggregate);
+
+    }
+
+    private final Reading.Channel channel;
+    private final Tier[] tiers = Tier.values();
+    private final FileChannel[] files = new FileChannel[tiers.length];
+    private final ByteBuffer[] pending = new ByteBuffer[tiers.length];
+    private final long[] bucketStarts = new long[tiers.length];
+    private final int[] bucketUnits = new int[tiers.length];
+    private final Aggregate[] buckets = new Aggregate[tiers.length];
+
+    private long flushInterval = DEFAULT_FLUSH_INTERVAL;
+    private long lastWrite;
+    private IOException failure;
+    private boolean isClosed;
+
+    //-----------------------------------------------------------------------
+    /**
+     * Opens the rollups of a value, appending to existing rollup files.
+     *
+     * @param directory the directory of rollup files, created if it doesn't exist.
+     * @param channel   the value to roll up.
+     *
+     * @throws IOException if a file can't be opened, or isn't a rollup file of the same tier.
+     */
+    public Rollups(File directory, Reading.Channel channel) throws IOException
+    {
+        if ( ! directory.isDirectory() && ! directory.mkdirs())
+        {
+            throw new IOException("Can't create directory " + directory + ".");
+        }
+
+        this.channel = channel;
+
+        try
+        {
+            for (int i = 0; i < tiers.length; i ++)
+            {
+                File file = new File(directory, channel.name().toLowerCase() + "-" + tiers[i].suffix + ".rollup");
+                files[i] = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                open(files[i], tiers[i]);
+
+                pending[i] = ByteBuffer.allocateDirect(BATCH_RECORDS * RECORD_SIZE);
+                buckets[i] = new Aggregate();
+            }
+        }
+        catch (IOException e)
+        {
+            try
+            {
+                closeFiles();
+            }
+            catch (IOException ignored)
+            {
+                // Already failed.
+            }
+
+            throw e;
+        }
+
+        lastWrite = System.currentTimeMillis();
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the longest time a completed bucket is buffered before writing.
+     *
+     * @return the flush interval in milliseconds.
+     */
+    public synchronized long getFlushInterval()
+    {
+        return flushInterval;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets the longest time a completed bucket is buffered before writing.
+     *
+     * @param flushInterval the flush interval in milliseconds.
+     */
+    public synchronized void setFlushInterval(long flushInterval)
+    {
+        this.flushInterval = flushInterval;
+    }
+
+    //-----------------------------------------------------------------------
+    @Override
+    public synchronized void readingEvent(Reading reading, int changes)
+    {
+        Reading.Value value = reading.getValue(channel);
+        double siValue = value.getSiValue();
+
+        if (isClosed || (failure != null) || Double.isNaN(siValue))
+        {
+            return;
+        }
+
+        long timestamp = reading.getTimestamp();
+        int unit = value.getUnitCode();
+
+        try
+        {
+            for (int i = 0; i < tiers.length; i ++)
+            {
+                long start = floor(timestamp, tiers[i].duration);
+
+                if ((buckets[i].getCount() > 0) && ((start != bucketStarts[i]) || (unit != bucketUnits[i])))
+                {
+                    completeBucket(i);
+                }
+
+                bucketStarts[i] = start;
+                bucketUnits[i] = unit;
+                buckets[i].add(siValue);
+            }
+
+            if ((System.currentTimeMillis() - lastWrite) >= flushInterval)
+            {
+                writePending();
+            }
+        }
+        catch (IOException e)
+        {
+            failure = e;
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Aggregates values into buckets of a time range, reading from the coarsest tier whose duration divides the bucket size. Completed buckets
+     * not yet written are written first, and buckets in progress are included, as they were when the query started. The file is read and the
+     * visitor called without holding the lock, so a slow query never holds up Readings being rolled up.
+     *
+     * @param from       the start of the range (inclusive), in milliseconds since the epoch, rounded down to a bucket boundary.
+     * @param to         the end of the range (exclusive), in milliseconds since the epoch.
+     * @param bucketSize the bucket size in milliseconds, a multiple of 1 second.
+     * @param unitCode   the unit of the values to include (see {@link Reading.Value#getUnitCode()}), or {@link #ANY_UNIT}.
+     * @param visitor    the visitor to call for each bucket with values.
+     *
+     * @throws IOException if a rollup file can't be read or written, or the rollups are closed.
+     */
+    public void query(long from, long to, long bucketSize, int unitCode, BucketVisitor visitor) throws IOException
+    {
+        int tier = getTier(bucketSize);
+
+        if (tier < 0)
+        {
+            throw new IllegalArgumentException("Bucket size must be a multiple of 1 second.");
+        }
+
+        FileChannel file = files[tier];
+        long records;
+        long bucketStart;
+        int bucketUnit;
+        Aggregate bucket = new Aggregate();
+
+        // Snapshot the written records and the bucket in progress, so the rest runs without the lock.
+        synchronized (this)
+        {
+            if (failure != null)
+            {
+                throw failure;
+            }
+
+            if (isClosed)
+            {
+                throw new IOException("Rollups are closed.");
+            }
+
+            writePending(tier);
+
+            records = (file.size() - HEADER_SIZE) / RECORD_SIZE;
+            bucketStart = bucketStarts[tier];
+            bucketUnit = bucketUnits[tier];
+            bucket.add(buckets[tier]);
+        }
+
+        Query query = new Query(floor(from, bucketSize), to, bucketSize, unitCode, visitor);
+        ByteBuffer buffer = ByteBuffer.allocate(READ_RECORDS * RECORD_SIZE);
+
+        for (long i = findRecord(file, records, query.from); i < records; i += READ_RECORDS)
+        {
+            buffer.clear();
+            buffer.limit((int) Math.min(READ_RECORDS, records - i) * RECORD_SIZE);
+            readFully(file, buffer, HEADER_SIZE + (i * RECORD_SIZE));
+            buffer.flip();
+
+            while (buffer.hasRemaining())
+            {
+                if ( ! query.add(buffer.getLong(), buffer.getInt(), buffer.getLong(), buffer.getDouble(), buffer.getDouble(), buffer.getDouble(),
+                        buffer.getDouble()))
+                {
+                    query.finish();
+                    return;
+                }
+            }
+        }
+
+        query.add(bucketStart, bucketUnit, bucket.getCount(), bucket.getMinimum(), bucket.getMaximum(), bucket.getMean(),
+                bucket.getSquaredDeviations());
+
+        query.finish();
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Writes the completed buckets and forces them to the storage device.
+     *
+     * @throws IOException if writing fails, or an earlier write failed.
+     */
+    @Override
+    public synchronized void flush() throws IOException
+    {
+        if (failure != null)
+        {
+            throw failure;
+        }
+
+        if (isClosed)
+        {
+            return;
+        }
+
+        writePending();
+
+        for (FileChannel file : files)
+        {
+            file.force(false);
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Writes all buckets, including those in progress, and closes the files. Readings received after closing are ignored.
+     *
+     * @throws IOException if writing fails, or an earlier write failed.
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if (isClosed)
+        {
+            return;
+        }
+
+        try
+        {
+            if (failure == null)
+            {
+                for (int i = 0; i < tiers.length; i ++)
+                {
+                    if (buckets[i].getCount() > 0)
+                    {
+                        completeBucket(i);
+                    }
+                }
+            }
+
+            flush();
+        }
+        finally
+        {
+            isClosed = true;
+            closeFiles();
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the coarsest tier whose duration divides a bucket size.
+     */
+    private int getTier(long bucketSize)
+    {
+        for (int i = tiers.length - 1; i >= 0; i --)
+        {
+            if ((bucketSize > 0) && ((bucketSize % tiers[i].duration) == 0))
+            {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Adds the bucket in progress to the pending records, and clears it.
+     */
+    private void completeBucket(int tier) throws IOException
+    {
+        ByteBuffer buffer = pending[tier];
+
+        if (buffer.remaining() < RECORD_SIZE)
+        {
+            writePending(tier);
+        }
+
+        Aggregate bucket = buckets[tier];
+        buffer.putLong(bucketStarts[tier]);
+        buffer.putInt(bucketUnits[tier]);
+        buffer.putLong(bucket.getCount());
+        buffer.putDouble(bucket.getMinimum());
+        buffer.putDouble(bucket.getMaximum());
+        buffer.putDouble(bucket.getMean());
+        buffer.putDouble(bucket.getSquaredDeviations());
+
+        bucket.reset();
+    }
+
+    //-----------------------------------------------------------------------
+    private void writePending() throws IOException
+    {
+        for (int i = 0; i < tiers.length; i ++)
+        {
+            writePending(i);
+        }
+
+        lastWrite = System.currentTimeMillis();
+    }
+
+    //-----------------------------------------------------------------------
+    private void writePending(int tier) throws IOException
+    {
+        ByteBuffer buffer = pending[tier];
+        buffer.flip();
+
+        while (buffer.hasRemaining())
+        {
+            files[tier].write(buffer, files[tier].size());
+        }
+
+        buffer.clear();
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Checks or writes the header of a rollup file, and truncates any partly written record.
+     */
+    private static void open(FileChannel file, Tier tier) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+        if (file.size() == 0)
+        {
+            header.put(MAGIC);
+            header.putInt(VERSION);
+            header.putInt((int) tier.duration);
+            header.flip();
+
+            while (header.hasRemaining())
+            {
+                file.write(header, header.position());
+            }
+
+            return;
+        }
+
+        if (file.size() < HEADER_SIZE)
+        {
+            throw new IOException("Not a rollup file.");
+        }
+
+        readFully(file, header, 0);
+        header.flip();
+
+        byte[] magic = new byte[MAGIC.length];
+        header.get(magic);
+
+        if ( ! Arrays.equals(magic, MAGIC))
+        {
+            throw new IOException("Not a rollup file.");
+        }
+
+        int version = header.getInt();
+
+        if (version != VERSION)
+        {
+            throw new IOException("Unsupported rollup file version " + version + ".");
+        }
+
+        if (header.getInt() != tier.duration)
+        {
+            throw new IOException("Rollup file is not of the " + tier + " tier.");
+        }
+
+        long records = (file.size() - HEADER_SIZE) / RECORD_SIZE;
+        file.truncate(HEADER_SIZE + (records * RECORD_SIZE));
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Finds the first record with a start time at or after a time, by binary search.
+     */
+    private static long findRecord(FileChannel file, long records, long time) throws IOException
+    {
+        ByteBuffer start = ByteBuffer.allocate(8);
+        long low = 0;
+        long high = records;
+
+        while (low < high)
+        {
+            long middle = (low + high) >>> 1;
+
+            start.clear();
+            readFully(file, start, HEADER_SIZE + (middle * RECORD_SIZE));
+
+            if (start.getLong(0) < time)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    //-----------------------------------------------------------------------
+    private static void readFully(FileChannel file, ByteBuffer buffer, long position) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            if (file.read(buffer, position + buffer.position()) < 0)
+            {
+                throw new IOException("Rollup file is truncated.");
+            }
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    private static long floor(long time, long duration)
+    {
+        return time - (((time % duration) + duration) % duration);
+    }
+
+    //-----------------------------------------------------------------------
+    private void closeFiles() throws IOException
+    {
+        IOException error = null;
+
+        for (FileChannel file : files)
+        {
+            try
+            {
+                if (file != null)
+                {
+                    file.close();
+                }
+            }
+            catch (IOException e)
+            {
+                error = (error == null) ? e : error;
+            }
+        }
+
+        if (error != null)
+        {
+            throw error;
+        }
+    }
+
+    /**
+     * Merges tier records into query buckets.
+     */
+    private static final class Query
+    {
+        private final long from;
+        private final long to;
+        private final long bucketSize;
+        private final int unitCode;
+        private final BucketVisitor visitor;
+        private final Aggregate bucket = new Aggregate();
+        private long bucketStart;
+
+        Query(long from, long to, long bucketSize, int unitCode, BucketVisitor visitor)
+        {
+            this.from = from;
+            this.to = to;
+            this.bucketSize = bucketSize;
+            this.unitCode = unitCode;
+            this.visitor = visitor;
+        }
+
+        /**
+         * Adds a record, returning false once past the end of the range.
+         */
+        boolean add(long start, int unit, long count, double minimum, double maximum, double mean, double m2)
+        {
+            if (start >= to)
+            {
+                return false;
+            }
+
+            if ((start < from) || (count == 0) || ((unitCode != ANY_UNIT) && (unit != unitCode)))
+            {
+                return true;
+            }
+
+            long queryStart = floor(start, bucketSize);
+
+            if ((bucket.getCount() > 0) && (queryStart != bucketStart))
+            {
+                visitor.visit(bucketStart, bucket);
+                bucket.reset();
+            }
+
+            bucketStart = queryStart;
+            bucket.add(count, minimum, maximum, mean, m2);
+
+            return true;
+        }
+
+        void finish()
+        {
+            if (bucket.getCount() > 0)
+            {
+                visitor.visit(bucketStart, bucket);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,404 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608.store;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+
+/**
+ * Reads a segment file written by a {@link ReadingStore}.
+ * <p>
+ * A segment file holds the readings of one time segment, one compressed column after another:
+ * <pre>
+ * Offset  Size  Field
+ * 0       8     Magic "P608SEG" followed by 0x1a
+ * 8       4     Version (int)
+ * 12      4     Number of readings (int)
+ * 16      8     Segment start time (long, ms since the epoch)
+ * 24      8     First timestamp (long)
+ * 32      8     Last timestamp (long)
+ * 40      4     Number of columns (int)
+ * 44      12n   Column directory: column ordinal, offset and length in bytes (ints)
+ * </pre>
+ * All values are big-endian. Opening a segment file reads only the header and directory, and each column is read from the file only when
+ * it's decoded, so a query of one value column reads a small part of the file. The file is kept open until {@link #close()}, so a segment
+ * rewritten while it's being read is still read consistently.
+ *
+ * @author Darian Cabot
+ */
+public final class SegmentReader implements Closeable
+{
+    static final byte[] MAGIC = "P608SEG\u001a".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 44;
+    static final int DIRECTORY_ENTRY_SIZE = 12;
+
+    private final FileChannel channel; // Null if the segment is in memory.
+    private final ByteBuffer buffer; // Null if the segment is in a file.
+    private final int count;
+    private final long start;
+    private final long first;
+    private final long last;
+    private final int[] offsets = new int[Column.values().length];
+    private final int[] lengths = new int[Column.values().length];
+
+    //-----------------------------------------------------------------------
+    /**
+     * Opens a segment file, reading its header.
+     *
+     * @param file the segment file.
+     *
+     * @throws IOException if the file can't be read, or isn't a segment file.
+     */
+    public SegmentReader(File file) throws IOException
+    {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.buffer = null;
+
+        try
+        {
+            long size = channel.size();
+            ByteBuffer header = read(0, (int) Math.min(size, HEADER_SIZE));
+            int columns = readHeader(header);
+
+            count = header.getInt(12);
+            start = header.getLong(16);
+            first = header.getLong(24);
+            last = header.getLong(32);
+
+            readDirectory(read(HEADER_SIZE, columns * DIRECTORY_ENTRY_SIZE), columns, size);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Reads a segment from a buffer.
+     *
+     * @param buffer the segment, from position 0.
+     *
+     * @throws IOException if the buffer isn't a segment.
+     */
+    SegmentReader(ByteBuffer buffer) throws IOException
+    {
+        this.channel = null;
+        this.buffer = buffer;
+
+        int columns = readHeader(buffer);
+
+        count = buffer.getInt(12);
+        start = buffer.getLong(16);
+        first = buffer.getLong(24);
+        last = buffer.getLong(32);
+
+        ByteBuffer directory = buffer.duplicate();
+        directory.position(HEADER_SIZE);
+        readDirectory(directory.slice(), columns, buffer.limit());
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Checks the header, returning the number of columns.
+     */
+    private static int readHeader(ByteBuffer header) throws IOException
+    {
+        if (header.limit() < HEADER_SIZE)
+        {
+            throw new IOException("Not a segment file.");
+        }
+
+        byte[] magic = new byte[MAGIC.length];
+        ByteBuffer source = header.duplicate();
+        source.position(0);
+        source.get(magic);
+
+        if ( ! Arrays.equals(magic, MAGIC))
+        {
+            throw new IOException("Not a segment file.");
+        }
+
+        int version = header.getInt(8);
+
+        if (version != VERSION)
+        {
+            throw new IOException("Unsupported segment file version " + version + ".");
+        }
+
+        int columns = header.getInt(40);
+
+        if ((columns < 0) || (columns > 1024))
+        {
+            throw new IOException("Segment file is corrupt.");
+        }
+
+        return columns;
+    }
+
+    //-----------------------------------------------------------------------
+    private void readDirectory(ByteBuffer directory, int columns, long size) throws IOException
+    {
+        if (directory.limit() < (columns * DIRECTORY_ENTRY_SIZE))
+        {
+            throw new IOException("Segment file is truncated.");
+        }
+
+        Arrays.fill(offsets, -1);
+
+        for (int i = 0; i < columns; i ++)
+        {
+            int ordinal = directory.getInt(i * DIRECTORY_ENTRY_SIZE);
+            int offset = directory.getInt((i * DIRECTORY_ENTRY_SIZE) + 4);
+            int length = directory.getInt((i * DIRECTORY_ENTRY_SIZE) + 8);
+
+            if ((offset < 0) || (length < 0) || ((long) offset + length > size))
+            {
+                throw new IOException("Segment file is truncated.");
+            }
+
+            if ((ordinal >= 0) && (ordinal < offsets.length)) // Ignore columns added by a later version.
+            {
+                offsets[ordinal] = offset;
+                lengths[ordinal] = length;
+            }
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the number of readings in the segment.
+     *
+     * @return the number of readings.
+     */
+    public int getCount()
+    {
+        return count;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the start time of the segment, which is on a segment boundary.
+     *
+     * @return the start time in milliseconds since the epoch.
+     */
+    public long getStart()
+    {
+        return start;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the timestamp of the first reading.
+     *
+     * @return the first timestamp, in milliseconds since the epoch.
+     */
+    public long getFirstTimestamp()
+    {
+        return first;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the timestamp of the last reading.
+     *
+     * @return the last timestamp, in milliseconds since the epoch.
+     */
+    public long getLastTimestamp()
+    {
+        return last;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Checks if the segment has a column.
+     *
+     * @param column the column.
+     *
+     * @return true if the column is stored.
+     */
+    public boolean hasColumn(Column column)
+    {
+        return offsets[column.ordinal()] >= 0;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Decodes the timestamps.
+     *
+     * @param destination the array to decode to, at least {@link #getCount()} long.
+     *
+     * @return the number of timestamps decoded.
+     *
+     * @throws IOException if the column can't be read.
+     */
+    public int readTimestamps(long[] destination) throws IOException
+    {
+        checkLength(destination.length);
+        Columns.TimeDecoder decoder = new Columns.TimeDecoder(readColumn(Column.TIMESTAMP), 0);
+
+        for (int i = 0; i < count; i ++)
+        {
+            destination[i] = decoder.next();
+        }
+
+        return count;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Decodes a value column.
+     *
+     * @param column      the column, see {@link Column#isValue()}.
+     * @param destination the array to decode to, at least {@link #getCount()} long.
+     *
+     * @return the number of values decoded.
+     *
+     * @throws IOException if the column can't be read.
+     */
+    public int readValues(Column column, double[] destination) throws IOException
+    {
+        if ( ! column.isValue())
+        {
+            throw new IllegalArgumentException(column + " is not a value column.");
+        }
+
+        checkLength(destination.length);
+        Columns.ValueDecoder decoder = new Columns.ValueDecoder(readColumn(column), 0);
+
+        for (int i = 0; i < count; i ++)
+        {
+            destination[i] = decoder.next();
+        }
+
+        return count;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Decodes a code column (units, annunciators or bar graph).
+     *
+     * @param column      the column.
+     * @param destination the array to decode to, at least {@link #getCount()} long.
+     *
+     * @return the number of codes decoded.
+     *
+     * @throws IOException if the column can't be read.
+     */
+    public int readCodes(Column column, int[] destination) throws IOException
+    {
+        if (column.isValue() || (column == Column.TIMESTAMP))
+        {
+            throw new IllegalArgumentException(column + " is not a code column.");
+        }
+
+        checkLength(destination.length);
+        Columns.RunDecoder decoder = new Columns.RunDecoder(readColumn(column), 0);
+
+        for (int i = 0; i < count; i ++)
+        {
+            destination[i] = decoder.next();
+        }
+
+        return count;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Closes the segment file.
+     *
+     * @throws IOException if closing fails.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (channel != null)
+        {
+            channel.close();
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the bytes of a column, from index 0. Only the column's range of a file is read.
+     */
+    private ByteBuffer readColumn(Column column) throws IOException
+    {
+        int offset = offsets[column.ordinal()];
+
+        if (offset < 0)
+        {
+            throw new IllegalStateException("Segment has no " + column + " column.");
+        }
+
+        if (channel != null)
+        {
+            return read(offset, lengths[column.ordinal()]);
+        }
+
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(offset + lengths[column.ordinal()]);
+        slice.position(offset);
+
+        return slice.slice();
+    }
+
+    //-----------------------------------------------------------------------
+    private ByteBuffer read(long position, int length) throws IOException
+    {
+        ByteBuffer destination = ByteBuffer.allocate(length);
+
+        while (destination.hasRemaining())
+        {
+            if (channel.read(destination, position + destination.position()) < 0)
+            {
+                throw new EOFException("Segment file is truncated.");
+            }
+        }
+
+        destination.flip();
+
+        return destination;
+    }
+
+    //-----------------------------------------------------------------------
+    private void checkLength(int length)
+    {
+        if (length < count)
+        {
+            throw new IllegalArgumentException("Destination is shorter than the " + count + " readings.");
+        }
+    }
+
+}
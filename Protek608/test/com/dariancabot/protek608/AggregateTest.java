@@ -0,0 +1,164 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class AggregateTest
+{
+
+    public AggregateTest()
+    {
+    }
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+    @Before
+    public void setUp()
+    {
+    }
+
+    @After
+    public void tearDown()
+    {
+    }
+
+    @Test
+    public void testAdd()
+    {
+        Aggregate aggregate = new Aggregate();
+
+        assertThat(aggregate.getCount(), equalTo(0L));
+        assertThat(Double.isNaN(aggregate.getMinimum()), equalTo(true));
+        assertThat(Double.isNaN(aggregate.getMean()), equalTo(true));
+
+        aggregate.add(2.0);
+        aggregate.add(-1.0);
+        aggregate.add(5.0);
+
+        assertThat(aggregate.getCount(), equalTo(3L));
+        assertThat(aggregate.getMinimum(), equalTo(-1.0));
+        assertThat(aggregate.getMaximum(), equalTo(5.0));
+        assertThat(aggregate.getSum(), equalTo(6.0));
+        assertThat(aggregate.getMean(), equalTo(2.0));
+
+        aggregate.reset();
+
+        assertThat(aggregate.getCount(), equalTo(0L));
+        assertThat(Double.isNaN(aggregate.getMaximum()), equalTo(true));
+    }
+
+    @Test
+    public void testMerge()
+    {
+        Aggregate all = new Aggregate();
+        Aggregate first = new Aggregate();
+        Aggregate second = new Aggregate();
+
+        for (int i = 0; i < 100; i ++)
+        {
+            double value = Math.sin(i);
+            all.add(value);
+            ((i < 30) ? first : second).add(value);
+        }
+
+        Aggregate merged = new Aggregate();
+        merged.add(new Aggregate()); // Merging nothing changes nothing.
+        merged.add(first);
+        merged.add(second);
+
+        assertThat(merged.getCount(), equalTo(all.getCount()));
+        assertThat(merged.getMinimum(), equalTo(all.getMinimum()));
+        assertThat(merged.getMaximum(), equalTo(all.getMaximum()));
+        assertThat(merged.getMean(), closeTo(all.getMean(), 1e-12));
+        assertThat(merged.getVariance(), closeTo(all.getVariance(), 1e-12));
+    }
+
+    @Test
+    public void testVariance()
+    {
+        Aggregate aggregate = new Aggregate();
+
+        // A large offset loses precision with a sum of squares, but not with Welford's algorithm.
+        for (double value : new double[]
+        {
+            1e9 + 4, 1e9 + 7, 1e9 + 13, 1e9 + 16
+        })
+        {
+            aggregate.add(value);
+        }
+
+        assertThat(aggregate.getMean(), equalTo(1e9 + 10));
+        assertThat(aggregate.getVariance(), closeTo(22.5, 1e-6));
+        assertThat(aggregate.getStandardDeviation(), closeTo(Math.sqrt(22.5), 1e-6));
+    }
+
+    @Test
+    public void testWriteRead() throws IOException
+    {
+        Aggregate aggregate = new Aggregate();
+        aggregate.add(1.5);
+        aggregate.add(-2.5);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        aggregate.write(new DataOutputStream(bytes));
+
+        assertThat(bytes.size(), equalTo(Aggregate.BYTES));
+
+        Aggregate read = new Aggregate();
+        read.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertThat(read.getCount(), equalTo(2L));
+        assertThat(read.getMinimum(), equalTo(-2.5));
+        assertThat(read.getMaximum(), equalTo(1.5));
+        assertThat(read.getMean(), equalTo(-0.5));
+        assertThat(read.getVariance(), equalTo(aggregate.getVariance()));
+    }
+
+}
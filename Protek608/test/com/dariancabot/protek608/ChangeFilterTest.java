@@ -0,0 +1,223 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608;
+
+import static org.hamcrest.Matchers.*;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class ChangeFilterTest
+{
+    /**
+     * Valid packet: main " 0.0015" V DC, sub "  10.50" MΩ.
+     */
+    private static final byte[] PACKET_A =
+    {
+        0x5b, 0x0d, 0x0f, 0x05, 0x00, 0x00, 0x00, 0x00, 0x00, 0x01, 0x02, 0x08, 0x0f, 0x0d, 0x0f,
+        0x05, 0x0f, 0x05, 0x00, 0x0c, 0x00, 0x00, 0x00, 0x00, 0x05, 0x0b, 0x06, 0x00, 0x00, 0x02,
+        0x00, 0x00, 0x00, 0x00, 0x08, 0x04, 0x00, 0x05, 0x0f, 0x06, 0x0b, 0x00, 0x5d
+    };
+
+    /**
+     * Valid packet: main "  5hrt", sub " 00.001" kΩ.
+     */
+    private static final byte[] PACKET_B =
+    {
+        0x5b, 0x05, 0x0f, 0x0d, 0x0f, 0x05, 0x0f, 0x02, 0x01, 0x00, 0x00, 0x00, 0x00, 0x00, 0x0b,
+        0x06, 0x06, 0x06, 0x00, 0x08, 0x00, 0x00, 0x00, 0x04, 0x02, 0x0e, 0x02, 0x00, 0x00, 0x00,
+        0x00, 0x00, 0x00, 0x00, 0x00, 0x0c, 0x00, 0x05, 0x00, 0x05, 0x0f, 0x02, 0x5d
+    };
+
+    private Data data;
+    private Reading previous;
+    private long timestamp;
+
+    public ChangeFilterTest()
+    {
+    }
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+    @Before
+    public void setUp()
+    {
+        data = new Data();
+        data.mainValue.unit.setMeasurement(Data.Value.Unit.Measurement.VOLT);
+        previous = null;
+        timestamp = 1000;
+    }
+
+    @After
+    public void tearDown()
+    {
+    }
+
+    /**
+     * Publishes a new main value, like the Decoder does, and checks it against the filter.
+     */
+    private boolean accept(ReadingFilter filter, String mainValue)
+    {
+        data.mainValue.setValue(mainValue);
+        data.mainValue.update(timestamp);
+
+        Reading reading = data.publish(timestamp ++);
+        int changes = reading.getChanges(previous);
+        previous = reading;
+
+        return filter.accept(reading, changes);
+    }
+
+    /**
+     * Test of absolute and percentage deadbands.
+     */
+    @Test
+    public void testDeadband()
+    {
+        ChangeFilter filter = new ChangeFilter();
+        filter.setDeadband(Reading.Channel.MAIN, 0.1, 0);
+
+        assertThat(accept(filter, "1.00"), equalTo(true)); // First is always accepted.
+        assertThat(accept(filter, "1.05"), equalTo(false));
+        assertThat(accept(filter, "1.09"), equalTo(false)); // Measured from the last accepted, not the last seen.
+        assertThat(accept(filter, "1.11"), equalTo(true));
+        assertThat(accept(filter, "1.05"), equalTo(false));
+        assertThat(accept(filter, "OPEn"), equalTo(true)); // Numerical to non-numerical.
+        assertThat(accept(filter, "OPEn"), equalTo(false));
+        assertThat(accept(filter, "1.05"), equalTo(true));
+
+        // Percentage is of the last accepted value, in SI units.
+        filter.setDeadband(Reading.Channel.MAIN, 0, 10);
+        data.mainValue.unit.setPrefix(Data.Value.Unit.Prefix.MILLI);
+
+        filter.reset();
+        assertThat(accept(filter, "200"), equalTo(true));
+        assertThat(accept(filter, "215"), equalTo(false));
+        assertThat(accept(filter, "179"), equalTo(true));
+    }
+
+    /**
+     * Test of hysteresis thresholds.
+     */
+    @Test
+    public void testHysteresis()
+    {
+        ChangeFilter filter = new ChangeFilter();
+        filter.setHysteresis(Reading.Channel.MAIN, 1.0, 2.0);
+
+        assertThat(accept(filter, "1.5"), equalTo(true));
+        assertThat(accept(filter, "2.5"), equalTo(false)); // First threshold sets the state only.
+        assertThat(accept(filter, "1.5"), equalTo(false));
+        assertThat(accept(filter, "2.0"), equalTo(false)); // Still high.
+        assertThat(accept(filter, "0.9"), equalTo(true));
+        assertThat(accept(filter, "1.9"), equalTo(false));
+        assertThat(accept(filter, "0.5"), equalTo(false));
+        assertThat(accept(filter, "2.1"), equalTo(true));
+    }
+
+    /**
+     * Test of unit changes and annunciator edges.
+     */
+    @Test
+    public void testUnitAndAnnunciators()
+    {
+        ChangeFilter filter = new ChangeFilter();
+        filter.setUnitChange(true);
+        filter.setAnnunciatorEdges(Reading.Annunciator.LOW_BATTERY, Reading.Annunciator.GO_NG);
+
+        data.annunciators.goNg = true;
+
+        assertThat(accept(filter, "1.00"), equalTo(true));
+        assertThat(accept(filter, "2.00"), equalTo(false));
+
+        data.mainValue.unit.setPrefix(Data.Value.Unit.Prefix.MILLI);
+        assertThat(accept(filter, "2.00"), equalTo(true));
+        assertThat(accept(filter, "3.00"), equalTo(false));
+
+        data.annunciators.lowBattery = true;
+        assertThat(accept(filter, "3.00"), equalTo(true)); // Rising edge.
+        assertThat(accept(filter, "3.00"), equalTo(false));
+
+        data.annunciators.lowBattery = false;
+        assertThat(accept(filter, "3.00"), equalTo(false)); // Falling edge not selected.
+
+        data.annunciators.goNg = false;
+        assertThat(accept(filter, "3.00"), equalTo(true)); // Falling edge.
+    }
+
+    /**
+     * Test of a filtered listener registered with the Decoder.
+     */
+    @Test
+    public void testFilteredListener()
+    {
+        final int[] events = new int[1];
+        final int[] lastChanges = new int[1];
+
+        Decoder decoder = new Decoder(data);
+        decoder.addReadingListener(new ReadingListener()
+        {
+            @Override
+            public void readingEvent(Reading reading, int changes)
+            {
+                events[0] ++;
+                lastChanges[0] = changes;
+            }
+
+        }, new ReadingFilter()
+        {
+            @Override
+            public boolean accept(Reading reading, int changes)
+            {
+                return (changes & Reading.Change.MAIN_VALUE) != 0;
+            }
+
+        });
+
+        decoder.decodeSerialData(PACKET_A);
+        decoder.decodeSerialData(PACKET_A);
+        decoder.decodeSerialData(PACKET_B);
+
+        assertThat(events[0], equalTo(2));
+        assertThat(lastChanges[0] & Reading.Change.MAIN_VALUE, equalTo(Reading.Change.MAIN_VALUE));
+    }
+
+}
@@ -0,0 +1,179 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class ConflatingReadingListenerTest
+{
+    /**
+     * Valid packet: main " 0.0015" V DC, sub "  10.50" MΩ.
+     */
+    private static final byte[] PACKET_A =
+    {
+        0x5b, 0x0d, 0x0f, 0x05, 0x00, 0x00, 0x00, 0x00, 0x00, 0x01, 0x02, 0x08, 0x0f, 0x0d, 0x0f,
+        0x05, 0x0f, 0x05, 0x00, 0x0c, 0x00, 0x00, 0x00, 0x00, 0x05, 0x0b, 0x06, 0x00, 0x00, 0x02,
+        0x00, 0x00, 0x00, 0x00, 0x08, 0x04, 0x00, 0x05, 0x0f, 0x06, 0x0b, 0x00, 0x5d
+    };
+
+    /**
+     * Valid packet: main "  5hrt", sub " 00.001" kΩ.
+     */
+    private static final byte[] PACKET_B =
+    {
+        0x5b, 0x05, 0x0f, 0x0d, 0x0f, 0x05, 0x0f, 0x02, 0x01, 0x00, 0x00, 0x00, 0x00, 0x00, 0x0b,
+        0x06, 0x06, 0x06, 0x00, 0x08, 0x00, 0x00, 0x00, 0x04, 0x02, 0x0e, 0x02, 0x00, 0x00, 0x00,
+        0x00, 0x00, 0x00, 0x00, 0x00, 0x0c, 0x00, 0x05, 0x00, 0x05, 0x0f, 0x02, 0x5d
+    };
+
+    /**
+     * Queues tasks until they are run by the test.
+     */
+    private static class QueueExecutor implements Executor
+    {
+        private final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command)
+        {
+            tasks.add(command);
+        }
+
+        void runAll()
+        {
+            while ( ! tasks.isEmpty())
+            {
+                tasks.remove(0).run();
+            }
+        }
+
+    }
+
+    public ConflatingReadingListenerTest()
+    {
+    }
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+    @Before
+    public void setUp()
+    {
+    }
+
+    @After
+    public void tearDown()
+    {
+    }
+
+    @Test
+    public void testExecutorDelivery()
+    {
+        Decoder decoder = new Decoder(new Data());
+        QueueExecutor executor = new QueueExecutor();
+
+        final List<Reading> readings = new ArrayList<>();
+        final List<Integer> changes = new ArrayList<>();
+
+        ConflatingReadingListener conflating = new ConflatingReadingListener(new ReadingListener()
+        {
+            @Override
+            public void readingEvent(Reading reading, int change)
+            {
+                readings.add(reading);
+                changes.add(change);
+            }
+
+        }, executor);
+
+        decoder.addReadingListener(conflating);
+
+        decoder.decodeSerialData(PACKET_A);
+        decoder.decodeSerialData(PACKET_B);
+        decoder.decodeSerialData(PACKET_A);
+
+        // Scheduled once, and only the latest is delivered.
+        assertThat(executor.tasks.size(), equalTo(1));
+        executor.runAll();
+
+        assertThat(readings.size(), equalTo(1));
+        assertThat(readings.get(0).getSequence(), equalTo(3L));
+        assertThat(changes.get(0), equalTo(Reading.Change.ALL));
+        assertThat(conflating.getConflated(), equalTo(2L));
+
+        // Changes include those of conflated Readings.
+        decoder.decodeSerialData(PACKET_B);
+        decoder.decodeSerialData(PACKET_A);
+        executor.runAll();
+
+        assertThat(readings.size(), equalTo(2));
+        assertThat(changes.get(1), equalTo(0));
+
+        decoder.decodeSerialData(PACKET_B);
+        executor.runAll();
+
+        assertThat(readings.size(), equalTo(3));
+        assertThat(changes.get(2) & Reading.Change.MAIN_VALUE, equalTo(Reading.Change.MAIN_VALUE));
+    }
+
+    @Test
+    public void testPoll()
+    {
+        Decoder decoder = new Decoder(new Data());
+        ConflatingReadingListener conflating = new ConflatingReadingListener();
+        decoder.addReadingListener(conflating);
+
+        assertThat(conflating.poll(), nullValue());
+
+        decoder.decodeSerialData(PACKET_A);
+        decoder.decodeSerialData(PACKET_B);
+
+        assertThat(conflating.poll().getSequence(), equalTo(2L));
+        assertThat(conflating.poll(), nullValue());
+        assertThat(conflating.getConflated(), equalTo(1L));
+    }
+
+}
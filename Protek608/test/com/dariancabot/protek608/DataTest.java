@@ -23,6 +23,15 @@
  */
 package com.dariancabot.protek608;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
 import static org.hamcrest.Matchers.*;
 
 import org.junit.After;
@@ -175,4 +184,273 @@ public class DataTest
 
     }
 
+    @Test
+    public void testStatisticsMerge()
+    {
+        Data all = new Data();
+        Data first = new Data();
+        Data second = new Data();
+        all.mainValue.statistics.setEnabled(true);
+        first.mainValue.statistics.setEnabled(true);
+        second.mainValue.statistics.setEnabled(true);
+
+        for (int i = 1; i <= 1000; i ++)
+        {
+            all.mainValue.setValue(String.valueOf(i));
+            ((i <= 300) ? first : second).mainValue.setValue(String.valueOf(i));
+        }
+
+        first.mainValue.statistics.merge(second.mainValue.statistics);
+
+        Data.Value.Statistics merged = first.mainValue.statistics;
+
+        assertThat(merged.getSamples(), equalTo(1000L));
+        assertThat(merged.getMinimum(), equalTo(1d));
+        assertThat(merged.getMaximum(), equalTo(1000d));
+        assertThat(merged.getAverageValue(), closeTo(500.5, 1e-9));
+        assertThat(merged.getStandardDeviationValue(), closeTo(all.mainValue.statistics.getStandardDeviationValue(), 1e-9));
+        assertThat(merged.getQuantile(0.5), closeTo(500, 500 * 0.02));
+        assertThat(merged.getQuantile(0.9), closeTo(900, 900 * 0.02));
+    }
+
+    @Test
+    public void testStatisticsCheckpoint() throws IOException
+    {
+        File file = File.createTempFile("protek608", ".stats");
+        file.delete();
+
+        try
+        {
+            Data data = new Data();
+            data.mainValue.statistics.setEnabled(true);
+            data.mainValue.statistics.setCheckpoint(file, 0); // Every update.
+
+            for (int i = 1; i <= 100; i ++)
+            {
+                data.mainValue.setValue(String.valueOf(i));
+            }
+
+            data.mainValue.statistics.checkpoint();
+
+            // A new session carries on from the checkpoint.
+            Data restarted = new Data();
+
+            assertThat(restarted.mainValue.statistics.restore(new File(file.getPath() + ".missing")), equalTo(false));
+            assertThat(restarted.mainValue.statistics.restore(file), equalTo(true));
+
+            restarted.mainValue.statistics.setEnabled(true);
+            restarted.mainValue.setValue("101");
+
+            assertThat(restarted.mainValue.statistics.getSamples(), equalTo(101L));
+            assertThat(restarted.mainValue.statistics.getMaximum(), equalTo(101d));
+            assertThat(restarted.mainValue.statistics.getAverageValue(), closeTo(51, 1e-9));
+            assertThat(restarted.mainValue.statistics.getDurationStartMillis(),
+                    equalTo(data.mainValue.statistics.getDurationStartMillis()));
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testStatisticsMergedDuration() throws IOException
+    {
+        // An hour long session, that ended ten days ago.
+        Data earlier = new Data();
+        earlier.mainValue.statistics.setEnabled(true);
+        earlier.mainValue.setValue("1");
+        earlier.mainValue.setValue("2");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        earlier.mainValue.statistics.write(new DataOutputStream(bytes));
+
+        ByteBuffer stored = ByteBuffer.wrap(bytes.toByteArray());
+        stored.putLong(0, System.currentTimeMillis() - TimeUnit.DAYS.toMillis(10)); // Duration start.
+        stored.putLong(8, 3600); // Duration in seconds.
+
+        // Restored, the duration carries on without the ten days between.
+        Data restored = new Data();
+        restored.mainValue.statistics.read(new DataInputStream(new ByteArrayInputStream(stored.array())));
+        restored.mainValue.statistics.setEnabled(true);
+        restored.mainValue.setValue("3");
+        restored.mainValue.setValue("4");
+
+        assertThat(restored.mainValue.statistics.getSamples(), equalTo(4L));
+        assertThat(restored.mainValue.statistics.getDuration(), allOf(greaterThanOrEqualTo(3600L), lessThanOrEqualTo(3601L)));
+
+        // Merged into a running session, the hour is kept by the next update.
+        Data current = new Data();
+        current.mainValue.statistics.setEnabled(true);
+        current.mainValue.setValue("5");
+        current.mainValue.setValue("6");
+        current.mainValue.statistics.merge(restored.mainValue.statistics);
+        current.mainValue.setValue("7");
+
+        assertThat(current.mainValue.statistics.getSamples(), equalTo(7L));
+        assertThat(current.mainValue.statistics.getDuration(), allOf(greaterThanOrEqualTo(3600L), lessThanOrEqualTo(3601L)));
+        assertThat(current.mainValue.statistics.getDurationStartMillis(), equalTo(stored.getLong(0)));
+    }
+
+    @Test
+    public void testStatisticsCheckpointFailure() throws IOException
+    {
+        File directory = Files.createTempDirectory("protek608").toFile();
+        File file = new File(new File(directory, "missing"), "main.stats");
+
+        try
+        {
+            Data data = new Data();
+            data.mainValue.statistics.setEnabled(true);
+            data.mainValue.statistics.setCheckpoint(file, 0);
+
+            // A failing periodic checkpoint never throws on the decoder thread.
+            for (int i = 1; i <= 100; i ++)
+            {
+                data.mainValue.setValue(String.valueOf(i));
+            }
+
+            assertThat(data.mainValue.statistics.getSamples(), equalTo(100L));
+
+            try
+            {
+                data.mainValue.statistics.checkpoint();
+                fail("Checkpoint written to a missing directory.");
+            }
+            catch (IOException e)
+            {
+                // Expected.
+            }
+        }
+        finally
+        {
+            directory.delete();
+        }
+    }
+
+    @Test
+    public void testHistory()
+    {
+        Data data = new Data();
+
+        // History is disabled by default.
+        data.mainValue.setValue("1.5");
+        data.mainValue.update(1000L);
+        assertThat(data.mainValue.history.size(), equalTo(0));
+
+        for (boolean offHeap : new boolean[]
+        {
+            false, true
+        })
+        {
+            data.mainValue.history.setCapacity(4, offHeap);
+            assertThat(data.mainValue.history.isOffHeap(), equalTo(offHeap));
+
+            data.mainValue.unit.setPrefix(Data.Value.Unit.Prefix.MILLI);
+
+            // Loop in more values than the capacity, the oldest should be overwritten...
+            for (int i = 1; i <= 6; i ++)
+            {
+                data.mainValue.setValue(String.valueOf(i));
+                data.mainValue.update(1000L * i);
+            }
+
+            // Non-numerical values are not recorded.
+            data.mainValue.setValue("OPEn");
+            data.mainValue.update(7000L);
+
+            assertThat(data.mainValue.history.size(), equalTo(4));
+            assertThat(data.mainValue.history.getCount(), equalTo(6L));
+            assertThat(data.mainValue.history.getTimestamp(0), equalTo(3000L));
+            assertEquals(0.003, data.mainValue.history.getValue(0), 0.0000001);
+            assertThat(data.mainValue.history.getTimestamp(3), equalTo(6000L));
+            assertEquals(0.006, data.mainValue.history.getValue(3), 0.0000001);
+
+            // Copy out the two most recent entries.
+            long[] timestamps = new long[3];
+            double[] values = new double[3];
+            assertThat(data.mainValue.history.copyTo(timestamps, values, 1, 2), equalTo(2));
+            assertThat(timestamps[1], equalTo(5000L));
+            assertThat(timestamps[2], equalTo(6000L));
+            assertEquals(0.005, values[1], 0.0000001);
+
+            // Visit all entries.
+            final long[] visited = new long[1];
+            data.mainValue.history.forEach(new Data.Value.History.Visitor()
+            {
+                @Override
+                public void visit(long timestamp, double value)
+                {
+                    visited[0] += timestamp;
+                }
+
+            });
+            assertThat(visited[0], equalTo(18000L));
+
+            data.mainValue.history.clear();
+            assertThat(data.mainValue.history.size(), equalTo(0));
+        }
+    }
+
+    @Test
+    public void testPrimitiveAccessors()
+    {
+        Data data = new Data();
+
+        // Nothing set yet...
+        assertThat(data.mainValue.isNumeric(), equalTo(false));
+        assertThat(Double.isNaN(data.mainValue.getNumericValue()), equalTo(true));
+        assertThat(Double.isNaN(data.mainValue.statistics.getMinimumValue()), equalTo(true));
+        assertThat(Double.isNaN(data.mainValue.statistics.getAverageValue()), equalTo(true));
+        assertThat(data.getBarGraphValue(), equalTo(-1));
+        assertThat(data.isBarGraphDisplayed(), equalTo(false));
+
+        // Numerical value, scaled by the unit prefix.
+        data.mainValue.unit.setPrefix(Data.Value.Unit.Prefix.MILLI);
+        data.mainValue.setValue(" -12.50");
+        assertThat(data.mainValue.isNumeric(), equalTo(true));
+        assertThat(data.mainValue.getNumericValue(), equalTo( - 12.5));
+        assertEquals( - 0.0125, data.mainValue.getSiValue(), 0.0000001);
+
+        // The SI value follows the unit decoded for the packet.
+        data.mainValue.unit.setPrefix(Data.Value.Unit.Prefix.KILO);
+        data.mainValue.update(1000L);
+        assertEquals( - 12500, data.mainValue.getSiValue(), 0.0000001);
+
+        // Values that aren't plain numbers...
+        for (String value : new String[]
+        {
+            "OPEn", "-", "1.", ".5", "1.2.3", "--1", "1-", ""
+        })
+        {
+            data.mainValue.setValue(value);
+            assertThat(value, data.mainValue.isNumeric(), equalTo(false));
+            assertThat(value, data.mainValue.getValueDouble(), equalTo(null));
+            assertThat(value, Double.isNaN(data.mainValue.getSiValue()), equalTo(true));
+        }
+
+        // Statistics...
+        data.mainValue.statistics.setEnabled(true);
+        data.mainValue.setValue("2");
+        data.mainValue.setValue("4");
+        assertThat(data.mainValue.statistics.getMinimumValue(), equalTo(2d));
+        assertThat(data.mainValue.statistics.getMaximumValue(), equalTo(4d));
+        assertThat(data.mainValue.statistics.getAverageValue(), equalTo(3d));
+        assertThat(data.mainValue.statistics.getDurationStart().getTime(), equalTo(data.mainValue.statistics.getDurationStartMillis()));
+
+        // Bar graph...
+        data.setBarGraph(1234);
+        assertThat(data.getBarGraphValue(), equalTo(1234));
+        assertThat(data.barGraph, equalTo(1234));
+        assertThat(data.isBarGraphDisplayed(), equalTo(true));
+
+        Integer boxed = data.barGraph;
+        data.setBarGraph(1234);
+        assertThat(data.barGraph, sameInstance(boxed));
+
+        data.setBarGraph( - 1);
+        assertThat(data.barGraph, equalTo(null));
+        assertThat(data.isBarGraphDisplayed(), equalTo(false));
+    }
+
 }
@@ -0,0 +1,179 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608;
+
+import static org.hamcrest.Matchers.*;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class DecimatorTest
+{
+
+    public DecimatorTest()
+    {
+    }
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+    @Before
+    public void setUp()
+    {
+    }
+
+    @After
+    public void tearDown()
+    {
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Feeds a slow ramp with a single spike, sampled at 2 Hz.
+     */
+    private Decimator createDecimator()
+    {
+        Decimator decimator = new Decimator(6, 4, 64);
+
+        for (int i = 0; i < 10000; i ++)
+        {
+            double value = (i == 5000) ? 100d : (i % 100) / 100d;
+            decimator.update(i * 500L, value);
+        }
+
+        return decimator;
+    }
+
+    @Test
+    public void testMinMax()
+    {
+        Decimator decimator = createDecimator();
+
+        long[] timestamps = new long[100];
+        double[] minimums = new double[100];
+        double[] maximums = new double[100];
+
+        int count = decimator.getMinMax(0, 10000 * 500L, 100, timestamps, minimums, maximums);
+
+        assertThat(count, greaterThan(0));
+        assertThat(count, lessThanOrEqualTo(100));
+
+        // The spike must survive decimation.
+        double maximum = 0;
+        double minimum = Double.MAX_VALUE;
+
+        for (int i = 0; i < count; i ++)
+        {
+            maximum = Math.max(maximum, maximums[i]);
+            minimum = Math.min(minimum, minimums[i]);
+
+            if (i > 0)
+            {
+                assertThat(timestamps[i], greaterThan(timestamps[i - 1]));
+            }
+        }
+
+        assertThat(maximum, equalTo(100d));
+        assertThat(minimum, equalTo(0d));
+    }
+
+    @Test
+    public void testMinMaxRaw()
+    {
+        Decimator decimator = createDecimator();
+
+        long[] timestamps = new long[100];
+        double[] minimums = new double[100];
+        double[] maximums = new double[100];
+
+        // A short, recent range fits in the raw samples.
+        int count = decimator.getMinMax(9990 * 500L, 9999 * 500L, 100, timestamps, minimums, maximums);
+
+        assertThat(count, equalTo(10));
+        assertThat(timestamps[0], equalTo(9990 * 500L));
+        assertThat(minimums[9], equalTo(0.99));
+        assertThat(maximums[9], equalTo(0.99));
+    }
+
+    @Test
+    public void testLttb()
+    {
+        Decimator decimator = createDecimator();
+
+        long[] timestamps = new long[200];
+        double[] values = new double[200];
+
+        int count = decimator.getLttb(0, 10000 * 500L, 200, timestamps, values);
+
+        assertThat(count, greaterThan(1));
+        assertThat(count, lessThanOrEqualTo(200));
+
+        // End points are kept and points are real samples in time order.
+        assertThat(timestamps[count - 1], equalTo(9999 * 500L));
+        assertThat(values[count - 1], equalTo(0.99));
+
+        for (int i = 1; i < count; i ++)
+        {
+            assertThat(timestamps[i], greaterThan(timestamps[i - 1]));
+        }
+
+        decimator.clear();
+        assertThat(decimator.getLttb(0, 10000 * 500L, 200, timestamps, values), equalTo(0));
+    }
+
+    @Test
+    public void testValueDecimator()
+    {
+        Data data = new Data();
+        Decimator decimator = new Decimator(3, 2, 8);
+        data.mainValue.setDecimator(decimator);
+        data.mainValue.unit.setPrefix(Data.Value.Unit.Prefix.KILO);
+
+        data.mainValue.setValue("1.5");
+        data.mainValue.update(1000L);
+
+        long[] timestamps = new long[4];
+        double[] values = new double[4];
+
+        assertThat(decimator.getLttb(0, 2000L, 4, timestamps, values), equalTo(1));
+        assertThat(values[0], equalTo(1500d));
+    }
+
+}
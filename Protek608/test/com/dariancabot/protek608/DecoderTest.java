@@ -644,4 +644,64 @@ public class DecoderTest
         assertThat("store flag", data.annunciators.store, equalTo(false));
     }
 
+    //-----------------------------------------------------------------------
+    /**
+     * Test of the Reading snapshot published by decodeSerialData.
+     *
+     * Each packet should publish a new, consistent, immutable Reading with the next sequence number.
+     */
+    @Test
+    public void testReadingSnapshot()
+    {
+        Data data = new Data();
+        Decoder decoder = new Decoder(data);
+
+        byte[] buffer =
+        {
+            0x5b, 0x0d, 0x0f, 0x05, 0x00, 0x00, 0x00, 0x00, 0x00, 0x01, 0x02, 0x08, 0x0f, 0x0d, 0x0f,
+            0x05, 0x0f, 0x05, 0x00, 0x0c, 0x00, 0x00, 0x00, 0x00, 0x05, 0x0b, 0x06, 0x00, 0x00, 0x02,
+            0x00, 0x00, 0x00, 0x00, 0x08, 0x04, 0x00, 0x05, 0x0f, 0x06, 0x0b, 0x00, 0x5d
+        };
+
+        assertThat(data.getReading(), equalTo(null));
+        assertThat(data.getSequence(), equalTo(0L));
+
+        decoder.decodeSerialData(buffer);
+
+        Reading reading = data.getReading();
+        assertThat(data.getSequence(), equalTo(1L));
+        assertThat(reading.getSequence(), equalTo(1L));
+
+        assertThat(reading.getMainValue().getValue(), equalTo("0.0015"));
+        assertThat(reading.getMainValue().getNumericValue(), equalTo(0.0015));
+        assertThat(reading.getMainValue().getMeasurement(), equalTo(Data.Value.Unit.Measurement.VOLT));
+        assertThat(reading.getMainValue().getType(), equalTo(Data.Value.Unit.Type.DC));
+
+        assertThat(reading.getValue(Reading.Channel.SUB).getValue(), equalTo("10.50"));
+        assertEquals(10500000d, reading.getSubValue().getSiValue(), 0.001);
+        assertThat(reading.getSubValue().getPrefix(), equalTo(Data.Value.Unit.Prefix.MEGA));
+
+        assertThat(reading.getBarGraph(), equalTo(4));
+        assertThat(reading.getAnnunciators(), equalTo(Reading.Annunciator.AUTO_OFF | Reading.Annunciator.RS232C));
+        assertThat(reading.isAnnunciator(Reading.Annunciator.RS232C), equalTo(true));
+        assertThat(reading.isAnnunciator(Reading.Annunciator.HOLD), equalTo(false));
+
+        byte[] packetRaw = new byte[43];
+        assertThat(reading.copyPacketRaw(packetRaw), equalTo(43));
+        assertThat(packetRaw, equalTo(buffer));
+
+        // Changing the buffer must not change the published snapshot.
+        buffer[1] = 0x00;
+        reading.copyPacketRaw(packetRaw);
+        assertThat(packetRaw[1], equalTo((byte) 0x0d));
+
+        // The next packet publishes a new Reading.
+        buffer[1] = 0x0d;
+        decoder.decodeSerialData(buffer);
+
+        assertThat(data.getSequence(), equalTo(2L));
+        assertThat(data.getReading(), not(sameInstance(reading)));
+        assertThat(reading.getSequence(), equalTo(1L));
+    }
+
 }
@@ -0,0 +1,155 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608;
+
+import static org.hamcrest.Matchers.*;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class FilterPipelineTest
+{
+
+    public FilterPipelineTest()
+    {
+    }
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+    @Before
+    public void setUp()
+    {
+    }
+
+    @After
+    public void tearDown()
+    {
+    }
+
+    /**
+     * Runs values through a single stage, 100 ms apart.
+     */
+    private static double[] run(FilterPipeline.Stage stage, double... values)
+    {
+        FilterPipeline pipeline = new FilterPipeline(Reading.Channel.MAIN, stage);
+        double[] outputs = new double[values.length];
+
+        for (int i = 0; i < values.length; i ++)
+        {
+            outputs[i] = pipeline.process(i * 100, values[i]);
+        }
+
+        return outputs;
+    }
+
+    @Test
+    public void testStages()
+    {
+        // Spikes are removed, even windows average the middle two.
+        assertThat(run(new FilterPipeline.MovingMedian(3), 1, 3, 2, 100, 2, 2, 1),
+                equalTo(new double[]{1, 2, 2, 3, 2, 2, 2}));
+
+        assertThat(run(new FilterPipeline.Ema(0.5), 2, 4, 4, 0),
+                equalTo(new double[]{2, 3, 3.5, 1.75}));
+
+        assertThat(run(new FilterPipeline.RateOfChange(), 1, 1.5, 1.5, 1.0),
+                equalTo(new double[]{0, 5, 0, -5}));
+
+        assertThat(run(new FilterPipeline.Clamp(0, 10), -1, 5, 11),
+                equalTo(new double[]{0, 5, 10}));
+
+        assertThat(run(new FilterPipeline.ScaleOffset(1000, -5), 0.001, 0.002),
+                equalTo(new double[]{-4, -3}));
+
+        // Changes only once held for 3 values, glitches are ignored.
+        assertThat(run(new FilterPipeline.Debounce(3, 0.1), 1, 5, 1, 5, 5, 5.05, 5),
+                equalTo(new double[]{1, 1, 1, 1, 1, 5, 5}));
+    }
+
+    @Test
+    public void testReadings()
+    {
+        Data data = new Data();
+        data.mainValue.unit.setMeasurement(Data.Value.Unit.Measurement.VOLT);
+        data.mainValue.unit.setPrefix(Data.Value.Unit.Prefix.MILLI);
+
+        final double[] derived = new double[1];
+        final int[] events = new int[1];
+
+        FilterPipeline pipeline = new FilterPipeline(Reading.Channel.MAIN,
+                new FilterPipeline.Ema(0.5),
+                new FilterPipeline.ScaleOffset(1000, 0));
+
+        pipeline.setListener(new FilterPipeline.Listener()
+        {
+            @Override
+            public void derivedEvent(Reading reading, double value)
+            {
+                derived[0] = value;
+                events[0] ++;
+            }
+
+        });
+
+        String[] values = {"10.0", "20.0", "OPEn", "30.0", "40.0"};
+        Reading previous = null;
+
+        for (int i = 0; i < values.length; i ++)
+        {
+            data.mainValue.setValue(values[i]);
+            data.mainValue.update(i);
+            Reading reading = data.publish(i);
+            pipeline.readingEvent(reading, reading.getChanges(previous));
+            previous = reading;
+
+            if (i == 1)
+            {
+                assertThat(derived[0], closeTo(15, 1e-9)); // SI values, scaled back to millivolts.
+            }
+        }
+
+        // The non-numerical reading was skipped, and restarted the average.
+        assertThat(events[0], equalTo(4));
+        assertThat(derived[0], closeTo(35, 1e-9));
+        assertThat(pipeline.getOutput(), closeTo(35, 1e-9));
+    }
+
+}
@@ -0,0 +1,311 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import jssc.SerialPort;
+import jssc.SerialPortException;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class MeterManagerTest
+{
+    /**
+     * Valid packet: main " 0.0015" V DC, sub "  10.50" MΩ.
+     */
+    private static final byte[] PACKET_A =
+    {
+        0x5b, 0x0d, 0x0f, 0x05, 0x00, 0x00, 0x00, 0x00, 0x00, 0x01, 0x02, 0x08, 0x0f, 0x0d, 0x0f,
+        0x05, 0x0f, 0x05, 0x00, 0x0c, 0x00, 0x00, 0x00, 0x00, 0x05, 0x0b, 0x06, 0x00, 0x00, 0x02,
+        0x00, 0x00, 0x00, 0x00, 0x08, 0x04, 0x00, 0x05, 0x0f, 0x06, 0x0b, 0x00, 0x5d
+    };
+
+    /**
+     * Valid packet: main "  5hrt", sub " 00.001" kΩ.
+     */
+    private static final byte[] PACKET_B =
+    {
+        0x5b, 0x05, 0x0f, 0x0d, 0x0f, 0x05, 0x0f, 0x02, 0x01, 0x00, 0x00, 0x00, 0x00, 0x00, 0x0b,
+        0x06, 0x06, 0x06, 0x00, 0x08, 0x00, 0x00, 0x00, 0x04, 0x02, 0x0e, 0x02, 0x00, 0x00, 0x00,
+        0x00, 0x00, 0x00, 0x00, 0x00, 0x0c, 0x00, 0x05, 0x00, 0x05, 0x0f, 0x02, 0x5d
+    };
+
+    /**
+     * An open SerialPort reading bytes given by the test, with no native port.
+     */
+    private static class TestSerialPort extends SerialPort
+    {
+        private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        private final List<Byte> written = new ArrayList<>();
+        private boolean isOpened = true;
+        private boolean isFailing;
+        private String closedBy; // Name of the thread that closed the port.
+
+        TestSerialPort(String portName)
+        {
+            super(portName);
+        }
+
+        synchronized void receive(byte[] bytes, int offset, int length)
+        {
+            received.write(bytes, offset, length);
+        }
+
+        @Override
+        public synchronized int getInputBufferBytesCount() throws SerialPortException
+        {
+            if (isFailing)
+            {
+                throw new SerialPortException(getPortName(), "getInputBufferBytesCount()", "Port failed");
+            }
+
+            return received.size();
+        }
+
+        @Override
+        public synchronized byte[] readBytes(int byteCount)
+        {
+            byte[] bytes = received.toByteArray();
+            received.reset();
+
+            return bytes;
+        }
+
+        @Override
+        public synchronized boolean writeByte(byte singleByte)
+        {
+            written.add(singleByte);
+
+            return true;
+        }
+
+        @Override
+        public synchronized boolean isOpened()
+        {
+            return isOpened;
+        }
+
+        @Override
+        public synchronized boolean closePort()
+        {
+            isOpened = false;
+            closedBy = Thread.currentThread().getName();
+            notifyAll();
+
+            return true;
+        }
+
+    }
+
+    /**
+     * Collects Readings with their meter IDs.
+     */
+    private static class Collector implements MeterReadingListener
+    {
+        private final List<String> readings = Collections.synchronizedList(new ArrayList<String>());
+        private final CountDownLatch latch;
+
+        Collector(int count)
+        {
+            latch = new CountDownLatch(count);
+        }
+
+        @Override
+        public void readingEvent(String meterId, Reading reading, int changes)
+        {
+            readings.add(meterId + "=" + reading.getMainValue().getValue());
+            latch.countDown();
+        }
+
+    }
+
+    private MeterManager manager;
+
+    public MeterManagerTest()
+    {
+    }
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+    @Before
+    public void setUp()
+    {
+        manager = new MeterManager(2);
+        manager.setPollInterval(1);
+    }
+
+    @After
+    public void tearDown()
+    {
+        manager.close();
+    }
+
+    @Test
+    public void testReadingsWithMeterId() throws InterruptedException
+    {
+        Collector collector = new Collector(4);
+        manager.addReadingListener(collector);
+
+        TestSerialPort[] ports = new TestSerialPort[4];
+
+        for (int i = 0; i < ports.length; i ++)
+        {
+            ports[i] = new TestSerialPort("TEST" + i);
+            manager.addMeter("meter-" + i, ports[i]);
+        }
+
+        // Packets split across reads are framed per meter.
+        for (int i = 0; i < ports.length; i ++)
+        {
+            ports[i].receive(((i % 2) == 0) ? PACKET_A : PACKET_B, 0, 20);
+        }
+
+        Thread.sleep(20);
+
+        for (int i = 0; i < ports.length; i ++)
+        {
+            ports[i].receive(((i % 2) == 0) ? PACKET_A : PACKET_B, 20, 23);
+        }
+
+        assertThat(collector.latch.await(5, TimeUnit.SECONDS), equalTo(true));
+        assertThat(collector.readings, containsInAnyOrder("meter-0=0.0015", "meter-1=5hrt", "meter-2=0.0015", "meter-3=5hrt"));
+
+        MeterManager.Meter meter = manager.getMeter("meter-1");
+        assertThat(meter.getBytesReceived(), equalTo(43L));
+        assertThat(meter.getData().getReading().getMainValue().getValue(), equalTo("5hrt"));
+        assertThat(meter.getErrors(), equalTo(0L));
+        assertThat(manager.getMeters().size(), equalTo(4));
+
+        assertThat(meter.sendCommand(Protek608.Commands.HOLD), equalTo(true));
+        assertThat(ports[1].written, contains((byte) 5));
+    }
+
+    @Test
+    public void testErrorsDontStopPolling() throws InterruptedException
+    {
+        Collector collector = new Collector(1);
+
+        TestSerialPort failing = new TestSerialPort("FAIL");
+        failing.isFailing = true;
+        TestSerialPort working = new TestSerialPort("OK");
+
+        // Both on the same thread.
+        MeterManager single = new MeterManager(1);
+        single.setPollInterval(1);
+        single.addReadingListener(collector);
+        single.addMeter("failing", failing);
+        single.addMeter("working", working);
+
+        working.receive(PACKET_A, 0, PACKET_A.length);
+
+        try
+        {
+            assertThat(collector.latch.await(5, TimeUnit.SECONDS), equalTo(true));
+            assertThat(collector.readings, contains("working=0.0015"));
+            assertThat(single.getMeter("failing").getErrors(), greaterThan(0L));
+            assertThat(single.getMeter("failing").getLastError(), instanceOf(SerialPortException.class));
+        }
+        finally
+        {
+            single.close();
+        }
+    }
+
+    @Test
+    public void testRemoveAndClose() throws InterruptedException
+    {
+        TestSerialPort first = new TestSerialPort("TEST0");
+        TestSerialPort second = new TestSerialPort("TEST1");
+
+        manager.addMeter("first", first);
+        manager.addMeter("second", second);
+
+        try
+        {
+            manager.addMeter("first", new TestSerialPort("TEST2"));
+            fail("Duplicate ID added.");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Expected.
+        }
+
+        assertThat(manager.removeMeter("first"), equalTo(true));
+        assertThat(manager.removeMeter("first"), equalTo(false));
+        assertThat(manager.getMeter("first"), nullValue());
+
+        // Closed by its poll thread, not the caller, so never while being read.
+        synchronized (first)
+        {
+            long deadline = System.currentTimeMillis() + 5000;
+
+            while (first.isOpened() && (System.currentTimeMillis() < deadline))
+            {
+                first.wait(100);
+            }
+
+            assertThat(first.isOpened(), equalTo(false));
+            assertThat(first.closedBy, startsWith("MeterManager-"));
+        }
+
+        manager.close();
+        assertThat(second.isOpened(), equalTo(false));
+        assertThat(manager.getMeters().size(), equalTo(0));
+
+        try
+        {
+            manager.addMeter("third", new TestSerialPort("TEST3"));
+            fail("Meter added after close.");
+        }
+        catch (IllegalStateException e)
+        {
+            // Expected.
+        }
+    }
+
+}
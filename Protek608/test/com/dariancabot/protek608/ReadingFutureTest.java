@@ -0,0 +1,188 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class ReadingFutureTest
+{
+    /**
+     * Valid packet: main " 0.0015" V DC, sub "  10.50" MΩ.
+     */
+    private static final byte[] PACKET_A =
+    {
+        0x5b, 0x0d, 0x0f, 0x05, 0x00, 0x00, 0x00, 0x00, 0x00, 0x01, 0x02, 0x08, 0x0f, 0x0d, 0x0f,
+        0x05, 0x0f, 0x05, 0x00, 0x0c, 0x00, 0x00, 0x00, 0x00, 0x05, 0x0b, 0x06, 0x00, 0x00, 0x02,
+        0x00, 0x00, 0x00, 0x00, 0x08, 0x04, 0x00, 0x05, 0x0f, 0x06, 0x0b, 0x00, 0x5d
+    };
+
+    /**
+     * Valid packet: main "  5hrt", sub " 00.001" kΩ.
+     */
+    private static final byte[] PACKET_B =
+    {
+        0x5b, 0x05, 0x0f, 0x0d, 0x0f, 0x05, 0x0f, 0x02, 0x01, 0x00, 0x00, 0x00, 0x00, 0x00, 0x0b,
+        0x06, 0x06, 0x06, 0x00, 0x08, 0x00, 0x00, 0x00, 0x04, 0x02, 0x0e, 0x02, 0x00, 0x00, 0x00,
+        0x00, 0x00, 0x00, 0x00, 0x00, 0x0c, 0x00, 0x05, 0x00, 0x05, 0x0f, 0x02, 0x5d
+    };
+
+    /**
+     * Met when the main value is non-numerical (PACKET_B).
+     */
+    private static final ReadingCondition NOT_NUMERIC = new ReadingCondition()
+    {
+        @Override
+        public boolean isMet(Reading reading)
+        {
+            return ! reading.getMainValue().isNumeric();
+        }
+
+    };
+
+    public ReadingFutureTest()
+    {
+    }
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+    @Before
+    public void setUp()
+    {
+    }
+
+    @After
+    public void tearDown()
+    {
+    }
+
+    @Test
+    public void testConditionMet() throws Exception
+    {
+        Decoder decoder = new Decoder(new Data());
+        Future<Reading> future = decoder.awaitReading(NOT_NUMERIC, 10, TimeUnit.SECONDS);
+
+        decoder.decodeSerialData(PACKET_A);
+        assertThat(future.isDone(), equalTo(false));
+
+        decoder.decodeSerialData(PACKET_B);
+        assertThat(future.isDone(), equalTo(true));
+        assertThat(future.get().getSequence(), equalTo(2L));
+
+        // Later packets don't change the result.
+        decoder.decodeSerialData(PACKET_A);
+        decoder.decodeSerialData(PACKET_B);
+        assertThat(future.get(0, TimeUnit.SECONDS).getSequence(), equalTo(2L));
+    }
+
+    @Test
+    public void testForever() throws Exception
+    {
+        Decoder decoder = new Decoder(new Data());
+
+        // The longest timeouts, used as "forever", don't overflow into the past.
+        Future<Reading> nanos = decoder.awaitReading(NOT_NUMERIC, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        Future<Reading> days = decoder.awaitReading(NOT_NUMERIC, Long.MAX_VALUE, TimeUnit.DAYS);
+
+        assertThat(nanos.isDone(), equalTo(false));
+        assertThat(days.isDone(), equalTo(false));
+
+        try
+        {
+            nanos.get(1, TimeUnit.MILLISECONDS);
+            fail("Expected TimeoutException");
+        }
+        catch (TimeoutException e)
+        {
+            assertThat(nanos.isDone(), equalTo(false));
+        }
+
+        nanos.cancel(false);
+        days.cancel(false);
+    }
+
+    @Test
+    public void testTimeout() throws Exception
+    {
+        Decoder decoder = new Decoder(new Data());
+
+        // The caller's wait is shorter than the deadline.
+        Future<Reading> future = decoder.awaitReading(NOT_NUMERIC, 10, TimeUnit.SECONDS);
+
+        try
+        {
+            future.get(1, TimeUnit.MILLISECONDS);
+            fail("Expected TimeoutException");
+        }
+        catch (TimeoutException e)
+        {
+            assertThat(future.isDone(), equalTo(false));
+        }
+
+        // The deadline passes without any packets.
+        future = decoder.awaitReading(NOT_NUMERIC, 1, TimeUnit.MILLISECONDS);
+
+        try
+        {
+            future.get();
+            fail("Expected ExecutionException");
+        }
+        catch (ExecutionException e)
+        {
+            assertThat(e.getCause(), instanceOf(TimeoutException.class));
+        }
+
+        // Cancelled and expired waiters are dropped, and aren't completed by later packets.
+        Future<Reading> cancelled = decoder.awaitReading(NOT_NUMERIC, 10, TimeUnit.SECONDS);
+        assertThat(cancelled.cancel(false), equalTo(true));
+        assertThat(cancelled.isCancelled(), equalTo(true));
+
+        decoder.decodeSerialData(PACKET_B);
+        assertThat(cancelled.isCancelled(), equalTo(true));
+    }
+
+}
@@ -0,0 +1,272 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class ReadingListenerTest
+{
+    /**
+     * Valid packet: main " 0.0015" V DC, sub "  10.50" MΩ.
+     */
+    private static final byte[] PACKET_A =
+    {
+        0x5b, 0x0d, 0x0f, 0x05, 0x00, 0x00, 0x00, 0x00, 0x00, 0x01, 0x02, 0x08, 0x0f, 0x0d, 0x0f,
+        0x05, 0x0f, 0x05, 0x00, 0x0c, 0x00, 0x00, 0x00, 0x00, 0x05, 0x0b, 0x06, 0x00, 0x00, 0x02,
+        0x00, 0x00, 0x00, 0x00, 0x08, 0x04, 0x00, 0x05, 0x0f, 0x06, 0x0b, 0x00, 0x5d
+    };
+
+    /**
+     * Valid packet: main "  5hrt", sub " 00.001" kΩ.
+     */
+    private static final byte[] PACKET_B =
+    {
+        0x5b, 0x05, 0x0f, 0x0d, 0x0f, 0x05, 0x0f, 0x02, 0x01, 0x00, 0x00, 0x00, 0x00, 0x00, 0x0b,
+        0x06, 0x06, 0x06, 0x00, 0x08, 0x00, 0x00, 0x00, 0x04, 0x02, 0x0e, 0x02, 0x00, 0x00, 0x00,
+        0x00, 0x00, 0x00, 0x00, 0x00, 0x0c, 0x00, 0x05, 0x00, 0x05, 0x0f, 0x02, 0x5d
+    };
+
+
+    /**
+     * Records every event received.
+     */
+    private static class RecordingListener implements ReadingListener
+    {
+        private final List<Reading> readings = new ArrayList<>();
+        private final List<Integer> changes = new ArrayList<>();
+
+        @Override
+        public void readingEvent(Reading reading, int changes)
+        {
+            this.readings.add(reading);
+            this.changes.add(changes);
+        }
+
+    }
+
+
+    /**
+     * Queues tasks until they are run by the test.
+     */
+    private static class QueueExecutor implements Executor
+    {
+        private final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command)
+        {
+            tasks.add(command);
+        }
+
+        void runAll()
+        {
+            while ( ! tasks.isEmpty())
+            {
+                tasks.remove(0).run();
+            }
+        }
+
+    }
+
+    public ReadingListenerTest()
+    {
+    }
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+    @Before
+    public void setUp()
+    {
+    }
+
+    @After
+    public void tearDown()
+    {
+    }
+
+    @Test
+    public void testInlineListeners()
+    {
+        Data data = new Data();
+        Decoder decoder = new Decoder(data);
+
+        RecordingListener first = new RecordingListener();
+        RecordingListener second = new RecordingListener();
+        decoder.addReadingListener(first);
+        decoder.addReadingListener(second);
+
+        decoder.decodeSerialData(PACKET_A);
+        decoder.decodeSerialData(PACKET_A);
+        decoder.decodeSerialData(PACKET_B);
+
+        assertThat(first.readings.size(), equalTo(3));
+        assertThat(second.readings.size(), equalTo(3));
+        assertThat(first.readings.get(2), sameInstance(data.getReading()));
+
+        // First reading changes everything, then nothing, then most things.
+        assertThat(first.changes.get(0), equalTo(Reading.Change.ALL));
+        assertThat(first.changes.get(1), equalTo(0));
+        assertThat(first.changes.get(2) & Reading.Change.MAIN_VALUE, equalTo(Reading.Change.MAIN_VALUE));
+        assertThat(first.changes.get(2) & Reading.Change.SUB_UNIT, equalTo(Reading.Change.SUB_UNIT));
+        assertThat(first.changes.get(2) & Reading.Change.BAR_GRAPH, equalTo(Reading.Change.BAR_GRAPH));
+
+        // Removed listeners no longer receive readings.
+        decoder.removeReadingListener(first);
+        decoder.decodeSerialData(PACKET_A);
+
+        assertThat(first.readings.size(), equalTo(3));
+        assertThat(second.readings.size(), equalTo(4));
+    }
+
+    @Test
+    public void testThrowingListener() throws Exception
+    {
+        Decoder decoder = new Decoder(new Data());
+
+        decoder.addReadingListener(new ReadingListener()
+        {
+            @Override
+            public void readingEvent(Reading reading, int changes)
+            {
+                throw new IllegalStateException("Listener failed.");
+            }
+
+        });
+
+        RecordingListener second = new RecordingListener();
+        decoder.addReadingListener(second);
+
+        Future<Reading> waiter = decoder.awaitReading(new ReadingCondition()
+        {
+            @Override
+            public boolean isMet(Reading reading)
+            {
+                return true;
+            }
+
+        }, 5, TimeUnit.SECONDS);
+
+        // Neither the decoder nor the later listener and waiter see the exception.
+        decoder.decodeSerialData(PACKET_A);
+        decoder.decodeSerialData(PACKET_B);
+
+        assertThat(second.readings.size(), equalTo(2));
+        assertThat(waiter.isDone(), equalTo(true));
+        assertThat(waiter.get(), sameInstance(second.readings.get(0)));
+    }
+
+    @Test
+    public void testExecutorListener()
+    {
+        Data data = new Data();
+        Decoder decoder = new Decoder(data);
+        QueueExecutor executor = new QueueExecutor();
+
+        RecordingListener listener = new RecordingListener();
+        decoder.addReadingListener(listener, executor, 2);
+
+        decoder.decodeSerialData(PACKET_A);
+        decoder.decodeSerialData(PACKET_B);
+        decoder.decodeSerialData(PACKET_A);
+
+        // Nothing delivered on the decoder thread, and only scheduled once.
+        assertThat(listener.readings.size(), equalTo(0));
+        assertThat(executor.tasks.size(), equalTo(1));
+
+        executor.runAll();
+
+        // The oldest reading was dropped, the rest are delivered in order.
+        assertThat(listener.readings.size(), equalTo(2));
+        assertThat(listener.readings.get(0).getSequence(), equalTo(2L));
+        assertThat(listener.readings.get(1).getSequence(), equalTo(3L));
+        assertThat(listener.changes.get(0), equalTo(Reading.Change.ALL));
+
+        // Changes are relative to the last reading delivered to the listener.
+        decoder.decodeSerialData(PACKET_A);
+        executor.runAll();
+
+        assertThat(listener.readings.size(), equalTo(3));
+        assertThat(listener.changes.get(2), equalTo(0));
+    }
+
+    @Test
+    public void testThrowingExecutorListener()
+    {
+        Decoder decoder = new Decoder(new Data());
+        QueueExecutor executor = new QueueExecutor();
+
+        RecordingListener listener = new RecordingListener()
+        {
+            @Override
+            public void readingEvent(Reading reading, int changes)
+            {
+                super.readingEvent(reading, changes);
+
+                if (reading.getSequence() == 1)
+                {
+                    throw new IllegalStateException("Listener failed.");
+                }
+            }
+
+        };
+
+        decoder.addReadingListener(listener, executor, 4);
+
+        decoder.decodeSerialData(PACKET_A);
+        decoder.decodeSerialData(PACKET_B);
+        decoder.decodeSerialData(PACKET_A);
+
+        // The Executor never sees the exception, and the rest of the buffer is still delivered.
+        executor.runAll();
+
+        assertThat(listener.readings.size(), equalTo(3));
+        assertThat(listener.readings.get(2).getSequence(), equalTo(3L));
+    }
+
+}
@@ -0,0 +1,302 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class ReadingPublisherTest
+{
+    /**
+     * Valid packet: main " 0.0015" V DC, sub "  10.50" MΩ.
+     */
+    private static final byte[] PACKET =
+    {
+        0x5b, 0x0d, 0x0f, 0x05, 0x00, 0x00, 0x00, 0x00, 0x00, 0x01, 0x02, 0x08, 0x0f, 0x0d, 0x0f,
+        0x05, 0x0f, 0x05, 0x00, 0x0c, 0x00, 0x00, 0x00, 0x00, 0x05, 0x0b, 0x06, 0x00, 0x00, 0x02,
+        0x00, 0x00, 0x00, 0x00, 0x08, 0x04, 0x00, 0x05, 0x0f, 0x06, 0x0b, 0x00, 0x5d
+    };
+
+    /**
+     * Runs tasks immediately on the calling thread.
+     */
+    private static final Executor DIRECT_EXECUTOR = new Executor()
+    {
+        @Override
+        public void execute(Runnable command)
+        {
+            command.run();
+        }
+
+    };
+
+
+    /**
+     * Records every signal received.
+     */
+    private static class RecordingSubscriber implements ReadingPublisher.Subscriber
+    {
+        private ReadingPublisher.Subscription subscription;
+        private final List<Reading> readings = new ArrayList<>();
+        private Throwable error;
+        private boolean isComplete;
+
+        @Override
+        public void onSubscribe(ReadingPublisher.Subscription subscription)
+        {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(Reading reading)
+        {
+            readings.add(reading);
+        }
+
+        @Override
+        public void onError(Throwable throwable)
+        {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete()
+        {
+            isComplete = true;
+        }
+
+    }
+
+    public ReadingPublisherTest()
+    {
+    }
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+    @Before
+    public void setUp()
+    {
+    }
+
+    @After
+    public void tearDown()
+    {
+    }
+
+    @Test
+    public void testDemand()
+    {
+        Decoder decoder = new Decoder(new Data());
+        ReadingPublisher publisher = new ReadingPublisher(DIRECT_EXECUTOR, 2);
+        decoder.addReadingListener(publisher);
+
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        assertThat(subscriber.subscription, notNullValue());
+        assertThat(publisher.getSubscriberCount(), equalTo(1));
+
+        // Nothing is delivered without demand, and the buffer keeps only the newest two.
+        decoder.decodeSerialData(PACKET);
+        decoder.decodeSerialData(PACKET);
+        decoder.decodeSerialData(PACKET);
+        assertThat(subscriber.readings.size(), equalTo(0));
+
+        subscriber.subscription.request(1);
+        assertThat(subscriber.readings.size(), equalTo(1));
+        assertThat(subscriber.readings.get(0).getSequence(), equalTo(2L));
+
+        subscriber.subscription.request(5);
+        assertThat(subscriber.readings.size(), equalTo(2));
+        assertThat(subscriber.readings.get(1).getSequence(), equalTo(3L));
+
+        // Outstanding demand is used as readings arrive.
+        decoder.decodeSerialData(PACKET);
+        assertThat(subscriber.readings.size(), equalTo(3));
+
+        // Completion.
+        publisher.close();
+        assertThat(subscriber.isComplete, equalTo(true));
+        assertThat(publisher.getSubscriberCount(), equalTo(0));
+    }
+
+    @Test
+    public void testConflationAndCancel()
+    {
+        Decoder decoder = new Decoder(new Data());
+        ReadingPublisher publisher = new ReadingPublisher(DIRECT_EXECUTOR, 1);
+        decoder.addReadingListener(publisher);
+
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        for (int i = 0; i < 10; i ++)
+        {
+            decoder.decodeSerialData(PACKET);
+        }
+
+        // Only the latest reading is kept.
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertThat(subscriber.readings.size(), equalTo(1));
+        assertThat(subscriber.readings.get(0).getSequence(), equalTo(10L));
+
+        subscriber.subscription.cancel();
+        decoder.decodeSerialData(PACKET);
+        assertThat(subscriber.readings.size(), equalTo(1));
+        assertThat(publisher.getSubscriberCount(), equalTo(0));
+    }
+
+    @Test
+    public void testInvalidRequest()
+    {
+        ReadingPublisher publisher = new ReadingPublisher(DIRECT_EXECUTOR, 4);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        subscriber.subscription.request(0);
+
+        assertThat(subscriber.error, instanceOf(IllegalArgumentException.class));
+        assertThat(publisher.getSubscriberCount(), equalTo(0));
+    }
+
+    @Test
+    public void testRejectedExecution()
+    {
+        final boolean[] isRejecting = new boolean[1];
+
+        Executor executor = new Executor()
+        {
+            @Override
+            public void execute(Runnable command)
+            {
+                if (isRejecting[0])
+                {
+                    throw new RejectedExecutionException("Shut down.");
+                }
+
+                command.run();
+            }
+
+        };
+
+        Decoder decoder = new Decoder(new Data());
+        ReadingPublisher publisher = new ReadingPublisher(executor, 4);
+        decoder.addReadingListener(publisher);
+
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+
+        // Never thrown to the decoder thread, and the subscriber is told.
+        isRejecting[0] = true;
+        decoder.decodeSerialData(PACKET);
+
+        assertThat(subscriber.error, instanceOf(RejectedExecutionException.class));
+        assertThat(publisher.getSubscriberCount(), equalTo(0));
+
+        // A subscriber rejected from the start still gets onSubscribe first.
+        RecordingSubscriber late = new RecordingSubscriber();
+        publisher.subscribe(late);
+
+        assertThat(late.subscription, notNullValue());
+        assertThat(late.error, instanceOf(RejectedExecutionException.class));
+    }
+
+    @Test
+    public void testThrowingSubscriber()
+    {
+        Reading reading = new Data().publish(0);
+
+        // Throwing from onSubscribe cancels, and later Readings aren't delivered or thrown.
+        ReadingPublisher publisher = new ReadingPublisher(DIRECT_EXECUTOR, 4);
+        RecordingSubscriber failing = new RecordingSubscriber()
+        {
+            @Override
+            public void onSubscribe(ReadingPublisher.Subscription subscription)
+            {
+                super.onSubscribe(subscription);
+                throw new IllegalStateException("Subscriber failed.");
+            }
+
+        };
+
+        publisher.subscribe(failing);
+        publisher.readingEvent(reading, 0);
+
+        assertThat(publisher.getSubscriberCount(), equalTo(0));
+        assertThat(failing.readings.size(), equalTo(0));
+
+        // Throwing from onError on a rejected Executor doesn't reach the offering thread.
+        publisher = new ReadingPublisher(new Executor()
+        {
+            @Override
+            public void execute(Runnable command)
+            {
+                throw new RejectedExecutionException("Shut down.");
+            }
+
+        }, 4);
+
+        RecordingSubscriber rejected = new RecordingSubscriber()
+        {
+            @Override
+            public void onError(Throwable throwable)
+            {
+                super.onError(throwable);
+                throw new IllegalStateException("Subscriber failed.");
+            }
+
+        };
+
+        publisher.subscribe(rejected);
+        publisher.readingEvent(reading, 0);
+
+        assertThat(rejected.error, instanceOf(RejectedExecutionException.class));
+        assertThat(publisher.getSubscriberCount(), equalTo(0));
+    }
+
+}
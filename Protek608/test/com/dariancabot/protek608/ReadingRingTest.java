@@ -0,0 +1,289 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608;
+
+import java.util.concurrent.atomic.AtomicReference;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class ReadingRingTest
+{
+    /**
+     * Valid packet: main " 0.0015" V DC, sub "  10.50" MΩ.
+     */
+    private static final byte[] PACKET_A =
+    {
+        0x5b, 0x0d, 0x0f, 0x05, 0x00, 0x00, 0x00, 0x00, 0x00, 0x01, 0x02, 0x08, 0x0f, 0x0d, 0x0f,
+        0x05, 0x0f, 0x05, 0x00, 0x0c, 0x00, 0x00, 0x00, 0x00, 0x05, 0x0b, 0x06, 0x00, 0x00, 0x02,
+        0x00, 0x00, 0x00, 0x00, 0x08, 0x04, 0x00, 0x05, 0x0f, 0x06, 0x0b, 0x00, 0x5d
+    };
+
+    /**
+     * Valid packet: main "  5hrt", sub " 00.001" kΩ.
+     */
+    private static final byte[] PACKET_B =
+    {
+        0x5b, 0x05, 0x0f, 0x0d, 0x0f, 0x05, 0x0f, 0x02, 0x01, 0x00, 0x00, 0x00, 0x00, 0x00, 0x0b,
+        0x06, 0x06, 0x06, 0x00, 0x08, 0x00, 0x00, 0x00, 0x04, 0x02, 0x0e, 0x02, 0x00, 0x00, 0x00,
+        0x00, 0x00, 0x00, 0x00, 0x00, 0x0c, 0x00, 0x05, 0x00, 0x05, 0x0f, 0x02, 0x5d
+    };
+
+    public ReadingRingTest()
+    {
+    }
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+    @Before
+    public void setUp()
+    {
+    }
+
+    @After
+    public void tearDown()
+    {
+    }
+
+    /**
+     * Decodes a packet, returning the Reading.
+     */
+    private static Reading decode(byte[] packet, long timestamp)
+    {
+        final AtomicReference<Reading> result = new AtomicReference<>();
+        Decoder decoder = new Decoder(new Data());
+
+        decoder.addReadingListener(new ReadingListener()
+        {
+            @Override
+            public void readingEvent(Reading reading, int changes)
+            {
+                result.set(reading);
+            }
+
+        });
+
+        decoder.decodeSerialData(packet, timestamp);
+
+        return result.get();
+    }
+
+    @Test
+    public void testSlot()
+    {
+        Decoder decoder = new Decoder(new Data());
+        ReadingRing ring = new ReadingRing(4);
+        decoder.addReadingListener(ring);
+
+        ReadingRing.Cursor cursor = ring.newCursor(ReadingRing.LapPolicy.SKIP_TO_OLDEST);
+        ReadingRing.Slot slot = new ReadingRing.Slot();
+
+        assertThat(cursor.poll(slot), equalTo(false));
+
+        decoder.decodeSerialData(PACKET_A, 1000);
+        decoder.decodeSerialData(PACKET_B, 1500);
+
+        assertThat(ring.getPublished(), equalTo(2L));
+        assertThat(cursor.getBehind(), equalTo(2L));
+
+        assertThat(cursor.poll(slot), equalTo(true));
+        assertThat(slot.getSequence(), equalTo(1L));
+        assertThat(slot.getTimestamp(), equalTo(1000L));
+        assertThat(slot.getReadingSequence(), equalTo(1L));
+        assertThat(slot.getMainValue(), equalTo("0.0015"));
+        assertThat(slot.getMainSiValue(), closeTo(0.0015, 1e-12));
+        assertThat(slot.getSubValue(), equalTo("10.50"));
+        assertThat(slot.getSubSiValue(), closeTo(10.5e6, 1e-3));
+
+        Reading reading = decode(PACKET_A, 1000);
+        assertThat(slot.getMainUnitCode(), equalTo(reading.getMainValue().getUnitCode()));
+        assertThat(slot.getSubUnitCode(), equalTo(reading.getSubValue().getUnitCode()));
+        assertThat(slot.getBarGraph(), equalTo(reading.getBarGraph()));
+        assertThat(slot.getAnnunciators(), equalTo(reading.getAnnunciators()));
+
+        byte[] packet = new byte[43];
+        assertThat(slot.copyPacketRaw(packet), equalTo(43));
+        assertThat(packet, equalTo(PACKET_A));
+
+        assertThat(cursor.poll(slot), equalTo(true));
+        assertThat(slot.getSequence(), equalTo(2L));
+        assertThat(slot.getMainValue(), equalTo("5hrt"));
+        assertThat(Double.isNaN(slot.getMainSiValue()), equalTo(true));
+        slot.copyPacketRaw(packet);
+        assertThat(packet, equalTo(PACKET_B));
+
+        assertThat(cursor.poll(slot), equalTo(false));
+        assertThat(cursor.getLost(), equalTo(0L));
+    }
+
+    @Test
+    public void testIndependentCursors()
+    {
+        ReadingRing ring = new ReadingRing(8);
+        Reading reading = decode(PACKET_A, 1000);
+
+        ReadingRing.Cursor first = ring.newCursor(ReadingRing.LapPolicy.SKIP_TO_OLDEST);
+        ring.readingEvent(reading, Reading.Change.ALL);
+
+        // A new cursor starts after what's already published.
+        ReadingRing.Cursor second = ring.newCursor(ReadingRing.LapPolicy.SKIP_TO_OLDEST);
+        ring.readingEvent(reading, Reading.Change.ALL);
+        ring.readingEvent(reading, Reading.Change.ALL);
+
+        ReadingRing.Slot slot = new ReadingRing.Slot();
+        int count = 0;
+
+        while (first.poll(slot))
+        {
+            count ++;
+        }
+
+        assertThat(count, equalTo(3));
+        assertThat(second.getBehind(), equalTo(2L));
+        assertThat(second.poll(slot), equalTo(true));
+        assertThat(slot.getSequence(), equalTo(2L));
+    }
+
+    @Test
+    public void testLapPolicies()
+    {
+        ReadingRing ring = new ReadingRing(4);
+        Reading reading = decode(PACKET_A, 1000);
+
+        ReadingRing.Cursor oldest = ring.newCursor(ReadingRing.LapPolicy.SKIP_TO_OLDEST);
+        ReadingRing.Cursor latest = ring.newCursor(ReadingRing.LapPolicy.SKIP_TO_LATEST);
+        ReadingRing.Cursor stop = ring.newCursor(ReadingRing.LapPolicy.STOP);
+
+        // The writer never waits, lapping every cursor.
+        for (int i = 0; i < 10; i ++)
+        {
+            ring.readingEvent(reading, Reading.Change.ALL);
+        }
+
+        ReadingRing.Slot slot = new ReadingRing.Slot();
+
+        assertThat(oldest.poll(slot), equalTo(true));
+        assertThat(slot.getSequence(), equalTo(7L));
+        assertThat(oldest.getLost(), equalTo(6L));
+
+        assertThat(latest.poll(slot), equalTo(false));
+        assertThat(latest.getLost(), equalTo(10L));
+        ring.readingEvent(reading, Reading.Change.ALL);
+        assertThat(latest.poll(slot), equalTo(true));
+        assertThat(slot.getSequence(), equalTo(11L));
+
+        assertThat(stop.poll(slot), equalTo(false));
+        assertThat(stop.isLapped(), equalTo(true));
+        ring.readingEvent(reading, Reading.Change.ALL);
+        assertThat(stop.poll(slot), equalTo(false));
+
+        stop.reset();
+        assertThat(stop.isLapped(), equalTo(false));
+        ring.readingEvent(reading, Reading.Change.ALL);
+        assertThat(stop.poll(slot), equalTo(true));
+        assertThat(slot.getSequence(), equalTo(13L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCapacity()
+    {
+        new ReadingRing(3);
+    }
+
+    @Test
+    public void testConcurrentConsistency() throws InterruptedException
+    {
+        final ReadingRing ring = new ReadingRing(16);
+        final Reading readingA = decode(PACKET_A, 1000);
+        final Reading readingB = decode(PACKET_B, 2000);
+        final int total = 200000;
+
+        ReadingRing.Cursor cursor = ring.newCursor(ReadingRing.LapPolicy.SKIP_TO_OLDEST);
+
+        Thread writer = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                for (int i = 0; i < total; i ++)
+                {
+                    ring.readingEvent(((i % 2) == 0) ? readingA : readingB, Reading.Change.ALL);
+                }
+            }
+
+        });
+
+        writer.start();
+
+        ReadingRing.Slot slot = new ReadingRing.Slot();
+        byte[] packet = new byte[43];
+        long last = 0;
+        long read = 0;
+
+        while (writer.isAlive() || (cursor.getBehind() > 0))
+        {
+            if ( ! cursor.poll(slot))
+            {
+                continue;
+            }
+
+            // Every slot is wholly one Reading or the other, never torn.
+            boolean isA = (slot.getSequence() % 2) == 1;
+            slot.copyPacketRaw(packet);
+
+            assertThat(slot.getTimestamp(), equalTo(isA ? 1000L : 2000L));
+            assertThat(slot.getMainValue(), equalTo(isA ? "0.0015" : "5hrt"));
+            assertThat(packet, equalTo(isA ? PACKET_A : PACKET_B));
+            assertThat(slot.getSequence(), greaterThan(last));
+
+            last = slot.getSequence();
+            read ++;
+        }
+
+        writer.join();
+
+        assertThat(last, equalTo((long) total));
+        assertThat(read + cursor.getLost(), equalTo((long) total));
+    }
+
+}
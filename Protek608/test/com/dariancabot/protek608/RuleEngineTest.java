@@ -0,0 +1,174 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608;
+
+import com.dariancabot.protek608.Data.Value.Unit.Measurement;
+import com.dariancabot.protek608.Data.Value.Unit.Type;
+import java.util.ArrayList;
+import java.util.List;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class RuleEngineTest
+{
+    private Data data;
+    private Reading previous;
+    private long timestamp;
+
+    private final List<String> alarms = new ArrayList<>();
+
+    private final RuleEngine.AlarmListener listener = new RuleEngine.AlarmListener()
+    {
+        @Override
+        public void alarmRaised(RuleEngine.Rule rule, Reading reading)
+        {
+            alarms.add("+" + rule.getName() + "@" + reading.getTimestamp());
+        }
+
+        @Override
+        public void alarmCleared(RuleEngine.Rule rule, Reading reading)
+        {
+            alarms.add("-" + rule.getName() + "@" + reading.getTimestamp());
+        }
+
+    };
+
+    public RuleEngineTest()
+    {
+    }
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+    @Before
+    public void setUp()
+    {
+        data = new Data();
+        data.mainValue.unit.setType(Type.DC);
+        data.mainValue.unit.setMeasurement(Measurement.VOLT);
+        previous = null;
+        timestamp = 0;
+        alarms.clear();
+    }
+
+    @After
+    public void tearDown()
+    {
+    }
+
+    /**
+     * Publishes a new main value every 500 ms, like the Decoder does, and delivers it to the engine.
+     */
+    private void deliver(RuleEngine engine, String mainValue)
+    {
+        data.mainValue.setValue(mainValue);
+        data.mainValue.update(timestamp);
+
+        Reading reading = data.publish(timestamp);
+        engine.readingEvent(reading, reading.getChanges(previous));
+        previous = reading;
+        timestamp += 500;
+    }
+
+    @Test
+    public void testConsecutive()
+    {
+        RuleEngine.Rule over = RuleEngine.Rule.above("over", Reading.Channel.MAIN, 5.25);
+        over.setUnit(Type.DC, Measurement.VOLT);
+        over.setConsecutive(3);
+
+        RuleEngine engine = new RuleEngine(listener, over);
+
+        // Later changes to the rule aren't compiled.
+        over.setConsecutive(1);
+
+        deliver(engine, "5.30");
+        deliver(engine, "5.30");
+        deliver(engine, "5.20"); // Restarts the count.
+        deliver(engine, "5.30");
+        deliver(engine, "5.40");
+
+        assertThat(alarms.isEmpty(), equalTo(true));
+
+        deliver(engine, "5.50");
+        deliver(engine, "5.50"); // Edge triggered, only raised once.
+
+        assertThat(alarms, contains("+over@2500"));
+        assertThat(engine.isActive(over), equalTo(true));
+        assertThat(engine.getActiveCount(), equalTo(1));
+
+        // Wrong unit, or non-numerical, isn't met.
+        data.mainValue.unit.setType(Type.AC);
+        deliver(engine, "5.50");
+
+        assertThat(alarms, contains("+over@2500", "-over@3500"));
+        assertThat(engine.isActive(over), equalTo(false));
+        assertThat(engine.getActiveCount(), equalTo(0));
+    }
+
+    @Test
+    public void testDurationAndAnnunciators()
+    {
+        RuleEngine.Rule outside = RuleEngine.Rule.outside("outside", Reading.Channel.MAIN, 4.75, 5.25);
+        outside.setDuration(1000);
+
+        RuleEngine.Rule lowBattery = RuleEngine.Rule.annunciatorSet("battery", Reading.Annunciator.LOW_BATTERY);
+        RuleEngine.Rule noGo = RuleEngine.Rule.annunciatorClear("noGo", Reading.Annunciator.GO_NG);
+
+        data.annunciators.goNg = true;
+
+        RuleEngine engine = new RuleEngine(listener, outside, lowBattery, noGo);
+
+        deliver(engine, "4.50"); // 0
+        deliver(engine, "4.60"); // 500
+        deliver(engine, "4.70"); // 1000, held for 1000 ms.
+        deliver(engine, "OPEn"); // 1500
+
+        data.annunciators.lowBattery = true;
+        data.annunciators.goNg = false;
+        deliver(engine, "5.00"); // 2000
+
+        assertThat(alarms, contains("+outside@1000", "-outside@1500", "+battery@2000", "+noGo@2000"));
+        assertThat(engine.getActiveCount(), equalTo(2));
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class SketchTest
+{
+
+    public SketchTest()
+    {
+    }
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+    @Before
+    public void setUp()
+    {
+    }
+
+    @After
+    public void tearDown()
+    {
+    }
+
+    @Test
+    public void testQuantiles()
+    {
+        Random random = new Random(608);
+        double[] values = new double[10001];
+        Sketch sketch = new Sketch();
+
+        for (int i = 0; i < values.length; i ++)
+        {
+            values[i] = (i % 10 == 0) ? 0 : Math.exp(random.nextGaussian() * 3) * (random.nextBoolean() ? 1 : -1);
+            sketch.add(values[i]);
+        }
+
+        sketch.add(Double.NaN); // Ignored.
+        Arrays.sort(values);
+
+        assertThat(sketch.getCount(), equalTo((long) values.length));
+
+        for (double quantile : new double[]
+        {
+            0, 0.01, 0.25, 0.5, 0.75, 0.99, 1
+        })
+        {
+            double expected = values[(int) (quantile * (values.length - 1))];
+
+            assertThat(sketch.getQuantile(quantile), closeTo(expected, Math.abs(expected) * Sketch.DEFAULT_ACCURACY));
+        }
+
+        assertThat(Double.isNaN(new Sketch().getQuantile(0.5)), equalTo(true));
+    }
+
+    @Test
+    public void testMergeWriteRead() throws IOException
+    {
+        Sketch all = new Sketch();
+        Sketch low = new Sketch();
+        Sketch high = new Sketch();
+
+        for (int i = 1; i <= 1000; i ++)
+        {
+            all.add(i * 0.001);
+            ((i <= 500) ? low : high).add(i * 0.001);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        low.write(new DataOutputStream(bytes));
+
+        Sketch read = new Sketch();
+        read.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        read.add(high);
+
+        assertThat(read.getCount(), equalTo(1000L));
+
+        for (double quantile = 0; quantile <= 1; quantile += 0.125)
+        {
+            assertThat(read.getQuantile(quantile), equalTo(all.getQuantile(quantile)));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeAccuracy()
+    {
+        new Sketch(0.01).add(new Sketch(0.02));
+    }
+
+}
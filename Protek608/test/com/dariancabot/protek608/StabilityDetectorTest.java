@@ -0,0 +1,177 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608;
+
+import static org.hamcrest.Matchers.*;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class StabilityDetectorTest
+{
+    private Data data;
+    private Reading previous;
+    private long timestamp;
+
+    private int events;
+    private double settledValue;
+    private long settlingTime;
+
+    private final StabilityDetector.Listener listener = new StabilityDetector.Listener()
+    {
+        @Override
+        public void settledEvent(Reading reading, double value, long time)
+        {
+            events ++;
+            settledValue = value;
+            settlingTime = time;
+        }
+
+    };
+
+    public StabilityDetectorTest()
+    {
+    }
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+    @Before
+    public void setUp()
+    {
+        data = new Data();
+        data.mainValue.unit.setMeasurement(Data.Value.Unit.Measurement.VOLT);
+        previous = null;
+        timestamp = 0;
+        events = 0;
+    }
+
+    @After
+    public void tearDown()
+    {
+    }
+
+    /**
+     * Publishes a new main value every 100 ms, like the Decoder does, and delivers it to the detector.
+     */
+    private void deliver(StabilityDetector detector, String mainValue, int barGraph)
+    {
+        data.mainValue.setValue(mainValue);
+        data.mainValue.update(timestamp);
+        data.setBarGraph(barGraph);
+
+        Reading reading = data.publish(timestamp);
+        detector.readingEvent(reading, reading.getChanges(previous));
+        previous = reading;
+        timestamp += 100;
+    }
+
+    @Test
+    public void testSpread()
+    {
+        StabilityDetector detector = new StabilityDetector(Reading.Channel.MAIN, 3);
+        detector.setListener(listener);
+
+        deliver(detector, "OPEn", -1);
+        deliver(detector, "4.900", 10);
+        deliver(detector, "5.010", 10);
+        deliver(detector, "5.002", 10);
+        deliver(detector, "5.001", 10);
+
+        assertThat(detector.isSettled(), equalTo(false));
+
+        deliver(detector, "5.003", 10); // Spread of 2 counts.
+
+        assertThat(detector.isSettled(), equalTo(true));
+        assertThat(events, equalTo(1));
+        assertThat(settledValue, closeTo(5.002, 1e-9));
+        assertThat(settlingTime, equalTo(400L)); // From the first numerical reading.
+
+        // Staying settled doesn't fire again.
+        deliver(detector, "5.002", 10);
+        assertThat(events, equalTo(1));
+
+        // Moving away, then settling again, is timed from when it moved.
+        deliver(detector, "5.100", 10);
+        assertThat(detector.isSettled(), equalTo(false));
+        assertThat(detector.getSettledValue(), equalTo(Double.NaN));
+
+        deliver(detector, "5.101", 10);
+        deliver(detector, "5.100", 10);
+
+        assertThat(events, equalTo(2));
+        assertThat(settlingTime, equalTo(200L));
+
+        // A unit change restarts detection.
+        data.mainValue.unit.setPrefix(Data.Value.Unit.Prefix.MILLI);
+        deliver(detector, "5.100", 10);
+        assertThat(detector.isSettled(), equalTo(false));
+    }
+
+    @Test
+    public void testSlopeAndBarGraph()
+    {
+        StabilityDetector detector = new StabilityDetector(Reading.Channel.MAIN, 3);
+        detector.setListener(listener);
+        detector.setMaxSpread(-1);
+        detector.setMaxSlope(0.05); // 50 mV/s
+        detector.setMaxBarGraphChange(0);
+
+        // Drifting 10 mV every 100 ms, 100 mV/s.
+        deliver(detector, "1.00", 5);
+        deliver(detector, "1.01", 5);
+        deliver(detector, "1.02", 5);
+
+        assertThat(detector.isSettled(), equalTo(false));
+
+        // Slowed to 20 mV/s, but the bar graph moved.
+        deliver(detector, "1.02", 6);
+        deliver(detector, "1.02", 5);
+        deliver(detector, "1.02", 5);
+
+        assertThat(detector.isSettled(), equalTo(false));
+
+        deliver(detector, "1.02", 5);
+
+        assertThat(detector.isSettled(), equalTo(true));
+        assertThat(settledValue, closeTo(1.02, 1e-9));
+    }
+
+}
@@ -0,0 +1,235 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class TriggeredCaptureTest
+{
+    /**
+     * Runs tasks immediately on the calling thread.
+     */
+    private static final Executor DIRECT_EXECUTOR = new Executor()
+    {
+        @Override
+        public void execute(Runnable command)
+        {
+            command.run();
+        }
+
+    };
+
+    private final List<Reading[]> windows = new ArrayList<>();
+    private final List<Integer> triggerIndexes = new ArrayList<>();
+
+    private final TriggeredCapture.Listener listener = new TriggeredCapture.Listener()
+    {
+        @Override
+        public void captureEvent(Reading[] readings, int triggerIndex)
+        {
+            windows.add(readings);
+            triggerIndexes.add(triggerIndex);
+        }
+
+    };
+
+    public TriggeredCaptureTest()
+    {
+    }
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+    @Before
+    public void setUp()
+    {
+        windows.clear();
+        triggerIndexes.clear();
+    }
+
+    @After
+    public void tearDown()
+    {
+    }
+
+    @Test
+    public void testWindows()
+    {
+        Data data = new Data();
+
+        ChangeFilter trigger = new ChangeFilter();
+        trigger.setAnnunciatorEdges(Reading.Annunciator.HOLD, 0);
+
+        // The first Reading is always accepted by a ChangeFilter, so prime it.
+        trigger.accept(data.publish(0), Reading.Change.ALL);
+
+        TriggeredCapture capture = new TriggeredCapture(trigger, 3, 2, listener, DIRECT_EXECUTOR);
+        Reading previous = null;
+
+        for (int i = 1; i <= 20; i ++)
+        {
+            // Hold is set on readings 6-7 and 15, and again on 17 (within the post-trigger window of 15).
+            data.annunciators.hold = (i == 6) || (i == 7) || (i == 15) || (i == 17);
+
+            Reading reading = data.publish(i);
+            capture.readingEvent(reading, reading.getChanges(previous));
+            previous = reading;
+        }
+
+        assertThat(capture.getCaptures(), equalTo(2L));
+        assertThat(windows.size(), equalTo(2));
+
+        assertThat(timestamps(windows.get(0)), contains(3L, 4L, 5L, 6L, 7L, 8L));
+        assertThat(triggerIndexes.get(0), equalTo(3));
+
+        // The pre-trigger Readings are the three before the trigger.
+        assertThat(timestamps(windows.get(1)), contains(12L, 13L, 14L, 15L, 16L, 17L));
+        assertThat(triggerIndexes.get(1), equalTo(3));
+    }
+
+    @Test
+    public void testShortPreTrigger()
+    {
+        Data data = new Data();
+
+        ReadingFilter atTwo = new ReadingFilter()
+        {
+            @Override
+            public boolean accept(Reading reading, int changes)
+            {
+                return reading.getTimestamp() == 2;
+            }
+
+        };
+
+        TriggeredCapture capture = new TriggeredCapture(atTwo, 5, 0, listener, DIRECT_EXECUTOR);
+
+        for (int i = 1; i <= 3; i ++)
+        {
+            capture.readingEvent(data.publish(i), 0);
+        }
+
+        assertThat(timestamps(windows.get(0)), contains(1L, 2L));
+        assertThat(triggerIndexes.get(0), equalTo(1));
+    }
+
+    @Test
+    public void testBackToBack()
+    {
+        Data data = new Data();
+
+        ReadingFilter atSixAndNine = new ReadingFilter()
+        {
+            @Override
+            public boolean accept(Reading reading, int changes)
+            {
+                return (reading.getTimestamp() == 6) || (reading.getTimestamp() == 9);
+            }
+
+        };
+
+        TriggeredCapture capture = new TriggeredCapture(atSixAndNine, 3, 2, listener, DIRECT_EXECUTOR);
+
+        for (int i = 1; i <= 12; i ++)
+        {
+            capture.readingEvent(data.publish(i), 0);
+        }
+
+        // The second event, straight after the first window, still has a full pre-trigger window.
+        assertThat(windows.size(), equalTo(2));
+        assertThat(timestamps(windows.get(0)), contains(3L, 4L, 5L, 6L, 7L, 8L));
+        assertThat(timestamps(windows.get(1)), contains(6L, 7L, 8L, 9L, 10L, 11L));
+    }
+
+    @Test
+    public void testRejected()
+    {
+        Data data = new Data();
+
+        ReadingFilter always = new ReadingFilter()
+        {
+            @Override
+            public boolean accept(Reading reading, int changes)
+            {
+                return true;
+            }
+
+        };
+
+        Executor rejecting = new Executor()
+        {
+            @Override
+            public void execute(Runnable command)
+            {
+                throw new RejectedExecutionException("Shut down.");
+            }
+
+        };
+
+        TriggeredCapture capture = new TriggeredCapture(always, 1, 0, listener, rejecting);
+
+        // Never thrown to the decoder thread, and the trigger is re-armed.
+        capture.readingEvent(data.publish(1), 0);
+        capture.readingEvent(data.publish(2), 0);
+
+        assertThat(capture.getRejected(), equalTo(2L));
+        assertThat(capture.getCaptures(), equalTo(0L));
+    }
+
+    private static List<Long> timestamps(Reading[] readings)
+    {
+        List<Long> timestamps = new ArrayList<>();
+
+        for (Reading reading : readings)
+        {
+            timestamps.add(reading.getTimestamp());
+        }
+
+        return timestamps;
+    }
+
+}
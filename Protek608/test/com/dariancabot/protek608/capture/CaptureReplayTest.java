@@ -0,0 +1,269 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608.capture;
+
+import com.dariancabot.protek608.Communications;
+import com.dariancabot.protek608.Data;
+import com.dariancabot.protek608.Decoder;
+import com.dariancabot.protek608.Protek608;
+import com.dariancabot.protek608.Reading;
+import com.dariancabot.protek608.ReadingListener;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class CaptureReplayTest
+{
+    /**
+     * Valid packet: main " 0.0015" V DC, sub "  10.50" MΩ.
+     */
+    private static final byte[] PACKET_A =
+    {
+        0x5b, 0x0d, 0x0f, 0x05, 0x00, 0x00, 0x00, 0x00, 0x00, 0x01, 0x02, 0x08, 0x0f, 0x0d, 0x0f,
+        0x05, 0x0f, 0x05, 0x00, 0x0c, 0x00, 0x00, 0x00, 0x00, 0x05, 0x0b, 0x06, 0x00, 0x00, 0x02,
+        0x00, 0x00, 0x00, 0x00, 0x08, 0x04, 0x00, 0x05, 0x0f, 0x06, 0x0b, 0x00, 0x5d
+    };
+
+    /**
+     * Valid packet: main "  5hrt", sub " 00.001" kΩ.
+     */
+    private static final byte[] PACKET_B =
+    {
+        0x5b, 0x05, 0x0f, 0x0d, 0x0f, 0x05, 0x0f, 0x02, 0x01, 0x00, 0x00, 0x00, 0x00, 0x00, 0x0b,
+        0x06, 0x06, 0x06, 0x00, 0x08, 0x00, 0x00, 0x00, 0x04, 0x02, 0x0e, 0x02, 0x00, 0x00, 0x00,
+        0x00, 0x00, 0x00, 0x00, 0x00, 0x0c, 0x00, 0x05, 0x00, 0x05, 0x0f, 0x02, 0x5d
+    };
+
+    private File file;
+    private final List<Reading> readings = new ArrayList<>();
+
+    private final ReadingListener listener = new ReadingListener()
+    {
+        @Override
+        public void readingEvent(Reading reading, int changes)
+        {
+            readings.add(reading);
+        }
+
+    };
+
+    public CaptureReplayTest()
+    {
+    }
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+    @Before
+    public void setUp() throws IOException
+    {
+        file = File.createTempFile("protek608", ".cap");
+        file.delete();
+        readings.clear();
+
+        // Record packets A, B, A, B, A at 1000, 1100, 1200...
+        try (CaptureWriter writer = new CaptureWriter(file))
+        {
+            Decoder decoder = new Decoder(new Data());
+            decoder.addReadingListener(writer);
+
+            for (int i = 0; i < 5; i ++)
+            {
+                decoder.decodeSerialData(((i % 2) == 0) ? PACKET_A : PACKET_B, 1000 + (i * 100));
+            }
+        }
+    }
+
+    @After
+    public void tearDown()
+    {
+        file.delete();
+    }
+
+    @Test
+    public void testMaxSpeed() throws IOException
+    {
+        Data data = new Data();
+        Decoder decoder = new Decoder(data);
+        decoder.addReadingListener(listener);
+
+        try (CaptureReader reader = new CaptureReader(file))
+        {
+            CaptureReplay replay = new CaptureReplay(reader, new Communications(null, decoder));
+            replay.setSpeed(CaptureReplay.MAX_SPEED);
+            replay.run();
+
+            assertThat(replay.getPackets(), equalTo(5L));
+            assertThat(replay.getPacketsPerSecond(), greaterThan(0.0));
+        }
+
+        // Every packet is decoded, with its recorded timestamp.
+        assertThat(readings.size(), equalTo(5));
+
+        for (int i = 0; i < 5; i ++)
+        {
+            assertThat(readings.get(i).getTimestamp(), equalTo(1000L + (i * 100)));
+            assertThat(readings.get(i).getMainValue().isNumeric(), equalTo((i % 2) == 0));
+        }
+
+        assertThat(data.getReading().getMainValue().getValue(), equalTo("0.0015"));
+    }
+
+    @Test
+    public void testPacedRange() throws IOException
+    {
+        Decoder decoder = new Decoder(new Data());
+        decoder.addReadingListener(listener);
+
+        try (CaptureReader reader = new CaptureReader(file))
+        {
+            CaptureReplay replay = new CaptureReplay(reader, new Communications(null, decoder));
+            replay.setSpeed(4);
+            replay.replay(1, 5); // 300 ms recorded, so at least 75 ms.
+
+            assertThat(replay.getPackets(), equalTo(4L));
+            assertThat(replay.getElapsedNanos(), greaterThanOrEqualTo(75000000L));
+        }
+
+        assertThat(readings.size(), equalTo(4));
+        assertThat(readings.get(0).getTimestamp(), equalTo(1100L));
+    }
+
+    @Test
+    public void testProtek608Replay() throws IOException
+    {
+        Protek608 protek608 = new Protek608();
+        protek608.addReadingListener(listener);
+
+        try (CaptureReader reader = new CaptureReader(file))
+        {
+            CaptureReplay replay = protek608.replay(reader, CaptureReplay.MAX_SPEED);
+
+            assertThat(replay.getPackets(), equalTo(5L));
+        }
+
+        // Delivered to the Protek608's listeners and data, as if live.
+        assertThat(readings.size(), equalTo(5));
+        assertThat(readings.get(4).getTimestamp(), equalTo(1400L));
+        assertThat(protek608.data.getReading().getMainValue().getValue(), equalTo("0.0015"));
+        assertThat(protek608.data.mainValue.statistics.getSamples(), equalTo(3L));
+        assertThat(protek608.data.mainValue.statistics.isEnabled(), equalTo(false));
+    }
+
+    @Test
+    public void testStoppedBeforeRun() throws IOException
+    {
+        Decoder decoder = new Decoder(new Data());
+        decoder.addReadingListener(listener);
+
+        try (CaptureReader reader = new CaptureReader(file))
+        {
+            // A stop before the replay starts isn't lost.
+            CaptureReplay replay = new CaptureReplay(reader, new Communications(null, decoder));
+            replay.stop();
+            replay.run();
+
+            assertThat(replay.getPackets(), equalTo(0L));
+        }
+
+        assertThat(readings.size(), equalTo(0));
+    }
+
+    @Test
+    public void testConnectWhileReplaying() throws IOException
+    {
+        final Protek608 protek608 = new Protek608();
+        final List<RuntimeException> errors = new ArrayList<>();
+
+        protek608.addReadingListener(new ReadingListener()
+        {
+            @Override
+            public void readingEvent(Reading reading, int changes)
+            {
+                try
+                {
+                    protek608.connectSerialPort("COM99");
+                }
+                catch (IllegalStateException e)
+                {
+                    errors.add(e);
+                }
+            }
+
+        });
+
+        try (CaptureReader reader = new CaptureReader(file))
+        {
+            protek608.replay(reader, CaptureReplay.MAX_SPEED);
+        }
+
+        assertThat(errors.size(), equalTo(5));
+    }
+
+    @Test
+    public void testFraming()
+    {
+        Decoder decoder = new Decoder(new Data());
+        decoder.addReadingListener(listener);
+        Communications communications = new Communications(null, decoder);
+
+        // Noise, then two packets back to back, then a packet split across two reads.
+        byte[] bytes = new byte[3 + 43 + 43];
+        bytes[0] = 0x01;
+        bytes[1] = 0x5d;
+        bytes[2] = 0x0f;
+        System.arraycopy(PACKET_A, 0, bytes, 3, 43);
+        System.arraycopy(PACKET_B, 0, bytes, 46, 43);
+        communications.receiveBytes(bytes, 10);
+
+        communications.receiveBytes(java.util.Arrays.copyOfRange(PACKET_A, 0, 20), 20);
+        communications.receiveBytes(java.util.Arrays.copyOfRange(PACKET_A, 20, 43), 30);
+
+        assertThat(readings.size(), equalTo(3));
+        assertThat(readings.get(1).getMainValue().getValue(), equalTo("5hrt"));
+        assertThat(readings.get(2).getTimestamp(), equalTo(30L));
+    }
+
+}
@@ -0,0 +1,323 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608.capture;
+
+import com.dariancabot.protek608.Data;
+import com.dariancabot.protek608.Decoder;
+import com.dariancabot.protek608.Reading;
+import com.dariancabot.protek608.ReadingFilter;
+import com.dariancabot.protek608.TriggeredCapture;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.Executor;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class CaptureTest
+{
+    /**
+     * Valid packet: main " 0.0015" V DC, sub "  10.50" MΩ.
+     */
+    private static final byte[] PACKET_A =
+    {
+        0x5b, 0x0d, 0x0f, 0x05, 0x00, 0x00, 0x00, 0x00, 0x00, 0x01, 0x02, 0x08, 0x0f, 0x0d, 0x0f,
+        0x05, 0x0f, 0x05, 0x00, 0x0c, 0x00, 0x00, 0x00, 0x00, 0x05, 0x0b, 0x06, 0x00, 0x00, 0x02,
+        0x00, 0x00, 0x00, 0x00, 0x08, 0x04, 0x00, 0x05, 0x0f, 0x06, 0x0b, 0x00, 0x5d
+    };
+
+    /**
+     * Valid packet: main "  5hrt", sub " 00.001" kΩ.
+     */
+    private static final byte[] PACKET_B =
+    {
+        0x5b, 0x05, 0x0f, 0x0d, 0x0f, 0x05, 0x0f, 0x02, 0x01, 0x00, 0x00, 0x00, 0x00, 0x00, 0x0b,
+        0x06, 0x06, 0x06, 0x00, 0x08, 0x00, 0x00, 0x00, 0x04, 0x02, 0x0e, 0x02, 0x00, 0x00, 0x00,
+        0x00, 0x00, 0x00, 0x00, 0x00, 0x0c, 0x00, 0x05, 0x00, 0x05, 0x0f, 0x02, 0x5d
+    };
+
+    private File file;
+
+    public CaptureTest()
+    {
+    }
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+    @Before
+    public void setUp() throws IOException
+    {
+        file = File.createTempFile("protek608", ".cap");
+        file.delete();
+    }
+
+    @After
+    public void tearDown()
+    {
+        file.delete();
+        CaptureFormat.getIndexFile(file).delete();
+    }
+
+    /**
+     * Decodes packets A, B, A, B... with a CaptureWriter listening.
+     */
+    private static void capture(CaptureWriter writer, int count)
+    {
+        Decoder decoder = new Decoder(new Data());
+        decoder.addReadingListener(writer);
+
+        for (int i = 0; i < count; i ++)
+        {
+            decoder.decodeSerialData(((i % 2) == 0) ? PACKET_A : PACKET_B);
+        }
+    }
+
+    @Test
+    public void testRawRoundTrip() throws IOException
+    {
+        long start = System.currentTimeMillis();
+
+        CaptureWriter writer = new CaptureWriter(file, CaptureFormat.RAW, 4);
+        capture(writer, 10);
+        writer.close();
+
+        assertThat(writer.getRecords(), equalTo(10L));
+        assertThat(file.length(), equalTo(CaptureFormat.HEADER_SIZE + (10L * 51)));
+
+        try (CaptureReader reader = new CaptureReader(file))
+        {
+            byte[] packet = new byte[43];
+
+            assertThat(reader.getFormat(), equalTo(CaptureFormat.RAW));
+            assertThat(reader.getRecords(), equalTo(10L));
+            assertThat(reader.getCreated(), greaterThanOrEqualTo(start));
+
+            for (long i = 0; i < 10; i ++)
+            {
+                reader.getPacketRaw(i, packet);
+                assertThat(packet, equalTo(((i % 2) == 0) ? PACKET_A : PACKET_B));
+                assertThat(reader.getTimestamp(i), greaterThanOrEqualTo(start));
+            }
+        }
+    }
+
+    @Test
+    public void testTidyAppend() throws IOException
+    {
+        CaptureWriter writer = new CaptureWriter(file, CaptureFormat.TIDY, 64);
+        capture(writer, 3);
+        writer.close();
+
+        // Simulate a crash part way through writing a record.
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+        {
+            raf.setLength(raf.length() + 7);
+        }
+
+        // Reopening drops the partial record and appends.
+        writer = new CaptureWriter(file, CaptureFormat.TIDY, 64);
+        assertThat(writer.getRecords(), equalTo(3L));
+        capture(writer, 2);
+        writer.close();
+
+        assertThat(file.length(), equalTo(CaptureFormat.HEADER_SIZE + (5L * 29)));
+
+        try (CaptureReader reader = new CaptureReader(file))
+        {
+            byte[] packet = new byte[43];
+
+            assertThat(reader.getFormat(), equalTo(CaptureFormat.TIDY));
+            assertThat(reader.getRecords(), equalTo(5L));
+
+            // Tidy packets rebuild the exact raw packet.
+            reader.getPacketRaw(2, packet);
+            assertThat(packet, equalTo(PACKET_A));
+            reader.getPacketRaw(4, packet);
+            assertThat(packet, equalTo(PACKET_B));
+        }
+
+        // The format can't be changed on append.
+        try
+        {
+            new CaptureWriter(file, CaptureFormat.RAW, 64);
+            fail("Expected IOException");
+        }
+        catch (IOException e)
+        {
+            assertThat(e.getMessage(), containsString("TIDY"));
+        }
+    }
+
+    @Test
+    public void testTimeIndex() throws IOException
+    {
+        // 100 records, 500 ms apart from 1000, indexed every 8 records.
+        try (CaptureWriter writer = new CaptureWriter(file, CaptureFormat.RAW, 16, 8))
+        {
+            Decoder decoder = new Decoder(new Data());
+            decoder.addReadingListener(writer);
+
+            for (int i = 0; i < 100; i ++)
+            {
+                decoder.decodeSerialData(((i % 2) == 0) ? PACKET_A : PACKET_B, 1000 + (i * 500));
+            }
+        }
+
+        File indexFile = CaptureFormat.getIndexFile(file);
+        assertThat(indexFile.length(), equalTo((long) CaptureFormat.INDEX_HEADER_SIZE + (13 * CaptureFormat.INDEX_ENTRY_SIZE)));
+
+        try (CaptureReader reader = new CaptureReader(file))
+        {
+            assertThat(reader.isIndexed(), equalTo(true));
+            checkSeek(reader);
+        }
+
+        // Without the index, seeking falls back to searching the records.
+        indexFile.delete();
+
+        try (CaptureReader reader = new CaptureReader(file))
+        {
+            assertThat(reader.isIndexed(), equalTo(false));
+            checkSeek(reader);
+        }
+
+        // Reopening the writer rebuilds the index.
+        new CaptureWriter(file, CaptureFormat.RAW, 16, 8).close();
+        assertThat(indexFile.length(), equalTo((long) CaptureFormat.INDEX_HEADER_SIZE + (13 * CaptureFormat.INDEX_ENTRY_SIZE)));
+
+        try (CaptureReader reader = new CaptureReader(file))
+        {
+            assertThat(reader.isIndexed(), equalTo(true));
+            checkSeek(reader);
+        }
+    }
+
+    private static void checkSeek(CaptureReader reader)
+    {
+        assertThat(reader.findRecord(0), equalTo(0L));
+        assertThat(reader.findRecord(1000), equalTo(0L));
+        assertThat(reader.findRecord(1001), equalTo(1L));
+        assertThat(reader.findRecord(1000 + (40 * 500)), equalTo(40L));
+        assertThat(reader.findRecord(1000 + (63 * 500) - 1), equalTo(63L));
+        assertThat(reader.findRecord(1000 + (99 * 500)), equalTo(99L));
+        assertThat(reader.findRecord(Long.MAX_VALUE), equalTo(100L));
+
+        List<Reading> readings = reader.getReadings(1000 + (10 * 500), 1000 + (14 * 500));
+
+        assertThat(readings.size(), equalTo(4));
+        assertThat(readings.get(0).getTimestamp(), equalTo(6000L));
+        assertThat(readings.get(0).getMainValue().getValue(), equalTo("0.0015"));
+        assertThat(readings.get(3).getTimestamp(), equalTo(7500L));
+    }
+
+    @Test
+    public void testWindowWriter() throws IOException
+    {
+        File directory = Files.createTempDirectory("protek608").toFile();
+
+        try
+        {
+            ReadingFilter atThree = new ReadingFilter()
+            {
+                @Override
+                public boolean accept(Reading reading, int changes)
+                {
+                    return reading.getTimestamp() == 3;
+                }
+
+            };
+
+            Executor direct = new Executor()
+            {
+                @Override
+                public void execute(Runnable command)
+                {
+                    command.run();
+                }
+
+            };
+
+            CaptureWindowWriter writer = new CaptureWindowWriter(directory);
+            Decoder decoder = new Decoder(new Data());
+            decoder.addReadingListener(new TriggeredCapture(atThree, 2, 1, writer, direct));
+
+            for (int i = 1; i <= 6; i ++)
+            {
+                decoder.decodeSerialData(((i % 2) == 0) ? PACKET_A : PACKET_B, i);
+            }
+
+            writer.close();
+            assertThat(writer.getWindows(), equalTo(1L));
+            assertThat(directory.list(), arrayContaining("3.cap"));
+
+            // A window after close() isn't written.
+            decoder.decodeSerialData(PACKET_A, 3);
+            decoder.decodeSerialData(PACKET_B, 7);
+            assertThat(writer.getWindows(), equalTo(1L));
+            assertThat(directory.list(), arrayContaining("3.cap"));
+
+            try (CaptureReader reader = new CaptureReader(new File(directory, "3.cap")))
+            {
+                assertThat(reader.getRecords(), equalTo(4L));
+                assertThat(reader.getTimestamp(0), equalTo(1L));
+                assertThat(reader.getTimestamp(3), equalTo(4L));
+
+                byte[] packet = new byte[43];
+                reader.getPacketRaw(1, packet);
+                assertThat(packet, equalTo(PACKET_A));
+            }
+        }
+        finally
+        {
+            for (File file : directory.listFiles())
+            {
+                file.delete();
+            }
+
+            directory.delete();
+        }
+    }
+
+}
@@ -0,0 +1,292 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608.capture;
+
+import com.dariancabot.protek608.Data;
+import com.dariancabot.protek608.Decoder;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class PacketLogTest
+{
+    /**
+     * Valid packet: main " 0.0015" V DC, sub "  10.50" MΩ.
+     */
+    private static final byte[] PACKET_A =
+    {
+        0x5b, 0x0d, 0x0f, 0x05, 0x00, 0x00, 0x00, 0x00, 0x00, 0x01, 0x02, 0x08, 0x0f, 0x0d, 0x0f,
+        0x05, 0x0f, 0x05, 0x00, 0x0c, 0x00, 0x00, 0x00, 0x00, 0x05, 0x0b, 0x06, 0x00, 0x00, 0x02,
+        0x00, 0x00, 0x00, 0x00, 0x08, 0x04, 0x00, 0x05, 0x0f, 0x06, 0x0b, 0x00, 0x5d
+    };
+
+    /**
+     * Valid packet: main "  5hrt", sub " 00.001" kΩ.
+     */
+    private static final byte[] PACKET_B =
+    {
+        0x5b, 0x05, 0x0f, 0x0d, 0x0f, 0x05, 0x0f, 0x02, 0x01, 0x00, 0x00, 0x00, 0x00, 0x00, 0x0b,
+        0x06, 0x06, 0x06, 0x00, 0x08, 0x00, 0x00, 0x00, 0x04, 0x02, 0x0e, 0x02, 0x00, 0x00, 0x00,
+        0x00, 0x00, 0x00, 0x00, 0x00, 0x0c, 0x00, 0x05, 0x00, 0x05, 0x0f, 0x02, 0x5d
+    };
+
+    private static final int PACKETS = 2000;
+
+    private File file;
+    private byte[][] packets;
+    private long[] timestamps;
+
+    public PacketLogTest()
+    {
+    }
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+    @Before
+    public void setUp() throws IOException
+    {
+        file = File.createTempFile("protek608", ".plg");
+        file.delete();
+
+        // Long runs of identical packets, some with a changed digit, a mode change, and one with noise in an unused nibble.
+        Random random = new Random(608);
+        packets = new byte[PACKETS][];
+        timestamps = new long[PACKETS];
+        long timestamp = 1400000000000L;
+
+        for (int i = 0; i < PACKETS; i ++)
+        {
+            byte[] packet = ((i / 500) == 2) ? PACKET_B.clone() : PACKET_A.clone();
+
+            if ((i % 40) >= 30)
+            {
+                packet[5] = (byte) (i % 10);
+            }
+
+            if (i == 1234)
+            {
+                packet[7] = 0x31;
+            }
+
+            timestamp += 498 + random.nextInt(5);
+            packets[i] = packet;
+            timestamps[i] = timestamp;
+        }
+    }
+
+    @After
+    public void tearDown()
+    {
+        file.delete();
+    }
+
+    @Test
+    public void testLossless() throws IOException
+    {
+        try (PacketLogWriter writer = new PacketLogWriter(file, 64))
+        {
+            for (int i = 0; i < PACKETS; i ++)
+            {
+                writer.append(timestamps[i], packets[i]);
+            }
+
+            assertThat(writer.getRecords(), equalTo((long) PACKETS));
+        }
+
+        // Much smaller than a raw capture file.
+        long captureSize = CaptureFormat.HEADER_SIZE + ((long) PACKETS * CaptureFormat.RAW.getRecordSize());
+        assertThat(file.length() * 10, lessThan(captureSize));
+
+        try (PacketLogReader reader = new PacketLogReader(file))
+        {
+            checkFrom(reader, 0);
+            assertThat(reader.next(), equalTo(false));
+
+            // Seek within and to the start of blocks.
+            assertThat(reader.seek(timestamps[1000] - 1), equalTo(true));
+            checkFrom(reader, 1000);
+
+            assertThat(reader.seek(timestamps[64 * 20]), equalTo(true));
+            checkFrom(reader, 64 * 20);
+
+            assertThat(reader.seek(0), equalTo(true));
+            checkFrom(reader, 0);
+
+            assertThat(reader.seek(timestamps[PACKETS - 1] + 1), equalTo(false));
+        }
+    }
+
+    @Test
+    public void testAppend() throws IOException
+    {
+        try (PacketLogWriter writer = new PacketLogWriter(file, 64))
+        {
+            for (int i = 0; i < 100; i ++)
+            {
+                writer.append(timestamps[i], packets[i]);
+            }
+        }
+
+        // Simulate a crash part way through writing a block.
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+        {
+            raf.setLength(raf.length() - 3);
+        }
+
+        try (PacketLogReader reader = new PacketLogReader(file))
+        {
+            int count = 0;
+
+            while (reader.next())
+            {
+                count ++;
+            }
+
+            assertThat(count, equalTo(64));
+        }
+
+        // Reopening drops the partial block, and appends.
+        try (PacketLogWriter writer = new PacketLogWriter(file, 64))
+        {
+            assertThat(writer.getRecords(), equalTo(64L));
+
+            for (int i = 64; i < PACKETS; i ++)
+            {
+                writer.append(timestamps[i], packets[i]);
+            }
+        }
+
+        try (PacketLogReader reader = new PacketLogReader(file))
+        {
+            checkFrom(reader, 0);
+        }
+    }
+
+    @Test
+    public void testSeekDuplicateTimes() throws IOException
+    {
+        // The second block starts at the same time as the last packet of the first.
+        long[] times =
+        {
+            1000, 1500, 2000, 2500, 2500, 3000
+        };
+
+        try (PacketLogWriter writer = new PacketLogWriter(file, 4))
+        {
+            for (int i = 0; i < times.length; i ++)
+            {
+                writer.append(times[i], packets[i]);
+            }
+        }
+
+        try (PacketLogReader reader = new PacketLogReader(file))
+        {
+            byte[] packet = new byte[43];
+
+            assertThat(reader.seek(2500), equalTo(true));
+
+            for (int i = 3; i < times.length; i ++)
+            {
+                assertThat(reader.next(), equalTo(true));
+                assertThat(reader.getTimestamp(), equalTo(times[i]));
+
+                reader.copyPacketRaw(packet);
+                assertThat(packet, equalTo(packets[i]));
+            }
+
+            assertThat(reader.next(), equalTo(false));
+        }
+    }
+
+    @Test
+    public void testFlushInterval() throws IOException
+    {
+        try (PacketLogWriter writer = new PacketLogWriter(file, 64))
+        {
+            Decoder decoder = new Decoder(new Data());
+            decoder.addReadingListener(writer);
+
+            // Buffered in the block until the interval passes.
+            decoder.decodeSerialData(packets[0], timestamps[0]);
+            assertThat(file.length(), equalTo((long) PacketLogWriter.HEADER_SIZE));
+
+            // Every Reading is written straight away, without flush().
+            writer.setFlushInterval(0);
+            decoder.decodeSerialData(packets[1], timestamps[1]);
+            decoder.decodeSerialData(packets[2], timestamps[2]);
+
+            try (PacketLogReader reader = new PacketLogReader(file))
+            {
+                int count = 0;
+
+                while (reader.next())
+                {
+                    count ++;
+                }
+
+                assertThat(count, equalTo(3));
+            }
+        }
+    }
+
+    /**
+     * Checks the reader gives every packet from an index to the end.
+     */
+    private void checkFrom(PacketLogReader reader, int from) throws IOException
+    {
+        byte[] packet = new byte[43];
+
+        for (int i = from; i < PACKETS; i ++)
+        {
+            assertThat(reader.next(), equalTo(true));
+            assertThat(reader.getTimestamp(), equalTo(timestamps[i]));
+
+            reader.copyPacketRaw(packet);
+            assertThat("Packet " + i, packet, equalTo(packets[i]));
+        }
+    }
+
+}
@@ -0,0 +1,204 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608.export;
+
+import com.dariancabot.protek608.Data;
+import com.dariancabot.protek608.Decoder;
+import com.dariancabot.protek608.capture.CaptureFormat;
+import com.dariancabot.protek608.capture.CaptureReader;
+import com.dariancabot.protek608.capture.CaptureWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class NpyExporterTest
+{
+    /**
+     * Valid packet: main " 0.0015" V DC, sub "  10.50" MΩ.
+     */
+    private static final byte[] PACKET_A =
+    {
+        0x5b, 0x0d, 0x0f, 0x05, 0x00, 0x00, 0x00, 0x00, 0x00, 0x01, 0x02, 0x08, 0x0f, 0x0d, 0x0f,
+        0x05, 0x0f, 0x05, 0x00, 0x0c, 0x00, 0x00, 0x00, 0x00, 0x05, 0x0b, 0x06, 0x00, 0x00, 0x02,
+        0x00, 0x00, 0x00, 0x00, 0x08, 0x04, 0x00, 0x05, 0x0f, 0x06, 0x0b, 0x00, 0x5d
+    };
+
+    /**
+     * Valid packet: main "  5hrt", sub " 00.001" kΩ.
+     */
+    private static final byte[] PACKET_B =
+    {
+        0x5b, 0x05, 0x0f, 0x0d, 0x0f, 0x05, 0x0f, 0x02, 0x01, 0x00, 0x00, 0x00, 0x00, 0x00, 0x0b,
+        0x06, 0x06, 0x06, 0x00, 0x08, 0x00, 0x00, 0x00, 0x04, 0x02, 0x0e, 0x02, 0x00, 0x00, 0x00,
+        0x00, 0x00, 0x00, 0x00, 0x00, 0x0c, 0x00, 0x05, 0x00, 0x05, 0x0f, 0x02, 0x5d
+    };
+
+    private File directory;
+
+    public NpyExporterTest()
+    {
+    }
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+    @Before
+    public void setUp() throws IOException
+    {
+        directory = Files.createTempDirectory("protek608").toFile();
+    }
+
+    @After
+    public void tearDown()
+    {
+        for (File file : directory.listFiles())
+        {
+            file.delete();
+        }
+
+        directory.delete();
+    }
+
+    /**
+     * Reads a .npy file, checking its header.
+     */
+    private static ByteBuffer read(File file, String descriptor, long rows) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+
+        assertThat(buffer.get(0), equalTo((byte) 0x93));
+        assertThat(new String(buffer.array(), 1, 5, StandardCharsets.US_ASCII), equalTo("NUMPY"));
+
+        int length = buffer.getShort(8);
+        String header = new String(buffer.array(), 10, length, StandardCharsets.US_ASCII);
+
+        assertThat(10 + length, equalTo(NpyExporter.HEADER_SIZE));
+        assertThat((10 + length) % 64, equalTo(0));
+        assertThat(header, startsWith("{'descr': '" + descriptor + "', 'fortran_order': False, 'shape': (" + rows + ",), }"));
+        assertThat(header, endsWith(" \n"));
+
+        buffer.position(NpyExporter.HEADER_SIZE);
+
+        return buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Test
+    public void testLive() throws IOException
+    {
+        NpyExporter exporter = new NpyExporter(directory);
+        Decoder decoder = new Decoder(new Data());
+        decoder.addReadingListener(exporter);
+
+        for (int i = 0; i < 5000; i ++) // More than one batch.
+        {
+            decoder.decodeSerialData(((i % 2) == 0) ? PACKET_A : PACKET_B, 1000L + i);
+        }
+
+        exporter.close();
+
+        assertThat(exporter.getRows(), equalTo(5000L));
+        assertThat(directory.list().length, equalTo(5));
+
+        ByteBuffer timestamps = read(new File(directory, "timestamp.npy"), "<i8", 5000);
+        ByteBuffer main = read(new File(directory, "main_si.npy"), "<f8", 5000);
+        ByteBuffer mainUnits = read(new File(directory, "main_unit.npy"), "<i4", 5000);
+        ByteBuffer sub = read(new File(directory, "sub_si.npy"), "<f8", 5000);
+        ByteBuffer subUnits = read(new File(directory, "sub_unit.npy"), "<i4", 5000);
+
+        assertThat(timestamps.remaining(), equalTo(5000 * 8));
+        assertThat(mainUnits.remaining(), equalTo(5000 * 4));
+
+        for (int i = 0; i < 5000; i ++)
+        {
+            assertThat(timestamps.getLong(i * 8), equalTo(1000L + i));
+        }
+
+        assertThat(main.getDouble(0), equalTo(0.0015));
+        assertThat(Double.isNaN(main.getDouble(8)), equalTo(true));
+        assertThat(sub.getDouble(0), equalTo(10.5e6));
+        assertThat(subUnits.getInt(0), not(equalTo(subUnits.getInt(4)))); // MΩ then kΩ.
+        assertThat(subUnits.getInt(0), equalTo(subUnits.getInt(8)));
+    }
+
+    @Test
+    public void testCapture() throws IOException
+    {
+        File file = new File(directory, "session.cap");
+        CaptureWriter writer = new CaptureWriter(file, CaptureFormat.TIDY, 16, 0);
+        Decoder decoder = new Decoder(new Data());
+        decoder.addReadingListener(writer);
+
+        for (int i = 0; i < 100; i ++)
+        {
+            decoder.decodeSerialData(((i % 2) == 0) ? PACKET_A : PACKET_B, 5000L + (i * 500));
+        }
+
+        writer.close();
+
+        File export = new File(directory, "export");
+        long rows;
+
+        try (CaptureReader reader = new CaptureReader(file))
+        {
+            rows = NpyExporter.export(reader, export);
+        }
+
+        assertThat(rows, equalTo(100L));
+
+        ByteBuffer timestamps = read(new File(export, "timestamp.npy"), "<i8", 100);
+
+        assertThat(timestamps.getLong(99 * 8), equalTo(5000L + (99 * 500)));
+
+        for (File exported : export.listFiles())
+        {
+            exported.delete();
+        }
+
+        export.delete();
+    }
+
+}
@@ -0,0 +1,205 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608.export;
+
+import com.dariancabot.protek608.Data;
+import com.dariancabot.protek608.Decoder;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class ReadingExporterTest
+{
+    /**
+     * Valid packet: main " 0.0015" V DC, sub "  10.50" MΩ.
+     */
+    private static final byte[] PACKET_A =
+    {
+        0x5b, 0x0d, 0x0f, 0x05, 0x00, 0x00, 0x00, 0x00, 0x00, 0x01, 0x02, 0x08, 0x0f, 0x0d, 0x0f,
+        0x05, 0x0f, 0x05, 0x00, 0x0c, 0x00, 0x00, 0x00, 0x00, 0x05, 0x0b, 0x06, 0x00, 0x00, 0x02,
+        0x00, 0x00, 0x00, 0x00, 0x08, 0x04, 0x00, 0x05, 0x0f, 0x06, 0x0b, 0x00, 0x5d
+    };
+
+    /**
+     * Valid packet: main "  5hrt", sub " 00.001" kΩ.
+     */
+    private static final byte[] PACKET_B =
+    {
+        0x5b, 0x05, 0x0f, 0x0d, 0x0f, 0x05, 0x0f, 0x02, 0x01, 0x00, 0x00, 0x00, 0x00, 0x00, 0x0b,
+        0x06, 0x06, 0x06, 0x00, 0x08, 0x00, 0x00, 0x00, 0x04, 0x02, 0x0e, 0x02, 0x00, 0x00, 0x00,
+        0x00, 0x00, 0x00, 0x00, 0x00, 0x0c, 0x00, 0x05, 0x00, 0x05, 0x0f, 0x02, 0x5d
+    };
+
+    private File directory;
+
+    public ReadingExporterTest()
+    {
+    }
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+    @Before
+    public void setUp() throws IOException
+    {
+        directory = Files.createTempDirectory("protek608").toFile();
+    }
+
+    @After
+    public void tearDown()
+    {
+        for (File file : directory.listFiles())
+        {
+            file.delete();
+        }
+
+        directory.delete();
+    }
+
+    /**
+     * Decodes packets A, B, A, B... 1 second apart with an exporter listening.
+     */
+    private static void export(ReadingExporter exporter, int count)
+    {
+        Decoder decoder = new Decoder(new Data());
+        decoder.addReadingListener(exporter);
+
+        for (int i = 0; i < count; i ++)
+        {
+            decoder.decodeSerialData(((i % 2) == 0) ? PACKET_A : PACKET_B, 1000L * (i + 1));
+        }
+    }
+
+    private static List<String> lines(File file) throws IOException
+    {
+        return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testCsv() throws IOException
+    {
+        File file = new File(directory, "readings.csv");
+        ReadingExporter exporter = new ReadingExporter(file, ExportFormat.CSV);
+        export(exporter, 2);
+        exporter.close();
+
+        List<String> lines = lines(file);
+
+        assertThat(exporter.getWritten(), equalTo(2L));
+        assertThat(lines.size(), equalTo(3));
+        assertThat(lines.get(0), equalTo("timestamp,main_value,main_si,main_unit,sub_value,sub_si,sub_unit,bar_graph,annunciators"));
+        assertThat(lines.get(1), startsWith("1000,0.0015,0.0015,V DC,10.50,1.05E7,M\u2126,"));
+        assertThat(lines.get(2), startsWith("2000,5hrt,,,"));
+
+        // Reopening appends, without another header.
+        exporter = new ReadingExporter(file, ExportFormat.CSV);
+        export(exporter, 1);
+        exporter.close();
+
+        assertThat(lines(file).size(), equalTo(4));
+    }
+
+    @Test
+    public void testNdjson() throws IOException
+    {
+        File file = new File(directory, "readings.ndjson");
+        ReadingExporter exporter = new ReadingExporter(file, ExportFormat.NDJSON);
+        export(exporter, 2);
+        exporter.close();
+
+        List<String> lines = lines(file);
+
+        assertThat(lines.size(), equalTo(2));
+        assertThat(lines.get(0), startsWith("{\"timestamp\":1000,\"main\":{\"value\":\"0.0015\",\"si\":0.0015,\"unit\":\"V DC\"},"
+                + "\"sub\":{\"value\":\"10.50\",\"si\":1.05E7,\"unit\":\"M\u2126\"},"));
+        assertThat(lines.get(0), endsWith("]}"));
+        assertThat(lines.get(1), containsString("\"main\":{\"value\":\"5hrt\",\"si\":null,"));
+    }
+
+    @Test
+    public void testFlush() throws IOException
+    {
+        File file = new File(directory, "readings.csv");
+        ReadingExporter exporter = new ReadingExporter(file, ExportFormat.CSV, 100, 50);
+        exporter.setFlushInterval(60000);
+        export(exporter, 10);
+
+        exporter.flush();
+        assertThat(lines(file).size(), equalTo(11));
+
+        export(exporter, 50); // A full batch is written without a flush.
+        exporter.close();
+
+        assertThat(lines(file).size(), equalTo(61));
+        assertThat(exporter.getDropped(), equalTo(0L));
+
+        export(exporter, 1);
+        assertThat(exporter.getDropped(), equalTo(1L));
+    }
+
+    @Test
+    public void testRotation() throws IOException
+    {
+        File file = new File(directory, "readings.csv");
+        ReadingExporter exporter = new ReadingExporter(file, ExportFormat.CSV, 100, 10);
+        exporter.setRotation(1000, 3);
+        export(exporter, 100);
+        exporter.close();
+
+        assertThat(exporter.getWritten(), equalTo(100L));
+        assertThat(exporter.getRotatedFile(1), equalTo(new File(directory, "readings.1.csv")));
+        assertThat(directory.list().length, equalTo(3));
+
+        for (int i = 0; i < 3; i ++)
+        {
+            List<String> lines = lines(exporter.getRotatedFile(i));
+
+            assertThat(lines.get(0), startsWith("timestamp,"));
+            assertThat(exporter.getRotatedFile(i).length(), lessThanOrEqualTo(1000L));
+        }
+    }
+
+}
@@ -0,0 +1,266 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608.ipc;
+
+import com.dariancabot.protek608.Data;
+import com.dariancabot.protek608.Decoder;
+import com.dariancabot.protek608.Reading;
+import com.dariancabot.protek608.ReadingListener;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class SharedReadingTest
+{
+    /**
+     * Valid packet: main " 0.0015" V DC, sub "  10.50" MΩ.
+     */
+    private static final byte[] PACKET_A =
+    {
+        0x5b, 0x0d, 0x0f, 0x05, 0x00, 0x00, 0x00, 0x00, 0x00, 0x01, 0x02, 0x08, 0x0f, 0x0d, 0x0f,
+        0x05, 0x0f, 0x05, 0x00, 0x0c, 0x00, 0x00, 0x00, 0x00, 0x05, 0x0b, 0x06, 0x00, 0x00, 0x02,
+        0x00, 0x00, 0x00, 0x00, 0x08, 0x04, 0x00, 0x05, 0x0f, 0x06, 0x0b, 0x00, 0x5d
+    };
+
+    /**
+     * Valid packet: main "  5hrt", sub " 00.001" kΩ.
+     */
+    private static final byte[] PACKET_B =
+    {
+        0x5b, 0x05, 0x0f, 0x0d, 0x0f, 0x05, 0x0f, 0x02, 0x01, 0x00, 0x00, 0x00, 0x00, 0x00, 0x0b,
+        0x06, 0x06, 0x06, 0x00, 0x08, 0x00, 0x00, 0x00, 0x04, 0x02, 0x0e, 0x02, 0x00, 0x00, 0x00,
+        0x00, 0x00, 0x00, 0x00, 0x00, 0x0c, 0x00, 0x05, 0x00, 0x05, 0x0f, 0x02, 0x5d
+    };
+
+    private File file;
+    private Decoder publishing;
+    private Decoder subscribing;
+    private List<Reading> received;
+
+    public SharedReadingTest()
+    {
+    }
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+    @Before
+    public void setUp() throws IOException
+    {
+        file = File.createTempFile("protek608", ".ring");
+        file.delete();
+
+        publishing = new Decoder(new Data());
+        subscribing = new Decoder(new Data());
+        received = new ArrayList<>();
+
+        subscribing.addReadingListener(new ReadingListener()
+        {
+            @Override
+            public void readingEvent(Reading reading, int changes)
+            {
+                received.add(reading);
+            }
+        });
+    }
+
+    @After
+    public void tearDown()
+    {
+        file.delete();
+    }
+
+    /**
+     * Publishes packets A, B, A, B... with timestamps from the start time.
+     */
+    private void publish(int count, long start)
+    {
+        for (int i = 0; i < count; i ++)
+        {
+            publishing.decodeSerialData(((i % 2) == 0) ? PACKET_A : PACKET_B, start + i);
+        }
+    }
+
+    @Test
+    public void testPublishSubscribe() throws IOException
+    {
+        SharedReadingPublisher publisher = new SharedReadingPublisher(file, 16);
+        publishing.addReadingListener(publisher);
+        publish(3, 0); // Before subscribing, so not delivered.
+
+        try (SharedReadingSubscriber subscriber = new SharedReadingSubscriber(file, subscribing))
+        {
+            assertThat(subscriber.poll(), equalTo(0));
+
+            publish(10, 1000);
+
+            assertThat(subscriber.getPublished(), equalTo(13L));
+            assertThat(subscriber.getLastPublishTime(), greaterThan(0L));
+            assertThat(subscriber.poll(), equalTo(10));
+            assertThat(subscriber.poll(), equalTo(0));
+
+            byte[] packet = new byte[43];
+
+            for (int i = 0; i < 10; i ++)
+            {
+                received.get(i).copyPacketRaw(packet);
+
+                assertThat(received.get(i).getTimestamp(), equalTo(1000L + i));
+                assertThat(packet, equalTo(((i % 2) == 0) ? PACKET_A : PACKET_B));
+            }
+
+            assertThat(received.get(0).getMainValue().getValue(), equalTo("0.0015"));
+            assertThat(subscriber.getLost(), equalTo(0L));
+        }
+
+        publisher.close();
+    }
+
+    @Test
+    public void testLapped() throws IOException
+    {
+        SharedReadingPublisher publisher = new SharedReadingPublisher(file, 16);
+        publishing.addReadingListener(publisher);
+
+        try (SharedReadingSubscriber subscriber = new SharedReadingSubscriber(file, subscribing))
+        {
+            publish(50, 0);
+
+            assertThat(subscriber.poll(), equalTo(16));
+            assertThat(subscriber.getLost(), equalTo(34L));
+            assertThat(received.get(0).getTimestamp(), equalTo(34L));
+
+            subscriber.rewind();
+
+            assertThat(subscriber.poll(), equalTo(16));
+        }
+
+        publisher.close();
+    }
+
+    @Test
+    public void testRestart() throws IOException
+    {
+        SharedReadingPublisher publisher = new SharedReadingPublisher(file, 16);
+        publishing.addReadingListener(publisher);
+        publish(5, 0);
+        publisher.close();
+
+        try (SharedReadingSubscriber subscriber = new SharedReadingSubscriber(file, subscribing))
+        {
+            // The publisher carries on from the same sequence.
+            publishing = new Decoder(new Data());
+            publisher = new SharedReadingPublisher(file, 16);
+            publishing.addReadingListener(publisher);
+
+            assertThat(publisher.getPublished(), equalTo(5L));
+
+            publish(4, 100);
+
+            assertThat(subscriber.poll(), equalTo(4));
+            assertThat(received.get(0).getTimestamp(), equalTo(100L));
+        }
+
+        publisher.close();
+    }
+
+    @Test
+    public void testResize() throws IOException
+    {
+        SharedReadingPublisher publisher = new SharedReadingPublisher(file, 16);
+        publishing.addReadingListener(publisher);
+        publish(5, 0);
+        publisher.close();
+
+        try (SharedReadingSubscriber subscriber = new SharedReadingSubscriber(file, subscribing))
+        {
+            // A different geometry replaces the file, leaving the old ring mapped by the subscriber intact.
+            publishing = new Decoder(new Data());
+            publisher = new SharedReadingPublisher(file, 32);
+            publishing.addReadingListener(publisher);
+            publish(4, 100);
+
+            assertThat(publisher.getPublished(), equalTo(4L));
+            assertThat(file.length(), equalTo(SharedReadingPublisher.HEADER_SIZE + (32L * SharedReadingPublisher.SLOT_SIZE)));
+            assertThat(subscriber.poll(), equalTo(0));
+        }
+
+        try (SharedReadingSubscriber subscriber = new SharedReadingSubscriber(file, subscribing))
+        {
+            publish(2, 200);
+
+            assertThat(subscriber.poll(), equalTo(2));
+            assertThat(received.get(0).getTimestamp(), equalTo(200L));
+        }
+
+        publisher.close();
+    }
+
+    @Test
+    public void testCorruptRecord() throws IOException
+    {
+        SharedReadingPublisher publisher = new SharedReadingPublisher(file, 16);
+        publishing.addReadingListener(publisher);
+
+        try (SharedReadingSubscriber subscriber = new SharedReadingSubscriber(file, subscribing))
+        {
+            publish(2, 0);
+
+            // Damage the packet of the second record, as if it were torn.
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+            {
+                raf.seek(SharedReadingPublisher.HEADER_SIZE + SharedReadingPublisher.SLOT_SIZE + SharedReadingPublisher.PACKET_OFFSET + 5);
+                raf.write(0x0a);
+            }
+
+            assertThat(subscriber.poll(), equalTo(1));
+            assertThat(subscriber.poll(), equalTo(0));
+        }
+
+        publisher.close();
+    }
+
+}
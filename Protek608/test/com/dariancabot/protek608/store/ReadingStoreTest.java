@@ -0,0 +1,352 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608.store;
+
+import com.dariancabot.protek608.Data;
+import com.dariancabot.protek608.Decoder;
+import com.dariancabot.protek608.Reading;
+import com.dariancabot.protek608.ReadingListener;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class ReadingStoreTest
+{
+    /**
+     * Valid packet: main " 0.0015" V DC, sub "  10.50" MΩ.
+     */
+    private static final byte[] PACKET_A =
+    {
+        0x5b, 0x0d, 0x0f, 0x05, 0x00, 0x00, 0x00, 0x00, 0x00, 0x01, 0x02, 0x08, 0x0f, 0x0d, 0x0f,
+        0x05, 0x0f, 0x05, 0x00, 0x0c, 0x00, 0x00, 0x00, 0x00, 0x05, 0x0b, 0x06, 0x00, 0x00, 0x02,
+        0x00, 0x00, 0x00, 0x00, 0x08, 0x04, 0x00, 0x05, 0x0f, 0x06, 0x0b, 0x00, 0x5d
+    };
+
+    /**
+     * Valid packet: main "  5hrt", sub " 00.001" kΩ.
+     */
+    private static final byte[] PACKET_B =
+    {
+        0x5b, 0x05, 0x0f, 0x0d, 0x0f, 0x05, 0x0f, 0x02, 0x01, 0x00, 0x00, 0x00, 0x00, 0x00, 0x0b,
+        0x06, 0x06, 0x06, 0x00, 0x08, 0x00, 0x00, 0x00, 0x04, 0x02, 0x0e, 0x02, 0x00, 0x00, 0x00,
+        0x00, 0x00, 0x00, 0x00, 0x00, 0x0c, 0x00, 0x05, 0x00, 0x05, 0x0f, 0x02, 0x5d
+    };
+
+    private File directory;
+
+    public ReadingStoreTest()
+    {
+    }
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+    @Before
+    public void setUp() throws IOException
+    {
+        directory = Files.createTempDirectory("protek608").toFile();
+    }
+
+    @After
+    public void tearDown()
+    {
+        for (File file : directory.listFiles())
+        {
+            file.delete();
+        }
+
+        directory.delete();
+    }
+
+    /**
+     * Decodes runs of 10 A packets then 10 B packets, every 500 ms (with jitter) from the start time, into the store.
+     */
+    private static List<Reading> store(ReadingStore store, long start, int count)
+    {
+        final List<Reading> readings = new ArrayList<>();
+        Decoder decoder = new Decoder(new Data());
+        decoder.addReadingListener(store);
+        decoder.addReadingListener(new ReadingListener()
+        {
+            @Override
+            public void readingEvent(Reading reading, int changes)
+            {
+                readings.add(reading);
+            }
+        });
+
+        for (int i = 0; i < count; i ++)
+        {
+            decoder.decodeSerialData(((i / 10) % 2 == 0) ? PACKET_A : PACKET_B, start + (i * 500) + (i % 3));
+        }
+
+        return readings;
+    }
+
+    /**
+     * Queries a value column.
+     */
+    private static List<Double> values(ReadingStore store, Column column, long from, long to) throws IOException
+    {
+        final List<Double> values = new ArrayList<>();
+
+        store.forEachValue(column, from, to, new ReadingStore.ValueVisitor()
+        {
+            @Override
+            public void visit(long timestamp, double value)
+            {
+                values.add(value);
+            }
+        });
+
+        return values;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException
+    {
+        ReadingStore store = new ReadingStore(directory);
+        store.setSegmentDuration(60000);
+        final List<Reading> readings = store(store, 0, 1000); // 500 s, so 9 segments.
+        store.close();
+
+        assertThat(store.getSegments().length, equalTo(9));
+
+        final List<Long> times = new ArrayList<>();
+        final List<Integer> units = new ArrayList<>();
+
+        store.forEachCode(Column.SUB_UNIT, Long.MIN_VALUE, Long.MAX_VALUE, new ReadingStore.CodeVisitor()
+        {
+            @Override
+            public void visit(long timestamp, int code)
+            {
+                times.add(timestamp);
+                units.add(code);
+            }
+        });
+
+        List<Double> main = values(store, Column.MAIN_VALUE, Long.MIN_VALUE, Long.MAX_VALUE);
+        List<Double> sub = values(store, Column.SUB_VALUE, Long.MIN_VALUE, Long.MAX_VALUE);
+
+        assertThat(times.size(), equalTo(1000));
+        assertThat(main.size(), equalTo(1000));
+
+        for (int i = 0; i < 1000; i ++)
+        {
+            Reading reading = readings.get(i);
+
+            assertThat(times.get(i), equalTo(reading.getTimestamp()));
+            assertThat(main.get(i), equalTo(reading.getMainValue().getSiValue()));
+            assertThat(sub.get(i), equalTo(reading.getSubValue().getSiValue()));
+            assertThat(units.get(i), equalTo(reading.getSubValue().getUnitCode()));
+        }
+
+        long size = 0;
+
+        for (File file : directory.listFiles())
+        {
+            size += file.length();
+        }
+
+        assertThat(size, lessThan(1000L * 43 / 8)); // Raw packets would be 43 KB.
+    }
+
+    @Test
+    public void testRange() throws IOException
+    {
+        ReadingStore store = new ReadingStore(directory);
+        store.setSegmentDuration(60000);
+        store(store, 0, 1000);
+
+        // Not flushed yet, and spanning a segment boundary.
+        assertThat(values(store, Column.MAIN_VALUE, 55000, 65000).size(), equalTo(20));
+        assertThat(values(store, Column.MAIN_VALUE, 499000, Long.MAX_VALUE).size(), equalTo(2));
+        assertThat(values(store, Column.MAIN_VALUE, 600000, Long.MAX_VALUE).size(), equalTo(0));
+
+        store.close();
+    }
+
+    @Test
+    public void testQueryWhileStoring() throws IOException, InterruptedException
+    {
+        final ReadingStore store = new ReadingStore(directory);
+        store(store, 0, 100);
+
+        final List<Double> values = new ArrayList<>();
+        final Thread storing = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                store(store, 50000, 10);
+            }
+        });
+
+        store.forEachValue(Column.MAIN_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, new ReadingStore.ValueVisitor()
+        {
+            @Override
+            public void visit(long timestamp, double value)
+            {
+                if (values.isEmpty())
+                {
+                    // Readings are stored while the visitor runs.
+                    storing.start();
+
+                    try
+                    {
+                        storing.join(5000);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+
+                values.add(value);
+            }
+        });
+
+        assertThat(storing.isAlive(), equalTo(false));
+        assertThat(values.size(), equalTo(100));
+
+        // Unwritten Readings are queried from memory, not written first.
+        assertThat(directory.list().length, equalTo(0));
+        assertThat(values(store, Column.MAIN_VALUE, Long.MIN_VALUE, Long.MAX_VALUE).size(), equalTo(110));
+
+        store.close();
+        assertThat(directory.list().length, equalTo(1));
+    }
+
+    @Test
+    public void testReopen() throws IOException
+    {
+        ReadingStore store = new ReadingStore(directory);
+        store(store, 0, 100);
+        store.close();
+
+        store = new ReadingStore(directory);
+        store(store, 50000, 100); // Continues the same hour.
+        store.close();
+
+        assertThat(store.getSegments().length, equalTo(1));
+        assertThat(values(store, Column.MAIN_VALUE, Long.MIN_VALUE, Long.MAX_VALUE).size(), equalTo(200));
+    }
+
+    @Test
+    public void testRetention() throws IOException
+    {
+        ReadingStore store = new ReadingStore(directory);
+        store.setSegmentDuration(60000);
+        store.setMaxSegments(3);
+        store(store, 0, 1000);
+        store.close();
+
+        assertThat(store.getSegments(), equalTo(new long[]
+        {
+            360000, 420000, 480000
+        }));
+
+        store = new ReadingStore(directory);
+        store.setSegmentDuration(60000);
+        store.setMaxAge(60000);
+        store(store, 600000, 1);
+        store.close();
+
+        assertThat(store.getSegments(), equalTo(new long[]
+        {
+            480000, 600000
+        }));
+    }
+
+    @Test
+    public void testColumns() throws IOException
+    {
+        long[] times =
+        {
+            -5, 1000, 2000, 3000, 3001, 3100, 10000, 10000, 1000000000000L, 1000000000500L, 1000000001000L, Long.MIN_VALUE, Long.MAX_VALUE
+        };
+
+        double[] values =
+        {
+            0.0015, 0.0015, 0.0016, -0.0016, Double.NaN, Double.NaN, 1e9, 0, -0.0, Double.MAX_VALUE, Double.MIN_VALUE, 1.5, 1.5
+        };
+
+        int[] codes =
+        {
+            -1, -1, -1, 0, 0x030201, 0x030201, Integer.MIN_VALUE, Integer.MAX_VALUE, 5, 5, 5, 5, -1
+        };
+
+        Columns.TimeEncoder timeEncoder = new Columns.TimeEncoder();
+        Columns.ValueEncoder valueEncoder = new Columns.ValueEncoder();
+        Columns.RunEncoder runEncoder = new Columns.RunEncoder();
+
+        for (int i = 0; i < times.length; i ++)
+        {
+            timeEncoder.add(times[i]);
+            valueEncoder.add(values[i]);
+            runEncoder.add(codes[i]);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(timeEncoder.getLength() + valueEncoder.getLength() + runEncoder.getLength());
+        timeEncoder.copyTo(buffer);
+        valueEncoder.copyTo(buffer);
+        runEncoder.copyTo(buffer);
+        assertThat(buffer.remaining(), equalTo(0));
+
+        Columns.TimeDecoder timeDecoder = new Columns.TimeDecoder(buffer, 0);
+        Columns.ValueDecoder valueDecoder = new Columns.ValueDecoder(buffer, timeEncoder.getLength());
+        Columns.RunDecoder runDecoder = new Columns.RunDecoder(buffer, timeEncoder.getLength() + valueEncoder.getLength());
+
+        for (int i = 0; i < times.length; i ++)
+        {
+            assertThat(timeDecoder.next(), equalTo(times[i]));
+            assertThat(Double.doubleToLongBits(valueDecoder.next()), equalTo(Double.doubleToLongBits(values[i])));
+            assertThat(runDecoder.next(), equalTo(codes[i]));
+        }
+    }
+
+}
@@ -0,0 +1,271 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.protek608.store;
+
+import com.dariancabot.protek608.Aggregate;
+import com.dariancabot.protek608.Data;
+import com.dariancabot.protek608.Decoder;
+import com.dariancabot.protek608.Reading;
+import com.dariancabot.protek608.ReadingListener;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class RollupsTest
+{
+    /**
+     * Valid packet: main " 0.0015" V DC, sub "  10.50" MΩ.
+     */
+    private static final byte[] PACKET_A =
+    {
+        0x5b, 0x0d, 0x0f, 0x05, 0x00, 0x00, 0x00, 0x00, 0x00, 0x01, 0x02, 0x08, 0x0f, 0x0d, 0x0f,
+        0x05, 0x0f, 0x05, 0x00, 0x0c, 0x00, 0x00, 0x00, 0x00, 0x05, 0x0b, 0x06, 0x00, 0x00, 0x02,
+        0x00, 0x00, 0x00, 0x00, 0x08, 0x04, 0x00, 0x05, 0x0f, 0x06, 0x0b, 0x00, 0x5d
+    };
+
+    /**
+     * Valid packet: main "  5hrt", sub " 00.001" kΩ.
+     */
+    private static final byte[] PACKET_B =
+    {
+        0x5b, 0x05, 0x0f, 0x0d, 0x0f, 0x05, 0x0f, 0x02, 0x01, 0x00, 0x00, 0x00, 0x00, 0x00, 0x0b,
+        0x06, 0x06, 0x06, 0x00, 0x08, 0x00, 0x00, 0x00, 0x04, 0x02, 0x0e, 0x02, 0x00, 0x00, 0x00,
+        0x00, 0x00, 0x00, 0x00, 0x00, 0x0c, 0x00, 0x05, 0x00, 0x05, 0x0f, 0x02, 0x5d
+    };
+
+    private File directory;
+    private int unitA;
+
+    public RollupsTest()
+    {
+    }
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+    @Before
+    public void setUp() throws IOException
+    {
+        directory = Files.createTempDirectory("protek608").toFile();
+    }
+
+    @After
+    public void tearDown()
+    {
+        for (File file : directory.listFiles())
+        {
+            file.delete();
+        }
+
+        directory.delete();
+    }
+
+    /**
+     * Decodes packets A, B, A, B... every 500 ms from the start time, so the sub value alternates between 10.5 MΩ and 1 Ω.
+     */
+    private void feed(Rollups rollups, long start, int count)
+    {
+        Decoder decoder = new Decoder(new Data());
+        decoder.addReadingListener(rollups);
+        decoder.addReadingListener(new ReadingListener()
+        {
+            @Override
+            public void readingEvent(Reading reading, int changes)
+            {
+                if (reading.getSequence() == 1)
+                {
+                    unitA = reading.getSubValue().getUnitCode();
+                }
+            }
+        });
+
+        for (int i = 0; i < count; i ++)
+        {
+            decoder.decodeSerialData(((i % 2) == 0) ? PACKET_A : PACKET_B, start + (i * 500));
+        }
+    }
+
+    /**
+     * Runs a query, returning {start, count, minimum, maximum, mean} for each bucket.
+     */
+    private static List<double[]> query(Rollups rollups, long from, long to, long bucketSize, int unitCode) throws IOException
+    {
+        final List<double[]> buckets = new ArrayList<>();
+
+        rollups.query(from, to, bucketSize, unitCode, new Rollups.BucketVisitor()
+        {
+            @Override
+            public void visit(long start, Aggregate aggregate)
+            {
+                buckets.add(new double[]
+                {
+                    start, aggregate.getCount(), aggregate.getMinimum(), aggregate.getMaximum(), aggregate.getMean()
+                });
+            }
+        });
+
+        return buckets;
+    }
+
+    @Test
+    public void testQuery() throws IOException
+    {
+        Rollups rollups = new Rollups(directory, Reading.Channel.SUB);
+        feed(rollups, 0, 7200); // One hour.
+
+        List<double[]> minutes = query(rollups, 0, 3600000, 60000, Rollups.ANY_UNIT);
+
+        assertThat(minutes.size(), equalTo(60));
+        assertThat(minutes.get(59)[0], equalTo(3540000.0));
+
+        for (double[] minute : minutes)
+        {
+            assertThat(minute[1], equalTo(120.0));
+            assertThat(minute[2], equalTo(1.0));
+            assertThat(minute[3], equalTo(10.5e6));
+        }
+
+        // Only 10.5 MΩ, with a range that starts mid-minute.
+        minutes = query(rollups, 90000, 300000, 60000, unitA);
+
+        assertThat(minutes.size(), equalTo(4));
+        assertThat(minutes.get(0)[0], equalTo(60000.0));
+        assertThat(minutes.get(0)[1], equalTo(60.0));
+        assertThat(minutes.get(0)[4], equalTo(10.5e6));
+
+        // The hour is still in progress.
+        List<double[]> hours = query(rollups, 0, Long.MAX_VALUE, 3600000, Rollups.ANY_UNIT);
+
+        assertThat(hours.size(), equalTo(1));
+        assertThat(hours.get(0)[1], equalTo(7200.0));
+
+        // From the 1 second tier.
+        assertThat(query(rollups, 0, 10000, 2000, unitA).get(0)[1], equalTo(2.0));
+
+        rollups.close();
+    }
+
+    @Test
+    public void testQueryWhileRolling() throws IOException
+    {
+        final Rollups rollups = new Rollups(directory, Reading.Channel.SUB);
+        feed(rollups, 0, 240); // Two minutes.
+
+        final Thread rolling = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                feed(rollups, 120000, 120);
+            }
+        });
+
+        final List<Long> counts = new ArrayList<>();
+
+        rollups.query(0, Long.MAX_VALUE, 60000, Rollups.ANY_UNIT, new Rollups.BucketVisitor()
+        {
+            @Override
+            public void visit(long start, Aggregate aggregate)
+            {
+                if (counts.isEmpty())
+                {
+                    // Readings are rolled up while the visitor runs.
+                    rolling.start();
+
+                    try
+                    {
+                        rolling.join(5000);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+
+                counts.add(aggregate.getCount());
+            }
+        });
+
+        // The query sees the buckets as they were when it started.
+        assertThat(rolling.isAlive(), equalTo(false));
+        assertThat(counts, contains(120L, 120L));
+        assertThat(query(rollups, 0, Long.MAX_VALUE, 60000, Rollups.ANY_UNIT).size(), equalTo(3));
+
+        rollups.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBucketSize() throws IOException
+    {
+        try (Rollups rollups = new Rollups(directory, Reading.Channel.SUB))
+        {
+            query(rollups, 0, 10000, 1500, Rollups.ANY_UNIT);
+        }
+    }
+
+    @Test
+    public void testPersistence() throws IOException
+    {
+        Rollups rollups = new Rollups(directory, Reading.Channel.MAIN);
+        feed(rollups, 0, 100); // Main value of packet B isn't numerical, so 50 values.
+        rollups.close();
+
+        assertThat(new File(directory, "main-1s.rollup").length(), equalTo(Rollups.HEADER_SIZE + (50L * Rollups.RECORD_SIZE)));
+
+        rollups = new Rollups(directory, Reading.Channel.MAIN);
+        feed(rollups, 50000, 100); // Continues the same minute.
+
+        List<double[]> minutes = query(rollups, 0, 120000, 60000, Rollups.ANY_UNIT);
+
+        assertThat(minutes.size(), equalTo(2));
+        assertThat(minutes.get(0)[1], equalTo(60.0));
+        assertThat(minutes.get(1)[1], equalTo(40.0));
+        assertThat(minutes.get(0)[4], closeTo(0.0015, 1e-15));
+
+        rollups.close();
+    }
+
+}